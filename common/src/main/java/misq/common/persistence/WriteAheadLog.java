@@ -0,0 +1,472 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.common.persistence;
+
+import com.google.common.annotations.VisibleForTesting;
+import lombok.extern.slf4j.Slf4j;
+import misq.common.ObjectSerializer;
+import misq.common.util.ThreadingUtils;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Log structured persistence of a map. Each mutation is appended as one record to a log instead of writing the whole
+ * map, so the costs of a mutation do not depend on the size of the map.
+ * <p>
+ * Records are written to the log immediately, but synced to disk in batches (group commit): every syncIntervalMs or
+ * as soon as maxUnsyncedRecords are pending. The future returned by append completes once the record is synced, so
+ * a crash of the machine loses at most the records of the last interval.
+ * <p>
+ * Once the log has grown larger than the snapshot it gets compacted in the background: the log is rotated, the map is
+ * written as new snapshot and the rotated log is deleted. Recovery reads the snapshot and replays the rotated log (in
+ * case a compaction did not complete) and the log. Records of mutations after the rotation might be contained in the
+ * new snapshot as well, replaying them again is harmless as long as the records of a key are appended in the order the
+ * map got mutated.
+ * <p>
+ * Keys and values need to be Serializable. The snapshot is written in the format of {@link Persistence}, so maps
+ * persisted with Persistence.write get recovered.
+ * <p>
+ * A record consists of the length (int) and the CRC32 (int) of the data followed by the serialized key and value. The
+ * value is null for removals. A torn or corrupt record at the end of the log, e.g. after a power loss, gets truncated
+ * at recovery.
+ */
+@Slf4j
+public class WriteAheadLog<K, V> {
+    private static final ScheduledExecutorService SYNC_TIMER =
+            ThreadingUtils.getSingleThreadScheduledExecutor("WriteAheadLog.sync");
+    private static final ExecutorService COMPACTION_EXECUTOR =
+            ThreadingUtils.getSingleThreadExecutor("WriteAheadLog.compaction");
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 10 * 1024 * 1024;
+
+    private static final class LogRecord<K, V> implements Serializable {
+        private final K key;
+        @Nullable
+        private final V value;
+
+        private LogRecord(K key, @Nullable V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final Path snapshotPath;
+    private final Path tmpSnapshotPath;
+    private final Path logPath;
+    private final Path rotatedLogPath;
+    private final WriteAheadLogConfig config;
+    private final Supplier<Map<K, V>> mapSupplier;
+    // Held while syncing or rotating, so the channel does not get closed by a rotation while it is synced
+    private final Object syncLock = new Object();
+    private final Object compactionLock = new Object();
+    private final AtomicBoolean isSyncScheduled = new AtomicBoolean();
+    private final AtomicBoolean isCompactionScheduled = new AtomicBoolean();
+    // Following fields are guarded by this
+    @Nullable
+    private FileChannel channel;
+    private List<CompletableFuture<Void>> unsyncedFutures = new ArrayList<>();
+    private long logSize;
+    private long snapshotSize;
+    private boolean isClosed;
+    @Nullable
+    private ScheduledFuture<?> syncTask;
+
+    /**
+     * @param storagePath Path of the snapshot. The log is stored next to it with the suffix .log.
+     * @param mapSupplier Provides the current map for writing a snapshot at compaction.
+     */
+    public WriteAheadLog(String storagePath, WriteAheadLogConfig config, Supplier<Map<K, V>> mapSupplier) {
+        this.config = config;
+        this.mapSupplier = mapSupplier;
+        snapshotPath = Paths.get(storagePath);
+        tmpSnapshotPath = Paths.get(storagePath + ".tmp");
+        logPath = Paths.get(storagePath + ".log");
+        rotatedLogPath = Paths.get(storagePath + ".log.old");
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Reads the snapshot, replays the log and opens the log for appending. Needs to be called once before append.
+     */
+    public ConcurrentHashMap<K, V> recover() throws IOException {
+        ConcurrentHashMap<K, V> map = new ConcurrentHashMap<>();
+        long recoveredSnapshotSize = readSnapshot(map);
+        boolean hasRotatedLog = Files.exists(rotatedLogPath);
+        if (hasRotatedLog) {
+            replay(rotatedLogPath, map);
+        }
+        long validLogSize = Files.exists(logPath) ? replay(logPath, map) : 0;
+        if (hasRotatedLog) {
+            // A compaction has not completed. The recovered map contains all records, so we complete it now.
+            recoveredSnapshotSize = writeSnapshot(map);
+            Files.delete(rotatedLogPath);
+            validLogSize = 0;
+        }
+        synchronized (this) {
+            checkState(channel == null && !isClosed, "recover must be called only once");
+            channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            // Drops a torn record at the end
+            channel.truncate(validLogSize);
+            channel.position(validLogSize);
+            logSize = validLogSize;
+            snapshotSize = recoveredSnapshotSize;
+            syncTask = SYNC_TIMER.scheduleWithFixedDelay(this::sync,
+                    config.getSyncIntervalMs(), config.getSyncIntervalMs(), TimeUnit.MILLISECONDS);
+        }
+        return map;
+    }
+
+    /**
+     * Appends a record to the log. Records of the same key have to be appended in the order the map got mutated.
+     *
+     * @param value The new value or null if the key got removed.
+     * @return Future completed once the record is synced to disk.
+     */
+    public CompletableFuture<Void> append(K key, @Nullable V value) {
+        ByteBuffer buffer;
+        try {
+            buffer = encode(new LogRecord<>(key, value));
+        } catch (RuntimeException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+        return write(buffer, false);
+    }
+
+    /**
+     * Appends the removal records of all keys with one write and syncs them right away, e.g. after a batch of entries
+     * has expired.
+     *
+     * @return Future completed once all records are synced to disk.
+     */
+    public CompletableFuture<Void> removeAll(Collection<K> keys) {
+        ByteBuffer buffer;
+        try {
+            List<ByteBuffer> records = new ArrayList<>();
+            int size = 0;
+            for (K key : keys) {
+                ByteBuffer record = encode(new LogRecord<K, V>(key, null));
+                records.add(record);
+                size += record.limit();
+            }
+            buffer = ByteBuffer.allocate(size);
+            records.forEach(buffer::put);
+            buffer.flip();
+        } catch (RuntimeException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+        return write(buffer, true);
+    }
+
+    /**
+     * Rotates the log, writes the current map as snapshot and deletes the rotated log. Usually called in the
+     * background once the log has grown larger than the snapshot.
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            // If the snapshot of a previous compaction could not be written the rotated log still exists. We must not
+            // overwrite it, but the snapshot we write now covers it as well.
+            if (!Files.exists(rotatedLogPath) && !rotate()) {
+                return;
+            }
+            long size = writeSnapshot(mapSupplier.get());
+            Files.delete(rotatedLogPath);
+            synchronized (this) {
+                snapshotSize = size;
+            }
+        }
+    }
+
+    /**
+     * Syncs pending records and closes the log.
+     */
+    public void shutdown() {
+        List<CompletableFuture<Void>> futures;
+        IOException syncException = null;
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (isClosed) {
+                    return;
+                }
+                isClosed = true;
+                if (syncTask != null) {
+                    syncTask.cancel(false);
+                }
+                futures = unsyncedFutures;
+                unsyncedFutures = new ArrayList<>();
+                if (channel != null) {
+                    try {
+                        channel.force(false);
+                        channel.close();
+                    } catch (IOException exception) {
+                        log.error("Syncing log {} at shutdown failed", logPath, exception);
+                        syncException = exception;
+                    }
+                }
+            }
+        }
+        complete(futures, syncException);
+    }
+
+    /**
+     * Compacts the log in the background independent of its size, e.g. after many entries got removed from the map,
+     * so the snapshot shrinks.
+     */
+    public void requestCompaction() {
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+        }
+        scheduleCompaction();
+    }
+
+    /**
+     * @return Size of the last written snapshot in bytes.
+     */
+    public synchronized long getSnapshotSize() {
+        return snapshotSize;
+    }
+
+    @VisibleForTesting
+    synchronized long getLogSize() {
+        return logSize;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private CompletableFuture<Void> write(ByteBuffer buffer, boolean syncNow) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        int numUnsynced;
+        synchronized (this) {
+            if (channel == null || isClosed) {
+                return CompletableFuture.failedFuture(new ClosedChannelException());
+            }
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException exception) {
+                return CompletableFuture.failedFuture(exception);
+            }
+            logSize += buffer.limit();
+            unsyncedFutures.add(future);
+            numUnsynced = unsyncedFutures.size();
+        }
+        if ((syncNow || numUnsynced >= config.getMaxUnsyncedRecords()) && isSyncScheduled.compareAndSet(false, true)) {
+            SYNC_TIMER.execute(this::sync);
+        }
+        return future;
+    }
+
+    // Runs on the SYNC_TIMER
+    private void sync() {
+        isSyncScheduled.set(false);
+        List<CompletableFuture<Void>> futures;
+        IOException syncException = null;
+        synchronized (syncLock) {
+            FileChannel fileChannel;
+            synchronized (this) {
+                if (unsyncedFutures.isEmpty() || channel == null || isClosed) {
+                    return;
+                }
+                futures = unsyncedFutures;
+                unsyncedFutures = new ArrayList<>();
+                fileChannel = channel;
+            }
+            // Appends continue while we sync
+            try {
+                fileChannel.force(false);
+            } catch (IOException exception) {
+                log.error("Syncing log {} failed", logPath, exception);
+                syncException = exception;
+            }
+        }
+        complete(futures, syncException);
+        maybeScheduleCompaction();
+    }
+
+    private void maybeScheduleCompaction() {
+        synchronized (this) {
+            if (isClosed || logSize < Math.max(config.getMinCompactionLogSize(), snapshotSize)) {
+                return;
+            }
+        }
+        scheduleCompaction();
+    }
+
+    private void scheduleCompaction() {
+        if (isCompactionScheduled.compareAndSet(false, true)) {
+            COMPACTION_EXECUTOR.execute(() -> {
+                boolean isCompacted = false;
+                try {
+                    compact();
+                    isCompacted = true;
+                } catch (IOException exception) {
+                    log.error("Compaction of log {} failed", logPath, exception);
+                } finally {
+                    isCompactionScheduled.set(false);
+                }
+                if (isCompacted) {
+                    // Records appended while we wrote the snapshot might already exceed the new snapshot
+                    maybeScheduleCompaction();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return False if the log is closed.
+     */
+    private boolean rotate() throws IOException {
+        List<CompletableFuture<Void>> futures;
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (channel == null || isClosed) {
+                    return false;
+                }
+                channel.force(false);
+                channel.close();
+                futures = unsyncedFutures;
+                unsyncedFutures = new ArrayList<>();
+                try {
+                    Files.move(logPath, rotatedLogPath, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    // Continues with the old log if the move failed
+                    channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    logSize = channel.size();
+                    channel.position(logSize);
+                }
+            }
+        }
+        complete(futures, null);
+        return true;
+    }
+
+    private long readSnapshot(Map<K, V> map) throws IOException {
+        if (!Files.exists(snapshotPath)) {
+            return 0;
+        }
+        Serializable serializable = Persistence.read(snapshotPath.toString());
+        if (serializable instanceof Map) {
+            //noinspection unchecked
+            map.putAll((Map<K, V>) serializable);
+        } else {
+            log.warn("Snapshot {} could not be read", snapshotPath);
+        }
+        return Files.size(snapshotPath);
+    }
+
+    // The snapshot is replaced atomically, so a crash while writing leaves the previous snapshot in place
+    private long writeSnapshot(Map<K, V> map) throws IOException {
+        try (FileOutputStream fileOutputStream = new FileOutputStream(tmpSnapshotPath.toFile());
+             ObjectOutputStream objectOutputStream = new ObjectOutputStream(new BufferedOutputStream(fileOutputStream))) {
+            objectOutputStream.writeObject(new ConcurrentHashMap<>(map));
+            objectOutputStream.flush();
+            fileOutputStream.getFD().sync();
+        }
+        Files.move(tmpSnapshotPath, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return Files.size(snapshotPath);
+    }
+
+    /**
+     * @return Size of the valid records. Records after a torn or corrupt record are dropped.
+     */
+    private long replay(Path path, Map<K, V> map) throws IOException {
+        long fileSize = Files.size(path);
+        long validSize = 0;
+        int numRecords = 0;
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (validSize < fileSize) {
+                int length = inputStream.readInt();
+                int checksum = inputStream.readInt();
+                if (length < 0 || length > MAX_RECORD_SIZE) {
+                    throw new InvalidObjectException("Invalid record length " + length);
+                }
+                byte[] data = new byte[length];
+                inputStream.readFully(data);
+                if (getChecksum(data) != checksum) {
+                    throw new InvalidObjectException("Invalid checksum");
+                }
+                //noinspection unchecked
+                LogRecord<K, V> record = (LogRecord<K, V>) ObjectSerializer.deserialize(data);
+                if (record.value != null) {
+                    map.put(record.key, record.value);
+                } else {
+                    map.remove(record.key);
+                }
+                validSize += RECORD_HEADER_SIZE + length;
+                numRecords++;
+            }
+        } catch (EOFException | InvalidObjectException | RuntimeException exception) {
+            log.warn("Log {} has a torn or corrupt record at position {}. We drop the remaining {} bytes. {}",
+                    path, validSize, fileSize - validSize, exception.toString());
+        }
+        log.info("Replayed {} records from {}", numRecords, path);
+        return validSize;
+    }
+
+    private static ByteBuffer encode(LogRecord<?, ?> record) {
+        byte[] data = ObjectSerializer.serialize(record);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + data.length);
+        buffer.putInt(data.length);
+        buffer.putInt(getChecksum(data));
+        buffer.put(data);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int getChecksum(byte[] data) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, data.length);
+        return (int) crc32.getValue();
+    }
+
+    private static void complete(List<CompletableFuture<Void>> futures, @Nullable IOException exception) {
+        if (exception == null) {
+            futures.forEach(future -> future.complete(null));
+        } else {
+            futures.forEach(future -> future.completeExceptionally(exception));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.common.persistence;
+
+import lombok.Getter;
+
+/**
+ * Group commit and compaction settings of a {@link WriteAheadLog}.
+ */
+@Getter
+public class WriteAheadLogConfig {
+    // Max. time a record stays in the page cache before it is synced to disk
+    private final long syncIntervalMs;
+    // Number of records after which a sync is triggered before the interval has passed
+    private final int maxUnsyncedRecords;
+    // The log gets compacted once it is larger than the snapshot, but not before it reaches that size
+    private final long minCompactionLogSize;
+
+    public WriteAheadLogConfig() {
+        this(100, 1000, 1024 * 1024);
+    }
+
+    public WriteAheadLogConfig(long syncIntervalMs, int maxUnsyncedRecords, long minCompactionLogSize) {
+        this.syncIntervalMs = syncIntervalMs;
+        this.maxUnsyncedRecords = maxUnsyncedRecords;
+        this.minCompactionLogSize = minCompactionLogSize;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.common.timer;
+
+import java.util.*;
+
+/**
+ * Hierarchical timing wheel for expiring keys at a given time in O(1), independent of the number of scheduled keys.
+ * <p>
+ * The lowest wheel has wheelSize buckets of tickMs each. Keys expiring beyond the range of a wheel are put into an
+ * overflow wheel with a tick of the range of the wheel below, so a few levels cover any expiration time. Only
+ * buckets containing keys are put into a priority queue ordered by their expiration, so advancing the time does not
+ * iterate over empty buckets. When a bucket of a higher level expires its keys are moved to the lower levels, until
+ * they end up in a bucket of the lowest wheel. Keys expire with a precision of tickMs.
+ * <p>
+ * Not driven by a timer itself: the owner calls advance with the current time, e.g. periodically every tickMs, and
+ * gets the keys expired since the last call. Methods are synchronized.
+ */
+public class HierarchicalTimingWheel<K> {
+    private static final class Entry<K> {
+        private final K key;
+        private final long expiration;
+        private Bucket<K> bucket;
+        private Entry<K> previous;
+        private Entry<K> next;
+
+        private Entry(K key, long expiration) {
+            this.key = key;
+            this.expiration = expiration;
+        }
+    }
+
+    // Doubly linked list, so an entry gets removed in O(1) if it gets rescheduled or cancelled
+    private static final class Bucket<K> {
+        private final Entry<K> head = new Entry<>(null, -1);
+        // -1 if the bucket is not in the queue
+        private long expiration = -1;
+
+        private Bucket() {
+            head.previous = head;
+            head.next = head;
+        }
+
+        private void add(Entry<K> entry) {
+            entry.bucket = this;
+            entry.previous = head.previous;
+            entry.next = head;
+            head.previous.next = entry;
+            head.previous = entry;
+        }
+
+        private void remove(Entry<K> entry) {
+            entry.previous.next = entry.next;
+            entry.next.previous = entry.previous;
+            entry.bucket = null;
+            entry.previous = null;
+            entry.next = null;
+        }
+
+        private List<Entry<K>> flush() {
+            List<Entry<K>> entries = new ArrayList<>();
+            while (head.next != head) {
+                Entry<K> entry = head.next;
+                remove(entry);
+                entries.add(entry);
+            }
+            expiration = -1;
+            return entries;
+        }
+
+        // Returns true if the bucket has to be put into the queue
+        private boolean setExpiration(long expiration) {
+            if (this.expiration == expiration) {
+                return false;
+            }
+            this.expiration = expiration;
+            return true;
+        }
+    }
+
+    private static final class Wheel<K> {
+        private final long tickMs;
+        private final int wheelSize;
+        private final long interval;
+        private final Bucket<K>[] buckets;
+        private long currentTime;
+        private Wheel<K> overflowWheel;
+
+        @SuppressWarnings("unchecked")
+        private Wheel(long tickMs, int wheelSize, long startMs) {
+            this.tickMs = tickMs;
+            this.wheelSize = wheelSize;
+            // The top level covers all remaining expiration times
+            interval = tickMs > Long.MAX_VALUE / wheelSize ? Long.MAX_VALUE : tickMs * wheelSize;
+            buckets = new Bucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                buckets[i] = new Bucket<>();
+            }
+            currentTime = startMs - startMs % tickMs;
+        }
+
+        // Returns false if the entry has expired already
+        private boolean add(Entry<K> entry, Queue<Bucket<K>> queue) {
+            long delay = entry.expiration - currentTime;
+            if (delay < tickMs) {
+                return false;
+            }
+            if (delay < interval) {
+                long virtualId = entry.expiration / tickMs;
+                Bucket<K> bucket = buckets[(int) (virtualId % wheelSize)];
+                bucket.add(entry);
+                if (bucket.setExpiration(virtualId * tickMs)) {
+                    queue.add(bucket);
+                }
+                return true;
+            }
+            if (overflowWheel == null) {
+                overflowWheel = new Wheel<>(interval, wheelSize, currentTime);
+            }
+            return overflowWheel.add(entry, queue);
+        }
+
+        private void advanceClock(long time) {
+            if (time - currentTime >= tickMs) {
+                currentTime = time - time % tickMs;
+                if (overflowWheel != null) {
+                    overflowWheel.advanceClock(currentTime);
+                }
+            }
+        }
+    }
+
+    private final Wheel<K> wheel;
+    private final Queue<Bucket<K>> queue = new PriorityQueue<>(Comparator.comparingLong(bucket -> bucket.expiration));
+    private final Map<K, Entry<K>> entryByKey = new HashMap<>();
+    // Keys which were expired already when they got scheduled
+    private final Set<K> expiredKeys = new LinkedHashSet<>();
+
+    public HierarchicalTimingWheel(long tickMs, int wheelSize, long startMs) {
+        if (tickMs <= 0 || wheelSize <= 1 || startMs < 0) {
+            throw new IllegalArgumentException("Invalid arguments: tickMs=" + tickMs + ", wheelSize=" + wheelSize +
+                    ", startMs=" + startMs);
+        }
+        wheel = new Wheel<>(tickMs, wheelSize, startMs);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Schedules the expiry of the key, replacing a previous schedule of it. A key with an expiration before the
+     * current tick is returned at the next call of advance.
+     */
+    public synchronized void schedule(K key, long expiration) {
+        cancel(key);
+        Entry<K> entry = new Entry<>(key, expiration);
+        if (wheel.add(entry, queue)) {
+            entryByKey.put(key, entry);
+        } else {
+            expiredKeys.add(key);
+        }
+    }
+
+    /**
+     * @return true if the key was scheduled.
+     */
+    public synchronized boolean cancel(K key) {
+        Entry<K> entry = entryByKey.remove(key);
+        if (entry != null) {
+            entry.bucket.remove(entry);
+            return true;
+        }
+        return expiredKeys.remove(key);
+    }
+
+    /**
+     * Advances the time of the wheel.
+     *
+     * @return Keys expired until now, in the order of their expiration ticks.
+     */
+    public synchronized List<K> advance(long now) {
+        Bucket<K> bucket;
+        while ((bucket = queue.peek()) != null && bucket.expiration <= now) {
+            queue.poll();
+            wheel.advanceClock(bucket.expiration);
+            for (Entry<K> entry : bucket.flush()) {
+                // Entries of higher levels move to a lower level, the ones of the lowest level have expired
+                if (!wheel.add(entry, queue)) {
+                    entryByKey.remove(entry.key);
+                    expiredKeys.add(entry.key);
+                }
+            }
+        }
+        List<K> expired = new ArrayList<>(expiredKeys);
+        expiredKeys.clear();
+        return expired;
+    }
+
+    public synchronized int size() {
+        return entryByKey.size() + expiredKeys.size();
+    }
+}
@@ -20,9 +20,16 @@ package misq.common.util;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import java.util.Optional;
 import java.util.concurrent.*;
 
 public class ThreadingUtils {
+    // Virtual threads are looked up by reflection as we still compile against Java 10
+    private static final Optional<ThreadFactory> VIRTUAL_THREAD_FACTORY = findVirtualThreadFactory();
+
+    public static boolean isVirtualThreadSupported() {
+        return VIRTUAL_THREAD_FACTORY.isPresent();
+    }
 
     public static void shutdownAndAwaitTermination(ExecutorService executor) {
         MoreExecutors.shutdownAndAwaitTermination(executor, 10, TimeUnit.MILLISECONDS);
@@ -48,6 +55,71 @@ public class ThreadingUtils {
         return Executors.newSingleThreadExecutor(threadFactory);
     }
 
+    /**
+     * Single thread scheduled executor on a platform daemon thread. Cancelled tasks are removed from the queue
+     * immediately, so it is suited for timeouts which usually get cancelled.
+     */
+    public static ScheduledThreadPoolExecutor getSingleThreadScheduledExecutor(String name) {
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat(name)
+                .setDaemon(true)
+                .build();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Single thread executor running on a virtual thread if useVirtualThread is set and the JVM supports virtual
+     * threads. Otherwise a platform daemon thread is used.
+     */
+    public static ExecutorService getSingleThreadExecutor(String name, boolean useVirtualThread) {
+        if (useVirtualThread && VIRTUAL_THREAD_FACTORY.isPresent()) {
+            ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                    .setNameFormat(name)
+                    .setThreadFactory(VIRTUAL_THREAD_FACTORY.get())
+                    .build();
+            return Executors.newSingleThreadExecutor(threadFactory);
+        }
+        return getSingleThreadExecutor(name);
+    }
+
+    /**
+     * Executor starting a new virtual thread per task if the JVM supports virtual threads. Otherwise a cached pool
+     * of platform daemon threads is used.
+     */
+    public static ExecutorService getVirtualThreadPerTaskExecutor(String name) {
+        if (VIRTUAL_THREAD_FACTORY.isPresent()) {
+            ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                    .setNameFormat(name + "-%d")
+                    .setThreadFactory(VIRTUAL_THREAD_FACTORY.get())
+                    .build();
+            try {
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, threadFactory);
+            } catch (Exception | LinkageError ignore) {
+                // Added with virtual threads, so this is not expected. We fall back to the cached thread pool.
+            }
+        }
+        return getCachedThreadPool(name);
+    }
+
+    public static ExecutorService getCachedThreadPool(String name) {
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat(name + "-%d")
+                .setDaemon(true)
+                .build();
+        return Executors.newCachedThreadPool(threadFactory);
+    }
+
+    public static ExecutorService getFixedThreadPool(String name, int numThreads) {
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat(name + "-%d")
+                .setDaemon(true)
+                .build();
+        return Executors.newFixedThreadPool(numThreads, threadFactory);
+    }
+
     private static ThreadPoolExecutor getThreadPoolExecutor(String name,
                                                             int corePoolSize,
                                                             int maximumPoolSize,
@@ -62,4 +134,15 @@ public class ThreadingUtils {
         executor.allowCoreThreadTimeOut(true);
         return executor;
     }
+
+    private static Optional<ThreadFactory> findVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            return Optional.of((ThreadFactory) builderClass.getMethod("factory").invoke(builder));
+        } catch (Exception | LinkageError e) {
+            // Not available before Java 21 (or 19 with --enable-preview)
+            return Optional.empty();
+        }
+    }
 }
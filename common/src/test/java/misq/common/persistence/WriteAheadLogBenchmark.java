@@ -0,0 +1,93 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.common.persistence;
+
+import misq.common.util.FileUtils;
+import misq.common.util.OsUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares the mutation throughput of writing the whole map with {@link Persistence} at each mutation with appending
+ * to a {@link WriteAheadLog}, for maps with 1k, 10k and 100k entries of 200 bytes.
+ * <p>
+ * Persistence is measured for up to MAX_PERSISTENCE_MUTATIONS mutations or 10 seconds, as a single write of the large
+ * map takes long. The measurement of the write ahead log includes waiting until the last record is synced, as well as
+ * the compactions triggered by the mutations.
+ */
+public class WriteAheadLogBenchmark {
+    private static final int[] MAP_SIZES = {1_000, 10_000, 100_000};
+    private static final int MAX_PERSISTENCE_MUTATIONS = 200;
+    private static final long MAX_PERSISTENCE_DURATION_MS = 10_000;
+    private static final int WAL_MUTATIONS = 50_000;
+    private static final int VALUE_SIZE = 200;
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(OsUtils.getUserDataDir(), "misq_WriteAheadLogBenchmark");
+        Random random = new Random(1);
+        for (int mapSize : MAP_SIZES) {
+            FileUtils.deleteDirectory(dir);
+            FileUtils.makeDirs(dir);
+            ConcurrentHashMap<String, byte[]> map = new ConcurrentHashMap<>();
+            for (int i = 0; i < mapSize; i++) {
+                map.put("key" + i, createValue(random));
+            }
+
+            String persistencePath = dir.getAbsolutePath() + File.separator + "Persistence";
+            int numMutations = 0;
+            long ts = System.nanoTime();
+            while (numMutations < MAX_PERSISTENCE_MUTATIONS &&
+                    System.nanoTime() - ts < MAX_PERSISTENCE_DURATION_MS * 1_000_000) {
+                map.put("key" + random.nextInt(mapSize), createValue(random));
+                Persistence.write(map, persistencePath);
+                numMutations++;
+            }
+            double persistenceRate = numMutations / ((System.nanoTime() - ts) / 1e9);
+
+            String walPath = dir.getAbsolutePath() + File.separator + "WriteAheadLog";
+            Persistence.write(map, walPath);
+            WriteAheadLog<String, byte[]> writeAheadLog = new WriteAheadLog<>(walPath, new WriteAheadLogConfig(), () -> map);
+            writeAheadLog.recover();
+            CompletableFuture<Void> lastFuture = null;
+            ts = System.nanoTime();
+            for (int i = 0; i < WAL_MUTATIONS; i++) {
+                String key = "key" + random.nextInt(mapSize);
+                byte[] value = createValue(random);
+                map.put(key, value);
+                lastFuture = writeAheadLog.append(key, value);
+            }
+            lastFuture.join();
+            double walRate = WAL_MUTATIONS / ((System.nanoTime() - ts) / 1e9);
+            writeAheadLog.shutdown();
+
+            System.out.printf("entries=%d: persistence %.0f mutations/s, write ahead log %.0f mutations/s (x%.0f)%n",
+                    mapSize, persistenceRate, walRate, walRate / persistenceRate);
+        }
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private static byte[] createValue(Random random) {
+        byte[] value = new byte[VALUE_SIZE];
+        random.nextBytes(value);
+        return value;
+    }
+}
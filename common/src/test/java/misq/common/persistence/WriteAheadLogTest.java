@@ -0,0 +1,149 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.common.persistence;
+
+import misq.common.util.FileUtils;
+import misq.common.util.OsUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WriteAheadLogTest {
+    private File dir;
+    private String storagePath;
+    private WriteAheadLog<String, Integer> writeAheadLog;
+    private ConcurrentHashMap<String, Integer> map;
+
+    @Before
+    public void setup() throws IOException {
+        dir = new File(OsUtils.getUserDataDir(), "misq_WriteAheadLogTest");
+        FileUtils.deleteDirectory(dir);
+        FileUtils.makeDirs(dir);
+        storagePath = dir.getAbsolutePath() + File.separator + "MockStore";
+    }
+
+    @After
+    public void tearDown() {
+        if (writeAheadLog != null) {
+            writeAheadLog.shutdown();
+        }
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        open(new WriteAheadLogConfig());
+        assertTrue(map.isEmpty());
+        for (int i = 0; i < 100; i++) {
+            put("key" + i, i);
+        }
+        put("key1", 101);
+        remove("key2");
+        // Completes with the next group commit
+        put("key3", 103).get(10, TimeUnit.SECONDS);
+
+        Map<String, Integer> expected = Map.copyOf(map);
+        writeAheadLog.shutdown();
+        open(new WriteAheadLogConfig());
+        assertEquals(expected, map);
+        assertEquals(101, (int) map.get("key1"));
+        assertFalse(map.containsKey("key2"));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        open(new WriteAheadLogConfig(10, 1000, 1000));
+        for (int i = 0; i < 100; i++) {
+            put("key" + i, i);
+        }
+        put("key99", 199).get(10, TimeUnit.SECONDS);
+        // The log exceeds 1000 bytes, so it gets compacted after a sync until it is smaller than the snapshot
+        File snapshot = new File(storagePath);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!snapshot.exists() ||
+                new File(storagePath + ".log.old").exists() ||
+                writeAheadLog.getLogSize() >= Math.max(1000, snapshot.length())) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        put("key100", 100);
+        Map<String, Integer> expected = Map.copyOf(map);
+        writeAheadLog.shutdown();
+        open(new WriteAheadLogConfig());
+        assertEquals(expected, map);
+        assertEquals(101, map.size());
+    }
+
+    @Test
+    public void testTornRecordGetsTruncated() throws Exception {
+        open(new WriteAheadLogConfig());
+        put("key1", 1);
+        put("key2", 2);
+        writeAheadLog.shutdown();
+        long validSize = new File(storagePath + ".log").length();
+        try (FileOutputStream outputStream = new FileOutputStream(storagePath + ".log", true)) {
+            // Length and checksum of a record which has not been written completely
+            outputStream.write(new byte[]{0, 0, 1, 0, 1, 2, 3, 4, 5});
+        }
+
+        open(new WriteAheadLogConfig());
+        assertEquals(Map.of("key1", 1, "key2", 2), map);
+        assertEquals(validSize, writeAheadLog.getLogSize());
+        put("key3", 3);
+        writeAheadLog.shutdown();
+        open(new WriteAheadLogConfig());
+        assertEquals(Map.of("key1", 1, "key2", 2, "key3", 3), map);
+    }
+
+    @Test
+    public void testSnapshotOfPersistenceIsRecovered() throws Exception {
+        ConcurrentHashMap<String, Integer> persisted = new ConcurrentHashMap<>(Map.of("key1", 1));
+        Persistence.write(persisted, storagePath);
+
+        open(new WriteAheadLogConfig());
+        assertEquals(persisted, map);
+    }
+
+    private void open(WriteAheadLogConfig config) throws IOException {
+        ConcurrentHashMap<String, Integer> recovered = new ConcurrentHashMap<>();
+        writeAheadLog = new WriteAheadLog<>(storagePath, config, () -> recovered);
+        recovered.putAll(writeAheadLog.recover());
+        map = recovered;
+    }
+
+    private CompletableFuture<Void> put(String key, int value) {
+        map.put(key, value);
+        return writeAheadLog.append(key, value);
+    }
+
+    private void remove(String key) {
+        map.remove(key);
+        writeAheadLog.append(key, null);
+    }
+}
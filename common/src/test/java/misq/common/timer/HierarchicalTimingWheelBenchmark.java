@@ -0,0 +1,78 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.common.timer;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares expiring NUM_KEYS keys with expirations spread over 10 days with a {@link HierarchicalTimingWheel} and
+ * with a full scan of the map at each tick, for the first SIMULATED_TICKS ticks of 1 sec.
+ */
+public class HierarchicalTimingWheelBenchmark {
+    private static final int NUM_KEYS = 1_000_000;
+    private static final long TICK_MS = 1000;
+    private static final long MAX_TTL = 10 * 24 * 3600 * 1000L;
+    private static final int SIMULATED_TICKS = 3600;
+    private static final int SCANNED_TICKS = 20;
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        long start = 1_000_000_000_000L;
+        Map<Integer, Long> expirationByKey = new HashMap<>();
+        for (int i = 0; i < NUM_KEYS; i++) {
+            expirationByKey.put(i, start + (long) (random.nextDouble() * MAX_TTL));
+        }
+
+        HierarchicalTimingWheel<Integer> timingWheel = new HierarchicalTimingWheel<>(TICK_MS, 64, start);
+        long ts = System.nanoTime();
+        expirationByKey.forEach(timingWheel::schedule);
+        long scheduleTime = System.nanoTime() - ts;
+
+        ts = System.nanoTime();
+        int numExpired = 0;
+        for (int tick = 1; tick <= SIMULATED_TICKS; tick++) {
+            numExpired += timingWheel.advance(start + tick * TICK_MS).size();
+        }
+        long wheelTime = System.nanoTime() - ts;
+
+        // A full scan costs about the same at each tick, so we only measure a few
+        Map<Integer, Long> scannedMap = new HashMap<>(expirationByKey);
+        ts = System.nanoTime();
+        int numScanExpired = 0;
+        for (int tick = 1; tick <= SCANNED_TICKS; tick++) {
+            long now = start + tick * TICK_MS;
+            Iterator<Long> iterator = scannedMap.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next() <= now) {
+                    iterator.remove();
+                    numScanExpired++;
+                }
+            }
+        }
+        long scanTimePerTick = (System.nanoTime() - ts) / SCANNED_TICKS;
+
+        System.out.printf("Scheduling %d keys: %d ns per key%n", NUM_KEYS, scheduleTime / NUM_KEYS);
+        System.out.printf("Timing wheel: %d ticks, %d keys expired, %.1f us per tick%n",
+                SIMULATED_TICKS, numExpired, wheelTime / 1000d / SIMULATED_TICKS);
+        System.out.printf("Full scan: %d ticks, %d keys expired, %.1f us per tick%n",
+                SCANNED_TICKS, numScanExpired, scanTimePerTick / 1000d);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.common.timer;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class HierarchicalTimingWheelTest {
+    @Test
+    public void testKeysExpireAtTheirTick() {
+        // Levels of 10 ms, 100 ms, 1 sec, ...
+        HierarchicalTimingWheel<String> timingWheel = new HierarchicalTimingWheel<>(10, 10, 1000);
+        timingWheel.schedule("a", 1025);
+        timingWheel.schedule("b", 1500);
+        timingWheel.schedule("c", 1_000_000);
+        timingWheel.schedule("expired", 900);
+        assertEquals(4, timingWheel.size());
+
+        assertEquals(List.of("expired"), timingWheel.advance(1000));
+        assertEquals(List.of(), timingWheel.advance(1019));
+        assertEquals(List.of("a"), timingWheel.advance(1020));
+        assertEquals(List.of(), timingWheel.advance(1499));
+        assertEquals(List.of("b"), timingWheel.advance(1500));
+        assertEquals(List.of(), timingWheel.advance(999_999));
+        assertEquals(List.of("c"), timingWheel.advance(1_000_000));
+        assertEquals(0, timingWheel.size());
+    }
+
+    @Test
+    public void testRescheduleAndCancel() {
+        HierarchicalTimingWheel<String> timingWheel = new HierarchicalTimingWheel<>(10, 10, 0);
+        timingWheel.schedule("a", 50);
+        timingWheel.schedule("b", 50);
+        timingWheel.schedule("a", 5000);
+        assertTrue(timingWheel.cancel("b"));
+        assertFalse(timingWheel.cancel("b"));
+        assertEquals(List.of(), timingWheel.advance(100));
+        assertEquals(List.of("a"), timingWheel.advance(5000));
+    }
+
+    @Test
+    public void testRandomExpirations() {
+        Random random = new Random(1);
+        long start = 1_000_000;
+        HierarchicalTimingWheel<Integer> timingWheel = new HierarchicalTimingWheel<>(100, 64, start);
+        Map<Integer, Long> expirationByKey = new HashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            long expiration = start + (long) (random.nextDouble() * 100_000_000L);
+            expirationByKey.put(i, expiration);
+            timingWheel.schedule(i, expiration);
+        }
+
+        long now = start;
+        Set<Integer> expired = new HashSet<>();
+        while (expired.size() < expirationByKey.size()) {
+            now += random.nextInt(1_000_000);
+            for (int key : timingWheel.advance(now)) {
+                long expiration = expirationByKey.get(key);
+                // Expired within its tick, not after it
+                assertTrue(expiration < now + 100);
+                assertTrue(expired.add(key));
+            }
+            long current = now;
+            expirationByKey.forEach((key, expiration) -> {
+                if (expiration < current - current % 100) {
+                    assertTrue(expired.contains(key));
+                }
+            });
+        }
+        assertEquals(0, timingWheel.size());
+    }
+}
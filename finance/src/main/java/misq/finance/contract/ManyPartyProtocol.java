@@ -1,16 +1,26 @@
 package misq.finance.contract;
 
 import misq.finance.Role;
+import misq.p2p.NetworkId;
 import misq.p2p.P2pService;
-import misq.p2p.node.MessageListener;
 
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
-public abstract class ManyPartyProtocol extends Protocol implements MessageListener {
+public abstract class ManyPartyProtocol extends Protocol {
     protected final Map<Role, Party> partyMap;
 
     public ManyPartyProtocol(ManyPartyContract contract, P2pService p2pService) {
         super(contract, p2pService);
         partyMap = contract.getPartyMap();
     }
+
+    @Override
+    protected Set<NetworkId> getCounterPartyNetworkIds() {
+        return partyMap.entrySet().stream()
+                .filter(e -> e.getKey() != contract.getMyRole())
+                .map(e -> e.getValue().getMakerNetworkId())
+                .collect(Collectors.toSet());
+    }
 }
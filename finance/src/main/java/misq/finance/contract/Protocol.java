@@ -18,17 +18,20 @@
 package misq.finance.contract;
 
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import misq.p2p.NetworkId;
 import misq.p2p.P2pService;
-import misq.p2p.node.MessageListener;
 
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Defines the protocol for executing a contract.
  */
-public abstract class Protocol implements MessageListener {
+@Slf4j
+public abstract class Protocol {
     public interface Listener {
         void onStateChange(State state);
     }
@@ -40,6 +43,7 @@ public abstract class Protocol implements MessageListener {
     protected final Contract contract;
     protected final P2pService p2pService;
     protected final Set<Listener> listeners = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean isCompleted = new AtomicBoolean();
 
     public Protocol(Contract contract, P2pService p2pService) {
         this.contract = contract;
@@ -48,6 +52,18 @@ public abstract class Protocol implements MessageListener {
 
     public abstract CompletableFuture<Boolean> start();
 
+    /**
+     * @return The network ids of the parties we interact with in that protocol.
+     */
+    protected abstract Set<NetworkId> getCounterPartyNetworkIds();
+
+    /**
+     * Ends the protocol before it has completed, e.g. if the user cancels it.
+     */
+    public void abort() {
+        onCompleted();
+    }
+
     public Protocol addListener(Listener listener) {
         listeners.add(listener);
         return this;
@@ -56,4 +72,31 @@ public abstract class Protocol implements MessageListener {
     protected void setState(State state) {
         listeners.forEach(e -> e.onStateChange(state));
     }
+
+    /**
+     * Keeps the connections to our counterparties open while the protocol is running, so they do not get closed
+     * for being idle or for exceeding the connection limit.
+     */
+    protected void onStarted() {
+        getCounterPartyNetworkIds().forEach(p2pService::addProtectedPeer);
+    }
+
+    /**
+     * Called at the end of the protocol, also if it has failed or got aborted. Only the first call has an effect.
+     */
+    protected void onCompleted() {
+        if (isCompleted.compareAndSet(false, true)) {
+            getCounterPartyNetworkIds().forEach(p2pService::removeProtectedPeer);
+        }
+    }
+
+    /**
+     * Ends the protocol if a step has failed, as we will not get the next message of the counterparty then.
+     */
+    protected void completeIfFailed(Throwable throwable) {
+        if (throwable != null) {
+            log.warn("Protocol failed", throwable);
+            onCompleted();
+        }
+    }
 }
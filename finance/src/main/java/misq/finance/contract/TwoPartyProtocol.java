@@ -17,14 +17,21 @@
 
 package misq.finance.contract;
 
+import misq.p2p.NetworkId;
 import misq.p2p.P2pService;
-import misq.p2p.node.MessageListener;
 
-public abstract class TwoPartyProtocol extends Protocol implements MessageListener {
+import java.util.Set;
+
+public abstract class TwoPartyProtocol extends Protocol {
     protected final Party counterParty;
 
     public TwoPartyProtocol(TwoPartyContract contract, P2pService p2pService) {
         super(contract, p2pService);
         counterParty = contract.getCounterParty();
     }
+
+    @Override
+    protected Set<NetworkId> getCounterPartyNetworkIds() {
+        return Set.of(counterParty.getMakerNetworkId());
+    }
 }
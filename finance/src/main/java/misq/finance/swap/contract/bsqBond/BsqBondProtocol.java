@@ -19,7 +19,6 @@ package misq.finance.swap.contract.bsqBond;
 
 import misq.finance.contract.*;
 import misq.p2p.P2pService;
-import misq.p2p.node.MessageListener;
 
 /**
  * Mock protocol for simulating a BSQ bond based protocol.
@@ -36,7 +35,7 @@ import misq.p2p.node.MessageListener;
  *   <li value="5">After Taker has received Maker's funds he sends his funds. He has completed now.
  * </ol>
  */
-public abstract class BsqBondProtocol extends TwoPartyProtocol implements MessageListener {
+public abstract class BsqBondProtocol extends TwoPartyProtocol {
 
     public enum State implements Protocol.State {
         START,
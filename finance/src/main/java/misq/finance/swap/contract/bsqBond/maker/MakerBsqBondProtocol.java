@@ -26,48 +26,66 @@ import misq.finance.swap.contract.bsqBond.BsqBondProtocol;
 import misq.finance.swap.contract.bsqBond.taker.TakerCommitmentMessage;
 import misq.finance.swap.contract.bsqBond.taker.TakerFundsSentMessage;
 import misq.p2p.P2pService;
-import misq.p2p.message.Message;
 import misq.p2p.node.Connection;
+import misq.p2p.node.MessageDispatcher;
 
 import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 public class MakerBsqBondProtocol extends BsqBondProtocol {
+    private final MessageDispatcher.MessageHandler<TakerCommitmentMessage> takerCommitmentMessageHandler;
+    private final MessageDispatcher.MessageHandler<TakerFundsSentMessage> takerFundsSentMessageHandler;
+
     public MakerBsqBondProtocol(TwoPartyContract contract, P2pService p2pService) {
         super(contract, p2pService, new AssetTransfer.Automatic(), new BsqBond());
+        takerCommitmentMessageHandler = this::onTakerCommitmentMessage;
+        takerFundsSentMessageHandler = this::onTakerFundsSentMessage;
     }
 
-    @Override
-    public void onMessage(Message message, Connection connection) {
-        if (message instanceof TakerCommitmentMessage) {
-            TakerCommitmentMessage bondCommitmentMessage = (TakerCommitmentMessage) message;
-            security.verifyBondCommitmentMessage(bondCommitmentMessage)
-                    .whenComplete((success, t) -> setState(State.COMMITMENT_RECEIVED))
-                    .thenCompose(isValid -> transport.sendFunds(contract))
-                    .thenCompose(isSent -> p2pService.confidentialSend(new MakerFundsSentMessage(),
-                            counterParty.getMakerNetworkId(),
-                            null))
-                    .whenComplete((connection1, t) -> setState(State.FUNDS_SENT));
-        }
-        if (message instanceof TakerFundsSentMessage) {
-            TakerFundsSentMessage fundsSentMessage = (TakerFundsSentMessage) message;
-            security.verifyFundsSentMessage(fundsSentMessage)
-                    .whenComplete((isValid, t) -> {
-                        if (isValid) {
-                            setState(State.FUNDS_RECEIVED);
-                        }
-                    });
-        }
+    private void onTakerCommitmentMessage(TakerCommitmentMessage bondCommitmentMessage, Connection connection) {
+        security.verifyBondCommitmentMessage(bondCommitmentMessage)
+                .whenComplete((success, t) -> setState(State.COMMITMENT_RECEIVED))
+                .thenCompose(isValid -> transport.sendFunds(contract))
+                .thenCompose(isSent -> p2pService.confidentialSend(new MakerFundsSentMessage(),
+                        counterParty.getMakerNetworkId(),
+                        null))
+                .whenComplete((connection1, t) -> {
+                    setState(State.FUNDS_SENT);
+                    completeIfFailed(t);
+                });
+    }
+
+    private void onTakerFundsSentMessage(TakerFundsSentMessage fundsSentMessage, Connection connection) {
+        security.verifyFundsSentMessage(fundsSentMessage)
+                .whenComplete((isValid, t) -> {
+                    if (t == null && isValid) {
+                        setState(State.FUNDS_RECEIVED);
+                    }
+                    completeIfFailed(t);
+                    onCompleted();
+                });
     }
 
     public CompletableFuture<Boolean> start() {
-        p2pService.addMessageListener(this);
+        p2pService.addMessageHandler(TakerCommitmentMessage.class, takerCommitmentMessageHandler);
+        p2pService.addMessageHandler(TakerFundsSentMessage.class, takerFundsSentMessageHandler);
         setState(State.START);
+        onStarted();
         security.getCommitment(contract)
                 .thenCompose(commitment -> p2pService.confidentialSend(new MakerCommitmentMessage(commitment),
                         counterParty.getMakerNetworkId(),
                         null))
-                .whenComplete((success, t) -> setState(State.COMMITMENT_SENT));
+                .whenComplete((success, t) -> {
+                    setState(State.COMMITMENT_SENT);
+                    completeIfFailed(t);
+                });
         return CompletableFuture.completedFuture(true);
     }
+
+    @Override
+    protected void onCompleted() {
+        super.onCompleted();
+        p2pService.removeMessageHandler(TakerCommitmentMessage.class, takerCommitmentMessageHandler);
+        p2pService.removeMessageHandler(TakerFundsSentMessage.class, takerFundsSentMessageHandler);
+    }
 }
@@ -26,44 +26,60 @@ import misq.finance.swap.contract.bsqBond.BsqBondProtocol;
 import misq.finance.swap.contract.bsqBond.maker.MakerCommitmentMessage;
 import misq.finance.swap.contract.bsqBond.maker.MakerFundsSentMessage;
 import misq.p2p.P2pService;
-import misq.p2p.message.Message;
 import misq.p2p.node.Connection;
+import misq.p2p.node.MessageDispatcher;
 
 import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 public class TakerBsqBondProtocol extends BsqBondProtocol {
+    private final MessageDispatcher.MessageHandler<MakerCommitmentMessage> makerCommitmentMessageHandler;
+    private final MessageDispatcher.MessageHandler<MakerFundsSentMessage> makerFundsSentMessageHandler;
+
     public TakerBsqBondProtocol(TwoPartyContract contract, P2pService p2pService) {
         super(contract, p2pService, new AssetTransfer.Automatic(), new BsqBond());
+        makerCommitmentMessageHandler = this::onMakerCommitmentMessage;
+        makerFundsSentMessageHandler = this::onMakerFundsSentMessage;
     }
 
-    @Override
-    public void onMessage(Message message, Connection connection) {
-        if (message instanceof MakerCommitmentMessage) {
-            MakerCommitmentMessage bondCommitmentMessage = (MakerCommitmentMessage) message;
-            security.verifyBondCommitmentMessage(bondCommitmentMessage)
-                    .whenComplete((success, t) -> setState(State.COMMITMENT_RECEIVED))
-                    .thenCompose(isValid -> security.getCommitment(contract))
-                    .thenCompose(commitment -> p2pService.confidentialSend(new TakerCommitmentMessage(commitment),
-                            counterParty.getMakerNetworkId(),
-                            null))
-                    .whenComplete((success, t) -> setState(State.COMMITMENT_SENT));
-        }
-        if (message instanceof MakerFundsSentMessage) {
-            MakerFundsSentMessage fundsSentMessage = (MakerFundsSentMessage) message;
-            security.verifyFundsSentMessage(fundsSentMessage)
-                    .whenComplete((success, t) -> setState(State.FUNDS_RECEIVED))
-                    .thenCompose(isValid -> transport.sendFunds(contract))
-                    .thenCompose(isSent -> p2pService.confidentialSend(new TakerFundsSentMessage(),
-                            counterParty.getMakerNetworkId(),
-                            null))
-                    .whenComplete((success, t) -> setState(State.FUNDS_SENT));
-        }
+    private void onMakerCommitmentMessage(MakerCommitmentMessage bondCommitmentMessage, Connection connection) {
+        security.verifyBondCommitmentMessage(bondCommitmentMessage)
+                .whenComplete((success, t) -> setState(State.COMMITMENT_RECEIVED))
+                .thenCompose(isValid -> security.getCommitment(contract))
+                .thenCompose(commitment -> p2pService.confidentialSend(new TakerCommitmentMessage(commitment),
+                        counterParty.getMakerNetworkId(),
+                        null))
+                .whenComplete((success, t) -> {
+                    setState(State.COMMITMENT_SENT);
+                    completeIfFailed(t);
+                });
+    }
+
+    private void onMakerFundsSentMessage(MakerFundsSentMessage fundsSentMessage, Connection connection) {
+        security.verifyFundsSentMessage(fundsSentMessage)
+                .whenComplete((success, t) -> setState(State.FUNDS_RECEIVED))
+                .thenCompose(isValid -> transport.sendFunds(contract))
+                .thenCompose(isSent -> p2pService.confidentialSend(new TakerFundsSentMessage(),
+                        counterParty.getMakerNetworkId(),
+                        null))
+                .whenComplete((success, t) -> {
+                    setState(State.FUNDS_SENT);
+                    onCompleted();
+                });
     }
 
     public CompletableFuture<Boolean> start() {
-        p2pService.addMessageListener(this);
+        p2pService.addMessageHandler(MakerCommitmentMessage.class, makerCommitmentMessageHandler);
+        p2pService.addMessageHandler(MakerFundsSentMessage.class, makerFundsSentMessageHandler);
         setState(State.START);
+        onStarted();
         return CompletableFuture.completedFuture(true);
     }
+
+    @Override
+    protected void onCompleted() {
+        super.onCompleted();
+        p2pService.removeMessageHandler(MakerCommitmentMessage.class, makerCommitmentMessageHandler);
+        p2pService.removeMessageHandler(MakerFundsSentMessage.class, makerFundsSentMessageHandler);
+    }
 }
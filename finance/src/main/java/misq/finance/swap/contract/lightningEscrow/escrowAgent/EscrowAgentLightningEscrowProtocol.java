@@ -4,8 +4,6 @@ import misq.finance.contract.ManyPartyContract;
 import misq.finance.swap.contract.lightningEscrow.LightningEscrow;
 import misq.finance.swap.contract.lightningEscrow.LightningEscrowProtocol;
 import misq.p2p.P2pService;
-import misq.p2p.message.Message;
-import misq.p2p.node.Connection;
 
 import java.util.concurrent.CompletableFuture;
 
@@ -18,8 +16,4 @@ public class EscrowAgentLightningEscrowProtocol extends LightningEscrowProtocol
     public CompletableFuture<Boolean> start() {
         return null;
     }
-
-    @Override
-    public void onMessage(Message message, Connection connection) {
-    }
 }
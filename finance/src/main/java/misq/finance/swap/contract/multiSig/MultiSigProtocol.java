@@ -19,7 +19,6 @@ package misq.finance.swap.contract.multiSig;
 
 import misq.finance.contract.*;
 import misq.p2p.P2pService;
-import misq.p2p.node.MessageListener;
 
 /**
  * Mock protocol for simulating the a basic 2of2 Multisig protocol (MAD). Maker is BTC buyer, Taker is seller. There
@@ -41,7 +40,7 @@ import misq.p2p.node.MessageListener;
  *   payout tx and broadcasts it and sends Maker a message that the payout tx is broadcast.
  * </ol>
  */
-public abstract class MultiSigProtocol extends TwoPartyProtocol implements MessageListener {
+public abstract class MultiSigProtocol extends TwoPartyProtocol {
 
     public enum State implements Protocol.State {
         START,
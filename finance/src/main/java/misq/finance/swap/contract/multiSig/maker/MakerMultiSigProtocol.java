@@ -26,51 +26,63 @@ import misq.finance.swap.contract.multiSig.MultiSigProtocol;
 import misq.finance.swap.contract.multiSig.taker.DepositTxBroadcastMessage;
 import misq.finance.swap.contract.multiSig.taker.PayoutTxBroadcastMessage;
 import misq.p2p.P2pService;
-import misq.p2p.message.Message;
 import misq.p2p.node.Connection;
+import misq.p2p.node.MessageDispatcher;
 
 import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 public class MakerMultiSigProtocol extends MultiSigProtocol implements MultiSig.Listener {
+    private final MessageDispatcher.MessageHandler<DepositTxBroadcastMessage> depositTxBroadcastMessageHandler;
+    private final MessageDispatcher.MessageHandler<PayoutTxBroadcastMessage> payoutTxBroadcastMessageHandler;
+
     public MakerMultiSigProtocol(TwoPartyContract contract, P2pService p2pService, SecurityProvider securityProvider) {
         super(contract, p2pService, new AssetTransfer.Manual(), securityProvider);
+        depositTxBroadcastMessageHandler = this::onDepositTxBroadcastMessage;
+        payoutTxBroadcastMessageHandler = this::onPayoutTxBroadcastMessage;
     }
 
-    @Override
-    public void onMessage(Message message, Connection connection) {
-        if (message instanceof DepositTxBroadcastMessage) {
-            DepositTxBroadcastMessage depositTxBroadcastMessage = (DepositTxBroadcastMessage) message;
-            multiSig.verifyDepositTxBroadcastMessage(depositTxBroadcastMessage)
-                    .whenComplete((depositTx, t) -> {
-                        multiSig.setDepositTx(depositTx);
-                        setState(State.DEPOSIT_TX_BROADCAST_MSG_RECEIVED);
-                    });
-        } else if (message instanceof PayoutTxBroadcastMessage) {
-            PayoutTxBroadcastMessage payoutTxBroadcastMessage = (PayoutTxBroadcastMessage) message;
-            multiSig.verifyPayoutTxBroadcastMessage(payoutTxBroadcastMessage)
-                    .whenComplete((payoutTx, t) -> setState(State.PAYOUT_TX_BROADCAST_MSG_RECEIVED))
-                    .thenCompose(multiSig::isPayoutTxInMemPool)
-                    .whenComplete((isInMemPool, t) -> setState(State.PAYOUT_TX_VISIBLE_IN_MEM_POOL));
-        }
+    private void onDepositTxBroadcastMessage(DepositTxBroadcastMessage depositTxBroadcastMessage, Connection connection) {
+        multiSig.verifyDepositTxBroadcastMessage(depositTxBroadcastMessage)
+                .whenComplete((depositTx, t) -> {
+                    multiSig.setDepositTx(depositTx);
+                    setState(State.DEPOSIT_TX_BROADCAST_MSG_RECEIVED);
+                    completeIfFailed(t);
+                });
+    }
+
+    private void onPayoutTxBroadcastMessage(PayoutTxBroadcastMessage payoutTxBroadcastMessage, Connection connection) {
+        multiSig.verifyPayoutTxBroadcastMessage(payoutTxBroadcastMessage)
+                .whenComplete((payoutTx, t) -> setState(State.PAYOUT_TX_BROADCAST_MSG_RECEIVED))
+                .thenCompose(multiSig::isPayoutTxInMemPool)
+                .whenComplete((isInMemPool, t) -> {
+                    setState(State.PAYOUT_TX_VISIBLE_IN_MEM_POOL);
+                    onCompleted();
+                });
     }
 
     @Override
     public void onDepositTxConfirmed() {
         setState(State.DEPOSIT_TX_CONFIRMED);
         assetTransfer.sendFunds(contract)
-                .thenCompose(isSent -> onFundsSent());
+                .thenCompose(isSent -> onFundsSent())
+                .whenComplete((connection, t) -> completeIfFailed(t));
     }
 
     public CompletableFuture<Boolean> start() {
-        p2pService.addMessageListener(this);
+        p2pService.addMessageHandler(DepositTxBroadcastMessage.class, depositTxBroadcastMessageHandler);
+        p2pService.addMessageHandler(PayoutTxBroadcastMessage.class, payoutTxBroadcastMessageHandler);
         multiSig.addListener(this);
         setState(State.START);
+        onStarted();
         multiSig.getTxInputs()
                 .thenCompose(txInputs -> p2pService.confidentialSend(new TxInputsMessage(txInputs),
                         counterParty.getMakerNetworkId(),
                         null))
-                .whenComplete((success, t) -> setState(State.TX_INPUTS_SENT));
+                .whenComplete((success, t) -> {
+                    setState(State.TX_INPUTS_SENT);
+                    completeIfFailed(t);
+                });
         return CompletableFuture.completedFuture(true);
     }
 
@@ -83,4 +95,11 @@ public class MakerMultiSigProtocol extends MultiSigProtocol implements MultiSig.
                         null))
                 .whenComplete((isValid, t) -> setState(State.FUNDS_SENT_MSG_SENT));
     }
+
+    @Override
+    protected void onCompleted() {
+        super.onCompleted();
+        p2pService.removeMessageHandler(DepositTxBroadcastMessage.class, depositTxBroadcastMessageHandler);
+        p2pService.removeMessageHandler(PayoutTxBroadcastMessage.class, payoutTxBroadcastMessageHandler);
+    }
 }
@@ -27,38 +27,44 @@ import misq.finance.swap.contract.multiSig.MultiSigProtocol;
 import misq.finance.swap.contract.multiSig.maker.FundsSentMessage;
 import misq.finance.swap.contract.multiSig.maker.TxInputsMessage;
 import misq.p2p.P2pService;
-import misq.p2p.message.Message;
 import misq.p2p.node.Connection;
+import misq.p2p.node.MessageDispatcher;
 
 import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 public class TakerMultiSigProtocol extends MultiSigProtocol implements MultiSig.Listener {
 
+    private final MessageDispatcher.MessageHandler<TxInputsMessage> txInputsMessageHandler;
+    private final MessageDispatcher.MessageHandler<FundsSentMessage> fundsSentMessageHandler;
+
     public TakerMultiSigProtocol(TwoPartyContract contract, P2pService p2pService, SecurityProvider securityProvider) {
         super(contract, p2pService, new AssetTransfer.Automatic(), securityProvider);
+        txInputsMessageHandler = this::onTxInputsMessage;
+        fundsSentMessageHandler = this::onFundsSentMessage;
     }
 
-    @Override
-    public void onMessage(Message message, Connection connection) {
-        if (message instanceof TxInputsMessage) {
-            TxInputsMessage txInputsMessage = (TxInputsMessage) message;
-            multiSig.verifyTxInputsMessage(txInputsMessage)
-                    .whenComplete((txInput, t) -> setState(State.TX_INPUTS_RECEIVED))
-                    .thenCompose(multiSig::broadcastDepositTx)
-                    .whenComplete((depositTx, t) -> setState(State.DEPOSIT_TX_BROADCAST))
-                    .thenCompose(depositTx -> p2pService.confidentialSend(new DepositTxBroadcastMessage(depositTx),
-                            counterParty.getMakerNetworkId(),
-                            null))
-                    .whenComplete((connection1, t) -> setState(State.DEPOSIT_TX_BROADCAST_MSG_SENT));
-        } else if (message instanceof FundsSentMessage) {
-            FundsSentMessage fundsSentMessage = (FundsSentMessage) message;
-            multiSig.verifyFundsSentMessage(fundsSentMessage)
-                    .whenComplete((signature, t) -> {
-                        multiSig.setPayoutSignature(signature);
-                        setState(State.FUNDS_SENT_MSG_RECEIVED);
-                    });
-        }
+    private void onTxInputsMessage(TxInputsMessage txInputsMessage, Connection connection) {
+        multiSig.verifyTxInputsMessage(txInputsMessage)
+                .whenComplete((txInput, t) -> setState(State.TX_INPUTS_RECEIVED))
+                .thenCompose(multiSig::broadcastDepositTx)
+                .whenComplete((depositTx, t) -> setState(State.DEPOSIT_TX_BROADCAST))
+                .thenCompose(depositTx -> p2pService.confidentialSend(new DepositTxBroadcastMessage(depositTx),
+                        counterParty.getMakerNetworkId(),
+                        null))
+                .whenComplete((connection1, t) -> {
+                    setState(State.DEPOSIT_TX_BROADCAST_MSG_SENT);
+                    completeIfFailed(t);
+                });
+    }
+
+    private void onFundsSentMessage(FundsSentMessage fundsSentMessage, Connection connection) {
+        multiSig.verifyFundsSentMessage(fundsSentMessage)
+                .whenComplete((signature, t) -> {
+                    multiSig.setPayoutSignature(signature);
+                    setState(State.FUNDS_SENT_MSG_RECEIVED);
+                    completeIfFailed(t);
+                });
     }
 
     @Override
@@ -67,9 +73,11 @@ public class TakerMultiSigProtocol extends MultiSigProtocol implements MultiSig.
     }
 
     public CompletableFuture<Boolean> start() {
-        p2pService.addMessageListener(this);
+        p2pService.addMessageHandler(TxInputsMessage.class, txInputsMessageHandler);
+        p2pService.addMessageHandler(FundsSentMessage.class, fundsSentMessageHandler);
         multiSig.addListener(this);
         setState(State.START);
+        onStarted();
         return CompletableFuture.completedFuture(true);
     }
 
@@ -81,6 +89,16 @@ public class TakerMultiSigProtocol extends MultiSigProtocol implements MultiSig.
                 .thenCompose(payoutTx -> p2pService.confidentialSend(new PayoutTxBroadcastMessage(payoutTx),
                         counterParty.getMakerNetworkId(),
                         null))
-                .whenComplete((isValid, t) -> setState(State.PAYOUT_TX_BROADCAST_MSG_SENT));
+                .whenComplete((isValid, t) -> {
+                    setState(State.PAYOUT_TX_BROADCAST_MSG_SENT);
+                    onCompleted();
+                });
+    }
+
+    @Override
+    protected void onCompleted() {
+        super.onCompleted();
+        p2pService.removeMessageHandler(TxInputsMessage.class, txInputsMessageHandler);
+        p2pService.removeMessageHandler(FundsSentMessage.class, fundsSentMessageHandler);
     }
 }
@@ -26,6 +26,7 @@ import misq.p2p.data.filter.DataFilter;
 import misq.p2p.data.inventory.RequestInventoryResult;
 import misq.p2p.message.Message;
 import misq.p2p.node.Connection;
+import misq.p2p.node.MessageDispatcher;
 import misq.p2p.node.MessageListener;
 import misq.p2p.node.proxy.GetServerSocketResult;
 import misq.p2p.router.gossip.GossipResult;
@@ -34,15 +35,13 @@ import org.slf4j.LoggerFactory;
 
 import java.security.KeyPair;
 import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 public class MockP2pService extends P2pService {
     private static final Logger log = LoggerFactory.getLogger(MockP2pService.class);
-    private Set<MessageListener> messageListeners = ConcurrentHashMap.newKeySet();
+    private final MessageDispatcher messageDispatcher = new MessageDispatcher();
 
     public MockP2pService() {
         super();
@@ -72,7 +71,7 @@ public class MockP2pService extends P2pService {
                 Thread.sleep(100);
             } catch (InterruptedException ignore) {
             }
-            messageListeners.forEach(e -> e.onMessage(message, null));
+            messageDispatcher.dispatch(message, null);
         }).start();
 
         return future;
@@ -93,9 +92,21 @@ public class MockP2pService extends P2pService {
                                  Consumer<RequestInventoryResult> resultHandler) {
     }
 
+    @Override
+    public <T extends Message> void addMessageHandler(Class<T> messageClass,
+                                                      MessageDispatcher.MessageHandler<T> messageHandler) {
+        messageDispatcher.addMessageHandler(messageClass, messageHandler);
+    }
+
+    @Override
+    public <T extends Message> void removeMessageHandler(Class<T> messageClass,
+                                                         MessageDispatcher.MessageHandler<T> messageHandler) {
+        messageDispatcher.removeMessageHandler(messageClass, messageHandler);
+    }
+
     @Override
     public void addMessageListener(MessageListener messageListener) {
-        messageListeners.add(messageListener);
+        messageDispatcher.addMessageListener(messageListener);
     }
 
     @Override
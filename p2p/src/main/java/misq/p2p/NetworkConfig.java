@@ -18,6 +18,8 @@
 package misq.p2p;
 
 import lombok.Getter;
+import misq.p2p.node.connection.LoopbackMode;
+import misq.p2p.node.connection.TransportType;
 import misq.p2p.peers.PeerConfig;
 import misq.p2p.peers.exchange.PeerExchangeConfig;
 
@@ -27,22 +29,39 @@ public class NetworkConfig {
     private final PeerConfig peerConfig;
     private final String baseDirPath;
     private final NodeId nodeId;
+    private final TransportType transportType;
+    // Connections can carry logical streams to other nodes of the peer, see StreamMultiplexer
+    private final boolean streamMultiplexing;
+    // Connections to other nodes in the same process are carried in memory, see LoopbackTransport
+    private final LoopbackMode loopbackMode;
 
     public NetworkConfig(String baseDirPath, NodeId nodeId, NetworkType networkType) {
         this(baseDirPath,
                 nodeId,
                 networkType,
                 new PeerConfig(new PeerExchangeConfig(), new SeedNodeRepository().getNodes(networkType)));
-
     }
 
     public NetworkConfig(String baseDirPath,
                          NodeId nodeId,
                          NetworkType networkType,
                          PeerConfig peerConfig) {
+        this(baseDirPath, nodeId, networkType, peerConfig, TransportType.BLOCKING, false, LoopbackMode.DISABLED);
+    }
+
+    public NetworkConfig(String baseDirPath,
+                         NodeId nodeId,
+                         NetworkType networkType,
+                         PeerConfig peerConfig,
+                         TransportType transportType,
+                         boolean streamMultiplexing,
+                         LoopbackMode loopbackMode) {
         this.baseDirPath = baseDirPath;
         this.nodeId = nodeId;
         this.networkType = networkType;
         this.peerConfig = peerConfig;
+        this.transportType = transportType;
+        this.streamMultiplexing = streamMultiplexing;
+        this.loopbackMode = loopbackMode;
     }
 }
@@ -20,25 +20,34 @@ package misq.p2p;
 
 import com.google.common.annotations.VisibleForTesting;
 import misq.p2p.confidential.ConfidentialMessageService;
+import misq.p2p.confidential.ConfidentialMessage;
 import misq.p2p.data.DataService;
 import misq.p2p.data.filter.DataFilter;
+import misq.p2p.data.inventory.InventoryRequest;
 import misq.p2p.data.inventory.RequestInventoryResult;
 import misq.p2p.data.storage.Storage;
 import misq.p2p.message.Message;
 import misq.p2p.node.Connection;
+import misq.p2p.node.MessageDispatcher;
 import misq.p2p.node.MessageListener;
 import misq.p2p.node.Node;
+import misq.p2p.node.protection.ProofOfWorkConfig;
+import misq.p2p.node.protection.ProofOfWorkPermissionControl;
+import misq.p2p.node.protection.RateLimitConfig;
+import misq.p2p.node.protection.RateLimitingPermissionControl;
 import misq.p2p.node.proxy.GetServerSocketResult;
 import misq.p2p.peers.PeerConfig;
 import misq.p2p.peers.PeerGroup;
 import misq.p2p.peers.PeerManager;
 import misq.p2p.peers.exchange.DefaultPeerExchangeStrategy;
+import misq.p2p.router.gossip.GossipMessage;
 import misq.p2p.router.gossip.GossipResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
@@ -51,6 +60,7 @@ public class P2pNode {
     private final NetworkConfig networkConfig;
     private final Storage storage;
     private final KeyPairRepository keyPairRepository;
+    private final PeerGroup peerGroup;
     private final PeerManager peerManager;
     private final Node node;
     private final ConfidentialMessageService confidentialMessageService;
@@ -61,10 +71,11 @@ public class P2pNode {
         this.storage = storage;
         this.keyPairRepository = keyPairRepository;
 
-        node = new Node(networkConfig);
+        ProofOfWorkPermissionControl proofOfWork = new ProofOfWorkPermissionControl(createProofOfWorkConfig());
+        node = new Node(networkConfig, new RateLimitingPermissionControl(proofOfWork, createRateLimitConfig()));
 
         PeerConfig peerConfig = networkConfig.getPeerConfig();
-        PeerGroup peerGroup = new PeerGroup(node, peerConfig, networkConfig.getNodeId().getServerPort());
+        peerGroup = new PeerGroup(node, peerConfig, networkConfig.getNodeId().getServerPort());
         DefaultPeerExchangeStrategy peerExchangeStrategy = new DefaultPeerExchangeStrategy(peerGroup, peerConfig);
         peerManager = new PeerManager(node, peerGroup, peerExchangeStrategy, peerConfig);
 
@@ -74,6 +85,23 @@ public class P2pNode {
     }
 
 
+    // Costs reflect the work a message causes at our node. Collecting the full inventory is the most expensive,
+    // gossiped data needs to be hashed, verified and persisted and confidential messages need to be decrypted.
+    private static RateLimitConfig createRateLimitConfig() {
+        return new RateLimitConfig(Map.of(InventoryRequest.class, 50d,
+                GossipMessage.class, 2d,
+                ConfidentialMessage.class, 2d));
+    }
+
+    // Minting takes about 60 us at difficulty 8, 0.5 ms at 12 and 8 ms at 16 on a desktop CPU (see
+    // ProofOfWorkBenchmark). Verifying takes a few us for a message of 1 KB.
+    private static ProofOfWorkConfig createProofOfWorkConfig() {
+        return new ProofOfWorkConfig(Map.of(InventoryRequest.class, 16,
+                GossipMessage.class, 12,
+                ConfidentialMessage.class, 12), 8);
+    }
+
+
     ///////////////////////////////////////////////////////////////////////////////////////////////////
     // API
     ///////////////////////////////////////////////////////////////////////////////////////////////////
@@ -108,6 +136,27 @@ public class P2pNode {
         return dataService.requestInventory(dataFilter);
     }
 
+    public <T extends Message> void addMessageHandler(Class<T> messageClass,
+                                                      MessageDispatcher.MessageHandler<T> messageHandler) {
+        confidentialMessageService.addMessageHandler(messageClass, messageHandler);
+    }
+
+    public <T extends Message> void removeMessageHandler(Class<T> messageClass,
+                                                         MessageDispatcher.MessageHandler<T> messageHandler) {
+        confidentialMessageService.removeMessageHandler(messageClass, messageHandler);
+    }
+
+    /**
+     * Connections to protected peers are not closed for limiting the number of connections or if they are idle.
+     */
+    public void addProtectedPeer(Address address) {
+        peerGroup.addProtectedPeer(address);
+    }
+
+    public void removeProtectedPeer(Address address) {
+        peerGroup.removeProtectedPeer(address);
+    }
+
     public void addMessageListener(MessageListener messageListener) {
         confidentialMessageService.addMessageListener(messageListener);
     }
@@ -24,6 +24,7 @@ import misq.p2p.data.inventory.RequestInventoryResult;
 import misq.p2p.data.storage.Storage;
 import misq.p2p.message.Message;
 import misq.p2p.node.Connection;
+import misq.p2p.node.MessageDispatcher;
 import misq.p2p.node.MessageListener;
 import misq.p2p.node.proxy.GetServerSocketResult;
 import misq.p2p.router.gossip.GossipResult;
@@ -187,6 +188,39 @@ public class P2pService {
         });
     }
 
+    public <T extends Message> void addMessageHandler(Class<T> messageClass,
+                                                      MessageDispatcher.MessageHandler<T> messageHandler) {
+        p2pNodes.values().forEach(p2pNode -> {
+            p2pNode.addMessageHandler(messageClass, messageHandler);
+        });
+    }
+
+    public <T extends Message> void removeMessageHandler(Class<T> messageClass,
+                                                         MessageDispatcher.MessageHandler<T> messageHandler) {
+        p2pNodes.values().forEach(p2pNode -> {
+            p2pNode.removeMessageHandler(messageClass, messageHandler);
+        });
+    }
+
+    /**
+     * Keeps the connections to the peer open while we interact with it, e.g. during a trade.
+     */
+    public void addProtectedPeer(NetworkId networkId) {
+        networkId.getAddressByNetworkType().forEach((networkType, address) -> {
+            if (p2pNodes.containsKey(networkType)) {
+                p2pNodes.get(networkType).addProtectedPeer(address);
+            }
+        });
+    }
+
+    public void removeProtectedPeer(NetworkId networkId) {
+        networkId.getAddressByNetworkType().forEach((networkType, address) -> {
+            if (p2pNodes.containsKey(networkType)) {
+                p2pNodes.get(networkType).removeProtectedPeer(address);
+            }
+        });
+    }
+
     public void addMessageListener(MessageListener messageListener) {
         p2pNodes.values().forEach(p2pNode -> {
             p2pNode.addMessageListener(messageListener);
@@ -21,6 +21,7 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import misq.common.security.ConfidentialData;
 import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
 
 @EqualsAndHashCode
 @Getter
@@ -33,6 +34,11 @@ public class ConfidentialMessage implements Message {
         this.tag = tag;
     }
 
+    @Override
+    public MessagePriority getPriority() {
+        return MessagePriority.CONFIDENTIAL;
+    }
+
     @Override
     public String toString() {
         return "ConfidentialMessage{" +
@@ -27,6 +27,7 @@ import misq.p2p.NetworkId;
 import misq.p2p.NetworkType;
 import misq.p2p.message.Message;
 import misq.p2p.node.Connection;
+import misq.p2p.node.MessageDispatcher;
 import misq.p2p.node.MessageListener;
 import misq.p2p.node.Node;
 import misq.p2p.peers.PeerGroup;
@@ -35,14 +36,14 @@ import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.stream.Collectors;
 
 @Slf4j
-public class ConfidentialMessageService implements MessageListener {
+public class ConfidentialMessageService implements MessageDispatcher.MessageHandler<ConfidentialMessage> {
     private final Node node;
     private final PeerGroup peerGroup;
-    private final Set<MessageListener> messageListeners = new CopyOnWriteArraySet<>();
+    // Dispatches the decrypted messages
+    private final MessageDispatcher messageDispatcher = new MessageDispatcher();
     private final KeyPairRepository keyPairRepository;
 
     public ConfidentialMessageService(Node node, PeerGroup peerGroup, KeyPairRepository keyPairRepository) {
@@ -50,33 +51,30 @@ public class ConfidentialMessageService implements MessageListener {
         this.peerGroup = peerGroup;
         this.keyPairRepository = keyPairRepository;
 
-        node.addMessageListener(this);
+        node.addMessageHandler(ConfidentialMessage.class, this);
     }
 
     ///////////////////////////////////////////////////////////////////////////////////////////////////
-    // MessageListener
+    // MessageDispatcher.MessageHandler
     ///////////////////////////////////////////////////////////////////////////////////////////////////
 
     @Override
-    public void onMessage(Message message, Connection connection) {
-        if (message instanceof ConfidentialMessage) {
-            ConfidentialMessage confidentialMessage = (ConfidentialMessage) message;
-            if (confidentialMessage instanceof RelayMessage) {
-                RelayMessage relayMessage = (RelayMessage) message;
-                Address targetAddress = relayMessage.getTargetAddress();
-                // send(message, targetAddress);
-            } else {
-                ConfidentialData confidentialData = confidentialMessage.getConfidentialData();
-                keyPairRepository.findKeyPair(confidentialMessage.getTag()).ifPresent(receiversKeyPair -> {
-                    try {
-                        byte[] decrypted = HybridEncryption.decryptAndVerify(confidentialData, receiversKeyPair);
-                        Message decryptedMessage = (Message) ObjectSerializer.deserialize(decrypted);
-                        messageListeners.forEach(listener -> listener.onMessage(decryptedMessage, connection));
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                });
-            }
+    public void onMessage(ConfidentialMessage confidentialMessage, Connection connection) {
+        if (confidentialMessage instanceof RelayMessage) {
+            RelayMessage relayMessage = (RelayMessage) confidentialMessage;
+            Address targetAddress = relayMessage.getTargetAddress();
+            // send(message, targetAddress);
+        } else {
+            ConfidentialData confidentialData = confidentialMessage.getConfidentialData();
+            keyPairRepository.findKeyPair(confidentialMessage.getTag()).ifPresent(receiversKeyPair -> {
+                try {
+                    byte[] decrypted = HybridEncryption.decryptAndVerify(confidentialData, receiversKeyPair);
+                    Message decryptedMessage = (Message) ObjectSerializer.deserialize(decrypted);
+                    messageDispatcher.dispatch(decryptedMessage, connection);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
         }
     }
 
@@ -109,17 +107,26 @@ public class ConfidentialMessageService implements MessageListener {
     }
 
     public void shutdown() {
-        node.removeMessageListener(this);
-        messageListeners.clear();
+        node.removeMessageHandler(ConfidentialMessage.class, this);
+        messageDispatcher.clear();
     }
 
+    public <T extends Message> void addMessageHandler(Class<T> messageClass,
+                                                      MessageDispatcher.MessageHandler<T> messageHandler) {
+        messageDispatcher.addMessageHandler(messageClass, messageHandler);
+    }
+
+    public <T extends Message> void removeMessageHandler(Class<T> messageClass,
+                                                         MessageDispatcher.MessageHandler<T> messageHandler) {
+        messageDispatcher.removeMessageHandler(messageClass, messageHandler);
+    }
 
     public void addMessageListener(MessageListener messageListener) {
-        messageListeners.add(messageListener);
+        messageDispatcher.addMessageListener(messageListener);
     }
 
     public void removeMessageListener(MessageListener messageListener) {
-        messageListeners.remove(messageListener);
+        messageDispatcher.removeMessageListener(messageListener);
     }
 
 
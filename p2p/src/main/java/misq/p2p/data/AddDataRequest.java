@@ -20,6 +20,7 @@ package misq.p2p.data;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
 
 @EqualsAndHashCode
 @Getter
@@ -27,4 +28,9 @@ public class AddDataRequest implements Message {
 
     public AddDataRequest() {
     }
+
+    @Override
+    public MessagePriority getPriority() {
+        return MessagePriority.GOSSIP;
+    }
 }
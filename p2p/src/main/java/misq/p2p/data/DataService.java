@@ -20,7 +20,8 @@ package misq.p2p.data;
 import misq.common.util.MapUtils;
 import misq.p2p.Address;
 import misq.p2p.data.filter.DataFilter;
-import misq.p2p.data.inventory.InventoryRequestHandler;
+import misq.p2p.data.inventory.InventoryRequest;
+import misq.p2p.data.inventory.InventoryResponse;
 import misq.p2p.data.inventory.InventoryResponseHandler;
 import misq.p2p.data.inventory.RequestInventoryResult;
 import misq.p2p.data.storage.Storage;
@@ -59,13 +60,12 @@ public class DataService implements MessageListener, ConnectionListener {
     private final Storage storage;
     private final Set<DataListener> dataListeners = new CopyOnWriteArraySet<>();
     private final Map<String, InventoryResponseHandler> responseHandlerMap = new ConcurrentHashMap<>();
-    private final Map<String, InventoryRequestHandler> requestHandlerMap = new ConcurrentHashMap<>();
 
     public DataService(Node node, PeerGroup peerGroup, Storage storage) {
         this.node = node;
         this.storage = storage;
 
-        router = new Router(node, peerGroup);
+        router = new Router(node, peerGroup, this::isValid);
 
         router.addMessageListener(this);
         node.addConnectionListener(this);
@@ -111,7 +111,6 @@ public class DataService implements MessageListener, ConnectionListener {
     public void onDisconnect(Connection connection) {
         String id = connection.getId();
         MapUtils.disposeAndRemove(id, responseHandlerMap);
-        MapUtils.disposeAndRemove(id, requestHandlerMap);
     }
 
 
@@ -165,14 +164,11 @@ public class DataService implements MessageListener, ConnectionListener {
         CompletableFuture<RequestInventoryResult> future = new CompletableFuture<>();
         future.orTimeout(BROADCAST_TIMEOUT, TimeUnit.SECONDS);
         node.getConnection(address)
-                .thenCompose(connection -> {
-                    InventoryRequestHandler requestHandler = new InventoryRequestHandler(node, connection);
-                    requestHandlerMap.put(connection.getId(), requestHandler);
-                    return requestHandler.request(dataFilter);
-                })
-                .whenComplete((inventory, throwable) -> {
-                    if (inventory != null) {
-                        future.complete(new RequestInventoryResult(inventory, System.currentTimeMillis() - ts));
+                .thenCompose(connection -> node.request(new InventoryRequest(dataFilter), connection, InventoryResponse.class))
+                .whenComplete((inventoryResponse, throwable) -> {
+                    if (inventoryResponse != null) {
+                        future.complete(new RequestInventoryResult(inventoryResponse.getInventory(),
+                                System.currentTimeMillis() - ts));
                     } else {
                         future.completeExceptionally(throwable);
                     }
@@ -189,6 +185,17 @@ public class DataService implements MessageListener, ConnectionListener {
         responseHandlerMap.put(connection.getId(), responseHandler);*/
     }
 
+    // Called by the GossipRouter before a received message gets relayed, so invalid data is not flooded
+    private boolean isValid(Message message) {
+        if (message instanceof AddDataRequest) {
+            return canAdd((AddDataRequest) message);
+        } else if (message instanceof RemoveDataRequest) {
+            return canRemove((RemoveDataRequest) message);
+        } else {
+            return false;
+        }
+    }
+
     private boolean canAdd(AddDataRequest message) {
         return true;
     }
@@ -203,7 +210,6 @@ public class DataService implements MessageListener, ConnectionListener {
         router.shutdown();
         storage.shutdown();
 
-        MapUtils.disposeAndRemoveAll(requestHandlerMap);
-        MapUtils.disposeAndRemoveAll(requestHandlerMap);
+        MapUtils.disposeAndRemoveAll(responseHandlerMap);
     }
 }
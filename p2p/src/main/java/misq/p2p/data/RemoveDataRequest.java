@@ -21,6 +21,7 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import misq.p2p.data.storage.MapKey;
 import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
 
 @EqualsAndHashCode
 @Getter
@@ -30,4 +31,9 @@ public class RemoveDataRequest implements Message {
     public RemoveDataRequest(MapKey mapKey) {
         this.mapKey = mapKey;
     }
+
+    @Override
+    public MessagePriority getPriority() {
+        return MessagePriority.GOSSIP;
+    }
 }
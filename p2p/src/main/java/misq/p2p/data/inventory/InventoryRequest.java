@@ -20,14 +20,24 @@ package misq.p2p.data.inventory;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import misq.p2p.data.filter.DataFilter;
-import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.message.Request;
+
+import java.util.Random;
 
 @EqualsAndHashCode
 @Getter
-public class InventoryRequest implements Message {
+public class InventoryRequest implements Request {
     private final DataFilter dataFilter;
+    private final int nonce;
 
     public InventoryRequest(DataFilter dataFilter) {
         this.dataFilter = dataFilter;
+        nonce = new Random().nextInt();
+    }
+
+    @Override
+    public MessagePriority getPriority() {
+        return MessagePriority.CONTROL;
     }
 }
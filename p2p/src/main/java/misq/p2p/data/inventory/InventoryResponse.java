@@ -19,14 +19,22 @@ package misq.p2p.data.inventory;
 
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
-import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.message.Response;
 
 @EqualsAndHashCode
 @Getter
-public class InventoryResponse implements Message {
+public class InventoryResponse implements Response {
     private final Inventory inventory;
+    private final int requestNonce;
 
-    public InventoryResponse(Inventory inventory) {
+    public InventoryResponse(Inventory inventory, int requestNonce) {
         this.inventory = inventory;
+        this.requestNonce = requestNonce;
+    }
+
+    @Override
+    public MessagePriority getPriority() {
+        return MessagePriority.BULK;
     }
 }
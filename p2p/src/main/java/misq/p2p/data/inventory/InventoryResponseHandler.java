@@ -20,15 +20,14 @@ package misq.p2p.data.inventory;
 import lombok.extern.slf4j.Slf4j;
 import misq.common.Disposable;
 import misq.p2p.data.filter.DataFilter;
-import misq.p2p.message.Message;
 import misq.p2p.node.Connection;
-import misq.p2p.node.MessageListener;
+import misq.p2p.node.MessageDispatcher;
 import misq.p2p.node.Node;
 
 import java.util.function.Function;
 
 @Slf4j
-public class InventoryResponseHandler implements MessageListener, Disposable {
+public class InventoryResponseHandler implements MessageDispatcher.MessageHandler<InventoryRequest>, Disposable {
     private final Node node;
     private final Connection connection;
     private final Function<DataFilter, Inventory> inventoryProvider;
@@ -43,22 +42,19 @@ public class InventoryResponseHandler implements MessageListener, Disposable {
         this.inventoryProvider = inventoryProvider;
         this.completeHandler = completeHandler;
 
-        node.addMessageListener(this);
+        node.addMessageHandler(InventoryRequest.class, connection.getId(), this);
     }
 
     public void dispose() {
-        node.removeMessageListener(this);
+        node.removeMessageHandler(InventoryRequest.class, connection.getId(), this);
     }
 
     @Override
-    public void onMessage(Message message, Connection connection) {
-        if (this.connection.getId().equals(connection.getId()) && message instanceof InventoryRequest) {
-            InventoryRequest request = (InventoryRequest) message;
-            Inventory inventory = inventoryProvider.apply(request.getDataFilter());
-            node.send(new InventoryResponse(inventory), connection);
-            node.removeMessageListener(this);
-            completeHandler.run();
-        }
+    public void onMessage(InventoryRequest request, Connection connection) {
+        Inventory inventory = inventoryProvider.apply(request.getDataFilter());
+        node.send(new InventoryResponse(inventory, request.getNonce()), connection);
+        node.removeMessageHandler(InventoryRequest.class, connection.getId(), this);
+        completeHandler.run();
     }
 
 }
@@ -18,7 +18,9 @@
 package misq.p2p.data.storage;
 
 
+import misq.common.util.ThreadingUtils;
 import misq.p2p.data.storage.append.AppendOnlyDataStore;
+import misq.p2p.data.storage.append.MappedAppendOnlyDataStore;
 import misq.p2p.data.storage.auth.AuthenticatedDataStore;
 import misq.p2p.data.storage.mailbox.DataStore;
 import misq.p2p.data.storage.mailbox.MailboxDataStore;
@@ -27,24 +29,42 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
 
 import static java.io.File.separator;
 
+/**
+ * Holds the data stores by the file name of their MetaData.
+ * <p>
+ * Stores read their persisted data in the constructor, so they are created on a bounded pool. The getXxxStoreAsync
+ * methods return a future which completes once the store is loaded, so the data of a store can be used (e.g. for
+ * serving inventory requests) as soon as that store is ready. Loading the known stores at startup with loadStores
+ * loads them in parallel. Each store is created only once, also if it is requested concurrently.
+ */
 public class Storage {
     public static final String DIR = File.separator + "db" + File.separator + "network";
+    private static final int MAX_LOADING_THREADS = 4;
 
     private static final Logger log = LoggerFactory.getLogger(Storage.class);
 
-    // Class name is key
-    final Map<String, AuthenticatedDataStore> authenticatedDataStores = new ConcurrentHashMap<>();
-    final Map<String, MailboxDataStore> mailboxStores = new ConcurrentHashMap<>();
-    final Map<String, AppendOnlyDataStore> appendOnlyDataStores = new ConcurrentHashMap<>();
+    // File name of MetaData is key
+    final Map<String, CompletableFuture<AuthenticatedDataStore>> authenticatedDataStores = new ConcurrentHashMap<>();
+    final Map<String, CompletableFuture<MailboxDataStore>> mailboxStores = new ConcurrentHashMap<>();
+    final Map<String, CompletableFuture<AppendOnlyDataStore>> appendOnlyDataStores = new ConcurrentHashMap<>();
+    final Map<String, CompletableFuture<MappedAppendOnlyDataStore>> mappedAppendOnlyDataStores = new ConcurrentHashMap<>();
     private final String storageDirPath;
+    private final ExecutorService executor;
 
     public Storage(String appDirPath) {
         storageDirPath = appDirPath + separator + "db" + separator + "network";
+        int numThreads = Math.min(MAX_LOADING_THREADS, Runtime.getRuntime().availableProcessors());
+        executor = ThreadingUtils.getFixedThreadPool("Storage.load", numThreads);
     }
 
 
@@ -52,34 +72,125 @@ public class Storage {
     // API
     ///////////////////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Starts loading all given stores in parallel.
+     *
+     * @return Future which completes once all stores are loaded. Stores which are loaded already can be used before.
+     */
+    public CompletableFuture<Void> loadStores(Collection<MetaData> authenticatedDataMetaData,
+                                              Collection<MetaData> mailboxMetaData,
+                                              Collection<MetaData> appendOnlyDataMetaData) {
+        List<CompletableFuture<? extends DataStore>> futures = new ArrayList<>();
+        authenticatedDataMetaData.forEach(metaData -> futures.add(getAuthenticatedDataStoreAsync(metaData)));
+        mailboxMetaData.forEach(metaData -> futures.add(getMailboxStoreAsync(metaData)));
+        appendOnlyDataMetaData.forEach(metaData -> futures.add(getAppendOnlyDataStoreAsync(metaData)));
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    public CompletableFuture<AuthenticatedDataStore> getAuthenticatedDataStoreAsync(MetaData metaData) {
+        return getStoreAsync(authenticatedDataStores, metaData, () -> new AuthenticatedDataStore(storageDirPath, metaData));
+    }
+
+    public CompletableFuture<MailboxDataStore> getMailboxStoreAsync(MetaData metaData) {
+        return getStoreAsync(mailboxStores, metaData, () -> new MailboxDataStore(storageDirPath, metaData));
+    }
+
+    public CompletableFuture<AppendOnlyDataStore> getAppendOnlyDataStoreAsync(MetaData metaData) {
+        return getStoreAsync(appendOnlyDataStores, metaData, () -> new AppendOnlyDataStore(storageDirPath, metaData));
+    }
+
+    public CompletableFuture<MappedAppendOnlyDataStore> getMappedAppendOnlyDataStoreAsync(MetaData metaData) {
+        return getStoreAsync(mappedAppendOnlyDataStores, metaData,
+                () -> new MappedAppendOnlyDataStore(storageDirPath, metaData));
+    }
+
+    /**
+     * Blocks until the store is loaded.
+     */
     public AuthenticatedDataStore getAuthenticatedDataStore(MetaData metaData) throws IOException {
-        String key = metaData.getFileName();
-        if (!authenticatedDataStores.containsKey(key)) {
-            authenticatedDataStores.put(key, new AuthenticatedDataStore(storageDirPath, metaData));
-        }
-        return authenticatedDataStores.get(key);
+        return await(getAuthenticatedDataStoreAsync(metaData));
     }
 
+    /**
+     * Blocks until the store is loaded.
+     */
     public MailboxDataStore getMailboxStore(MetaData metaData) throws IOException {
-        String key = metaData.getFileName();
-        if (!mailboxStores.containsKey(key)) {
-            mailboxStores.put(key, new MailboxDataStore(storageDirPath, metaData));
-        }
-        return mailboxStores.get(key);
+        return await(getMailboxStoreAsync(metaData));
     }
 
+    /**
+     * Blocks until the store is loaded.
+     */
     public AppendOnlyDataStore getAppendOnlyDataStore(MetaData metaData) throws IOException {
-        String key = metaData.getFileName();
-        if (!appendOnlyDataStores.containsKey(key)) {
-            appendOnlyDataStores.put(key, new AppendOnlyDataStore(storageDirPath, metaData));
-        }
-        return appendOnlyDataStores.get(key);
+        return await(getAppendOnlyDataStoreAsync(metaData));
     }
 
+    /**
+     * Blocks until the store is loaded.
+     */
+    public MappedAppendOnlyDataStore getMappedAppendOnlyDataStore(MetaData metaData) throws IOException {
+        return await(getMappedAppendOnlyDataStoreAsync(metaData));
+    }
 
     public void shutdown() {
-        authenticatedDataStores.values().forEach(DataStore::shutdown);
-        mailboxStores.values().forEach(DataStore::shutdown);
-        appendOnlyDataStores.values().forEach(DataStore::shutdown);
+        // Stores which are still loading get shut down once they are loaded
+        Stream.of(authenticatedDataStores, mailboxStores, appendOnlyDataStores, mappedAppendOnlyDataStores)
+                .flatMap(map -> map.values().stream())
+                .forEach(future -> future.thenAccept(DataStore::shutdown));
+        executor.shutdown();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private interface StoreFactory<T extends DataStore> {
+        T create() throws IOException;
+    }
+
+    private <T extends DataStore> CompletableFuture<T> getStoreAsync(Map<String, CompletableFuture<T>> stores,
+                                                                     MetaData metaData,
+                                                                     StoreFactory<T> factory) {
+        String key = metaData.getFileName();
+        CompletableFuture<T> result = stores.computeIfAbsent(key, k -> {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            try {
+                executor.execute(() -> {
+                    long ts = System.currentTimeMillis();
+                    try {
+                        future.complete(factory.create());
+                        log.debug("Loading store {} took {} ms", key, System.currentTimeMillis() - ts);
+                    } catch (Throwable throwable) {
+                        log.error("Loading store " + key + " failed", throwable);
+                        // Failed loads are removed, so the store can be requested again
+                        stores.remove(key, future);
+                        future.completeExceptionally(throwable);
+                    }
+                });
+            } catch (RejectedExecutionException exception) {
+                // We have been shut down. Returning null does not add an entry, so no failed future stays cached.
+                return null;
+            }
+            return future;
+        });
+        return result != null ?
+                result :
+                CompletableFuture.failedFuture(new RejectedExecutionException("Storage has been shut down"));
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading store");
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
     }
 }
@@ -0,0 +1,68 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.data.storage;
+
+import misq.common.ObjectSerializer;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Number and serialized size of the tombstones (remove requests kept for their sequence number) of a data store.
+ * Updated by the store at each mutation, so reading the stats does not iterate the map.
+ */
+public class TombstoneStats {
+    private final Map<MapKey, Integer> sizeByKey = new ConcurrentHashMap<>();
+    private final AtomicLong numBytes = new AtomicLong();
+
+    public void onTombstoneAdded(MapKey mapKey, Serializable tombstone) {
+        int size = ObjectSerializer.serialize(tombstone).length;
+        Integer previousSize = sizeByKey.put(mapKey, size);
+        numBytes.addAndGet(size - (previousSize != null ? previousSize : 0));
+    }
+
+    /**
+     * @return Serialized size of the removed tombstone or 0 if the key had no tombstone.
+     */
+    public int onTombstoneRemoved(MapKey mapKey) {
+        Integer size = sizeByKey.remove(mapKey);
+        if (size == null) {
+            return 0;
+        }
+        numBytes.addAndGet(-size);
+        return size;
+    }
+
+    public int getNumTombstones() {
+        return sizeByKey.size();
+    }
+
+    public long getNumBytes() {
+        return numBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "TombstoneStats{" +
+                "numTombstones=" + getNumTombstones() +
+                ", numBytes=" + getNumBytes() +
+                "}";
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.data.storage.append;
+
+import com.google.common.annotations.VisibleForTesting;
+import lombok.extern.slf4j.Slf4j;
+import misq.common.ObjectSerializer;
+import misq.common.security.DigestUtil;
+import misq.p2p.data.storage.MapKey;
+import misq.p2p.data.storage.MetaData;
+import misq.p2p.data.storage.mailbox.DataStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Alternative to {@link AppendOnlyDataStore} which keeps the data in memory mapped segment files instead of on the
+ * heap. Only an index from the key to the location of the record is kept on the heap, the AppendOnlyData gets
+ * deserialized when it is requested.
+ * <p>
+ * Appending writes one record to the current segment, a new segment is started once it is full. At startup the
+ * segments get mapped and only the record headers are read to build the index, so neither the heap usage nor the
+ * startup time depend on the size of the serialized data. The CRC of the records is verified when a record is read
+ * and at startup for the last segment, where a write might have been interrupted.
+ * <p>
+ * Same as AppendOnlyDataStore the hash of the AppendOnlyData is used as key, existing keys are ignored and new data
+ * is ignored if the number of entries exceeds MAX_MAP_SIZE divided by the max. size of the data.
+ */
+@Slf4j
+public class MappedAppendOnlyDataStore extends DataStore {
+    private static final int MAX_MAP_SIZE = 10_000_000; // in bytes
+    static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final int maxMapSize;
+    private final int segmentSize;
+    private final Pattern segmentFileNamePattern;
+    // Segment index in the upper 32 bits, offset in the lower ones
+    private final Map<MapKey, Long> locationByKey = new ConcurrentHashMap<>();
+    private final Map<Integer, MappedSegment> segmentByIndex = new ConcurrentHashMap<>();
+    private final Set<AppendOnlyDataStore.Listener> listeners = new CopyOnWriteArraySet<>();
+    // Guarded by this
+    private MappedSegment currentSegment;
+
+    public MappedAppendOnlyDataStore(String appDirPath, MetaData metaData) throws IOException {
+        this(appDirPath, metaData, DEFAULT_SEGMENT_SIZE);
+    }
+
+    @VisibleForTesting
+    MappedAppendOnlyDataStore(String appDirPath, MetaData metaData, int segmentSize) throws IOException {
+        super(appDirPath, metaData);
+
+        maxMapSize = MAX_MAP_SIZE / metaData.getMaxSizeInBytes();
+        this.segmentSize = segmentSize;
+        segmentFileNamePattern = Pattern.compile(Pattern.quote(metaData.getFileName()) + "\\.(\\d+)" +
+                Pattern.quote(SEGMENT_SUFFIX));
+        List<Integer> indices = findSegmentIndices();
+        for (int i = 0; i < indices.size(); i++) {
+            int index = indices.get(i);
+            MappedSegment segment = new MappedSegment(getSegmentFile(index), index, segmentSize);
+            segmentByIndex.put(index, segment);
+            boolean isLast = i == indices.size() - 1;
+            segment.scan((mapKey, offset) -> locationByKey.putIfAbsent(mapKey, toLocation(index, offset)), isLast);
+            if (isLast) {
+                currentSegment = segment;
+            }
+        }
+        if (currentSegment == null) {
+            currentSegment = createSegment(0);
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public synchronized boolean append(AppendOnlyData appendOnlyData) {
+        if (locationByKey.size() > maxMapSize) {
+            return false;
+        }
+
+        byte[] payload = appendOnlyData.serialize();
+        byte[] hash = DigestUtil.hash(payload);
+        MapKey mapKey = new MapKey(hash);
+        if (locationByKey.containsKey(mapKey)) {
+            return false;
+        }
+
+        int recordSize = MappedSegment.getRecordSize(hash, payload);
+        if (recordSize > segmentSize) {
+            log.warn("Data of size {} exceeds the segment size of {}. We ignore it.", recordSize, segmentSize);
+            return false;
+        }
+        try {
+            if (!currentSegment.hasSpace(recordSize)) {
+                currentSegment.force();
+                currentSegment = createSegment(currentSegment.getIndex() + 1);
+            }
+        } catch (IOException exception) {
+            log.error(exception.toString(), exception);
+            return false;
+        }
+        int offset = currentSegment.append(hash, payload);
+        currentSegment.force();
+        locationByKey.put(mapKey, toLocation(currentSegment.getIndex(), offset));
+        listeners.forEach(listener -> listener.onAppended(appendOnlyData));
+        return true;
+    }
+
+    /**
+     * Deserializes the data from the segment. The returned instance is not cached.
+     */
+    public Optional<AppendOnlyData> find(MapKey mapKey) {
+        Long location = locationByKey.get(mapKey);
+        if (location == null) {
+            return Optional.empty();
+        }
+        MappedSegment segment = segmentByIndex.get((int) (location >>> 32));
+        return segment.read((int) location.longValue())
+                .map(ObjectSerializer::deserialize)
+                .filter(serializable -> serializable instanceof AppendOnlyData)
+                .map(serializable -> (AppendOnlyData) serializable);
+    }
+
+    public boolean contains(MapKey mapKey) {
+        return locationByKey.containsKey(mapKey);
+    }
+
+    public Set<MapKey> getKeys() {
+        return Collections.unmodifiableSet(locationByKey.keySet());
+    }
+
+    public int size() {
+        return locationByKey.size();
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        segmentByIndex.values().forEach(segment -> {
+            try {
+                segment.close();
+            } catch (IOException exception) {
+                log.error(exception.toString(), exception);
+            }
+        });
+    }
+
+    public void addListener(AppendOnlyDataStore.Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(AppendOnlyDataStore.Listener listener) {
+        listeners.remove(listener);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private List<Integer> findSegmentIndices() {
+        File[] files = new File(storageFilePath).getParentFile().listFiles();
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        List<Integer> indices = new ArrayList<>();
+        for (File file : files) {
+            Matcher matcher = segmentFileNamePattern.matcher(file.getName());
+            if (matcher.matches()) {
+                indices.add(Integer.parseInt(matcher.group(1)));
+            }
+        }
+        Collections.sort(indices);
+        return indices;
+    }
+
+    private MappedSegment createSegment(int index) throws IOException {
+        MappedSegment segment = new MappedSegment(getSegmentFile(index), index, segmentSize);
+        segmentByIndex.put(index, segment);
+        return segment;
+    }
+
+    private File getSegmentFile(int index) {
+        return new File(storageFilePath + "." + index + SEGMENT_SUFFIX);
+    }
+
+    private static long toLocation(int segmentIndex, int offset) {
+        return ((long) segmentIndex << 32) | offset;
+    }
+}
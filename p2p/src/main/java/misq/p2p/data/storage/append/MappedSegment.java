@@ -0,0 +1,182 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.data.storage.append;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import misq.p2p.data.storage.MapKey;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Fixed size file mapped into memory which holds the records of a {@link MappedAppendOnlyDataStore}.
+ * <p>
+ * A record consists of the length of the payload (int), the CRC32 of hash and payload (int), the length of the hash
+ * (byte), the hash and the serialized payload. The unused rest of the segment is zero, so a record with length 0
+ * marks the end. Records are written by one thread at a time, reads are thread safe.
+ */
+@Slf4j
+class MappedSegment implements Closeable {
+    static final int HEADER_SIZE = 9;
+
+    @Getter
+    private final int index;
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    // Following field is guarded by the writer
+    private int position;
+
+    MappedSegment(File file, int index, int size) throws IOException {
+        this.file = file;
+        this.index = index;
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        // Segments written with another size are mapped completely
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+    }
+
+    static int getRecordSize(byte[] hash, byte[] payload) {
+        return HEADER_SIZE + hash.length + payload.length;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Package private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Reads the headers of all records and passes the key and offset of each record to the consumer. The payloads are
+     * not read.
+     *
+     * @param verify If true the CRC of each record is checked. The first invalid record and everything after it gets
+     *               cleared, as it is the remainder of an interrupted write.
+     */
+    void scan(BiConsumer<MapKey, Integer> consumer, boolean verify) {
+        ByteBuffer view = buffer.duplicate();
+        int offset = 0;
+        while (offset + HEADER_SIZE <= view.capacity()) {
+            int length = view.getInt(offset);
+            int hashLength = view.get(offset + 8) & 0xFF;
+            int recordSize = HEADER_SIZE + hashLength + length;
+            if (length <= 0 || hashLength == 0 || offset + recordSize > view.capacity() || offset + recordSize < 0 ||
+                    (verify && !isCrcValid(view, offset, hashLength, length))) {
+                break;
+            }
+            byte[] hash = new byte[hashLength];
+            view.position(offset + HEADER_SIZE);
+            view.get(hash);
+            consumer.accept(new MapKey(hash), offset);
+            offset += recordSize;
+        }
+        position = offset;
+        if (verify && !isCleared(view, offset)) {
+            log.warn("Segment {} contains an incomplete record at offset {}. We truncate it.", file, offset);
+            for (int i = offset; i < view.capacity(); i++) {
+                view.put(i, (byte) 0);
+            }
+        }
+    }
+
+    boolean hasSpace(int recordSize) {
+        return position + recordSize <= buffer.capacity();
+    }
+
+    /**
+     * @return Offset of the record. The caller has to check with hasSpace before.
+     */
+    int append(byte[] hash, byte[] payload) {
+        int offset = position;
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + HEADER_SIZE);
+        view.put(hash);
+        view.put(payload);
+        view.put(offset + 8, (byte) hash.length);
+        view.putInt(offset + 4, getCrc(view, offset, hash.length, payload.length));
+        // The length gets written last, so a record is not visible to scan before it is complete
+        view.putInt(offset, payload.length);
+        position = offset + getRecordSize(hash, payload);
+        return offset;
+    }
+
+    /**
+     * @return The serialized payload of the record at the given offset or empty if the record is corrupt.
+     */
+    Optional<byte[]> read(int offset) {
+        ByteBuffer view = buffer.duplicate();
+        int length = view.getInt(offset);
+        int hashLength = view.get(offset + 8) & 0xFF;
+        if (!isCrcValid(view, offset, hashLength, length)) {
+            log.warn("Record at offset {} of segment {} is corrupt.", offset, file);
+            return Optional.empty();
+        }
+        byte[] payload = new byte[length];
+        view.position(offset + HEADER_SIZE + hashLength);
+        view.get(payload);
+        return Optional.of(payload);
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        // The mapping itself is released once the buffer gets garbage collected
+        channel.close();
+        randomAccessFile.close();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static boolean isCrcValid(ByteBuffer view, int offset, int hashLength, int length) {
+        return view.getInt(offset + 4) == getCrc(view, offset, hashLength, length);
+    }
+
+    private static int getCrc(ByteBuffer view, int offset, int hashLength, int length) {
+        ByteBuffer data = view.duplicate();
+        data.position(offset + HEADER_SIZE);
+        data.limit(offset + HEADER_SIZE + hashLength + length);
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+        return (int) crc32.getValue();
+    }
+
+    private static boolean isCleared(ByteBuffer view, int offset) {
+        for (int i = offset; i < view.capacity(); i++) {
+            if (view.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -19,27 +19,30 @@ package misq.p2p.data.storage.auth;
 
 import com.google.common.annotations.VisibleForTesting;
 import lombok.extern.slf4j.Slf4j;
-import misq.common.persistence.Persistence;
+import misq.common.persistence.WriteAheadLog;
+import misq.common.persistence.WriteAheadLogConfig;
 import misq.common.security.DigestUtil;
+import misq.common.timer.HierarchicalTimingWheel;
 import misq.p2p.data.filter.ProtectedDataFilter;
 import misq.p2p.data.inventory.Inventory;
 import misq.p2p.data.storage.MapKey;
 import misq.p2p.data.storage.MetaData;
+import misq.p2p.data.storage.TombstoneStats;
 import misq.p2p.data.storage.Util;
 import misq.p2p.data.storage.mailbox.AddMailboxRequest;
 import misq.p2p.data.storage.mailbox.DataStore;
 import misq.p2p.data.storage.mailbox.MailboxData;
 import misq.p2p.data.storage.mailbox.MailboxPayload;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -47,7 +50,9 @@ import java.util.stream.Collectors;
 public class AuthenticatedDataStore extends DataStore {
     private static final long MAX_AGE = TimeUnit.DAYS.toMillis(10);
     private static final int MAX_MAP_SIZE = 10000;
-
+    private static final long EXPIRY_TICK_MS = 1000;
+    private static final int EXPIRY_WHEEL_SIZE = 64;
+    private static final long MIN_DROPPED_TOMBSTONE_BYTES_FOR_COMPACTION = 64 * 1024;
 
     // Max size of serialized NetworkData or MailboxMessage. Used to limit response map.
     // Depends on data types max. expected size.
@@ -62,27 +67,41 @@ public class AuthenticatedDataStore extends DataStore {
 
         default void onRefreshed(AuthenticatedPayload authenticatedPayload) {
         }
+
+        // Called with all payloads expired at one tick of the expiry timer
+        default void onExpired(List<AuthenticatedPayload> authenticatedPayloads) {
+            authenticatedPayloads.forEach(this::onRemoved);
+        }
     }
 
     private final int maxItems;
+    // Taken from the meta data of the store, as the meta data of a remove request is not covered by its signature
+    private final long tombstoneTtl;
+    // Mutations are synchronized, so the records of a key are appended to the log in the order the map got updated
     private final ConcurrentHashMap<MapKey, AuthenticatedDataRequest> map = new ConcurrentHashMap<>();
+    private final WriteAheadLog<MapKey, AuthenticatedDataRequest> writeAheadLog;
     private final Set<Listener> listeners = new CopyOnWriteArraySet<>();
+    // Expiration of the entries of the map, so expired entries are removed without scanning the map
+    private final HierarchicalTimingWheel<MapKey> expiryTimingWheel =
+            new HierarchicalTimingWheel<>(EXPIRY_TICK_MS, EXPIRY_WHEEL_SIZE, System.currentTimeMillis());
+    private final ScheduledFuture<?> expiryTask;
+    private final TombstoneStats tombstoneStats = new TombstoneStats();
+    // Guarded by this
+    private long droppedTombstoneBytes;
 
     public AuthenticatedDataStore(String appDirPath, MetaData metaData) throws IOException {
         super(appDirPath, metaData);
 
         maxItems = MAX_INVENTORY_MAP_SIZE / metaData.getMaxSizeInBytes();
+        // Data types without TTL are only limited by MAX_AGE
+        tombstoneTtl = metaData.getTtl() > 0 ? metaData.getTtl() : MAX_AGE;
 
-        if (new File(storageFilePath).exists()) {
-            Serializable serializable = Persistence.read(storageFilePath);
-            if (serializable instanceof ConcurrentHashMap) {
-                ConcurrentHashMap<MapKey, AuthenticatedDataRequest> persisted = (ConcurrentHashMap<MapKey, AuthenticatedDataRequest>) serializable;
-                maybePruneMap(persisted);
-            }
-        }
+        writeAheadLog = new WriteAheadLog<>(storageFilePath, new WriteAheadLogConfig(), () -> map);
+        maybePruneMap(writeAheadLog.recover());
+        expiryTask = runPeriodically(() -> removeExpired(System.currentTimeMillis()), EXPIRY_TICK_MS);
     }
 
-    public Result add(AddAuthenticatedDataRequest request) throws NoSuchAlgorithmException {
+    public synchronized Result add(AddAuthenticatedDataRequest request) throws NoSuchAlgorithmException {
         AuthenticatedData entry = request.getAuthenticatedData();
         AuthenticatedPayload authenticatedPayload = entry.getPayload();
         byte[] hash = DigestUtil.hash(authenticatedPayload.serialize());
@@ -110,30 +129,31 @@ public class AuthenticatedDataStore extends DataStore {
             return new Result(false).signatureInvalid();
         }
 
-        map.put(mapKey, request);
+        put(mapKey, request);
         listeners.forEach(listener -> listener.onAdded(authenticatedPayload));
-        persist();
+        persist(mapKey, request);
         return new Result(true);
     }
 
-    public Result remove(RemoveRequest request) {
+    public synchronized Result remove(RemoveRequest request) {
         MapKey mapKey = new MapKey(request.getHash());
         AuthenticatedDataRequest requestFromMap = map.get(mapKey);
 
         if (requestFromMap == null) {
             // We don't have any entry but it might be that we would receive later an add request, so we need to keep
             // track of the sequence number
-            map.put(mapKey, request);
-            persist();
+            put(mapKey, request);
+            persist(mapKey, request);
             return new Result(false).noEntry();
         }
 
         if (requestFromMap instanceof RemoveRequest) {
             // We have had the entry already removed.
-            if (request.isSequenceNrInvalid(requestFromMap.getSequenceNumber())) {
-                // We update the request so we have latest sequence number.
-                map.put(mapKey, request);
-                persist();
+            if (!request.isSequenceNrInvalid(requestFromMap.getSequenceNumber())) {
+                // We update the request so we have latest sequence number. Repeated tombstones with the same or a
+                // lower sequence number are not stored again.
+                put(mapKey, request);
+                persist(mapKey, request);
             }
             return new Result(false).alreadyRemoved();
         }
@@ -157,13 +177,13 @@ public class AuthenticatedDataStore extends DataStore {
             return new Result(false).signatureInvalid();
         }
 
-        map.put(mapKey, request);
+        put(mapKey, request);
         listeners.forEach(listener -> listener.onRemoved(dataFromMap));
-        persist();
+        persist(mapKey, request);
         return new Result(true);
     }
 
-    public Result refresh(RefreshRequest request) {
+    public synchronized Result refresh(RefreshRequest request) {
         MapKey mapKey = new MapKey(request.getHash());
         AuthenticatedDataRequest requestFromMap = map.get(mapKey);
 
@@ -219,9 +239,9 @@ public class AuthenticatedDataStore extends DataStore {
                     addRequestFromMap.getOwnerPublicKey());
         }
 
-        map.put(mapKey, updatedRequest);
+        put(mapKey, updatedRequest);
         listeners.forEach(listener -> listener.onRefreshed(dataFromMap));
-        persist();
+        persist(mapKey, updatedRequest);
         return new Result(true);
     }
 
@@ -240,7 +260,12 @@ public class AuthenticatedDataStore extends DataStore {
 
     @Override
     public void shutdown() {
+        expiryTask.cancel(false);
+        writeAheadLog.shutdown();
+    }
 
+    public TombstoneStats getTombstoneStats() {
+        return tombstoneStats;
     }
 
     public void addListener(Listener listener) {
@@ -289,26 +314,117 @@ public class AuthenticatedDataStore extends DataStore {
                 .collect(Collectors.toList());
     }
 
-    private void persist() {
-        Persistence.write(map, storageFilePath);
+    // Runs on the expiry timer
+    @VisibleForTesting
+    void removeExpired(long now) {
+        List<MapKey> expiredKeys = expiryTimingWheel.advance(now);
+        if (expiredKeys.isEmpty()) {
+            return;
+        }
+        List<MapKey> removedKeys = new ArrayList<>();
+        List<AuthenticatedPayload> expiredPayloads = new ArrayList<>();
+        synchronized (this) {
+            for (MapKey mapKey : expiredKeys) {
+                AuthenticatedDataRequest request = map.get(mapKey);
+                if (request == null) {
+                    continue;
+                }
+                long expiration = getExpiration(request);
+                if (expiration > now) {
+                    // Expires later within the current tick
+                    expiryTimingWheel.schedule(mapKey, expiration);
+                    continue;
+                }
+                map.remove(mapKey);
+                removedKeys.add(mapKey);
+                droppedTombstoneBytes += tombstoneStats.onTombstoneRemoved(mapKey);
+                if (request instanceof AddAuthenticatedDataRequest) {
+                    expiredPayloads.add(((AddAuthenticatedDataRequest) request).getAuthenticatedData().getPayload());
+                }
+            }
+            if (removedKeys.isEmpty()) {
+                return;
+            }
+            persistRemovals(removedKeys);
+            if (!expiredPayloads.isEmpty()) {
+                listeners.forEach(listener -> listener.onExpired(expiredPayloads));
+            }
+            maybeCompact();
+        }
+    }
+
+    // Once a substantial part of the snapshot consists of dropped tombstones we compact, so the snapshot shrinks
+    private void maybeCompact() {
+        long threshold = Math.max(MIN_DROPPED_TOMBSTONE_BYTES_FOR_COMPACTION, writeAheadLog.getSnapshotSize() / 4);
+        if (droppedTombstoneBytes >= threshold) {
+            log.info("Dropped {} bytes of tombstones. We compact {}. {}", droppedTombstoneBytes, storageFilePath,
+                    tombstoneStats);
+            droppedTombstoneBytes = 0;
+            writeAheadLog.requestCompaction();
+        }
+    }
+
+    private void put(MapKey mapKey, AuthenticatedDataRequest request) {
+        map.put(mapKey, request);
+        if (request instanceof RemoveRequest) {
+            tombstoneStats.onTombstoneAdded(mapKey, (RemoveRequest) request);
+        } else {
+            tombstoneStats.onTombstoneRemoved(mapKey);
+        }
+        expiryTimingWheel.schedule(mapKey, getExpiration(request));
+    }
+
+    // Data expires once its TTL has passed. A tombstone is only needed as long as the data it shadows could be
+    // valid, so it expires after the TTL of the data type as well. Both are removed after MAX_AGE at the latest.
+    private long getExpiration(AuthenticatedDataRequest request) {
+        long ttl;
+        if (request instanceof RemoveRequest) {
+            ttl = tombstoneTtl;
+        } else {
+            ttl = ((AddAuthenticatedDataRequest) request).getAuthenticatedData().getPayload().getMetaData().getTtl();
+        }
+        return request.getCreated() + Math.min(ttl, MAX_AGE);
+    }
+
+    private void persistRemovals(List<MapKey> mapKeys) {
+        writeAheadLog.removeAll(mapKeys).whenComplete((nil, throwable) -> {
+            if (throwable != null) {
+                log.error("Persisting the removal of {} expired entries failed", mapKeys.size(), throwable);
+            }
+        });
+    }
+
+    private void persist(MapKey mapKey, AuthenticatedDataRequest request) {
+        writeAheadLog.append(mapKey, request).whenComplete((nil, throwable) -> {
+            if (throwable != null) {
+                log.error("Persisting {} failed", mapKey, throwable);
+            }
+        });
     }
 
 
-    // todo call by time interval
     private void maybePruneMap(ConcurrentHashMap<MapKey, AuthenticatedDataRequest> current) {
         long now = System.currentTimeMillis();
-        // Remove entries older than MAX_AGE
-        // Remove expired ProtectedEntry in case value is of type AddProtectedDataRequest
+        // Remove expired entries and tombstones
         // Sort by created date
         // Limit to MAX_MAP_SIZE
         Map<MapKey, AuthenticatedDataRequest> pruned = current.entrySet().stream()
-                .filter(entry -> now - entry.getValue().getCreated() < MAX_AGE)
-                .filter(entry -> entry.getValue() instanceof RemoveRequest ||
-                        !((AddAuthenticatedDataRequest) entry.getValue()).getAuthenticatedData().isExpired())
+                .filter(entry -> getExpiration(entry.getValue()) > now)
                 .sorted((o1, o2) -> Long.compare(o2.getValue().getCreated(), o1.getValue().getCreated()))
                 .limit(MAX_MAP_SIZE)
                 .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-        map.putAll(pruned);
+        pruned.forEach(this::put);
+        // Later expirations are handled by the expiry timer
+        List<MapKey> prunedKeys = current.keySet().stream()
+                .filter(mapKey -> !pruned.containsKey(mapKey))
+                .collect(Collectors.toList());
+        if (!prunedKeys.isEmpty()) {
+            persistRemovals(prunedKeys);
+            if (prunedKeys.size() >= current.size() / 4) {
+                // The snapshot would still contain the pruned entries
+                writeAheadLog.requestCompaction();
+            }
+        }
     }
 
 
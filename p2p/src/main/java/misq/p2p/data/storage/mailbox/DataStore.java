@@ -17,16 +17,26 @@
 
 package misq.p2p.data.storage.mailbox;
 
+import lombok.extern.slf4j.Slf4j;
 import misq.common.util.FileUtils;
+import misq.common.util.ThreadingUtils;
 import misq.p2p.data.storage.MetaData;
 import misq.p2p.data.storage.Storage;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import static java.io.File.separator;
 
+@Slf4j
 public abstract class DataStore {
+    // Shared by all stores for removing expired entries
+    private static final ScheduledExecutorService EXPIRY_TIMER =
+            ThreadingUtils.getSingleThreadScheduledExecutor("DataStore.expiry");
+
     protected final String storageFilePath;
 
     public DataStore(String appDirPath, MetaData metaData) throws IOException {
@@ -40,4 +50,15 @@ public abstract class DataStore {
     }
 
     abstract public void shutdown();
+
+    protected static ScheduledFuture<?> runPeriodically(Runnable task, long intervalMs) {
+        return EXPIRY_TIMER.scheduleWithFixedDelay(() -> {
+            try {
+                task.run();
+            } catch (Throwable throwable) {
+                // Otherwise the task would not be executed anymore
+                log.error(throwable.toString(), throwable);
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
 }
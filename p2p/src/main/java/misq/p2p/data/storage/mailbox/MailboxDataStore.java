@@ -19,25 +19,28 @@ package misq.p2p.data.storage.mailbox;
 
 import com.google.common.annotations.VisibleForTesting;
 import lombok.extern.slf4j.Slf4j;
-import misq.common.persistence.Persistence;
+import misq.common.persistence.WriteAheadLog;
+import misq.common.persistence.WriteAheadLogConfig;
 import misq.common.security.DigestUtil;
+import misq.common.timer.HierarchicalTimingWheel;
 import misq.p2p.data.filter.ProtectedDataFilter;
 import misq.p2p.data.inventory.Inventory;
 import misq.p2p.data.storage.MapKey;
 import misq.p2p.data.storage.MetaData;
+import misq.p2p.data.storage.TombstoneStats;
 import misq.p2p.data.storage.Util;
 import misq.p2p.data.storage.auth.AuthenticatedDataRequest;
 import misq.p2p.data.storage.auth.Result;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -45,6 +48,9 @@ import java.util.stream.Collectors;
 public class MailboxDataStore extends DataStore {
     private static final long MAX_AGE = TimeUnit.DAYS.toMillis(10);
     private static final int MAX_MAP_SIZE = 10000;
+    private static final long EXPIRY_TICK_MS = 1000;
+    private static final int EXPIRY_WHEEL_SIZE = 64;
+    private static final long MIN_DROPPED_TOMBSTONE_BYTES_FOR_COMPACTION = 64 * 1024;
 
     // Max size of serialized NetworkData or MailboxMessage. Used to limit response map.
     // Depends on data types max. expected size.
@@ -56,28 +62,42 @@ public class MailboxDataStore extends DataStore {
         void onAdded(MailboxPayload mailboxPayload);
 
         void onRemoved(MailboxPayload mailboxPayload);
+
+        // Called with all payloads expired at one tick of the expiry timer
+        default void onExpired(List<MailboxPayload> mailboxPayloads) {
+            mailboxPayloads.forEach(this::onRemoved);
+        }
     }
 
 
     private final int maxItems;
+    // Taken from the meta data of the store, as the meta data of a remove request is not covered by its signature
+    private final long tombstoneTtl;
+    // Mutations are synchronized, so the records of a key are appended to the log in the order the map got updated
     private final ConcurrentHashMap<MapKey, MailboxRequest> map = new ConcurrentHashMap<>();
+    private final WriteAheadLog<MapKey, MailboxRequest> writeAheadLog;
     private final Set<Listener> listeners = new CopyOnWriteArraySet<>();
+    // Expiration of the entries of the map, so expired entries are removed without scanning the map
+    private final HierarchicalTimingWheel<MapKey> expiryTimingWheel =
+            new HierarchicalTimingWheel<>(EXPIRY_TICK_MS, EXPIRY_WHEEL_SIZE, System.currentTimeMillis());
+    private final ScheduledFuture<?> expiryTask;
+    private final TombstoneStats tombstoneStats = new TombstoneStats();
+    // Guarded by this
+    private long droppedTombstoneBytes;
 
     public MailboxDataStore(String appDirPath, MetaData metaData) throws IOException {
         super(appDirPath, metaData);
 
         maxItems = MAX_INVENTORY_MAP_SIZE / metaData.getMaxSizeInBytes();
+        // Data types without TTL are only limited by MAX_AGE
+        tombstoneTtl = metaData.getTtl() > 0 ? metaData.getTtl() : MAX_AGE;
 
-        if (new File(storageFilePath).exists()) {
-            Serializable serializable = Persistence.read(storageFilePath);
-            if (serializable instanceof ConcurrentHashMap) {
-                ConcurrentHashMap<MapKey, MailboxRequest> persisted = (ConcurrentHashMap<MapKey, MailboxRequest>) serializable;
-                maybePruneMap(persisted);
-            }
-        }
+        writeAheadLog = new WriteAheadLog<>(storageFilePath, new WriteAheadLogConfig(), () -> map);
+        maybePruneMap(writeAheadLog.recover());
+        expiryTask = runPeriodically(() -> removeExpired(System.currentTimeMillis()), EXPIRY_TICK_MS);
     }
 
-    public Result add(AddMailboxRequest request) throws NoSuchAlgorithmException {
+    public synchronized Result add(AddMailboxRequest request) throws NoSuchAlgorithmException {
         MailboxData data = request.getMailboxData();
         MailboxPayload payload = data.getMailboxPayload();
         byte[] hash = DigestUtil.hash(payload.serialize());
@@ -105,30 +125,31 @@ public class MailboxDataStore extends DataStore {
             return new Result(false).signatureInvalid();
         }
 
-        map.put(mapKey, request);
+        put(mapKey, request);
         listeners.forEach(listener -> listener.onAdded(payload));
-        persist();
+        persist(mapKey, request);
         return new Result(true);
     }
 
-    public Result remove(RemoveMailboxRequest request) {
+    public synchronized Result remove(RemoveMailboxRequest request) {
         MapKey mapKey = new MapKey(request.getHash());
         MailboxRequest requestFromMap = map.get(mapKey);
 
         if (requestFromMap == null) {
             // We don't have any entry but it might be that we would receive later an add request, so we need to keep
             // track of the sequence number
-            map.put(mapKey, request);
-            persist();
+            put(mapKey, request);
+            persist(mapKey, request);
             return new Result(false).noEntry();
         }
 
         if (requestFromMap instanceof RemoveMailboxRequest) {
             // We have had the entry already removed.
-            if (request.isSequenceNrInvalid(requestFromMap.getSequenceNumber())) {
-                // We update the request so we have latest sequence number.
-                map.put(mapKey, request);
-                persist();
+            if (!request.isSequenceNrInvalid(requestFromMap.getSequenceNumber())) {
+                // We update the request so we have latest sequence number. Repeated tombstones with the same or a
+                // lower sequence number are not stored again.
+                put(mapKey, request);
+                persist(mapKey, request);
             }
             return new Result(false).alreadyRemoved();
         }
@@ -151,9 +172,9 @@ public class MailboxDataStore extends DataStore {
             return new Result(false).signatureInvalid();
         }
 
-        map.put(mapKey, request);
+        put(mapKey, request);
         listeners.forEach(listener -> listener.onRemoved(dataFromMap.getMailboxPayload()));
-        persist();
+        persist(mapKey, request);
         return new Result(true);
     }
 
@@ -172,7 +193,12 @@ public class MailboxDataStore extends DataStore {
 
     @Override
     public void shutdown() {
+        expiryTask.cancel(false);
+        writeAheadLog.shutdown();
+    }
 
+    public TombstoneStats getTombstoneStats() {
+        return tombstoneStats;
     }
 
     public void addListener(Listener listener) {
@@ -228,25 +254,116 @@ public class MailboxDataStore extends DataStore {
         return getSequenceNumber(hash) < Integer.MAX_VALUE;
     }
 
-    // todo call by time interval
     private void maybePruneMap(ConcurrentHashMap<MapKey, MailboxRequest> current) {
         long now = System.currentTimeMillis();
-        // Remove entries older than MAX_AGE
-        // Remove expired ProtectedEntry in case value is of type AddProtectedDataRequest
+        // Remove expired entries and tombstones
         // Sort by created date
         // Limit to MAX_MAP_SIZE
         Map<MapKey, MailboxRequest> pruned = current.entrySet().stream()
-                .filter(entry -> now - entry.getValue().getCreated() < MAX_AGE)
-                .filter(entry -> entry.getValue() instanceof RemoveMailboxRequest ||
-                        !((AddMailboxRequest) entry.getValue()).getMailboxData().isExpired())
+                .filter(entry -> getExpiration(entry.getValue()) > now)
                 .sorted((o1, o2) -> Long.compare(o2.getValue().getCreated(), o1.getValue().getCreated()))
                 .limit(MAX_MAP_SIZE)
                 .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-        map.putAll(pruned);
+        pruned.forEach(this::put);
+        // Later expirations are handled by the expiry timer
+        List<MapKey> prunedKeys = current.keySet().stream()
+                .filter(mapKey -> !pruned.containsKey(mapKey))
+                .collect(Collectors.toList());
+        if (!prunedKeys.isEmpty()) {
+            persistRemovals(prunedKeys);
+            if (prunedKeys.size() >= current.size() / 4) {
+                // The snapshot would still contain the pruned entries
+                writeAheadLog.requestCompaction();
+            }
+        }
+    }
+
+    // Runs on the expiry timer
+    @VisibleForTesting
+    void removeExpired(long now) {
+        List<MapKey> expiredKeys = expiryTimingWheel.advance(now);
+        if (expiredKeys.isEmpty()) {
+            return;
+        }
+        List<MapKey> removedKeys = new ArrayList<>();
+        List<MailboxPayload> expiredPayloads = new ArrayList<>();
+        synchronized (this) {
+            for (MapKey mapKey : expiredKeys) {
+                MailboxRequest request = map.get(mapKey);
+                if (request == null) {
+                    continue;
+                }
+                long expiration = getExpiration(request);
+                if (expiration > now) {
+                    // Expires later within the current tick
+                    expiryTimingWheel.schedule(mapKey, expiration);
+                    continue;
+                }
+                map.remove(mapKey);
+                removedKeys.add(mapKey);
+                droppedTombstoneBytes += tombstoneStats.onTombstoneRemoved(mapKey);
+                if (request instanceof AddMailboxRequest) {
+                    expiredPayloads.add(((AddMailboxRequest) request).getMailboxData().getMailboxPayload());
+                }
+            }
+            if (removedKeys.isEmpty()) {
+                return;
+            }
+            persistRemovals(removedKeys);
+            if (!expiredPayloads.isEmpty()) {
+                listeners.forEach(listener -> listener.onExpired(expiredPayloads));
+            }
+            maybeCompact();
+        }
+    }
+
+    // Once a substantial part of the snapshot consists of dropped tombstones we compact, so the snapshot shrinks
+    private void maybeCompact() {
+        long threshold = Math.max(MIN_DROPPED_TOMBSTONE_BYTES_FOR_COMPACTION, writeAheadLog.getSnapshotSize() / 4);
+        if (droppedTombstoneBytes >= threshold) {
+            log.info("Dropped {} bytes of tombstones. We compact {}. {}", droppedTombstoneBytes, storageFilePath,
+                    tombstoneStats);
+            droppedTombstoneBytes = 0;
+            writeAheadLog.requestCompaction();
+        }
+    }
+
+    private void put(MapKey mapKey, MailboxRequest request) {
+        map.put(mapKey, request);
+        if (request instanceof RemoveMailboxRequest) {
+            tombstoneStats.onTombstoneAdded(mapKey, (RemoveMailboxRequest) request);
+        } else {
+            tombstoneStats.onTombstoneRemoved(mapKey);
+        }
+        expiryTimingWheel.schedule(mapKey, getExpiration(request));
+    }
+
+    // Data expires once its TTL has passed. A tombstone is only needed as long as the data it shadows could be
+    // valid, so it expires after the TTL of the data type as well. Both are removed after MAX_AGE at the latest.
+    private long getExpiration(MailboxRequest request) {
+        long ttl;
+        if (request instanceof RemoveMailboxRequest) {
+            ttl = tombstoneTtl;
+        } else {
+            ttl = ((AddMailboxRequest) request).getMailboxData().getMailboxPayload().getMetaData().getTtl();
+        }
+        return request.getCreated() + Math.min(ttl, MAX_AGE);
     }
 
-    private void persist() {
-        Persistence.write(map, storageFilePath);
+    private void persistRemovals(List<MapKey> mapKeys) {
+        writeAheadLog.removeAll(mapKeys).whenComplete((nil, throwable) -> {
+            if (throwable != null) {
+                log.error("Persisting the removal of {} expired entries failed", mapKeys.size(), throwable);
+            }
+        });
+    }
+
+    private void persist(MapKey mapKey, MailboxRequest request) {
+        writeAheadLog.append(mapKey, request).whenComplete((nil, throwable) -> {
+            if (throwable != null) {
+                log.error("Persisting {} failed", mapKey, throwable);
+            }
+        });
     }
 
 }
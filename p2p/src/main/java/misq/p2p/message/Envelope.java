@@ -17,5 +17,141 @@
 
 package misq.p2p.message;
 
-public class Envelope implements Message {
+import com.google.common.annotations.VisibleForTesting;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import misq.common.ObjectSerializer;
+
+import javax.annotation.Nullable;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+
+/**
+ * Carries a message as serialized bytes together with a header (type, priority, correlation id). The header is
+ * decoded with the envelope, the payload only at the first call of getPayload. Messages which get dropped based on the
+ * header (unknown types, rate limited or duplicate messages) never pay for decoding the object graph of the payload.
+ * <p>
+ * The type in the header is only a claim of the sender. Decoding fails if the payload is of another type, so decisions
+ * based on the header cannot be bypassed with a wrong type.
+ */
+@EqualsAndHashCode
+public final class Envelope implements Serializable {
+    @Getter
+    private final String payloadClassName;
+    @Getter
+    private final MessagePriority priority;
+    // Nonce of a Request or requestNonce of a Response
+    @Nullable
+    private final Integer correlationId;
+    @Getter
+    private final byte[] serializedPayload;
+    @Nullable
+    private transient volatile Message payload;
+
+    public Envelope(Message payload) {
+        this.payload = payload;
+        payloadClassName = payload.getClass().getName();
+        priority = payload.getPriority();
+        if (payload instanceof Request) {
+            correlationId = ((Request) payload).getNonce();
+        } else if (payload instanceof Response) {
+            correlationId = ((Response) payload).getRequestNonce();
+        } else {
+            correlationId = null;
+        }
+        serializedPayload = payload.serialize();
+    }
+
+    @VisibleForTesting
+    Envelope(String payloadClassName,
+             MessagePriority priority,
+             @Nullable Integer correlationId,
+             byte[] serializedPayload) {
+        this.payloadClassName = payloadClassName;
+        this.priority = priority;
+        this.correlationId = correlationId;
+        this.serializedPayload = serializedPayload;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Decodes the payload at the first call. Concurrent first calls might decode it twice, which is harmless.
+     *
+     * @throws UncheckedIOException if the payload cannot be decoded or is not of the type declared in the header.
+     */
+    public Message getPayload() {
+        Message result = payload;
+        if (result == null) {
+            result = decode();
+            payload = result;
+        }
+        return result;
+    }
+
+    public boolean isDecoded() {
+        return payload != null;
+    }
+
+    public int getPayloadSize() {
+        return serializedPayload.length;
+    }
+
+    public Optional<Integer> findCorrelationId() {
+        return Optional.ofNullable(correlationId);
+    }
+
+    /**
+     * Resolves the type declared in the header without decoding the payload and without initializing the class.
+     *
+     * @return Empty if the class is not known to us or is not a Message.
+     */
+    public Optional<Class<? extends Message>> findPayloadClass() {
+        try {
+            Class<?> payloadClass = Class.forName(payloadClassName, false, Envelope.class.getClassLoader());
+            return Message.class.isAssignableFrom(payloadClass) ?
+                    Optional.of(payloadClass.asSubclass(Message.class)) :
+                    Optional.empty();
+        } catch (ClassNotFoundException | LinkageError e) {
+            return Optional.empty();
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private Message decode() {
+        Serializable serializable;
+        try {
+            serializable = ObjectSerializer.deserialize(serializedPayload);
+        } catch (RuntimeException e) {
+            throw new UncheckedIOException(new InvalidObjectException("Payload of type " + payloadClassName +
+                    " cannot be decoded: " + e.getMessage()));
+        }
+        if (serializable == null) {
+            throw new UncheckedIOException(new InvalidObjectException("Payload of type " + payloadClassName +
+                    " is null"));
+        }
+        if (!(serializable instanceof Message) || !serializable.getClass().getName().equals(payloadClassName)) {
+            throw new UncheckedIOException(new InvalidObjectException("Payload is of type " +
+                    serializable.getClass().getName() + " but header declares " + payloadClassName));
+        }
+        return (Message) serializable;
+    }
+
+    @Override
+    public String toString() {
+        return "Envelope{" +
+                "\n     payloadClassName=" + payloadClassName +
+                ",\n     payloadSize=" + serializedPayload.length +
+                ",\n     payload=" + (isDecoded() ? payload : "[not decoded]") +
+                "\n}";
+    }
 }
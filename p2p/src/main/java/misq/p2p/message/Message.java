@@ -25,4 +25,11 @@ public interface Message extends Serializable {
     default byte[] serialize() {
         return ObjectSerializer.serialize(this);
     }
+
+    /**
+     * Messages which do not declare a priority are treated like direct messages to a peer, which never get dropped.
+     */
+    default MessagePriority getPriority() {
+        return MessagePriority.CONFIDENTIAL;
+    }
 }
@@ -0,0 +1,33 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.message;
+
+/**
+ * Outbound lane of a message at the connection. Lanes are served in the order of declaration, large messages are
+ * sent in chunks so that messages of a higher priority do not have to wait until they are completely sent.
+ */
+public enum MessagePriority {
+    // Handshake, peer exchange and requests
+    CONTROL,
+    // Direct messages to a peer, e.g. trade protocol messages
+    CONFIDENTIAL,
+    // Broadcast data. Might get dropped if the peer is not able to keep up.
+    GOSSIP,
+    // Sync of larger data sets like inventory responses
+    BULK
+}
@@ -23,20 +23,28 @@ import misq.p2p.Address;
 import misq.p2p.NetworkConfig;
 import misq.p2p.NetworkType;
 import misq.p2p.message.Message;
+import misq.p2p.node.capability.AddressProof;
+import misq.p2p.node.capability.AddressTokenStore;
 import misq.p2p.node.capability.Capability;
 import misq.p2p.node.capability.CapabilityRequestHandler;
 import misq.p2p.node.capability.CapabilityResponseHandler;
+import misq.p2p.node.capability.SessionTicketStore;
+import misq.p2p.node.connection.EncodedMessage;
 import misq.p2p.node.connection.InboundConnection;
 import misq.p2p.node.connection.OutboundConnection;
 import misq.p2p.node.connection.RawConnection;
+import misq.p2p.node.connection.frame.CompressionCodec;
 import misq.p2p.node.proxy.GetServerSocketResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -45,6 +53,16 @@ import static com.google.common.base.Preconditions.checkArgument;
  * - Creates the RawNode
  * - Request {@link Capability} from peer and transmit own {@link Capability}
  * <p>
+ * - Selects the compression codec for outgoing frames from the codecs supported by both peers
+ * <p>
+ * - At reconnects to a peer we have a session ticket from, we do not wait for the handshake response (see
+ * {@link SessionTicketStore})
+ * <p>
+ * - Indexes established connections by the peer address announced in the handshake (see {@link ConnectionIndex}), so
+ * inbound connections are reused for sending as well once the peer has proven its address with a token we have issued
+ * when we connected to it (see {@link AddressTokenStore}). If both peers have connected to each other we keep the
+ * connection initiated by the peer with the lower address and the initiator of the other connection closes it.
+ * <p>
  * Only after that initial handshake is completed messages can be sent and received.
  * When attempting to send a Message while the handshake is not completed the message will kept in a queue for
  * being processed once the handshake is completed.
@@ -54,18 +72,24 @@ import static com.google.common.base.Preconditions.checkArgument;
  */
 public class BaseNode implements RawNode.ConnectionListener, MessageListener {
     private static final Logger log = LoggerFactory.getLogger(BaseNode.class);
+    // Gives the peer time to complete pending requests at the duplicate connection before we close it
+    private static final long DUPLICATE_CONNECTION_CLOSE_DELAY_SEC = 5;
 
     private final RawNode rawNode;
     private final MessageListener messageHandler;
     private final Set<NetworkType> mySupportedNetworks;
+    private final Set<CompressionCodec> mySupportedCompressionCodecs = EnumSet.allOf(CompressionCodec.class);
+    private final RequestCorrelator requestCorrelator = new RequestCorrelator();
+    private final SessionTicketStore sessionTicketStore = new SessionTicketStore();
+    private final AddressTokenStore addressTokenStore = new AddressTokenStore(this::onAddressTokenReceived);
     private final NetworkType networkType;
     private final String nodeId;
 
     // ConnectionUid is key in following maps
     private final Map<String, CapabilityResponseHandler> responseHandlerMap = new ConcurrentHashMap<>();
     private final Map<String, CapabilityRequestHandler> requestHandlerMap = new ConcurrentHashMap<>();
-    private final Map<String, Connection> connectionMap = new ConcurrentHashMap<>();
     private final Map<String, RawConnection.MessageListener> messageListenerMap = new ConcurrentHashMap<>();
+    private final ConnectionIndex connectionIndex = new ConnectionIndex();
 
     private final Set<Address> addressesOfPendingConnections = new CopyOnWriteArraySet<>();
     private final Map<Address, List<CompletableFuture<Connection>>> pendingConnectionQueue = new ConcurrentHashMap<>();
@@ -106,7 +130,7 @@ public class BaseNode implements RawNode.ConnectionListener, MessageListener {
         String id = rawConnection.getId();
 
         MapUtils.disposeAndRemove(id, requestHandlerMap);
-        MapUtils.disposeAndRemove(id, requestHandlerMap);
+        MapUtils.disposeAndRemove(id, responseHandlerMap);
 
         rawNode.findPeerAddress(rawConnection).ifPresent(address -> {
             if (pendingConnectionQueue.containsKey(address)) {
@@ -117,18 +141,16 @@ public class BaseNode implements RawNode.ConnectionListener, MessageListener {
             }
         });
 
-        if (connectionMap.containsKey(id)) {
-            // We only notify higher layers on disconnects if established connections, as they should not concern about
-            // connections which have not reached that state.
-            Connection connection = connectionMap.get(id);
-            connectionMap.remove(id);
+        // We only notify higher layers on disconnects if established connections, as they should not concern about
+        // connections which have not reached that state.
+        connectionIndex.remove(id).ifPresent(connection -> {
             connectionListeners.forEach(listener -> listener.onDisconnect(connection));
 
             if (messageListenerMap.containsKey(id)) {
                 RawConnection.MessageListener messageListener = messageListenerMap.get(id);
                 connection.getRawConnection().removeMessageListener(messageListener);
             }
-        }
+        });
     }
 
 
@@ -138,6 +160,10 @@ public class BaseNode implements RawNode.ConnectionListener, MessageListener {
 
     @Override
     public void onMessage(Message message, Connection connection) {
+        if (message instanceof AddressProof) {
+            onAddressProof((AddressProof) message, connection);
+            return;
+        }
         messageHandler.onMessage(message, connection);
     }
 
@@ -173,6 +199,15 @@ public class BaseNode implements RawNode.ConnectionListener, MessageListener {
                 .thenApply(rawConnection -> connection);
     }
 
+    CompletableFuture<Connection> send(EncodedMessage encodedMessage, Connection connection) {
+        return rawNode.send(encodedMessage, connection.getRawConnection())
+                .thenApply(rawConnection -> connection);
+    }
+
+    void disconnect(Connection connection) {
+        rawNode.disconnect(connection.getRawConnection());
+    }
+
     void shutdown() {
         synchronized (isStoppedLock) {
             isStopped = true;
@@ -190,15 +225,14 @@ public class BaseNode implements RawNode.ConnectionListener, MessageListener {
 
         MapUtils.disposeAndRemoveAll(requestHandlerMap);
         MapUtils.disposeAndRemoveAll(responseHandlerMap);
-        connectionMap.clear();
+        requestCorrelator.shutdown();
+        connectionIndex.clear();
 
         rawNode.shutdown();
     }
 
     Optional<Connection> findConnection(Address peerAddress) {
-        return connectionMap.values().stream()
-                .filter(c -> c.getPeerAddress().equals(peerAddress))
-                .findAny();
+        return connectionIndex.findByPeerAddress(peerAddress);
     }
 
     void addConnectionListener(ConnectionListener connectionListener) {
@@ -222,53 +256,166 @@ public class BaseNode implements RawNode.ConnectionListener, MessageListener {
         return rawNode.findMyAddress();
     }
 
+    void addStreamRoute(Address peerAddress, Address viaAddress) {
+        rawNode.addStreamRoute(peerAddress, viaAddress);
+    }
+
+    void removeStreamRoute(Address peerAddress) {
+        rawNode.removeStreamRoute(peerAddress);
+    }
+
+    Optional<ConnectionFailureStats> findConnectionFailureStats(Address peerAddress) {
+        return rawNode.findConnectionFailureStats(peerAddress);
+    }
+
 
     ///////////////////////////////////////////////////////////////////////////////////////////////////
     // Private
     ///////////////////////////////////////////////////////////////////////////////////////////////////
 
     private CompletableFuture<Connection> requestCapability(RawConnection rawConnection, Address peerAddress) {
+        Optional<SessionTicketStore.SessionTicket> sessionTicket = sessionTicketStore.find(peerAddress);
+        // The request handler presents the token if we have one
+        boolean hasAddressToken = addressTokenStore.find(peerAddress).isPresent();
         CapabilityRequestHandler capabilityRequestHandler = new CapabilityRequestHandler(rawConnection,
-                peerAddress, getMyAddress(), mySupportedNetworks);
+                peerAddress,
+                getMyAddress(),
+                mySupportedNetworks,
+                mySupportedCompressionCodecs,
+                requestCorrelator,
+                sessionTicketStore,
+                addressTokenStore,
+                sessionTicket.orElse(null));
         requestHandlerMap.put(rawConnection.getId(), capabilityRequestHandler);
-        return capabilityRequestHandler.request()
-                .thenCompose(capability -> {
-                    log.info("onOutboundConnection: peerAddress: {}, myAddress={}, rawConnection: {}", peerAddress, getMyAddress(), rawConnection);
-                    requestHandlerMap.remove(rawConnection.getId());
-                    Connection connection = new Connection(rawConnection, networkType, nodeId, capability);
-                    onConnection(connection);
-                    return CompletableFuture.completedFuture(connection);
-                });
+        CompletableFuture<Connection> future;
+        if (sessionTicket.isPresent()) {
+            future = resumeSession(rawConnection, sessionTicket.get(), capabilityRequestHandler);
+        } else {
+            future = capabilityRequestHandler.request()
+                    .thenCompose(capability -> {
+                        log.info("onOutboundConnection: peerAddress: {}, myAddress={}, rawConnection: {}", peerAddress, getMyAddress(), rawConnection);
+                        requestHandlerMap.remove(rawConnection.getId());
+                        Connection connection = new Connection(rawConnection, networkType, nodeId, capability);
+                        // If the peer has connected to us in the meantime we might get the inbound connection
+                        return CompletableFuture.completedFuture(onConnection(connection));
+                    });
+        }
+        if (!hasAddressToken) {
+            // We might have received the token from the peer while our request was pending
+            future.thenRun(() -> addressTokenStore.find(peerAddress)
+                    .ifPresent(token -> rawNode.send(new AddressProof(token), rawConnection)));
+        }
+        return future;
+    }
+
+    /**
+     * We use the capability from the previous handshake and do not wait for the response, so queued messages are
+     * sent right after the CapabilityRequest. If the peer has not accepted our ticket it responds with its full
+     * capability. If that differs from the one of the ticket or the response fails we close the connection. The
+     * session ticket got replaced or removed by the handler in that case, so the next connection uses the new one or
+     * does a full handshake.
+     */
+    private CompletableFuture<Connection> resumeSession(RawConnection rawConnection,
+                                                        SessionTicketStore.SessionTicket sessionTicket,
+                                                        CapabilityRequestHandler capabilityRequestHandler) {
+        Capability capability = sessionTicket.getCapability();
+        capabilityRequestHandler.request().whenComplete((peersCapability, throwable) -> {
+            requestHandlerMap.remove(rawConnection.getId());
+            Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+            if (cause instanceof CancellationException) {
+                // Handler got disposed as the connection has been closed
+                return;
+            }
+            if (throwable != null || !capability.equals(peersCapability)) {
+                log.info("Capability of resumed session to {} could not be verified. We close the connection.",
+                        capability.getAddress());
+                sessionTicketStore.remove(capability.getAddress());
+                rawNode.disconnect(rawConnection);
+            }
+        });
+        log.debug("Resume session: peerAddress: {}, rawConnection: {}", capability.getAddress(), rawConnection);
+        Connection connection = new Connection(rawConnection, networkType, nodeId, capability);
+        return CompletableFuture.completedFuture(onConnection(connection));
     }
 
     private void setupResponseHandler(RawConnection rawConnection) {
         if (isStopped) {
             return;
         }
-        Address myAddress = getMyAddress();
+        // Inbound streams can be addressed to another of our servers than the default one
+        Address myAddress = rawConnection instanceof InboundConnection ?
+                ((InboundConnection) rawConnection).getGetServerSocketResult().getAddress() :
+                getMyAddress();
         String id = rawConnection.getId();
         CapabilityResponseHandler capabilityResponseHandler = new CapabilityResponseHandler(rawConnection,
                 myAddress,
                 mySupportedNetworks,
-                capability -> {
+                mySupportedCompressionCodecs,
+                sessionTicketStore,
+                addressTokenStore,
+                (capability, addressVerified) -> {
                     if (!isStopped) {
                         log.debug("setupResponseHandler: peerAddress: {}, myAddress={}, rawConnection: {}",
                                 capability.getAddress(), myAddress, rawConnection);
                         responseHandlerMap.remove(id);
+                        rawNode.onHandshakeCompleted(rawConnection);
                         Connection connection = new Connection(rawConnection, networkType, nodeId, capability);
+                        if (addressVerified) {
+                            connection.setAddressVerified();
+                        }
                         onConnection(connection);
                     }
                 });
         responseHandlerMap.put(id, capabilityResponseHandler);
     }
 
-    private void onConnection(Connection connection) {
-        String connectionId = connection.getId();
+    /**
+     * @return The connection to be used for sending to the peer. Differs from the given connection if we have
+     * already another connection to that peer which is preferred.
+     */
+    private Connection onConnection(Connection connection) {
+        // Frames are only compressed with a codec the peer has announced. Older peers announce none.
+        connection.getCapability().getSupportedCompressionCodecs().stream()
+                .filter(mySupportedCompressionCodecs::contains)
+                .sorted()
+                .findFirst()
+                .ifPresent(codec -> connection.getRawConnection().setCompressionCodec(codec));
         RawConnection.MessageListener messageListener = message -> BaseNode.this.onMessage(message, connection);
         messageListenerMap.put(connection.getId(), messageListener);
         connection.getRawConnection().addMessageListener(messageListener);
-        connectionMap.put(connectionId, connection);
+        Connection preferredConnection = connectionIndex.add(connection, getMyAddress(), this::onDuplicateConnection);
         connectionListeners.forEach(listener -> listener.onConnection(connection));
+        return preferredConnection;
+    }
+
+    private void onDuplicateConnection(Connection duplicateConnection) {
+        log.info("We have an inbound and an outbound connection to {}. We do not use connection {} anymore.",
+                duplicateConnection.getPeerAddress(), duplicateConnection.getId());
+        // Only the initiator closes the duplicate connection, so both peers agree on the closed one.
+        if (duplicateConnection.isOutbound()) {
+            CompletableFuture.runAsync(() -> rawNode.disconnect(duplicateConnection.getRawConnection()),
+                    CompletableFuture.delayedExecutor(DUPLICATE_CONNECTION_CLOSE_DELAY_SEC, TimeUnit.SECONDS));
+        }
+    }
+
+    // The peer has connected to us again. Connections we have initiated before might not be verified at the peer yet.
+    private void onAddressTokenReceived(Address peerAddress) {
+        addressTokenStore.find(peerAddress).ifPresent(token -> connectionIndex.getAll().stream()
+                .filter(Connection::isOutbound)
+                .filter(connection -> connection.getPeerAddress().equals(peerAddress))
+                .forEach(connection -> rawNode.send(new AddressProof(token), connection.getRawConnection())));
+    }
+
+    private void onAddressProof(AddressProof addressProof, Connection connection) {
+        if (connection.isAddressVerified()) {
+            return;
+        }
+        if (!addressTokenStore.isValid(addressProof.getAddressToken(), connection.getPeerAddress())) {
+            log.info("Invalid address proof at connection {} to {}", connection.getId(), connection.getPeerAddress());
+            return;
+        }
+        log.debug("Address {} of connection {} has been verified", connection.getPeerAddress(), connection.getId());
+        connectionIndex.setAddressVerified(connection.getId(), getMyAddress(), this::onDuplicateConnection);
     }
 
     private CompletableFuture<Connection> getFutureOfPendingConnection(Address peerAddress) {
@@ -22,6 +22,7 @@ import lombok.extern.slf4j.Slf4j;
 import misq.p2p.Address;
 import misq.p2p.NetworkType;
 import misq.p2p.node.capability.Capability;
+import misq.p2p.node.connection.OutboundConnection;
 import misq.p2p.node.connection.RawConnection;
 
 @Slf4j
@@ -35,6 +36,8 @@ public class Connection {
     private final Capability capability;
     @Getter
     private final String id;
+    // Set once the peer of an inbound connection has proven that it is reachable at the address it claims
+    private volatile boolean addressVerified;
 
     public Connection(RawConnection rawConnection, NetworkType networkType, String nodeId, Capability capability) {
         this.rawConnection = rawConnection;
@@ -49,6 +52,39 @@ public class Connection {
         return capability.getAddress();
     }
 
+    /**
+     * @return Time in ms when the underlying connection has been created
+     */
+    public long getCreated() {
+        return rawConnection.getCreated();
+    }
+
+    /**
+     * @return Time in ms of the last sent or received message
+     */
+    public long getLastActivity() {
+        return rawConnection.getLastActivity();
+    }
+
+    /**
+     * @return true if we have initiated the connection
+     */
+    public boolean isOutbound() {
+        return rawConnection instanceof OutboundConnection;
+    }
+
+    /**
+     * @return true if we have initiated the connection or if the peer has proven the address it claims. Only those
+     * connections are used for sending to the peer address.
+     */
+    public boolean isAddressVerified() {
+        return isOutbound() || addressVerified;
+    }
+
+    void setAddressVerified() {
+        addressVerified = true;
+    }
+
     RawConnection getRawConnection() {
         return rawConnection;
     }
@@ -58,6 +94,8 @@ public class Connection {
         return "Connection{" +
                 "\n     id='" + id + '\'' +
                 ",\n     peerAddress=" + getPeerAddress() +
+                ",\n     outbound=" + isOutbound() +
+                ",\n     addressVerified=" + isAddressVerified() +
                 ",\n     networkType=" + networkType +
                 ",\n     nodeId=" + nodeId +
                 ",\n     capability=" + capability +
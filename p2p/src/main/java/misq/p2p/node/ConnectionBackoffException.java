@@ -0,0 +1,33 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node;
+
+import misq.p2p.Address;
+
+import java.io.IOException;
+
+/**
+ * Thrown without a connection attempt if the previous attempts to connect to the address have failed and the backoff
+ * period has not passed yet.
+ */
+public class ConnectionBackoffException extends IOException {
+    public ConnectionBackoffException(Address address, ConnectionFailureStats stats) {
+        super("Connection to " + address + " failed " + stats.getNumConsecutiveFailures() +
+                " times. We do not retry before " + stats.getBackoffUntil());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node;
+
+import misq.p2p.Address;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Remembers failed connection attempts by peer address. After a failure we do not try that address again until the
+ * backoff period has passed. It starts at INITIAL_BACKOFF_MS and doubles with each consecutive failure up to
+ * MAX_BACKOFF_MS. A random jitter of +-25% avoids that all nodes retry a peer which has been offline at the same time.
+ * <p>
+ * Connection attempts to an onion or I2P destination which is offline cost us the full timeout of the proxy, so
+ * failing fast while the address is in backoff saves a lot of waiting for callers like the peer exchange.
+ */
+class ConnectionFailureCache {
+    static final long INITIAL_BACKOFF_MS = 1000;
+    static final long MAX_BACKOFF_MS = 10 * 60 * 1000;
+    static final int MAX_ENTRIES = 10_000;
+    // If all entries are still in backoff we evict that many entries with the earliest end of backoff at once, so we
+    // do not sort the map again at each further failure
+    static final int NUM_EVICTED_ENTRIES = MAX_ENTRIES / 10;
+
+    private final Map<Address, ConnectionFailureStats> statsByAddress = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+    private final Random random;
+
+    ConnectionFailureCache() {
+        this(System::currentTimeMillis, new Random());
+    }
+
+    ConnectionFailureCache(LongSupplier clock, Random random) {
+        this.clock = clock;
+        this.random = random;
+    }
+
+    /**
+     * @return The stats if the address is in backoff
+     */
+    Optional<ConnectionFailureStats> findBackoff(Address address) {
+        return find(address).filter(stats -> stats.isInBackoff(clock.getAsLong()));
+    }
+
+    Optional<ConnectionFailureStats> find(Address address) {
+        return Optional.ofNullable(statsByAddress.get(address));
+    }
+
+    void onFailure(Address address) {
+        long now = clock.getAsLong();
+        if (statsByAddress.size() >= MAX_ENTRIES && !statsByAddress.containsKey(address)) {
+            statsByAddress.values().removeIf(stats -> !stats.isInBackoff(now));
+            if (statsByAddress.size() >= MAX_ENTRIES) {
+                evictEarliestBackoffs();
+            }
+        }
+        statsByAddress.compute(address, (key, stats) -> {
+            int numConsecutiveFailures = stats == null ? 1 : stats.getNumConsecutiveFailures() + 1;
+            int numFailures = stats == null ? 1 : stats.getNumFailures() + 1;
+            // Shift is capped as the backoff reaches MAX_BACKOFF_MS long before
+            long backoff = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(numConsecutiveFailures - 1, 30));
+            long jitter = (long) (backoff * (random.nextDouble() - 0.5) / 2);
+            return new ConnectionFailureStats(numConsecutiveFailures, numFailures, now, now + backoff + jitter);
+        });
+    }
+
+    void onSuccess(Address address) {
+        statsByAddress.computeIfPresent(address, (key, stats) ->
+                new ConnectionFailureStats(0, stats.getNumFailures(), stats.getLastFailureTime(), 0));
+    }
+
+    void clear() {
+        statsByAddress.clear();
+    }
+
+    int size() {
+        return statsByAddress.size();
+    }
+
+    private void evictEarliestBackoffs() {
+        statsByAddress.entrySet().stream()
+                .sorted(Comparator.comparingLong(entry -> entry.getValue().getBackoffUntil()))
+                .limit(statsByAddress.size() - MAX_ENTRIES + NUM_EVICTED_ENTRIES)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList())
+                .forEach(statsByAddress::remove);
+    }
+}
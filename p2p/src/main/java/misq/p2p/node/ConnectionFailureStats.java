@@ -0,0 +1,60 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * Failed attempts to create a connection to a peer address (see {@link ConnectionFailureCache}).
+ */
+@EqualsAndHashCode
+@Getter
+public class ConnectionFailureStats {
+    // Reset by a successful connection attempt
+    private final int numConsecutiveFailures;
+    private final int numFailures;
+    private final long lastFailureTime;
+    // New connection attempts fail fast until that time
+    private final long backoffUntil;
+
+    ConnectionFailureStats(int numConsecutiveFailures, int numFailures, long lastFailureTime, long backoffUntil) {
+        this.numConsecutiveFailures = numConsecutiveFailures;
+        this.numFailures = numFailures;
+        this.lastFailureTime = lastFailureTime;
+        this.backoffUntil = backoffUntil;
+    }
+
+    public boolean isInBackoff() {
+        return isInBackoff(System.currentTimeMillis());
+    }
+
+    boolean isInBackoff(long now) {
+        return now < backoffUntil;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionFailureStats{" +
+                "\n     numConsecutiveFailures=" + numConsecutiveFailures +
+                ",\n     numFailures=" + numFailures +
+                ",\n     lastFailureTime=" + lastFailureTime +
+                ",\n     backoffUntil=" + backoffUntil +
+                "\n}";
+    }
+}
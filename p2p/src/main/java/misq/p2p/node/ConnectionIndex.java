@@ -0,0 +1,159 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node;
+
+import misq.p2p.Address;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Established connections of a {@link BaseNode} indexed by connection id and by peer address, so lookups at the send
+ * path do not depend on the number of connections.
+ * <p>
+ * The peer address of an inbound connection is the one the peer claims in the handshake. Such connections are only
+ * used for sending once the peer has proven that address (see {@link Connection#isAddressVerified()}), otherwise a
+ * peer could take over the connection we use for sending to another peer. Until then they are only indexed by id.
+ * <p>
+ * If we have an inbound and an outbound connection to the same peer the connection initiated by the peer with the
+ * lower address is indexed by the peer address. Both peers apply the same rule, so they agree on which connection of
+ * the pair is used.
+ * <p>
+ * Updates are synchronized as a connection can be removed concurrently by its reader thread and by a disconnect call.
+ * Otherwise the second caller could return while the peer address still maps to the closed connection.
+ */
+class ConnectionIndex {
+    private final Map<String, Connection> connectionById = new ConcurrentHashMap<>();
+    // The connection used for sending to the peer
+    private final Map<Address, Connection> connectionByPeerAddress = new ConcurrentHashMap<>();
+    // All connections to the peer, usually only one
+    private final Map<Address, Set<Connection>> connectionsByPeerAddress = new ConcurrentHashMap<>();
+
+    /**
+     * @param duplicateHandler Called with the connection which is not used anymore if the peer has connected to us
+     *                         and we have connected to the peer.
+     * @return The connection to be used for sending to the peer. Differs from the given connection if we have already
+     * another connection to that peer which is preferred. An inbound connection with an unverified address is
+     * returned unchanged but not used for sending.
+     */
+    synchronized Connection add(Connection connection, Address myAddress, Consumer<Connection> duplicateHandler) {
+        connectionById.put(connection.getId(), connection);
+        connectionsByPeerAddress.computeIfAbsent(connection.getPeerAddress(), k -> ConcurrentHashMap.newKeySet())
+                .add(connection);
+        if (!connection.isAddressVerified()) {
+            return connection;
+        }
+        return updatePreferredConnection(connection, myAddress, duplicateHandler);
+    }
+
+    /**
+     * Marks the address of the inbound connection as verified, so it can be used for sending to the peer.
+     *
+     * @return false if the connection is not in the index
+     */
+    synchronized boolean setAddressVerified(String connectionId,
+                                            Address myAddress,
+                                            Consumer<Connection> duplicateHandler) {
+        Connection connection = connectionById.get(connectionId);
+        if (connection == null) {
+            return false;
+        }
+        if (!connection.isAddressVerified()) {
+            connection.setAddressVerified();
+            updatePreferredConnection(connection, myAddress, duplicateHandler);
+        }
+        return true;
+    }
+
+    synchronized Optional<Connection> remove(String connectionId) {
+        Connection connection = connectionById.remove(connectionId);
+        if (connection == null) {
+            return Optional.empty();
+        }
+        Address peerAddress = connection.getPeerAddress();
+        Set<Connection> remaining = connectionsByPeerAddress.computeIfPresent(peerAddress, (address, connections) -> {
+            connections.remove(connection);
+            return connections.isEmpty() ? null : connections;
+        });
+        if (connectionByPeerAddress.remove(peerAddress, connection) && remaining != null) {
+            // Fall back to another connection to that peer, e.g. an inbound duplicate the peer has not closed
+            remaining.stream()
+                    .filter(Connection::isAddressVerified)
+                    .findAny()
+                    .ifPresent(c -> connectionByPeerAddress.putIfAbsent(peerAddress, c));
+        }
+        return Optional.of(connection);
+    }
+
+    Optional<Connection> findById(String connectionId) {
+        return Optional.ofNullable(connectionById.get(connectionId));
+    }
+
+    Optional<Connection> findByPeerAddress(Address peerAddress) {
+        return Optional.ofNullable(connectionByPeerAddress.get(peerAddress));
+    }
+
+    Collection<Connection> getAll() {
+        return connectionById.values();
+    }
+
+    int size() {
+        return connectionById.size();
+    }
+
+    synchronized void clear() {
+        connectionById.clear();
+        connectionByPeerAddress.clear();
+        connectionsByPeerAddress.clear();
+    }
+
+    private Connection updatePreferredConnection(Connection connection,
+                                                 Address myAddress,
+                                                 Consumer<Connection> duplicateHandler) {
+        AtomicReference<Connection> duplicate = new AtomicReference<>();
+        Connection preferredConnection = connectionByPeerAddress.compute(connection.getPeerAddress(), (address, existing) -> {
+            if (existing == null) {
+                return connection;
+            }
+            if (existing.isOutbound() == connection.isOutbound()) {
+                // Same direction happens if the peer has reconnected before we detected that the old connection
+                // got closed. We leave the old one open as it is not a duplicate pair. A new outbound connection has
+                // been initiated by us, so we use it. A new inbound connection must not take over the existing one.
+                return connection.isOutbound() ? connection : existing;
+            }
+            Connection preferred = isPreferred(connection, myAddress) ? connection : existing;
+            duplicate.set(preferred == connection ? existing : connection);
+            return preferred;
+        });
+        if (duplicate.get() != null) {
+            duplicateHandler.accept(duplicate.get());
+        }
+        return preferredConnection;
+    }
+
+    private static boolean isPreferred(Connection connection, Address myAddress) {
+        boolean initiatedByMe = connection.isOutbound();
+        boolean myAddressIsLower = myAddress.toString().compareTo(connection.getPeerAddress().toString()) < 0;
+        return initiatedByMe == myAddressIsLower;
+    }
+}
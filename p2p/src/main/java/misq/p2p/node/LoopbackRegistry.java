@@ -0,0 +1,51 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node;
+
+import misq.p2p.Address;
+import misq.p2p.node.connection.LoopbackTransport;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Addresses of the servers in this process which accept loopback connections (see {@link LoopbackTransport}).
+ */
+class LoopbackRegistry {
+    interface Acceptor {
+        /**
+         * @return false if the connection is not accepted
+         */
+        boolean onLoopbackConnection(LoopbackTransport transport);
+    }
+
+    private static final Map<Address, Acceptor> acceptorByAddress = new ConcurrentHashMap<>();
+
+    static void register(Address address, Acceptor acceptor) {
+        acceptorByAddress.put(address, acceptor);
+    }
+
+    static void unregister(Address address, Acceptor acceptor) {
+        acceptorByAddress.remove(address, acceptor);
+    }
+
+    static Optional<Acceptor> find(Address address) {
+        return Optional.ofNullable(acceptorByAddress.get(address));
+    }
+}
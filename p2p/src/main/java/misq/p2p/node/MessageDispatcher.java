@@ -0,0 +1,157 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node;
+
+import lombok.EqualsAndHashCode;
+import misq.p2p.message.Message;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dispatches messages to the handlers registered for the message class, optionally restricted to a connection.
+ * Handlers registered for a class also receive messages of its subclasses.
+ * <p>
+ * Lookup is a map access per class in the type hierarchy of the message, so the costs do not grow with the number of
+ * registered handlers. Handlers are kept in concurrent sets, so adding and removing short-lived handlers (e.g. for a
+ * single request) does not copy arrays.
+ * <p>
+ * MessageListeners receive all messages. They are supported as adapter for the existing listener API.
+ */
+public class MessageDispatcher {
+    public interface MessageHandler<T extends Message> {
+        void onMessage(T message, Connection connection);
+    }
+
+    @EqualsAndHashCode
+    private static final class ConnectionKey {
+        private final Class<?> messageClass;
+        private final String connectionId;
+
+        private ConnectionKey(Class<?> messageClass, String connectionId) {
+            this.messageClass = messageClass;
+            this.connectionId = connectionId;
+        }
+    }
+
+    private final Map<Class<?>, Set<MessageHandler<?>>> handlersByClass = new ConcurrentHashMap<>();
+    private final Map<ConnectionKey, Set<MessageHandler<?>>> handlersByConnection = new ConcurrentHashMap<>();
+    private final Set<MessageListener> messageListeners = ConcurrentHashMap.newKeySet();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public void dispatch(Message message, @Nullable Connection connection) {
+        for (Class<?> messageClass = message.getClass();
+             messageClass != null && Message.class.isAssignableFrom(messageClass);
+             messageClass = messageClass.getSuperclass()) {
+            notify(handlersByClass.get(messageClass), message, connection);
+            if (connection != null && !handlersByConnection.isEmpty()) {
+                notify(handlersByConnection.get(new ConnectionKey(messageClass, connection.getId())), message, connection);
+            }
+        }
+        messageListeners.forEach(listener -> listener.onMessage(message, connection));
+    }
+
+    /**
+     * @return True if a dispatched message of that class would reach any handler or listener. Allows to drop messages
+     * nobody is interested in before their payload gets decoded.
+     */
+    public boolean hasHandlers(Class<? extends Message> messageClass, @Nullable String connectionId) {
+        if (!messageListeners.isEmpty()) {
+            return true;
+        }
+        for (Class<?> clazz = messageClass;
+             clazz != null && Message.class.isAssignableFrom(clazz);
+             clazz = clazz.getSuperclass()) {
+            if (handlersByClass.containsKey(clazz) ||
+                    (connectionId != null && handlersByConnection.containsKey(new ConnectionKey(clazz, connectionId)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public <T extends Message> void addMessageHandler(Class<T> messageClass, MessageHandler<T> messageHandler) {
+        add(handlersByClass, messageClass, messageHandler);
+    }
+
+    public <T extends Message> void removeMessageHandler(Class<T> messageClass, MessageHandler<T> messageHandler) {
+        remove(handlersByClass, messageClass, messageHandler);
+    }
+
+    public <T extends Message> void addMessageHandler(Class<T> messageClass,
+                                                      String connectionId,
+                                                      MessageHandler<T> messageHandler) {
+        add(handlersByConnection, new ConnectionKey(messageClass, connectionId), messageHandler);
+    }
+
+    public <T extends Message> void removeMessageHandler(Class<T> messageClass,
+                                                         String connectionId,
+                                                         MessageHandler<T> messageHandler) {
+        remove(handlersByConnection, new ConnectionKey(messageClass, connectionId), messageHandler);
+    }
+
+    public void addMessageListener(MessageListener messageListener) {
+        messageListeners.add(messageListener);
+    }
+
+    public void removeMessageListener(MessageListener messageListener) {
+        messageListeners.remove(messageListener);
+    }
+
+    public void clear() {
+        handlersByClass.clear();
+        handlersByConnection.clear();
+        messageListeners.clear();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // We add and remove inside compute so that a concurrent remove of the last handler cannot drop the set we add to.
+    private static <K> void add(Map<K, Set<MessageHandler<?>>> map, K key, MessageHandler<?> messageHandler) {
+        map.compute(key, (k, handlers) -> {
+            if (handlers == null) {
+                handlers = ConcurrentHashMap.newKeySet();
+            }
+            handlers.add(messageHandler);
+            return handlers;
+        });
+    }
+
+    private static <K> void remove(Map<K, Set<MessageHandler<?>>> map, K key, MessageHandler<?> messageHandler) {
+        map.computeIfPresent(key, (k, handlers) -> {
+            handlers.remove(messageHandler);
+            return handlers.isEmpty() ? null : handlers;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void notify(@Nullable Set<MessageHandler<?>> handlers, Message message, Connection connection) {
+        if (handlers != null) {
+            handlers.forEach(handler -> ((MessageHandler<Message>) handler).onMessage(message, connection));
+        }
+    }
+}
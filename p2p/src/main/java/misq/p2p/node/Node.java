@@ -21,10 +21,16 @@ package misq.p2p.node;
 import misq.p2p.Address;
 import misq.p2p.NetworkConfig;
 import misq.p2p.NetworkType;
+import misq.p2p.message.Envelope;
 import misq.p2p.message.Message;
+import misq.p2p.message.Request;
+import misq.p2p.message.Response;
+import misq.p2p.node.connection.EncodedMessage;
 import misq.p2p.node.protection.GuardedMessage;
 import misq.p2p.node.protection.NoRestriction;
 import misq.p2p.node.protection.PermissionControl;
+import misq.p2p.node.protection.PermitResult;
+import misq.p2p.node.protection.RelayableMessage;
 import misq.p2p.node.proxy.GetServerSocketResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +39,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -40,16 +47,21 @@ import static com.google.common.base.Preconditions.checkArgument;
  * Responsibility:
  * - Creates BaseNode
  * - Adds an AccessToken to the outgoing message.
- * - On received messages checks with the permissionControl if the AccessToken is valid.
+ * - On received messages checks with the permissionControl if the AccessToken is valid and the peer is within its
+ * rate limits. Peers exceeding their limits persistently get disconnected.
+ * - Dispatches received messages by message class and connection to the registered handlers.
+ * - Routes received responses to the pending requests (see {@link RequestCorrelator}).
  * <p>
  * TODO make PermissionControl mocks for BSQ bonded or LN (sphinx) based transport layer to see if other monetary token based ddos
  * protection strategies work inside the current design
  */
 public class Node implements MessageListener, ConnectionListener {
     private static final Logger log = LoggerFactory.getLogger(Node.class);
+    public static final long REQUEST_TIMEOUT_SEC = 90;
 
     private final PermissionControl permissionControl;
-    private final Set<MessageListener> messageListeners = new CopyOnWriteArraySet<>();
+    private final MessageDispatcher messageDispatcher = new MessageDispatcher();
+    private final RequestCorrelator requestCorrelator = new RequestCorrelator();
     private final Set<ConnectionListener> connectionListeners = new CopyOnWriteArraySet<>();
     private final BaseNode baseNode;
     private final NetworkConfig networkConfig;
@@ -57,9 +69,13 @@ public class Node implements MessageListener, ConnectionListener {
     private volatile boolean isStopped;
 
     public Node(NetworkConfig networkConfig) {
+        this(networkConfig, new NoRestriction());
+    }
+
+    public Node(NetworkConfig networkConfig, PermissionControl permissionControl) {
         baseNode = new BaseNode(networkConfig, this);
         this.networkConfig = networkConfig;
-        permissionControl = new NoRestriction();
+        this.permissionControl = permissionControl;
 
         baseNode.addConnectionListener(this);
     }
@@ -70,12 +86,16 @@ public class Node implements MessageListener, ConnectionListener {
 
     @Override
     public void onConnection(Connection connection) {
+        connection.getRawConnection().setFrameFilter(frame ->
+                handlePermitResult(permissionControl.checkFrame(connection.getId()), connection));
         connectionListeners.forEach(listener -> listener.onConnection(connection));
     }
 
 
     @Override
     public void onDisconnect(Connection connection) {
+        requestCorrelator.failAll(connection.getId(), new Exception("Connection has been closed while a request was pending."));
+        permissionControl.onDisconnect(connection.getId());
         connectionListeners.forEach(listener -> listener.onDisconnect(connection));
     }
 
@@ -88,12 +108,34 @@ public class Node implements MessageListener, ConnectionListener {
     public void onMessage(Message message, Connection connection) {
         if (message instanceof GuardedMessage && !isStopped) {
             GuardedMessage guardedMessage = (GuardedMessage) message;
-            if (permissionControl.hasPermit(guardedMessage)) {
-                Message payload = guardedMessage.getPayload();
-                // connection.notifyListeners(payload);
-                messageListeners.forEach(listener -> listener.onMessage(payload, connection));
+            PermitResult permitResult = permissionControl.checkPermit(guardedMessage, connection.getId());
+            if (!handlePermitResult(permitResult, connection)) {
+                return;
+            }
+            // We decide based on the envelope header, so the payload is only decoded if somebody consumes it
+            Envelope envelope = guardedMessage.getEnvelope();
+            Optional<Class<? extends Message>> payloadClass = envelope.findPayloadClass();
+            if (!payloadClass.isPresent()) {
+                log.debug("Received message of unknown type {} at connection {}. We drop it.",
+                        envelope.getPayloadClassName(), connection.getId());
+            } else if (Response.class.isAssignableFrom(payloadClass.get())) {
+                if (envelope.findCorrelationId()
+                        .filter(nonce -> requestCorrelator.hasPendingRequest(connection.getId(), nonce))
+                        .isPresent()) {
+                    requestCorrelator.onResponse((Response) envelope.getPayload(), connection.getId());
+                } else {
+                    log.debug("No pending request found for {} at connection {}. We drop it.",
+                            envelope.getPayloadClassName(), connection.getId());
+                }
+            } else if (messageDispatcher.hasHandlers(payloadClass.get(), connection.getId())) {
+                Message payload = envelope.getPayload();
+                if (payload instanceof RelayableMessage) {
+                    ((RelayableMessage) payload).setReceivedGuardedMessage(guardedMessage);
+                }
+                messageDispatcher.dispatch(payload, connection);
             } else {
-                log.warn("Handling message at onMessage is not permitted by guard");
+                log.debug("No handler for message of type {} at connection {}. We drop it.",
+                        envelope.getPayloadClassName(), connection.getId());
             }
         }
     }
@@ -113,11 +155,61 @@ public class Node implements MessageListener, ConnectionListener {
                 .thenCompose(permit -> baseNode.send(new GuardedMessage(message, permit), connection));
     }
 
+    /**
+     * Guards and encodes the message once, for sending it to several peers with send(EncodedMessage, Address). The
+     * access token is shared by all peers.
+     */
+    public CompletableFuture<EncodedMessage> encode(Message message) {
+        return permissionControl.getPermit(message)
+                .thenApply(permit -> new EncodedMessage(new GuardedMessage(message, permit)));
+    }
+
+    /**
+     * Encodes a received message as it has been received, so it is relayed with the access token of its originator
+     * and we do not mint a new one. Peers which have received the message already from another peer drop it as
+     * duplicate (see {@link PermitResult#DUPLICATE}).
+     *
+     * @return Empty if the message has not been received by us.
+     */
+    public Optional<EncodedMessage> encodeForRelay(RelayableMessage message) {
+        return message.findReceivedGuardedMessage().map(EncodedMessage::new);
+    }
+
+    public CompletableFuture<Connection> send(EncodedMessage encodedMessage, Address peerAddress) {
+        return baseNode.getConnection(peerAddress)
+                .thenCompose(connection -> baseNode.send(encodedMessage, connection));
+    }
+
+    /**
+     * Sends the request and completes the returned future with the response of the peer. The future fails if no
+     * response has been received after REQUEST_TIMEOUT_SEC or the connection got closed.
+     */
+    public <T extends Response> CompletableFuture<T> request(Request request,
+                                                             Connection connection,
+                                                             Class<T> responseClass) {
+        CompletableFuture<T> future = requestCorrelator.register(connection.getId(),
+                request.getNonce(),
+                responseClass,
+                REQUEST_TIMEOUT_SEC,
+                TimeUnit.SECONDS);
+        send(request, connection).whenComplete((c, throwable) -> {
+            if (throwable != null) {
+                future.completeExceptionally(throwable);
+            }
+        });
+        return future;
+    }
+
+    public void disconnect(Connection connection) {
+        baseNode.disconnect(connection);
+    }
+
     public void shutdown() {
         synchronized (isStoppedLock) {
             isStopped = true;
         }
-        messageListeners.clear();
+        messageDispatcher.clear();
+        requestCorrelator.shutdown();
         connectionListeners.clear();
         baseNode.removeConnectionListener(this);
         permissionControl.shutdown();
@@ -131,12 +223,40 @@ public class Node implements MessageListener, ConnectionListener {
         return myAddress.get();
     }
 
+    public <T extends Message> void addMessageHandler(Class<T> messageClass,
+                                                      MessageDispatcher.MessageHandler<T> messageHandler) {
+        messageDispatcher.addMessageHandler(messageClass, messageHandler);
+    }
+
+    public <T extends Message> void removeMessageHandler(Class<T> messageClass,
+                                                         MessageDispatcher.MessageHandler<T> messageHandler) {
+        messageDispatcher.removeMessageHandler(messageClass, messageHandler);
+    }
+
+    /**
+     * Registers a handler for messages of messageClass received at the connection with connectionId.
+     */
+    public <T extends Message> void addMessageHandler(Class<T> messageClass,
+                                                      String connectionId,
+                                                      MessageDispatcher.MessageHandler<T> messageHandler) {
+        messageDispatcher.addMessageHandler(messageClass, connectionId, messageHandler);
+    }
+
+    public <T extends Message> void removeMessageHandler(Class<T> messageClass,
+                                                         String connectionId,
+                                                         MessageDispatcher.MessageHandler<T> messageHandler) {
+        messageDispatcher.removeMessageHandler(messageClass, connectionId, messageHandler);
+    }
+
+    /**
+     * MessageListeners receive all messages. Prefer addMessageHandler for handling specific message classes.
+     */
     public void addMessageListener(MessageListener messageListener) {
-        messageListeners.add(messageListener);
+        messageDispatcher.addMessageListener(messageListener);
     }
 
     public void removeMessageListener(MessageListener messageListener) {
-        messageListeners.remove(messageListener);
+        messageDispatcher.removeMessageListener(messageListener);
     }
 
     public void addConnectionListener(ConnectionListener connectionListener) {
@@ -160,6 +280,18 @@ public class Node implements MessageListener, ConnectionListener {
         return baseNode.findMyAddress();
     }
 
+    /**
+     * Connections to peerAddress are carried as a logical stream by the connection to viaAddress, so we do not need
+     * another socket (or Tor circuit) for each identity of a peer. Requires stream multiplexing at both nodes.
+     */
+    public void addStreamRoute(Address peerAddress, Address viaAddress) {
+        baseNode.addStreamRoute(peerAddress, viaAddress);
+    }
+
+    public void removeStreamRoute(Address peerAddress) {
+        baseNode.removeStreamRoute(peerAddress);
+    }
+
 
     public CompletableFuture<Connection> getConnection(Address peerAddress) {
         return baseNode.getConnection(peerAddress);
@@ -169,7 +301,38 @@ public class Node implements MessageListener, ConnectionListener {
         return baseNode.findConnection(peerAddress);
     }
 
+    /**
+     * @return Stats of failed attempts to connect to peerAddress, empty if we never failed to connect to it.
+     */
+    public Optional<ConnectionFailureStats> findConnectionFailureStats(Address peerAddress) {
+        return baseNode.findConnectionFailureStats(peerAddress);
+    }
+
     public NetworkType getNetworkType() {
         return networkConfig.getNetworkType();
     }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private boolean handlePermitResult(PermitResult permitResult, Connection connection) {
+        switch (permitResult) {
+            case GRANTED:
+                return true;
+            case REJECTED:
+                log.debug("Received message at connection {} is not permitted", connection.getId());
+                return false;
+            case DUPLICATE:
+                log.debug("Received message at connection {} has been received already", connection.getId());
+                return false;
+            case DISCONNECT:
+            default:
+                log.warn("Peer {} keeps sending messages which are not permitted. We disconnect.",
+                        connection.getPeerAddress());
+                disconnect(connection);
+                return false;
+        }
+    }
 }
@@ -18,18 +18,20 @@
 package misq.p2p.node;
 
 
+import misq.common.util.ThreadingUtils;
 import misq.p2p.Address;
 import misq.p2p.NetworkConfig;
+import misq.p2p.NetworkType;
 import misq.p2p.message.Message;
-import misq.p2p.node.connection.InboundConnection;
-import misq.p2p.node.connection.OutboundConnection;
-import misq.p2p.node.connection.RawConnection;
-import misq.p2p.node.connection.Server;
+import misq.p2p.node.connection.*;
+import misq.p2p.node.connection.nio.NioEventLoopGroup;
+import misq.p2p.node.connection.nio.NioTransport;
 import misq.p2p.node.proxy.GetServerSocketResult;
 import misq.p2p.node.proxy.NetworkProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.EOFException;
 import java.io.IOException;
 import java.net.Socket;
@@ -37,10 +39,10 @@ import java.net.SocketException;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.stream.Stream;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * Responsibility:
@@ -49,11 +51,31 @@ import java.util.stream.Stream;
  * - Creates inbound and outbound connections.
  * - Checks if a connection has been created when sending a message and creates one otherwise.
  * - Notifies ConnectionListeners when a new connection has been created or one has been closed.
+ * - Creates the NioEventLoopGroup if NIO transport is configured. Only clear net sockets are backed by channels, for
+ * other network types we fall back to the blocking transport.
+ * - If VIRTUAL_THREADS transport is configured, runs connection threads, accept loops and the blocking socket
+ * creation (e.g. SOCKS handshake for Tor) on virtual threads.
+ * - Closes inbound connections which have not completed the handshake within HANDSHAKE_TIMEOUT_SEC and rejects new
+ * inbound connections while MAX_PENDING_HANDSHAKES connections are in that state. Clients which connect and do not
+ * send anything can therefore not exhaust our resources.
+ * - Rejects new inbound connections before the handshake if we have maxNumInboundConnections of the PeerConfig.
+ * That way new peers cannot push out the peers we are already connected to.
+ * - If stream multiplexing is enabled, sends to peers with a stream route over a logical stream of the connection to
+ * the route's via address instead of opening another socket, and accepts streams to the addresses of our servers
+ * (see {@link StreamMultiplexer}).
+ * - Remembers failed connection attempts by address and fails fast while the address is in backoff (see
+ * {@link ConnectionFailureCache}). Limits the number of concurrent connection attempts to
+ * MAX_CONCURRENT_CONNECTION_ATTEMPTS, as each RawNode serves one network type that limit applies per network type.
+ * - If loopback is enabled, accepts in-memory connections from other nodes in the same process and connects to
+ * servers in the same process in memory (see {@link LoopbackTransport}).
  */
 public class RawNode {
     private static final Logger log = LoggerFactory.getLogger(RawNode.class);
     public static final String DEFAULT_SERVER_ID = "default";
     public static final int DEFAULT_SERVER_PORT = 9999;
+    public static final long HANDSHAKE_TIMEOUT_SEC = 30;
+    public static final int MAX_PENDING_HANDSHAKES = 100;
+    public static final int MAX_CONCURRENT_CONNECTION_ATTEMPTS = 20;
 
     interface ConnectionListener {
         void onInboundConnection(InboundConnection inboundConnection);
@@ -64,15 +86,66 @@ public class RawNode {
     }
 
     private final NetworkProxy networkProxy;
+    @Nullable
+    private final NioEventLoopGroup nioEventLoopGroup;
+    private final boolean useVirtualThreads;
+    @Nullable
+    private final ExecutorService socketExecutor;
+    // Only set if stream multiplexing is enabled. Delivers the frames received at streams.
+    @Nullable
+    private final ExecutorService streamExecutor;
+    // Value is the address of the node whose connection carries the streams to the key's address
+    private final Map<Address, Address> streamRoutes = new ConcurrentHashMap<>();
+    private final LoopbackMode loopbackMode;
+    private final int maxNumInboundConnections;
+    // Acceptors we have registered at the LoopbackRegistry by server address
+    private final Map<Address, LoopbackRegistry.Acceptor> loopbackAcceptors = new ConcurrentHashMap<>();
     private final Map<String, Server> serverMap = new ConcurrentHashMap<>();
     private final Map<Address, OutboundConnection> outboundConnectionMap = new ConcurrentHashMap<>();
-    private final Set<InboundConnection> inboundConnections = new CopyOnWriteArraySet<>();
+    private final Set<InboundConnection> inboundConnections = ConcurrentHashMap.newKeySet();
+    private final Map<String, RawConnection> connectionById = new ConcurrentHashMap<>();
     private final Set<ConnectionListener> connectionListeners = new CopyOnWriteArraySet<>();
+    // Inbound connections by connectionId which have not completed the handshake, value is the timeout task
+    private final Map<String, ScheduledFuture<?>> pendingHandshakes = new ConcurrentHashMap<>();
+    private final Semaphore pendingHandshakesPermits = new Semaphore(MAX_PENDING_HANDSHAKES);
+    private final ConnectionFailureCache connectionFailureCache = new ConnectionFailureCache();
+    private final Semaphore connectionAttemptPermits = new Semaphore(MAX_CONCURRENT_CONNECTION_ATTEMPTS);
+    private final ScheduledExecutorService handshakeTimer = ThreadingUtils.getSingleThreadScheduledExecutor("RawNode.handshakeTimer");
     private final Object isStoppedLock = new Object();
     private volatile boolean isStopped;
 
     RawNode(NetworkConfig networkConfig) {
         networkProxy = NetworkProxy.get(networkConfig);
+        if (networkConfig.getTransportType() == TransportType.NIO) {
+            if (networkConfig.getNetworkType() == NetworkType.CLEAR) {
+                nioEventLoopGroup = new NioEventLoopGroup(networkConfig.getNodeId().getId());
+            } else {
+                log.info("NIO transport is not supported for {}. We use the blocking transport instead.",
+                        networkConfig.getNetworkType());
+                nioEventLoopGroup = null;
+            }
+        } else {
+            nioEventLoopGroup = null;
+        }
+
+        if (networkConfig.getTransportType() == TransportType.VIRTUAL_THREADS) {
+            useVirtualThreads = ThreadingUtils.isVirtualThreadSupported();
+            if (!useVirtualThreads) {
+                log.info("Virtual threads are not supported by the JVM. We use the blocking transport instead.");
+            }
+        } else {
+            useVirtualThreads = false;
+        }
+        socketExecutor = useVirtualThreads ? ThreadingUtils.getVirtualThreadPerTaskExecutor("RawNode.socketExecutor") : null;
+        if (networkConfig.isStreamMultiplexing()) {
+            streamExecutor = useVirtualThreads ?
+                    ThreadingUtils.getVirtualThreadPerTaskExecutor("RawNode.streamExecutor") :
+                    ThreadingUtils.getCachedThreadPool("RawNode.streamExecutor");
+        } else {
+            streamExecutor = null;
+        }
+        loopbackMode = networkConfig.getLoopbackMode();
+        maxNumInboundConnections = networkConfig.getPeerConfig().getMaxNumInboundConnections();
     }
 
 
@@ -100,30 +173,82 @@ public class RawNode {
     CompletableFuture<GetServerSocketResult> createServerAndListen(String serverId, int serverPort) {
         return networkProxy.getServerSocket(serverId, serverPort)
                 .thenCompose(result -> {
-                    Server server = new Server(result,
-                            socket -> onClientSocket(socket, result),
-                            exception -> {
-                                serverMap.remove(serverId);
-                                handleException(exception);
-                            });
+                    Consumer<Exception> exceptionHandler = exception -> {
+                        serverMap.remove(serverId);
+                        unregisterLoopbackAcceptor(result.getAddress());
+                        handleException(exception);
+                    };
+                    Server server;
+                    if (nioEventLoopGroup != null && result.getServerSocket().getChannel() != null) {
+                        server = new Server(result,
+                                nioEventLoopGroup,
+                                socket -> onClientSocket(socket, result),
+                                exceptionHandler);
+                    } else {
+                        server = new Server(result,
+                                useVirtualThreads,
+                                socket -> onClientSocket(socket, result),
+                                exceptionHandler);
+                    }
                     serverMap.put(serverId, server);
+                    if (loopbackMode != LoopbackMode.DISABLED) {
+                        LoopbackRegistry.Acceptor acceptor = transport -> onLoopbackConnection(transport, result);
+                        loopbackAcceptors.put(result.getAddress(), acceptor);
+                        LoopbackRegistry.register(result.getAddress(), acceptor);
+                    }
                     return CompletableFuture.completedFuture(result);
                 });
     }
 
     CompletableFuture<RawConnection> getOrCreateConnection(Address peerAddress) {
-        if (outboundConnectionMap.containsKey(peerAddress)) {
-            RawConnection rawConnection = outboundConnectionMap.get(peerAddress);
-            return CompletableFuture.completedFuture(rawConnection);
-        } else {
-            return createConnection(peerAddress);
+        OutboundConnection outboundConnection = outboundConnectionMap.get(peerAddress);
+        if (outboundConnection != null) {
+            return CompletableFuture.completedFuture(outboundConnection);
+        }
+        if (loopbackMode != LoopbackMode.DISABLED) {
+            Optional<LoopbackRegistry.Acceptor> acceptor = LoopbackRegistry.find(peerAddress);
+            if (acceptor.isPresent()) {
+                return createLoopbackConnection(peerAddress, acceptor.get());
+            }
         }
+        Address viaAddress = streamRoutes.get(peerAddress);
+        if (viaAddress != null) {
+            OutboundConnection viaConnection = outboundConnectionMap.get(viaAddress);
+            CompletableFuture<RawConnection> viaFuture = viaConnection != null ?
+                    CompletableFuture.completedFuture(viaConnection) :
+                    createConnection(viaAddress);
+            return viaFuture.thenCompose(connection -> openStream(connection, peerAddress));
+        }
+        return createConnection(peerAddress);
+    }
+
+    /**
+     * Connections to peerAddress are opened as a stream of the connection to viaAddress, e.g. if both addresses are
+     * identities of the same peer node. Requires stream multiplexing to be enabled at both nodes.
+     */
+    void addStreamRoute(Address peerAddress, Address viaAddress) {
+        checkArgument(streamExecutor != null, "Stream multiplexing is not enabled");
+        checkArgument(!streamRoutes.containsKey(viaAddress), "viaAddress must not be routed over a stream");
+        streamRoutes.put(peerAddress, viaAddress);
+    }
+
+    void removeStreamRoute(Address peerAddress) {
+        streamRoutes.remove(peerAddress);
+    }
+
+    Optional<ConnectionFailureStats> findConnectionFailureStats(Address peerAddress) {
+        return connectionFailureCache.find(peerAddress);
     }
 
     Optional<RawConnection> findConnection(String connectionUid) {
-        return Stream.concat(outboundConnectionMap.values().stream(), inboundConnections.stream())
-                .filter(e -> e.getId().equals(connectionUid))
-                .findAny();
+        return Optional.ofNullable(connectionById.get(connectionUid));
+    }
+
+    /**
+     * Called once the handshake of an inbound connection has been completed.
+     */
+    void onHandshakeCompleted(RawConnection connection) {
+        removePendingHandshake(connection);
     }
 
     void disconnect(RawConnection connection) {
@@ -149,7 +274,11 @@ public class RawNode {
     }
 
     CompletableFuture<RawConnection> send(Message message, RawConnection connection) {
-        return connection.send(message)
+        return send(new EncodedMessage(message), connection);
+    }
+
+    CompletableFuture<RawConnection> send(EncodedMessage encodedMessage, RawConnection connection) {
+        return connection.send(encodedMessage)
                 .exceptionally(exception -> {
                     handleException(connection, exception);
                     return connection;
@@ -166,13 +295,28 @@ public class RawNode {
 
         connectionListeners.clear();
 
+        loopbackAcceptors.keySet().forEach(this::unregisterLoopbackAcceptor);
         serverMap.values().forEach(Server::stop);
         serverMap.clear();
         outboundConnectionMap.values().forEach(RawConnection::close);
         outboundConnectionMap.clear();
         inboundConnections.forEach(RawConnection::close);
         inboundConnections.clear();
+        connectionById.clear();
+        pendingHandshakes.clear();
+        ThreadingUtils.shutdownAndAwaitTermination(handshakeTimer);
 
+        if (nioEventLoopGroup != null) {
+            nioEventLoopGroup.shutdown();
+        }
+        if (socketExecutor != null) {
+            ThreadingUtils.shutdownAndAwaitTermination(socketExecutor);
+        }
+        if (streamExecutor != null) {
+            ThreadingUtils.shutdownAndAwaitTermination(streamExecutor);
+        }
+        streamRoutes.clear();
+        connectionFailureCache.clear();
         networkProxy.shutdown();
     }
 
@@ -205,6 +349,14 @@ public class RawNode {
         return networkProxy.getSocket(address);
     }
 
+    private Transport createTransport(Socket socket) {
+        if (nioEventLoopGroup != null && socket.getChannel() != null) {
+            return new NioTransport(socket.getChannel(), nioEventLoopGroup);
+        } else {
+            return new SocketTransport(socket, useVirtualThreads);
+        }
+    }
+
     private Optional<Address> findMyAddress(String serverId) {
         if (serverMap.containsKey(serverId)) {
             return Optional.of(serverMap.get(serverId).getAddress());
@@ -216,32 +368,193 @@ public class RawNode {
     }
 
     private void onClientSocket(Socket socket, GetServerSocketResult getServerSocketResult) {
+        if (!tryAcquireInboundPermit("connection")) {
+            closeQuietly(socket);
+            return;
+        }
+        InboundConnection connection = new InboundConnection(createTransport(socket), getServerSocketResult);
+        if (streamExecutor != null) {
+            connection.enableStreamMultiplexing(streamExecutor, this::onInboundStream);
+        }
+        addInboundConnection(connection);
+    }
+
+    // Called on the reader thread of the connection carrying the stream
+    private boolean onInboundStream(Transport transport, Address targetAddress) {
+        Optional<GetServerSocketResult> getServerSocketResult = serverMap.values().stream()
+                .map(Server::getGetServerSocketResult)
+                .filter(result -> result.getAddress().equals(targetAddress))
+                .findAny();
+        if (!getServerSocketResult.isPresent()) {
+            log.info("We do not have a server for address {}. We reject the stream.", targetAddress);
+            return false;
+        }
+        if (!tryAcquireInboundPermit("stream")) {
+            return false;
+        }
+        addInboundConnection(new InboundConnection(transport, getServerSocketResult.get()));
+        return true;
+    }
+
+    // Called on the thread of the connecting node
+    private boolean onLoopbackConnection(LoopbackTransport transport, GetServerSocketResult getServerSocketResult) {
+        if (!tryAcquireInboundPermit("loopback connection")) {
+            return false;
+        }
+        addInboundConnection(new InboundConnection(transport, getServerSocketResult));
+        return true;
+    }
+
+    private void unregisterLoopbackAcceptor(Address address) {
+        LoopbackRegistry.Acceptor acceptor = loopbackAcceptors.remove(address);
+        if (acceptor != null) {
+            LoopbackRegistry.unregister(address, acceptor);
+        }
+    }
+
+    // Connections with a pending handshake count towards the limit as well
+    private boolean tryAcquireInboundPermit(String description) {
+        if (inboundConnections.size() >= maxNumInboundConnections) {
+            log.info("We have {} inbound connections which is our limit. We reject the new {}.",
+                    inboundConnections.size(), description);
+            return false;
+        }
+        if (!pendingHandshakesPermits.tryAcquire()) {
+            log.warn("We have {} inbound connections with pending handshakes. We reject the new {}.",
+                    MAX_PENDING_HANDSHAKES, description);
+            return false;
+        }
+        return true;
+    }
+
+    // A permit of pendingHandshakesPermits has to be acquired before
+    private void addInboundConnection(InboundConnection connection) {
+        String id = connection.getId();
+        ScheduledFuture<?> timeoutTask;
         try {
-            InboundConnection connection = new InboundConnection(socket, getServerSocketResult);
-            connection.listen(exception -> handleException(connection, exception));
-            inboundConnections.add(connection);
+            timeoutTask = handshakeTimer.schedule(() -> {
+                if (pendingHandshakes.containsKey(id)) {
+                    log.info("Handshake has not been completed within {} sec. We close connection {}",
+                            HANDSHAKE_TIMEOUT_SEC, connection);
+                    disconnect(connection);
+                }
+            }, HANDSHAKE_TIMEOUT_SEC, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException exception) {
+            // No timeout task got registered, so removePendingHandshake would not release the permit
+            pendingHandshakesPermits.release();
+            connection.close();
+            handleException(exception);
+            return;
+        }
+        pendingHandshakes.put(id, timeoutTask);
+        inboundConnections.add(connection);
+        connectionById.put(id, connection);
+        try {
+            // Listeners register their message listeners (e.g. for the handshake), so we start reading afterwards
             connectionListeners.forEach(listener -> listener.onInboundConnection(connection));
-        } catch (IOException exception) {
+            connection.listen(exception -> handleException(connection, exception));
+        } catch (IOException | RejectedExecutionException exception) {
+            connection.close();
+            // Releases the permit and removes the connection from inboundConnections and connectionById
+            onDisconnect(connection);
             handleException(exception);
         }
     }
 
+    private void removePendingHandshake(RawConnection connection) {
+        ScheduledFuture<?> timeoutTask = pendingHandshakes.remove(connection.getId());
+        if (timeoutTask != null) {
+            timeoutTask.cancel(false);
+            pendingHandshakesPermits.release();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignore) {
+        }
+    }
+
     private CompletableFuture<RawConnection> createConnection(Address peerAddress) {
+        Optional<ConnectionFailureStats> backoff = connectionFailureCache.findBackoff(peerAddress);
+        if (backoff.isPresent()) {
+            return CompletableFuture.failedFuture(new ConnectionBackoffException(peerAddress, backoff.get()));
+        }
+        if (!connectionAttemptPermits.tryAcquire()) {
+            return CompletableFuture.failedFuture(new IOException("Max. number of concurrent connection attempts " +
+                    "reached: " + MAX_CONCURRENT_CONNECTION_ATTEMPTS));
+        }
+        CompletableFuture<RawConnection> future;
+        if (socketExecutor != null) {
+            // Socket creation blocks until the connection (and the proxy handshake) is established, so we do not
+            // block the caller but park a virtual thread instead.
+            future = CompletableFuture.supplyAsync(() -> createConnectionBlocking(peerAddress), socketExecutor)
+                    .thenCompose(f -> f);
+        } else {
+            future = createConnectionBlocking(peerAddress);
+        }
+        return future.whenComplete((connection, throwable) -> connectionAttemptPermits.release());
+    }
+
+    private CompletableFuture<RawConnection> createConnectionBlocking(Address peerAddress) {
         CompletableFuture<RawConnection> future = new CompletableFuture<>();
         RawConnection rawConnection = null;
         try {
-            Socket socket = getSocket(peerAddress);
+            Socket socket;
+            try {
+                socket = getSocket(peerAddress);
+            } catch (IOException exception) {
+                connectionFailureCache.onFailure(peerAddress);
+                throw exception;
+            }
+            connectionFailureCache.onSuccess(peerAddress);
             log.debug("Create new outbound connection to {}", peerAddress);
-            OutboundConnection outboundConnection = new OutboundConnection(socket, peerAddress);
+            OutboundConnection outboundConnection = new OutboundConnection(createTransport(socket), peerAddress);
+            rawConnection = outboundConnection;
+            if (streamExecutor != null) {
+                outboundConnection.enableStreamMultiplexing(streamExecutor, this::onInboundStream);
+            }
+            addOutboundConnection(outboundConnection, future);
+        } catch (IOException exception) {
+            if (rawConnection == null) {
+                handleException(exception);
+            } else {
+                handleException(rawConnection, exception);
+            }
+            future.completeExceptionally(exception);
+        }
+        return future;
+    }
+
+    private CompletableFuture<RawConnection> createLoopbackConnection(Address peerAddress,
+                                                                      LoopbackRegistry.Acceptor acceptor) {
+        CompletableFuture<RawConnection> future = new CompletableFuture<>();
+        LoopbackTransport transport = LoopbackTransport.createPair(loopbackMode == LoopbackMode.SERIALIZED);
+        try {
+            if (!acceptor.onLoopbackConnection(transport.getPeer())) {
+                throw new IOException("Loopback connection to " + peerAddress + " has not been accepted");
+            }
+            log.debug("Create new loopback connection to {}", peerAddress);
+            addOutboundConnection(new OutboundConnection(transport, peerAddress), future);
+        } catch (IOException exception) {
+            transport.close();
+            handleException(exception);
+            future.completeExceptionally(exception);
+        }
+        return future;
+    }
+
+    private CompletableFuture<RawConnection> openStream(RawConnection connection, Address peerAddress) {
+        CompletableFuture<RawConnection> future = new CompletableFuture<>();
+        RawConnection rawConnection = null;
+        try {
+            StreamMultiplexer streamMultiplexer = connection.findStreamMultiplexer()
+                    .orElseThrow(() -> new IOException("Stream multiplexing is not enabled at connection " + connection));
+            log.debug("Open stream to {} at connection {}", peerAddress, connection);
+            OutboundConnection outboundConnection = new OutboundConnection(streamMultiplexer.openStream(peerAddress), peerAddress);
             rawConnection = outboundConnection;
-            outboundConnection.listen(exception -> {
-                handleException(outboundConnection, exception);
-                future.completeExceptionally(exception);
-            });
-
-            outboundConnectionMap.put(peerAddress, outboundConnection);
-            connectionListeners.forEach(listener -> listener.onOutboundConnection(outboundConnection, peerAddress));
-            future.complete(outboundConnection);
+            addOutboundConnection(outboundConnection, future);
         } catch (IOException exception) {
             if (rawConnection == null) {
                 handleException(exception);
@@ -253,13 +566,29 @@ public class RawNode {
         return future;
     }
 
+    private void addOutboundConnection(OutboundConnection outboundConnection,
+                                       CompletableFuture<RawConnection> future) throws IOException {
+        outboundConnection.listen(exception -> {
+            handleException(outboundConnection, exception);
+            future.completeExceptionally(exception);
+        });
+
+        Address peerAddress = outboundConnection.getAddress();
+        outboundConnectionMap.put(peerAddress, outboundConnection);
+        connectionById.put(outboundConnection.getId(), outboundConnection);
+        connectionListeners.forEach(listener -> listener.onOutboundConnection(outboundConnection, peerAddress));
+        future.complete(outboundConnection);
+    }
+
     private void onDisconnect(RawConnection connection) {
+        connectionById.remove(connection.getId());
+        removePendingHandshake(connection);
         if (connection instanceof InboundConnection) {
             inboundConnections.remove(connection);
         } else if (connection instanceof OutboundConnection) {
             OutboundConnection outboundConnection = (OutboundConnection) connection;
             Address peerAddress = outboundConnection.getAddress();
-            outboundConnectionMap.remove(peerAddress);
+            outboundConnectionMap.remove(peerAddress, outboundConnection);
         }
         connectionListeners.forEach(connectionListener -> connectionListener.onDisconnect(connection));
     }
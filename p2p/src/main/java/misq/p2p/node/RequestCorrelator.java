@@ -0,0 +1,146 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node;
+
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import misq.common.util.ThreadingUtils;
+import misq.p2p.message.Response;
+
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Correlates responses with pending requests by the connection and the nonce of the request.
+ * <p>
+ * Timeouts of all pending requests are handled by a single shared timer thread. When a request completes or gets
+ * cancelled its timeout task is removed from the timer and the request from the pending map. A response arriving
+ * after that does not find a pending request and is discarded after a map lookup.
+ */
+@Slf4j
+public class RequestCorrelator {
+    private static final ScheduledExecutorService TIMER =
+            ThreadingUtils.getSingleThreadScheduledExecutor("RequestCorrelator.timer");
+
+    @EqualsAndHashCode
+    private static final class Key {
+        private final String connectionId;
+        private final int nonce;
+
+        private Key(String connectionId, int nonce) {
+            this.connectionId = connectionId;
+            this.nonce = nonce;
+        }
+    }
+
+    private static final class PendingRequest<T extends Response> {
+        private final Class<T> responseClass;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private PendingRequest(Class<T> responseClass) {
+            this.responseClass = responseClass;
+        }
+
+        private void complete(Response response) {
+            if (responseClass.isInstance(response)) {
+                future.complete(responseClass.cast(response));
+            } else {
+                future.completeExceptionally(new Exception("Expected " + responseClass.getSimpleName() +
+                        " but received " + response.getClass().getSimpleName()));
+            }
+        }
+    }
+
+    private final Map<Key, PendingRequest<?>> pendingRequests = new ConcurrentHashMap<>();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Registers a pending request. Needs to be called before the request is sent.
+     *
+     * @return Future completed with the response, or exceptionally with a TimeoutException. Cancelling the future
+     * removes the pending request.
+     */
+    public <T extends Response> CompletableFuture<T> register(String connectionId,
+                                                              int nonce,
+                                                              Class<T> responseClass,
+                                                              long timeout,
+                                                              TimeUnit timeUnit) {
+        Key key = new Key(connectionId, nonce);
+        PendingRequest<T> pendingRequest = new PendingRequest<>(responseClass);
+        if (pendingRequests.putIfAbsent(key, pendingRequest) != null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("A request with nonce " + nonce +
+                    " is already pending at connection " + connectionId));
+        }
+        CompletableFuture<T> future = pendingRequest.future;
+        ScheduledFuture<?> timeoutTask = TIMER.schedule(() -> future.completeExceptionally(
+                new TimeoutException(responseClass.getSimpleName() + " not received after " + timeout + " " + timeUnit)),
+                timeout, timeUnit);
+        future.whenComplete((response, throwable) -> {
+            pendingRequests.remove(key, pendingRequest);
+            timeoutTask.cancel(false);
+        });
+        return future;
+    }
+
+    /**
+     * Allows to drop a late response before its payload gets decoded.
+     */
+    public boolean hasPendingRequest(String connectionId, int nonce) {
+        return pendingRequests.containsKey(new Key(connectionId, nonce));
+    }
+
+    /**
+     * @return True if a pending request was found for the response.
+     */
+    public boolean onResponse(Response response, String connectionId) {
+        PendingRequest<?> pendingRequest = pendingRequests.remove(new Key(connectionId, response.getRequestNonce()));
+        if (pendingRequest == null) {
+            log.debug("No pending request found for {}. The request might have timed out already.",
+                    response.getClass().getSimpleName());
+            return false;
+        }
+        pendingRequest.complete(response);
+        return true;
+    }
+
+    /**
+     * Fails all pending requests of that connection, e.g. after it got closed.
+     */
+    public void failAll(String connectionId, Throwable cause) {
+        pendingRequests.entrySet().removeIf(entry -> {
+            if (entry.getKey().connectionId.equals(connectionId)) {
+                entry.getValue().future.completeExceptionally(cause);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    public int getNumPendingRequests() {
+        return pendingRequests.size();
+    }
+
+    public void shutdown() {
+        pendingRequests.values().forEach(pendingRequest -> pendingRequest.future.cancel(true));
+        pendingRequests.clear();
+    }
+}
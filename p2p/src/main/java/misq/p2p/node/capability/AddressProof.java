@@ -0,0 +1,49 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.capability;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
+
+/**
+ * Sent at a connection we have initiated if we have received the address token of the peer only after the
+ * handshake. The peer uses that connection for sending to us once it has verified the token.
+ */
+@EqualsAndHashCode
+@Getter
+public class AddressProof implements Message {
+    private final String addressToken;
+
+    public AddressProof(String addressToken) {
+        this.addressToken = addressToken;
+    }
+
+    @Override
+    public MessagePriority getPriority() {
+        return MessagePriority.CONTROL;
+    }
+
+    @Override
+    public String toString() {
+        return "AddressProof{" +
+                "\n     addressToken=" + addressToken +
+                "\n}";
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.capability;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import misq.p2p.Address;
+
+import java.security.SecureRandom;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Address tokens allow a peer to prove at the connections it initiates to us that it is reachable at the address it
+ * claims. We issue a token in the {@link CapabilityRequest} when we connect to a peer, so only the peer listening at
+ * that address receives it. When the peer connects to us it presents the token in its {@link CapabilityRequest}, or
+ * with an {@link AddressProof} if it has received the token after its handshake.
+ * <p>
+ * Tokens are only kept in memory. After a restart of the peer its inbound connections are unverified until we have
+ * connected to it again.
+ */
+public class AddressTokenStore {
+    private static final long TOKEN_TTL_HOURS = 24;
+    private static final int MAX_TOKENS = 10_000;
+
+    private final SecureRandom random = new SecureRandom();
+    // Called with the peer address if we have received a new token from that peer
+    private final Consumer<Address> tokenReceivedHandler;
+    // Tokens we have issued to peers we connected to
+    private final Cache<Address, String> issuedTokens = CacheBuilder.newBuilder()
+            .expireAfterWrite(TOKEN_TTL_HOURS, TimeUnit.HOURS)
+            .maximumSize(MAX_TOKENS)
+            .build();
+    // Tokens we have received from peers who connected to us
+    private final Cache<Address, String> receivedTokens = CacheBuilder.newBuilder()
+            .expireAfterWrite(TOKEN_TTL_HOURS, TimeUnit.HOURS)
+            .maximumSize(MAX_TOKENS)
+            .build();
+
+    public AddressTokenStore(Consumer<Address> tokenReceivedHandler) {
+        this.tokenReceivedHandler = tokenReceivedHandler;
+    }
+
+    /**
+     * @return The token issued to the peer. A token is reused for all connections to the peer, so a peer with
+     * several connections to us presents the same one.
+     */
+    synchronized String getOrIssue(Address peerAddress) {
+        String token = issuedTokens.getIfPresent(peerAddress);
+        if (token == null) {
+            byte[] bytes = new byte[16];
+            random.nextBytes(bytes);
+            StringBuilder stringBuilder = new StringBuilder();
+            for (byte b : bytes) {
+                stringBuilder.append(String.format("%02x", b));
+            }
+            token = stringBuilder.toString();
+            issuedTokens.put(peerAddress, token);
+        }
+        return token;
+    }
+
+    public boolean isValid(String token, Address peerAddress) {
+        return token.equals(issuedTokens.getIfPresent(peerAddress));
+    }
+
+    void put(Address peerAddress, String token) {
+        String previous = receivedTokens.asMap().put(peerAddress, token);
+        if (!token.equals(previous)) {
+            tokenReceivedHandler.accept(peerAddress);
+        }
+    }
+
+    public Optional<String> find(Address peerAddress) {
+        return Optional.ofNullable(receivedTokens.getIfPresent(peerAddress));
+    }
+}
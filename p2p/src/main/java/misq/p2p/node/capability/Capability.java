@@ -21,8 +21,10 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import misq.p2p.Address;
 import misq.p2p.NetworkType;
+import misq.p2p.node.connection.frame.CompressionCodec;
 
 import java.io.Serializable;
+import java.util.EnumSet;
 import java.util.Set;
 
 @Getter
@@ -30,10 +32,18 @@ import java.util.Set;
 public class Capability implements Serializable {
     private final Address address;
     private final Set<NetworkType> supportedNetworkTypes;
+    private final Set<CompressionCodec> supportedCompressionCodecs;
 
     public Capability(Address address, Set<NetworkType> supportedNetworkTypes) {
+        this(address, supportedNetworkTypes, EnumSet.noneOf(CompressionCodec.class));
+    }
+
+    public Capability(Address address,
+                      Set<NetworkType> supportedNetworkTypes,
+                      Set<CompressionCodec> supportedCompressionCodecs) {
         this.address = address;
         this.supportedNetworkTypes = supportedNetworkTypes;
+        this.supportedCompressionCodecs = supportedCompressionCodecs;
     }
 
     @Override
@@ -41,6 +51,7 @@ public class Capability implements Serializable {
         return "Capability{" +
                 "\n     address=" + address +
                 ",\n     supportedNetworkTypes=" + supportedNetworkTypes +
+                ",\n     supportedCompressionCodecs=" + supportedCompressionCodecs +
                 "\n}";
     }
 }
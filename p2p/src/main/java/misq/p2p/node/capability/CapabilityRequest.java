@@ -19,17 +19,40 @@ package misq.p2p.node.capability;
 
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
-import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.message.Request;
+
+import javax.annotation.Nullable;
 
 @EqualsAndHashCode
 @Getter
-class CapabilityRequest implements Message {
+class CapabilityRequest implements Request {
     private final int nonce;
     private final Capability capability;
+    // Ticket from a previous handshake with that peer, null at the first handshake
+    @Nullable
+    private final String sessionTicket;
+    // Token we issue to the peer, so it can prove its address when it connects to us (see AddressTokenStore)
+    private final String addressToken;
+    // Token the peer has issued to us when it connected to us, null if we have none
+    @Nullable
+    private final String addressProof;
 
-    CapabilityRequest(Capability capability, int nonce) {
+    CapabilityRequest(Capability capability,
+                      int nonce,
+                      @Nullable String sessionTicket,
+                      String addressToken,
+                      @Nullable String addressProof) {
         this.capability = capability;
         this.nonce = nonce;
+        this.sessionTicket = sessionTicket;
+        this.addressToken = addressToken;
+        this.addressProof = addressProof;
+    }
+
+    @Override
+    public MessagePriority getPriority() {
+        return MessagePriority.CONTROL;
     }
 
     @Override
@@ -37,6 +60,9 @@ class CapabilityRequest implements Message {
         return "CapabilityRequest{" +
                 "\n     Capability=" + capability +
                 ",\n     nonce=" + nonce +
+                ",\n     sessionTicket=" + sessionTicket +
+                ",\n     addressToken=" + addressToken +
+                ",\n     addressProof=" + addressProof +
                 "\n}";
     }
 }
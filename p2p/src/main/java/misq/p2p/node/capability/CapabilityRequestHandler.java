@@ -22,8 +22,11 @@ import misq.common.Disposable;
 import misq.p2p.Address;
 import misq.p2p.NetworkType;
 import misq.p2p.message.Message;
+import misq.p2p.node.RequestCorrelator;
 import misq.p2p.node.connection.RawConnection;
+import misq.p2p.node.connection.frame.CompressionCodec;
 
+import javax.annotation.Nullable;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -37,53 +40,98 @@ public class CapabilityRequestHandler implements RawConnection.MessageListener,
     private final Address peersAddress;
     private final Address myAddress;
     private final Set<NetworkType> mySupportedNetworkTypes;
+    private final Set<CompressionCodec> mySupportedCompressionCodecs;
+    private final RequestCorrelator requestCorrelator;
+    private final SessionTicketStore sessionTicketStore;
+    private final AddressTokenStore addressTokenStore;
+    @Nullable
+    private final SessionTicketStore.SessionTicket sessionTicket;
     private final int requestNonce = new Random().nextInt();
-    private final CompletableFuture<Capability> future = new CompletableFuture<>();
+    private CompletableFuture<CapabilityResponse> future;
 
     public CapabilityRequestHandler(RawConnection rawConnection,
                                     Address peersAddress,
                                     Address myAddress,
-                                    Set<NetworkType> mySupportedNetworkTypes) {
+                                    Set<NetworkType> mySupportedNetworkTypes,
+                                    Set<CompressionCodec> mySupportedCompressionCodecs,
+                                    RequestCorrelator requestCorrelator,
+                                    SessionTicketStore sessionTicketStore,
+                                    AddressTokenStore addressTokenStore,
+                                    @Nullable SessionTicketStore.SessionTicket sessionTicket) {
         this.rawConnection = rawConnection;
         this.peersAddress = peersAddress;
         this.myAddress = myAddress;
         this.mySupportedNetworkTypes = mySupportedNetworkTypes;
+        this.mySupportedCompressionCodecs = mySupportedCompressionCodecs;
+        this.requestCorrelator = requestCorrelator;
+        this.sessionTicketStore = sessionTicketStore;
+        this.addressTokenStore = addressTokenStore;
+        this.sessionTicket = sessionTicket;
     }
 
+    /**
+     * @return Future with the capability of the peer. If we have presented a session ticket the caller does not need
+     * to wait for it, but should close the connection if it fails or the capability differs from the one of the
+     * ticket.
+     */
     public CompletableFuture<Capability> request() {
-        future.orTimeout(TIMEOUT_SEC, TimeUnit.SECONDS);
+        future = requestCorrelator.register(rawConnection.getId(),
+                requestNonce,
+                CapabilityResponse.class,
+                TIMEOUT_SEC,
+                TimeUnit.SECONDS);
         rawConnection.addMessageListener(this);
-        Capability capability = new Capability(myAddress, mySupportedNetworkTypes);
-        rawConnection.send(new CapabilityRequest(capability, requestNonce));
-        return future;
+        Capability capability = new Capability(myAddress, mySupportedNetworkTypes, mySupportedCompressionCodecs);
+        String ticket = sessionTicket != null ? sessionTicket.getTicket() : null;
+        String addressToken = addressTokenStore.getOrIssue(peersAddress);
+        String addressProof = addressTokenStore.find(peersAddress).orElse(null);
+        rawConnection.send(new CapabilityRequest(capability, requestNonce, ticket, addressToken, addressProof));
+        return future.thenCompose(capabilityResponse -> {
+            if (capabilityResponse.isResumed()) {
+                if (sessionTicket == null) {
+                    log.warn("Peer {} has resumed a session we have not requested", peersAddress);
+                    rawConnection.close();
+                    return CompletableFuture.failedFuture(new Exception("Invalid HandshakeResponse"));
+                }
+                // Our ticket is still valid, so we keep it
+                return CompletableFuture.completedFuture(sessionTicket.getCapability());
+            }
+            // Full handshake, also if our ticket was not accepted
+            Capability peersCapability = capabilityResponse.getCapability();
+            if (peersCapability == null || !peersAddress.equals(peersCapability.getAddress())) {
+                log.warn("Responded capability {} does not match peersAddress {}", peersCapability, peersAddress);
+                rawConnection.close();
+                return CompletableFuture.failedFuture(new Exception("Invalid HandshakeResponse"));
+            }
+            String newTicket = capabilityResponse.getSessionTicket();
+            if (newTicket != null) {
+                sessionTicketStore.put(peersAddress, new SessionTicketStore.SessionTicket(newTicket, peersCapability));
+            } else {
+                // Peer does not support session tickets
+                sessionTicketStore.remove(peersAddress);
+            }
+            return CompletableFuture.completedFuture(peersCapability);
+        });
     }
 
     public void dispose() {
         rawConnection.removeMessageListener(this);
-        future.cancel(true);
+        if (future != null) {
+            future.cancel(true);
+        }
     }
 
     @Override
     public void onMessage(Message message) {
         if (message instanceof CapabilityResponse) {
             CapabilityResponse capabilityResponse = (CapabilityResponse) message;
-            Capability capability = capabilityResponse.getCapability();
-            if (capabilityResponse.getRequestNonce() != requestNonce) {
+            rawConnection.removeMessageListener(this);
+            if (!requestCorrelator.onResponse(capabilityResponse, rawConnection.getId())) {
                 log.warn("Responded nonce {} does not match requestNonce {}",
                         capabilityResponse.getRequestNonce(), requestNonce);
                 rawConnection.close();
                 future.completeExceptionally(new Exception("Invalid HandshakeResponse"));
             }
-            if (!peersAddress.equals(capability.getAddress())) {
-                log.warn("Responded address {} does not match peersAddress {}",
-                        capability.getAddress(), peersAddress);
-
-                rawConnection.close();
-                future.completeExceptionally(new Exception("Invalid HandshakeResponse"));
-            }
-
-            rawConnection.removeMessageListener(this);
-            future.complete(capability);
         }
     }
 }
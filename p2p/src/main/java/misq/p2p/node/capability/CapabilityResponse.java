@@ -19,17 +19,42 @@ package misq.p2p.node.capability;
 
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
-import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.message.Response;
+
+import javax.annotation.Nullable;
 
 @EqualsAndHashCode
 @Getter
-class CapabilityResponse implements Message {
+class CapabilityResponse implements Response {
+    // Null if the session got resumed, the requester uses the capability of its session ticket then
+    @Nullable
     private final Capability capability;
     private final int requestNonce;
+    // Ticket to be used at the next handshake. Null if the session got resumed or the peer does not support session
+    // tickets.
+    @Nullable
+    private final String sessionTicket;
+    // True if the ticket of the request was valid
+    private final boolean resumed;
+
+    static CapabilityResponse resumed(int requestNonce) {
+        return new CapabilityResponse(null, requestNonce, null, true);
+    }
 
-    CapabilityResponse(Capability capability, int requestNonce) {
+    CapabilityResponse(@Nullable Capability capability,
+                       int requestNonce,
+                       @Nullable String sessionTicket,
+                       boolean resumed) {
         this.capability = capability;
         this.requestNonce = requestNonce;
+        this.sessionTicket = sessionTicket;
+        this.resumed = resumed;
+    }
+
+    @Override
+    public MessagePriority getPriority() {
+        return MessagePriority.CONTROL;
     }
 
     @Override
@@ -37,6 +62,8 @@ class CapabilityResponse implements Message {
         return "CapabilityResponse{" +
                 "\n     capability=" + capability +
                 ",\n     requestNonce=" + requestNonce +
+                ",\n     sessionTicket=" + sessionTicket +
+                ",\n     resumed=" + resumed +
                 "\n}";
     }
 }
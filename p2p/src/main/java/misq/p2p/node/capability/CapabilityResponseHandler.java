@@ -23,24 +23,35 @@ import misq.p2p.Address;
 import misq.p2p.NetworkType;
 import misq.p2p.message.Message;
 import misq.p2p.node.connection.RawConnection;
+import misq.p2p.node.connection.frame.CompressionCodec;
 
 import java.util.Set;
-import java.util.function.Consumer;
+import java.util.function.BiConsumer;
 
 @Slf4j
 public class CapabilityResponseHandler implements RawConnection.MessageListener, Disposable {
     private final RawConnection rawConnection;
     private final Address myAddress;
     private final Set<NetworkType> mySupportedNetworkTypes;
-    private final Consumer<Capability> resultHandler;
+    private final Set<CompressionCodec> mySupportedCompressionCodecs;
+    private final SessionTicketStore sessionTicketStore;
+    private final AddressTokenStore addressTokenStore;
+    // Called with the capability of the peer and whether the peer has proven the address it claims
+    private final BiConsumer<Capability, Boolean> resultHandler;
 
     public CapabilityResponseHandler(RawConnection rawConnection,
                                      Address myAddress,
                                      Set<NetworkType> mySupportedNetworkTypes,
-                                     Consumer<Capability> resultHandler) {
+                                     Set<CompressionCodec> mySupportedCompressionCodecs,
+                                     SessionTicketStore sessionTicketStore,
+                                     AddressTokenStore addressTokenStore,
+                                     BiConsumer<Capability, Boolean> resultHandler) {
         this.rawConnection = rawConnection;
         this.myAddress = myAddress;
         this.mySupportedNetworkTypes = mySupportedNetworkTypes;
+        this.mySupportedCompressionCodecs = mySupportedCompressionCodecs;
+        this.sessionTicketStore = sessionTicketStore;
+        this.addressTokenStore = addressTokenStore;
         this.resultHandler = resultHandler;
 
         rawConnection.addMessageListener(this);
@@ -58,10 +69,24 @@ public class CapabilityResponseHandler implements RawConnection.MessageListener,
             metaData.setPeerAddress(handshakeRequest.getAddress());
             metaData.setSupportedNetworkTypes(handshakeRequest.getSupportedNetworkTypes());
             metaData.handShakeCompleted();*/
-            Capability capability = new Capability(myAddress, mySupportedNetworkTypes);
-            rawConnection.send(new CapabilityResponse(capability, capabilityRequest.getNonce()));
+            Capability peersCapability = capabilityRequest.getCapability();
+            Address peerAddress = peersCapability.getAddress();
+            String presentedTicket = capabilityRequest.getSessionTicket();
+            if (presentedTicket != null && sessionTicketStore.isValid(presentedTicket, peersCapability)) {
+                // The peer has our capability from the previous handshake and keeps its ticket
+                rawConnection.send(CapabilityResponse.resumed(capabilityRequest.getNonce()));
+            } else {
+                Capability capability = new Capability(myAddress, mySupportedNetworkTypes, mySupportedCompressionCodecs);
+                String sessionTicket = sessionTicketStore.issue(peersCapability);
+                rawConnection.send(new CapabilityResponse(capability, capabilityRequest.getNonce(), sessionTicket, false));
+            }
             rawConnection.removeMessageListener(this);
-            resultHandler.accept(capabilityRequest.getCapability());
+            String addressProof = capabilityRequest.getAddressProof();
+            boolean addressVerified = addressProof != null && addressTokenStore.isValid(addressProof, peerAddress);
+            if (capabilityRequest.getAddressToken() != null) {
+                addressTokenStore.put(peerAddress, capabilityRequest.getAddressToken());
+            }
+            resultHandler.accept(capabilityRequest.getCapability(), addressVerified);
         }
     }
 
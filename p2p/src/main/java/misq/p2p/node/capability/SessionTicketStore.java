@@ -0,0 +1,114 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.capability;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import misq.p2p.Address;
+
+import java.security.SecureRandom;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session tickets allow to skip waiting for the {@link CapabilityResponse} when we reconnect to a peer we have
+ * completed a handshake with before. The peer issues a ticket in the response of the first handshake. At a reconnect
+ * we present the ticket in the {@link CapabilityRequest} and use the capability of the previous handshake right away.
+ * <p>
+ * If the ticket is valid and we still have the capability the ticket got issued for, the peer confirms the resumed
+ * session with a short response without its capability and a new ticket. Otherwise, e.g. if the ticket has expired
+ * or was issued to another peer, the peer responds like at a full handshake. We then verify that its capability has
+ * not changed.
+ * <p>
+ * Tickets are only kept in memory. After a restart of the peer our ticket is not valid anymore and we get a new one.
+ */
+public class SessionTicketStore {
+    @Getter
+    @EqualsAndHashCode
+    public static class SessionTicket {
+        private final String ticket;
+        private final Capability capability;
+
+        SessionTicket(String ticket, Capability capability) {
+            this.ticket = ticket;
+            this.capability = capability;
+        }
+    }
+
+    @VisibleForTesting
+    static final long TICKET_TTL_HOURS = 24;
+    private static final int MAX_TICKETS = 10_000;
+
+    private final SecureRandom random = new SecureRandom();
+    // Tickets we have issued to peers who connected to us, value is the capability of the peer
+    private final Cache<String, Capability> issuedTickets;
+    // Tickets we have received from peers we connected to. The peers might expire them earlier.
+    private final Cache<Address, SessionTicket> receivedTickets;
+
+    public SessionTicketStore() {
+        this(Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    SessionTicketStore(Ticker ticker) {
+        issuedTickets = CacheBuilder.newBuilder()
+                .expireAfterWrite(TICKET_TTL_HOURS, TimeUnit.HOURS)
+                .maximumSize(MAX_TICKETS)
+                .ticker(ticker)
+                .build();
+        receivedTickets = CacheBuilder.newBuilder()
+                .expireAfterWrite(TICKET_TTL_HOURS, TimeUnit.HOURS)
+                .maximumSize(MAX_TICKETS)
+                .ticker(ticker)
+                .build();
+    }
+
+    String issue(Capability peersCapability) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder ticket = new StringBuilder();
+        for (byte b : bytes) {
+            ticket.append(String.format("%02x", b));
+        }
+        issuedTickets.put(ticket.toString(), peersCapability);
+        return ticket.toString();
+    }
+
+    /**
+     * @return true if we have issued the ticket to the peer with that capability and it has not expired
+     */
+    boolean isValid(String ticket, Capability peersCapability) {
+        return peersCapability.equals(issuedTickets.getIfPresent(ticket));
+    }
+
+    void put(Address peerAddress, SessionTicket sessionTicket) {
+        receivedTickets.put(peerAddress, sessionTicket);
+    }
+
+    public Optional<SessionTicket> find(Address peerAddress) {
+        return Optional.ofNullable(receivedTickets.getIfPresent(peerAddress));
+    }
+
+    public void remove(Address peerAddress) {
+        receivedTickets.invalidate(peerAddress);
+    }
+}
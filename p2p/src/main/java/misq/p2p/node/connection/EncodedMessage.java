@@ -0,0 +1,62 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import lombok.Getter;
+import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.node.connection.frame.CompressionCodec;
+import misq.p2p.node.connection.frame.Frame;
+import misq.p2p.node.connection.frame.FrameCodec;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Message together with its frame, for sending the same message to many connections. The frame is encoded at the
+ * first send and compressed once per codec, later sends write the same frame. Frames are not modified by the
+ * transports, so they can be shared.
+ */
+public final class EncodedMessage {
+    @Getter
+    private final Message message;
+    private final Supplier<Frame> frame;
+    private final Map<CompressionCodec, Frame> compressedFrameByCodec = new ConcurrentHashMap<>();
+
+    public EncodedMessage(Message message) {
+        this.message = message;
+        frame = Suppliers.memoize(() -> FrameCodec.encode(message));
+    }
+
+    public MessagePriority getPriority() {
+        return message.getPriority();
+    }
+
+    /**
+     * @throws RuntimeException if the message cannot be serialized.
+     */
+    public Frame getFrame(@Nullable CompressionCodec codec) {
+        if (codec == null) {
+            return frame.get();
+        }
+        return compressedFrameByCodec.computeIfAbsent(codec, key -> FrameCodec.compress(frame.get(), key));
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+import lombok.Getter;
+
+/**
+ * Controls how outbound frames are coalesced. Queued frames are written into one buffer and flushed once the queue
+ * is empty or one of the thresholds is reached.
+ */
+@Getter
+public class FlushPolicy {
+    public static final FlushPolicy DEFAULT = new FlushPolicy(64 * 1024, 10);
+
+    // Flush once that many bytes have been written since the last flush
+    private final int maxBytesPerFlush;
+    // Flush at latest after that delay since the first not yet flushed frame, even if the queue is not empty
+    private final long maxFlushDelayMs;
+
+    public FlushPolicy(int maxBytesPerFlush, long maxFlushDelayMs) {
+        this.maxBytesPerFlush = maxBytesPerFlush;
+        this.maxFlushDelayMs = maxFlushDelayMs;
+    }
+
+    @Override
+    public String toString() {
+        return "FlushPolicy{" +
+                "\n     maxBytesPerFlush=" + maxBytesPerFlush +
+                ",\n     maxFlushDelayMs=" + maxFlushDelayMs +
+                "\n}";
+    }
+}
@@ -30,7 +30,11 @@ public class InboundConnection extends RawConnection {
     private final GetServerSocketResult getServerSocketResult;
 
     public InboundConnection(Socket socket, GetServerSocketResult getServerSocketResult) throws IOException {
-        super(socket);
+        this(new SocketTransport(socket), getServerSocketResult);
+    }
+
+    public InboundConnection(Transport transport, GetServerSocketResult getServerSocketResult) {
+        super(transport);
         this.getServerSocketResult = getServerSocketResult;
         log.debug("Create inboundConnection from server: {}", getServerSocketResult);
     }
@@ -0,0 +1,31 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+/**
+ * Connections between nodes in the same process can be carried by a {@link LoopbackTransport} instead of a socket.
+ * DISABLED always uses sockets.
+ * SERIALIZED hands over the encoded frames, so messages are serialized and deserialized like on the wire, which
+ * validates that they are serializable.
+ * UNSERIALIZED hands over the message objects, so both nodes share the (immutable) message instances.
+ */
+public enum LoopbackMode {
+    DISABLED,
+    SERIALIZED,
+    UNSERIALIZED
+}
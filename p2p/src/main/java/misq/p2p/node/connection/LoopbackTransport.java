@@ -0,0 +1,233 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import lombok.extern.slf4j.Slf4j;
+import misq.common.util.ThreadingUtils;
+import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.node.connection.frame.Frame;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * One end of an in-memory connection between two nodes in the same process (see {@link LoopbackMode}).
+ * <p>
+ * Frames written at one end are delivered to the other end sequentially on a shared thread pool, so the semantics of
+ * a socket are kept: Frames are delivered in order and never concurrently, writes complete once the frame has been
+ * handed over and closing one end lets the other end fail with an EOFException. Frames written before the peer has
+ * been started are delivered once it starts.
+ * <p>
+ * If the transport is not serializing, writeMessage hands over the messages instead of encoding them to frames.
+ */
+@Slf4j
+public class LoopbackTransport implements Transport {
+    private static final ExecutorService DELIVERY_EXECUTOR = ThreadingUtils.getCachedThreadPool("LoopbackTransport");
+
+    private final boolean isSerializing;
+    private final Executor deliveryExecutor = MoreExecutors.newSequentialExecutor(DELIVERY_EXECUTOR);
+    private final WriteStats writeStats = new WriteStats();
+    private LoopbackTransport peer;
+    // Following fields are guarded by this
+    private final List<Runnable> deliveriesBeforeStart = new ArrayList<>();
+    private boolean isStarted;
+    @Nullable
+    private volatile FrameHandler frameHandler;
+    @Nullable
+    private volatile Consumer<Exception> errorHandler;
+    @Nullable
+    private volatile MessageHandler messageHandler;
+    private volatile boolean isClosed;
+
+    /**
+     * @return One end of the connection, the other end is available with getPeer.
+     */
+    public static LoopbackTransport createPair(boolean isSerializing) {
+        LoopbackTransport transport = new LoopbackTransport(isSerializing);
+        LoopbackTransport peer = new LoopbackTransport(isSerializing);
+        transport.peer = peer;
+        peer.peer = transport;
+        return transport;
+    }
+
+    private LoopbackTransport(boolean isSerializing) {
+        this.isSerializing = isSerializing;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Transport
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void start(String name, FrameHandler frameHandler, Consumer<Exception> errorHandler) {
+        start(name, frameHandler, null, errorHandler);
+    }
+
+    @Override
+    public void start(String name,
+                      FrameHandler frameHandler,
+                      @Nullable MessageHandler messageHandler,
+                      Consumer<Exception> errorHandler) {
+        this.frameHandler = frameHandler;
+        this.messageHandler = messageHandler;
+        this.errorHandler = errorHandler;
+        List<Runnable> deliveries;
+        synchronized (this) {
+            isStarted = true;
+            deliveries = new ArrayList<>(deliveriesBeforeStart);
+            deliveriesBeforeStart.clear();
+        }
+        deliveries.forEach(deliveryExecutor::execute);
+    }
+
+    @Override
+    public CompletableFuture<Void> write(Frame frame, MessagePriority priority) {
+        if (isClosed) {
+            return CompletableFuture.failedFuture(new SocketException("Loopback connection closed"));
+        }
+        peer.deliver(() -> peer.onFrame(frame));
+        writeStats.onFlush(1, frame.getSize());
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public Optional<CompletableFuture<Void>> writeMessage(Message message) {
+        if (isSerializing) {
+            return Optional.empty();
+        }
+        if (isClosed) {
+            return Optional.of(CompletableFuture.failedFuture(new SocketException("Loopback connection closed")));
+        }
+        peer.deliver(() -> peer.onMessage(message));
+        writeStats.onFlush(1, 0);
+        return Optional.of(CompletableFuture.completedFuture(null));
+    }
+
+    @Override
+    public WriteStats getWriteStats() {
+        return writeStats;
+    }
+
+    @Override
+    public boolean isLoopback() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (markClosed()) {
+            peer.onClosedByPeer();
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public LoopbackTransport getPeer() {
+        return peer;
+    }
+
+    public boolean isSerializing() {
+        return isSerializing;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void deliver(Runnable runnable) {
+        synchronized (this) {
+            if (!isStarted) {
+                deliveriesBeforeStart.add(runnable);
+                return;
+            }
+        }
+        deliveryExecutor.execute(runnable);
+    }
+
+    // Runs on the deliveryExecutor
+    private void onFrame(Frame frame) {
+        FrameHandler handler = frameHandler;
+        if (isClosed || handler == null) {
+            return;
+        }
+        try {
+            handler.onFrame(frame);
+        } catch (Exception exception) {
+            closeWithError(exception);
+        }
+    }
+
+    // Runs on the deliveryExecutor
+    private void onMessage(Message message) {
+        MessageHandler handler = messageHandler;
+        if (isClosed) {
+            return;
+        }
+        if (handler == null) {
+            closeWithError(new IOException("Received message but no message handler has been passed at start"));
+            return;
+        }
+        try {
+            handler.onMessage(message);
+        } catch (RuntimeException exception) {
+            closeWithError(exception);
+        }
+    }
+
+    private void onClosedByPeer() {
+        if (markClosed()) {
+            deliver(() -> notifyErrorHandler(new EOFException("Loopback connection closed by peer")));
+        }
+    }
+
+    private void closeWithError(Exception exception) {
+        close();
+        notifyErrorHandler(exception);
+    }
+
+    private void notifyErrorHandler(Exception exception) {
+        Consumer<Exception> handler = errorHandler;
+        if (handler != null) {
+            handler.accept(exception);
+        }
+    }
+
+    private synchronized boolean markClosed() {
+        if (isClosed) {
+            return false;
+        }
+        isClosed = true;
+        return true;
+    }
+}
@@ -31,7 +31,11 @@ public class OutboundConnection extends RawConnection {
     private final Address address;
 
     public OutboundConnection(Socket socket, Address address) throws IOException {
-        super(socket);
+        this(new SocketTransport(socket), address);
+    }
+
+    public OutboundConnection(Transport transport, Address address) {
+        super(transport);
 
         this.address = address;
         log.debug("Create outboundConnection to {}", address);
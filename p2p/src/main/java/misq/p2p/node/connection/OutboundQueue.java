@@ -0,0 +1,204 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+import lombok.Getter;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.node.connection.frame.Frame;
+import misq.p2p.node.connection.frame.FrameCodec;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Outbound frames of a connection, kept in one lane per {@link MessagePriority}.
+ * <p>
+ * The writer polls the next frame from the highest priority lane which is not empty. Frames with a payload larger
+ * than chunkSize are sent as CHUNK frames, one chunk per poll, so frames of higher priority lanes get interleaved
+ * with the chunks of a large message instead of waiting until it is completely sent.
+ * <p>
+ * To not starve the BULK lane by a constant flow of higher priority frames (e.g. gossip), BULK gets a minimum share:
+ * once BULK_SHARE_CHUNKS * chunkSize bytes of other lanes have been polled while BULK frames were waiting, the next
+ * poll serves BULK.
+ * <p>
+ * Each lane is bounded by maxBytesPerLane. If a lane is full, the GOSSIP lane drops its oldest frames, the other
+ * lanes reject the new frame. The futures of dropped or rejected frames complete with an
+ * {@link OutboundQueueOverflowException}. A single frame larger than the lane limit is accepted if the lane is empty.
+ */
+public class OutboundQueue {
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        REJECT
+    }
+
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+    // BULK gets at least one frame or chunk per that many chunk sizes of other lanes, so at least about 20%
+    public static final int BULK_SHARE_CHUNKS = 4;
+    public static final Map<MessagePriority, Long> DEFAULT_MAX_BYTES_PER_LANE;
+
+    static {
+        Map<MessagePriority, Long> map = new EnumMap<>(MessagePriority.class);
+        map.put(MessagePriority.CONTROL, 1024 * 1024L);
+        map.put(MessagePriority.CONFIDENTIAL, 4 * 1024 * 1024L);
+        map.put(MessagePriority.GOSSIP, 2 * 1024 * 1024L);
+        map.put(MessagePriority.BULK, 20 * 1024 * 1024L);
+        DEFAULT_MAX_BYTES_PER_LANE = Collections.unmodifiableMap(map);
+    }
+
+    public static OverflowPolicy getOverflowPolicy(MessagePriority priority) {
+        return priority == MessagePriority.GOSSIP ? OverflowPolicy.DROP_OLDEST : OverflowPolicy.REJECT;
+    }
+
+    @Getter
+    public static class OutboundFrame {
+        private final Frame frame;
+        // Only set for the last chunk or a not chunked frame
+        @Nullable
+        private final CompletableFuture<Void> future;
+
+        private OutboundFrame(Frame frame, @Nullable CompletableFuture<Void> future) {
+            this.frame = frame;
+            this.future = future;
+        }
+    }
+
+    private static class Entry {
+        private final Frame frame;
+        private final CompletableFuture<Void> future;
+        // Offset of the next chunk, > 0 once chunking has started
+        private int offset;
+
+        private Entry(Frame frame, CompletableFuture<Void> future) {
+            this.frame = frame;
+            this.future = future;
+        }
+    }
+
+    private static class Lane {
+        private final Deque<Entry> entries = new ArrayDeque<>();
+        private long numBytes;
+    }
+
+    private final Map<MessagePriority, Lane> lanes = new EnumMap<>(MessagePriority.class);
+    private final Map<MessagePriority, Long> maxBytesPerLane;
+    private final int chunkSize;
+    // Bytes polled from other lanes since the last BULK frame or chunk while BULK frames were waiting
+    private long numBytesSinceBulkPoll;
+
+    public OutboundQueue() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_BYTES_PER_LANE);
+    }
+
+    public OutboundQueue(int chunkSize, Map<MessagePriority, Long> maxBytesPerLane) {
+        this.chunkSize = chunkSize;
+        this.maxBytesPerLane = maxBytesPerLane;
+        Arrays.stream(MessagePriority.values()).forEach(priority -> lanes.put(priority, new Lane()));
+    }
+
+    public synchronized void add(Frame frame, MessagePriority priority, CompletableFuture<Void> future) {
+        Lane lane = lanes.get(priority);
+        long maxBytes = maxBytesPerLane.get(priority);
+        int size = frame.getSize();
+        if (getOverflowPolicy(priority) == OverflowPolicy.DROP_OLDEST) {
+            Iterator<Entry> iterator = lane.entries.iterator();
+            while (lane.numBytes + size > maxBytes && iterator.hasNext()) {
+                Entry oldest = iterator.next();
+                if (oldest.offset > 0) {
+                    // Chunks of that frame have been sent already, so we need to complete it
+                    continue;
+                }
+                iterator.remove();
+                lane.numBytes -= oldest.frame.getSize();
+                oldest.future.completeExceptionally(new OutboundQueueOverflowException("Dropped oldest " + priority +
+                        " frame as outbound lane is full"));
+            }
+        }
+        if (lane.numBytes + size > maxBytes && !lane.entries.isEmpty()) {
+            future.completeExceptionally(new OutboundQueueOverflowException("Outbound lane " + priority +
+                    " is full. Queued bytes: " + lane.numBytes));
+            return;
+        }
+        lane.entries.add(new Entry(frame, future));
+        lane.numBytes += size;
+    }
+
+    public synchronized Optional<OutboundFrame> poll() {
+        Lane bulkLane = lanes.get(MessagePriority.BULK);
+        if (!bulkLane.entries.isEmpty() && numBytesSinceBulkPoll >= (long) BULK_SHARE_CHUNKS * chunkSize) {
+            return Optional.of(poll(MessagePriority.BULK, bulkLane));
+        }
+        for (MessagePriority priority : MessagePriority.values()) {
+            Lane lane = lanes.get(priority);
+            if (!lane.entries.isEmpty()) {
+                return Optional.of(poll(priority, lane));
+            }
+        }
+        return Optional.empty();
+    }
+
+    public synchronized boolean isEmpty() {
+        return lanes.values().stream().allMatch(lane -> lane.entries.isEmpty());
+    }
+
+    public synchronized long getNumBytes(MessagePriority priority) {
+        return lanes.get(priority).numBytes;
+    }
+
+    public synchronized void failAll(Exception exception) {
+        lanes.values().forEach(lane -> {
+            lane.entries.forEach(entry -> entry.future.completeExceptionally(exception));
+            lane.entries.clear();
+            lane.numBytes = 0;
+        });
+        numBytesSinceBulkPoll = 0;
+    }
+
+    private OutboundFrame poll(MessagePriority priority, Lane lane) {
+        OutboundFrame outboundFrame = pollHead(priority, lane);
+        if (priority == MessagePriority.BULK || lanes.get(MessagePriority.BULK).entries.isEmpty()) {
+            numBytesSinceBulkPoll = 0;
+        } else {
+            numBytesSinceBulkPoll += outboundFrame.getFrame().getSize();
+        }
+        return outboundFrame;
+    }
+
+    private OutboundFrame pollHead(MessagePriority priority, Lane lane) {
+        Entry entry = lane.entries.peek();
+        byte[] payload = entry.frame.getPayload();
+        if (entry.offset == 0 && payload.length <= chunkSize) {
+            removeHead(lane);
+            return new OutboundFrame(entry.frame, entry.future);
+        }
+        int length = Math.min(chunkSize, payload.length - entry.offset);
+        Frame chunk = FrameCodec.createChunk(entry.frame, (byte) priority.ordinal(), entry.offset, length);
+        entry.offset += length;
+        if (entry.offset == payload.length) {
+            removeHead(lane);
+            return new OutboundFrame(chunk, entry.future);
+        } else {
+            return new OutboundFrame(chunk, null);
+        }
+    }
+
+    private void removeHead(Lane lane) {
+        Entry entry = lane.entries.poll();
+        lane.numBytes -= entry.frame.getSize();
+    }
+}
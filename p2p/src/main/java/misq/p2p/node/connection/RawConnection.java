@@ -17,31 +17,40 @@
 
 package misq.p2p.node.connection;
 
-import lombok.EqualsAndHashCode;
-import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import misq.common.util.ThreadingUtils;
 import misq.p2p.message.Message;
-
+import misq.p2p.message.MessagePriority;
+import misq.p2p.node.connection.frame.ChunkAssembler;
+import misq.p2p.node.connection.frame.CompressionCodec;
+import misq.p2p.node.connection.frame.Frame;
+import misq.p2p.node.connection.frame.FrameCodec;
+import misq.p2p.node.connection.frame.FrameException;
+import misq.p2p.node.connection.frame.FrameType;
+
+import javax.annotation.Nullable;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.net.SocketException;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
-import static com.google.common.base.Preconditions.checkArgument;
-
 /**
  * Represents an inbound or outbound connection to a peer node.
  * Listens for messages from the peer.
  * Sends messages to the peer.
+ * Messages are transferred as length prefixed frames (see {@link FrameCodec}) by the {@link Transport}.
+ * Frames are compressed if a {@link CompressionCodec} has been negotiated in the capability handshake.
+ * Large messages are sent in chunks so that messages of higher priority can be interleaved (see {@link OutboundQueue}).
+ * Optionally carries logical streams of other connections to the same peer (see {@link StreamMultiplexer}).
+ * Transports carrying the connection in memory can hand over messages without serialization (see
+ * {@link Transport#writeMessage}).
  * Notifies messageListeners on new received messages.
- * Notifies errorHandler on exceptions from the inputHandlerService executor.
+ * Notifies errorHandler on exceptions from the transport.
  */
 @Slf4j
 public abstract class RawConnection {
@@ -49,101 +58,110 @@ public abstract class RawConnection {
         void onMessage(Message message);
     }
 
-    @Getter
-    @EqualsAndHashCode
-    public static class MisqMessage implements Message {
-        private final Message payload;
-
-        public MisqMessage(Message payload) {
-            this.payload = payload;
-        }
-
-        @Override
-        public String toString() {
-            return "MisqMessage{" +
-                    ",\n     payload=" + payload +
-                    "\n}";
-        }
+    public interface FrameFilter {
+        /**
+         * Called on the reader thread before a received message frame gets decoded.
+         *
+         * @return false if the frame should be dropped
+         */
+        boolean accept(Frame frame);
     }
 
-    private ExecutorService outputExecutor;
-    private ExecutorService inputHandler;
-    private ObjectInputStream objectInputStream;
-    private ObjectOutputStream objectOutputStream;
+    private final Transport transport;
+    // Frames are delivered sequentially by the transport
+    private final ChunkAssembler chunkAssembler = new ChunkAssembler();
     private final Set<MessageListener> messageListeners = new CopyOnWriteArraySet<>();
-    private final Socket socket;
     protected final String id = UUID.randomUUID().toString();
-    private final Object isStoppedLock = new Object();
-    private volatile boolean isStopped;
+    @Nullable
+    private volatile CompressionCodec compressionCodec;
+    private final long created = System.currentTimeMillis();
+    // Time of the last sent or received message, used for closing idle connections
+    private volatile long lastActivity = System.currentTimeMillis();
+    @Nullable
+    private volatile StreamMultiplexer streamMultiplexer;
+    @Nullable
+    private volatile FrameFilter frameFilter;
 
     protected RawConnection(Socket socket) {
-        this.socket = socket;
+        this(new SocketTransport(socket));
+    }
+
+    protected RawConnection(Transport transport) {
+        this.transport = transport;
     }
 
     public void listen(Consumer<Exception> errorHandler) throws IOException {
-        outputExecutor = ThreadingUtils.getSingleThreadExecutor("Connection.outputExecutor-" + getShortId());
-        inputHandler = ThreadingUtils.getSingleThreadExecutor("Connection.inputHandler-" + getShortId());
-
-        // TODO java serialisation is just for dev, will be replaced by custom serialisation
-        // Type-Length-Value Format is considered to be used:
-        // https://github.com/lightningnetwork/lightning-rfc/blob/master/01-messaging.md#type-length-value-format
-        // ObjectOutputStream need to be set before objectInputStream otherwise we get blocked...
-        // https://stackoverflow.com/questions/14110986/new-objectinputstream-blocks/14111047
-        objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
-        objectInputStream = new ObjectInputStream(socket.getInputStream());
-
-        inputHandler.execute(() -> {
-            while (!isStopped && !Thread.currentThread().isInterrupted()) {
-                Object object;
-                try {
-                    object = objectInputStream.readObject();
-                    checkArgument(object instanceof MisqMessage,
-                            "Received object is not of type MisqMessage: " + object.getClass().getName());
-                    MisqMessage misqMessage = (MisqMessage) object;
-                    log.debug("Received message: {} at connection: {}", misqMessage, this);
-                    messageListeners.forEach(listener -> listener.onMessage(misqMessage.getPayload()));
-                } catch (Exception exception) {
-                    //todo StreamCorruptedException from i2p at shutdown. prob it send some text data at shut down
-                    close();
-                    errorHandler.accept(exception);
-                }
-            }
+        transport.start(getShortId(), this::onFrame, this::onMessage, exception -> {
+            closeStreams(exception);
+            errorHandler.accept(exception);
         });
     }
 
     public CompletableFuture<RawConnection> send(Message message) {
-        CompletableFuture<RawConnection> future = new CompletableFuture<>();
-        outputExecutor.execute(() -> {
-            try {
-                MisqMessage misqMessage = new MisqMessage(message);
-                objectOutputStream.writeObject(misqMessage);
-                objectOutputStream.flush();
-                log.debug("Message sent: {} at connection: {}", misqMessage, this);
-                future.complete(this);
-            } catch (IOException exception) {
-                if (!isStopped) {
-                    close();
-                }
-                future.completeExceptionally(exception);
-            }
-        });
-        return future;
+        return send(new EncodedMessage(message));
     }
 
-    public void close() {
-        if (isStopped) {
-            return;
+    /**
+     * Writes the frame of the encoded message, so a message sent to several connections is only encoded once.
+     */
+    public CompletableFuture<RawConnection> send(EncodedMessage encodedMessage) {
+        Message message = encodedMessage.getMessage();
+        Optional<CompletableFuture<Void>> messageWritten = transport.writeMessage(message);
+        if (messageWritten.isPresent()) {
+            lastActivity = System.currentTimeMillis();
+            return messageWritten.get().thenApply(nil -> this);
         }
-
-        synchronized (isStoppedLock) {
-            isStopped = true;
-        }
-        ThreadingUtils.shutdownAndAwaitTermination(inputHandler);
-        ThreadingUtils.shutdownAndAwaitTermination(outputExecutor);
+        Frame frame;
         try {
-            socket.close();
-        } catch (IOException ignore) {
+            frame = encodedMessage.getFrame(compressionCodec);
+        } catch (RuntimeException exception) {
+            return CompletableFuture.failedFuture(exception);
         }
+        lastActivity = System.currentTimeMillis();
+        return transport.write(frame, encodedMessage.getPriority())
+                .thenApply(nil -> {
+                    log.debug("Message sent: {} at connection: {}", message, this);
+                    return this;
+                });
+    }
+
+    public void close() {
+        transport.close();
+        closeStreams(new SocketException("Connection closed"));
+    }
+
+    /**
+     * Enables carrying logical streams over that connection. Needs to be called before listen.
+     *
+     * @param executor      Used for delivering the frames of the streams
+     * @param streamHandler Called if the peer opens a stream
+     */
+    public StreamMultiplexer enableStreamMultiplexing(Executor executor, StreamMultiplexer.StreamHandler streamHandler) {
+        StreamMultiplexer multiplexer = new StreamMultiplexer(this, this instanceof OutboundConnection, executor, streamHandler);
+        streamMultiplexer = multiplexer;
+        return multiplexer;
+    }
+
+    public Optional<StreamMultiplexer> findStreamMultiplexer() {
+        return Optional.ofNullable(streamMultiplexer);
+    }
+
+    /**
+     * Sets the codec used for compressing outgoing frames. Inbound frames are decompressed based on their flags.
+     */
+    public void setCompressionCodec(CompressionCodec compressionCodec) {
+        this.compressionCodec = compressionCodec;
+    }
+
+    /**
+     * Sets a filter for dropping received messages before they get decompressed and deserialized.
+     */
+    public void setFrameFilter(FrameFilter frameFilter) {
+        this.frameFilter = frameFilter;
+    }
+
+    public WriteStats getWriteStats() {
+        return transport.getWriteStats();
     }
 
     public void addMessageListener(MessageListener messageListener) {
@@ -158,6 +176,65 @@ public abstract class RawConnection {
         return id;
     }
 
+    /**
+     * @return true if the connection is carried in memory to a node in the same process
+     */
+    public boolean isLoopback() {
+        return transport.isLoopback();
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    CompletableFuture<Void> write(Frame frame, MessagePriority priority) {
+        lastActivity = System.currentTimeMillis();
+        return transport.write(frame, priority);
+    }
+
+    private void onFrame(Frame frame) throws IOException {
+        lastActivity = System.currentTimeMillis();
+        if (frame.getType().isStreamFrame()) {
+            StreamMultiplexer multiplexer = streamMultiplexer;
+            if (multiplexer == null) {
+                throw new FrameException("Received stream frame but stream multiplexing is not enabled");
+            }
+            multiplexer.onFrame(frame);
+            return;
+        }
+        if (frame.getType() == FrameType.CHUNK) {
+            Optional<Frame> assembled = chunkAssembler.add(frame);
+            if (!assembled.isPresent()) {
+                return;
+            }
+            frame = assembled.get();
+        }
+        FrameFilter filter = frameFilter;
+        if (filter != null && !filter.accept(frame)) {
+            log.debug("Frame at connection {} got dropped by the frame filter", this);
+            return;
+        }
+        frame = FrameCodec.decompress(frame);
+        onMessage(FrameCodec.decode(frame));
+    }
+
+    private void onMessage(Message message) {
+        lastActivity = System.currentTimeMillis();
+        log.debug("Received message: {} at connection: {}", message, this);
+        messageListeners.forEach(listener -> listener.onMessage(message));
+    }
+
+    private void closeStreams(Exception exception) {
+        StreamMultiplexer multiplexer = streamMultiplexer;
+        if (multiplexer != null) {
+            multiplexer.close(exception);
+        }
+    }
+
     private String getShortId() {
         return id.substring(0, 24);
     }
@@ -21,20 +21,33 @@ import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import misq.common.util.ThreadingUtils;
 import misq.p2p.Address;
+import misq.p2p.node.connection.nio.NioEventLoop;
+import misq.p2p.node.connection.nio.NioEventLoopGroup;
 import misq.p2p.node.proxy.GetServerSocketResult;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 
 @Slf4j
 public class Server {
     private final ServerSocket serverSocket;
+    @Nullable
     private final ExecutorService executorService;
+    // Accepted sockets are handed off, so a slow socketHandler does not delay further accepts
+    @Nullable
+    private final ExecutorService socketHandlerExecutor;
     @Getter
     private final Address address;
+    @Getter
+    private final GetServerSocketResult getServerSocketResult;
     private final Object isStoppedLock = new Object();
     private volatile boolean isStopped;
 
@@ -46,18 +59,40 @@ public class Server {
      * @param exceptionHandler
      */
     public Server(GetServerSocketResult getServerSocketResult, Consumer<Socket> socketHandler, Consumer<Exception> exceptionHandler) {
+        this(getServerSocketResult, false, socketHandler, exceptionHandler);
+    }
+
+    /**
+     * Server using the given ServerSocket.
+     *
+     * @param getServerSocketResult contains serverSocket and address
+     * @param useVirtualThread      Runs the accept loop and the socketHandler on virtual threads if supported by the JVM
+     * @param socketHandler         Consumes socket on new inbound connection. Called on a worker thread, not on the
+     *                              accept thread.
+     * @param exceptionHandler
+     */
+    public Server(GetServerSocketResult getServerSocketResult,
+                  boolean useVirtualThread,
+                  Consumer<Socket> socketHandler,
+                  Consumer<Exception> exceptionHandler) {
         this.serverSocket = getServerSocketResult.getServerSocket();
+        this.getServerSocketResult = getServerSocketResult;
 
         address = getServerSocketResult.getAddress();
         log.debug("Create server: {}", getServerSocketResult);
-        executorService = ThreadingUtils.getSingleThreadExecutor("Server-" + getServerSocketResult);
+        executorService = ThreadingUtils.getSingleThreadExecutor("Server-" + getServerSocketResult, useVirtualThread);
+        socketHandlerExecutor = useVirtualThread ?
+                ThreadingUtils.getVirtualThreadPerTaskExecutor("Server.socketHandler-" + getServerSocketResult) :
+                ThreadingUtils.getCachedThreadPool("Server.socketHandler-" + getServerSocketResult);
         executorService.execute(() -> {
             while (isNotStopped()) {
                 try {
                     Socket socket = serverSocket.accept();
                     log.debug("Accepted new connection on server: {}", getServerSocketResult);
                     if (isNotStopped()) {
-                        socketHandler.accept(socket);
+                        handOff(socket, socketHandler);
+                    } else {
+                        closeQuietly(socket);
                     }
                 } catch (IOException e) {
                     if (!isStopped) {
@@ -69,6 +104,80 @@ public class Server {
         });
     }
 
+    /**
+     * Server accepting connections on one of the event loops of the given eventLoopGroup instead of a dedicated
+     * thread. The serverSocket of getServerSocketResult must be backed by a ServerSocketChannel.
+     *
+     * @param getServerSocketResult contains serverSocket and address
+     * @param eventLoopGroup        Provides the event loop used for accepting connections
+     * @param socketHandler         Consumes socket on new inbound connection. Called on the event loop thread.
+     * @param exceptionHandler
+     */
+    public Server(GetServerSocketResult getServerSocketResult,
+                  NioEventLoopGroup eventLoopGroup,
+                  Consumer<Socket> socketHandler,
+                  Consumer<Exception> exceptionHandler) {
+        this.serverSocket = getServerSocketResult.getServerSocket();
+        this.getServerSocketResult = getServerSocketResult;
+
+        address = getServerSocketResult.getAddress();
+        log.debug("Create NIO server: {}", getServerSocketResult);
+        executorService = null;
+        socketHandlerExecutor = null;
+        ServerSocketChannel serverSocketChannel = serverSocket.getChannel();
+        NioEventLoop eventLoop = eventLoopGroup.next();
+        NioEventLoop.SelectionHandler acceptHandler = new NioEventLoop.SelectionHandler() {
+            @Override
+            public void onSelected(SelectionKey selectionKey) throws IOException {
+                SocketChannel socketChannel;
+                while ((socketChannel = serverSocketChannel.accept()) != null) {
+                    log.debug("Accepted new connection on server: {}", getServerSocketResult);
+                    if (isStopped) {
+                        socketChannel.close();
+                    } else {
+                        socketHandler.accept(socketChannel.socket());
+                    }
+                }
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                if (!isStopped) {
+                    exceptionHandler.accept(exception);
+                    stop();
+                }
+            }
+        };
+        try {
+            serverSocketChannel.configureBlocking(false);
+            eventLoop.execute(() -> {
+                try {
+                    eventLoop.register(serverSocketChannel, SelectionKey.OP_ACCEPT, acceptHandler);
+                } catch (IOException exception) {
+                    acceptHandler.onError(exception);
+                }
+            });
+        } catch (IOException exception) {
+            acceptHandler.onError(exception);
+        }
+    }
+
+    private void handOff(Socket socket, Consumer<Socket> socketHandler) {
+        try {
+            socketHandlerExecutor.execute(() -> socketHandler.accept(socket));
+        } catch (RejectedExecutionException e) {
+            // Server got stopped in the meantime
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignore) {
+        }
+    }
+
     private boolean isNotStopped() {
         return !isStopped && !Thread.currentThread().isInterrupted();
     }
@@ -80,7 +189,12 @@ public class Server {
         synchronized (isStoppedLock) {
             isStopped = true;
         }
-        ThreadingUtils.shutdownAndAwaitTermination(executorService);
+        if (executorService != null) {
+            ThreadingUtils.shutdownAndAwaitTermination(executorService);
+        }
+        if (socketHandlerExecutor != null) {
+            ThreadingUtils.shutdownAndAwaitTermination(socketHandlerExecutor);
+        }
         try {
             serverSocket.close();
         } catch (IOException ignore) {
@@ -0,0 +1,207 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+import lombok.extern.slf4j.Slf4j;
+import misq.common.util.ThreadingUtils;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.node.connection.frame.Frame;
+import misq.p2p.node.connection.frame.FrameCodec;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Blocking transport using a reader and a writer thread per connection. The threads are virtual threads if
+ * useVirtualThreads is set and supported by the JVM.
+ * <p>
+ * Outbound frames are queued in the {@link OutboundQueue} and the writer drains all queued frames into one buffered
+ * write. The buffer is flushed once the queue is empty or a threshold of the {@link FlushPolicy} is reached. The future
+ * of a frame completes once its bytes have been flushed.
+ */
+@Slf4j
+public class SocketTransport implements Transport {
+    private final Socket socket;
+    private final boolean useVirtualThreads;
+    private final FlushPolicy flushPolicy;
+    private final WriteStats writeStats = new WriteStats();
+    private final OutboundQueue outboundQueue;
+    private final AtomicBoolean isDrainScheduled = new AtomicBoolean();
+    private ExecutorService outputExecutor;
+    private ExecutorService inputHandler;
+    private DataInputStream inputStream;
+    private DataOutputStream outputStream;
+    private final Object isStoppedLock = new Object();
+    private volatile boolean isStopped;
+
+    public SocketTransport(Socket socket) {
+        this(socket, false);
+    }
+
+    public SocketTransport(Socket socket, boolean useVirtualThreads) {
+        this(socket, useVirtualThreads, FlushPolicy.DEFAULT);
+    }
+
+    public SocketTransport(Socket socket, boolean useVirtualThreads, FlushPolicy flushPolicy) {
+        this(socket, useVirtualThreads, flushPolicy, new OutboundQueue());
+    }
+
+    public SocketTransport(Socket socket, boolean useVirtualThreads, FlushPolicy flushPolicy, OutboundQueue outboundQueue) {
+        this.socket = socket;
+        this.useVirtualThreads = useVirtualThreads;
+        this.flushPolicy = flushPolicy;
+        this.outboundQueue = outboundQueue;
+    }
+
+    @Override
+    public void start(String name, FrameHandler frameHandler, Consumer<Exception> errorHandler) throws IOException {
+        outputExecutor = ThreadingUtils.getSingleThreadExecutor("Connection.outputExecutor-" + name, useVirtualThreads);
+        inputHandler = ThreadingUtils.getSingleThreadExecutor("Connection.inputHandler-" + name, useVirtualThreads);
+
+        outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), flushPolicy.getMaxBytesPerFlush()));
+        inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        inputHandler.execute(() -> {
+            while (!isStopped && !Thread.currentThread().isInterrupted()) {
+                try {
+                    frameHandler.onFrame(FrameCodec.read(inputStream));
+                } catch (Exception exception) {
+                    //todo StreamCorruptedException from i2p at shutdown. prob it send some text data at shut down
+                    close();
+                    errorHandler.accept(exception);
+                }
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> write(Frame frame, MessagePriority priority) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        outboundQueue.add(frame, priority, future);
+        if (isStopped) {
+            failPendingWrites();
+        } else if (isDrainScheduled.compareAndSet(false, true)) {
+            try {
+                outputExecutor.execute(this::drain);
+            } catch (RejectedExecutionException exception) {
+                failPendingWrites();
+            }
+        }
+        return future;
+    }
+
+    @Override
+    public WriteStats getWriteStats() {
+        return writeStats;
+    }
+
+    @Override
+    public void close() {
+        if (isStopped) {
+            return;
+        }
+
+        synchronized (isStoppedLock) {
+            isStopped = true;
+        }
+        ThreadingUtils.shutdownAndAwaitTermination(inputHandler);
+        ThreadingUtils.shutdownAndAwaitTermination(outputExecutor);
+        try {
+            socket.close();
+        } catch (IOException ignore) {
+        }
+        failPendingWrites();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Runs on outputExecutor
+    private void drain() {
+        List<OutboundQueue.OutboundFrame> unflushed = new ArrayList<>();
+        int numBytes = 0;
+        long firstUnflushedTs = 0;
+        try {
+            while (true) {
+                Optional<OutboundQueue.OutboundFrame> outboundFrame;
+                while ((outboundFrame = outboundQueue.poll()).isPresent()) {
+                    Frame frame = outboundFrame.get().getFrame();
+                    FrameCodec.write(frame, outputStream);
+                    if (unflushed.isEmpty()) {
+                        firstUnflushedTs = System.currentTimeMillis();
+                    }
+                    unflushed.add(outboundFrame.get());
+                    numBytes += frame.getSize();
+                    if (numBytes >= flushPolicy.getMaxBytesPerFlush() ||
+                            System.currentTimeMillis() - firstUnflushedTs >= flushPolicy.getMaxFlushDelayMs()) {
+                        flush(unflushed, numBytes);
+                        numBytes = 0;
+                    }
+                }
+                flush(unflushed, numBytes);
+                numBytes = 0;
+
+                isDrainScheduled.set(false);
+                // A frame might have been added after our last poll but before we reset isDrainScheduled
+                if (outboundQueue.isEmpty() || !isDrainScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        } catch (IOException exception) {
+            unflushed.stream()
+                    .map(OutboundQueue.OutboundFrame::getFuture)
+                    .filter(Objects::nonNull)
+                    .forEach(future -> future.completeExceptionally(exception));
+            if (!isStopped) {
+                close();
+            }
+            failPendingWrites();
+        }
+    }
+
+    private void flush(List<OutboundQueue.OutboundFrame> unflushed, int numBytes) throws IOException {
+        if (unflushed.isEmpty()) {
+            return;
+        }
+        outputStream.flush();
+        List<CompletableFuture<Void>> futures = unflushed.stream()
+                .map(OutboundQueue.OutboundFrame::getFuture)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        writeStats.onFlush(futures.size(), numBytes);
+        futures.forEach(future -> future.complete(null));
+        unflushed.clear();
+    }
+
+    private void failPendingWrites() {
+        outboundQueue.failAll(new SocketException("Socket closed"));
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+import lombok.extern.slf4j.Slf4j;
+import misq.p2p.Address;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.node.connection.frame.Frame;
+import misq.p2p.node.connection.frame.FrameCodec;
+import misq.p2p.node.connection.frame.FrameException;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Carries logical streams over one {@link RawConnection}, so several logical connections between the same two nodes,
+ * e.g. to different identities of a peer, share one socket (and one Tor circuit).
+ * <p>
+ * A stream is opened with a STREAM_OPEN frame carrying the address of the target node at the peer. The peer hands the
+ * stream to the {@link StreamHandler}, which usually wraps it into an {@link InboundConnection} of the server with
+ * that address. Frames of a stream are sent as STREAM_DATA segments of at most MAX_SEGMENT_SIZE bytes, so they are
+ * never chunked by the {@link OutboundQueue}.
+ * <p>
+ * Each stream has its own credit based flow control: the sender must not have more than INITIAL_WINDOW_SIZE bytes
+ * unacknowledged, the receiver grants new credit with STREAM_WINDOW_UPDATE frames once the data has been consumed.
+ * Credit is also granted for segments of a frame which is not complete yet, so frames can be larger than the window.
+ * The bytes of incomplete frames of all streams are therefore limited to MAX_PENDING_REASSEMBLY_BYTES per connection,
+ * like the {@link misq.p2p.node.connection.frame.ChunkAssembler} limits the chunks of a connection.
+ * Received frames are delivered on the given executor, sequentially per stream, so the reader of the connection is
+ * never blocked by a slow stream and one stream cannot starve the others.
+ * <p>
+ * The initiator of the connection uses odd stream ids, the other side even ones, so both sides can open streams
+ * without coordination.
+ */
+@Slf4j
+public class StreamMultiplexer {
+    public static final int INITIAL_WINDOW_SIZE = 256 * 1024;
+    public static final int MAX_SEGMENT_SIZE = OutboundQueue.DEFAULT_CHUNK_SIZE - FrameCodec.STREAM_DATA_HEADER_SIZE;
+    public static final int MAX_STREAMS = 100;
+    public static final long MAX_PENDING_REASSEMBLY_BYTES = 2L * FrameCodec.MAX_FRAME_SIZE;
+
+    public interface StreamHandler {
+        /**
+         * Called on the reader thread of the connection if the peer has opened a stream. The handler has to start the
+         * transport before returning, otherwise received frames of the stream get dropped.
+         *
+         * @return false if the stream is not accepted. The stream gets closed in that case.
+         */
+        boolean onStreamOpened(Transport transport, Address targetAddress);
+    }
+
+    private final RawConnection connection;
+    private final Executor executor;
+    private final StreamHandler streamHandler;
+    private final Map<Integer, StreamTransport> streams = new ConcurrentHashMap<>();
+    private final AtomicInteger nextStreamId;
+    private final AtomicLong numPendingReassemblyBytes = new AtomicLong();
+    private volatile boolean isClosed;
+
+    StreamMultiplexer(RawConnection connection, boolean isInitiator, Executor executor, StreamHandler streamHandler) {
+        this.connection = connection;
+        this.executor = executor;
+        this.streamHandler = streamHandler;
+        nextStreamId = new AtomicInteger(isInitiator ? 1 : 2);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return Transport of the new stream. Frames sent before the peer has accepted the stream get dropped if it is
+     * rejected.
+     */
+    public Transport openStream(Address targetAddress) throws IOException {
+        if (isClosed) {
+            throw new SocketException("Connection closed");
+        }
+        if (streams.size() >= MAX_STREAMS) {
+            throw new IOException("Max. number of streams reached: " + MAX_STREAMS);
+        }
+        int streamId = nextStreamId.getAndAdd(2);
+        if (streamId > FrameCodec.MAX_STREAM_ID) {
+            throw new IOException("No stream ids left at connection " + connection);
+        }
+        StreamTransport stream = new StreamTransport(this, streamId, executor);
+        streams.put(streamId, stream);
+        write(FrameCodec.createStreamOpen(streamId, targetAddress), MessagePriority.CONTROL);
+        return stream;
+    }
+
+    public int getNumStreams() {
+        return streams.size();
+    }
+
+    public long getNumPendingReassemblyBytes() {
+        return numPendingReassemblyBytes.get();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Package private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Called on the reader thread of the connection
+    void onFrame(Frame frame) throws FrameException {
+        int streamId = FrameCodec.readStreamId(frame);
+        switch (frame.getType()) {
+            case STREAM_OPEN:
+                onStreamOpen(streamId, FrameCodec.readStreamTargetAddress(frame));
+                break;
+            case STREAM_DATA:
+                // The stream might have been closed while the peer was still sending
+                findStream(streamId).ifPresent(stream -> stream.onData(frame));
+                break;
+            case STREAM_WINDOW_UPDATE:
+                int increment = FrameCodec.readStreamWindowIncrement(frame);
+                findStream(streamId).ifPresent(stream -> stream.onWindowUpdate(increment));
+                break;
+            case STREAM_CLOSE:
+                findStream(streamId).ifPresent(StreamTransport::onClosedByPeer);
+                break;
+            default:
+                throw new FrameException("Unexpected frame type " + frame.getType());
+        }
+    }
+
+    /**
+     * @return false if the bytes would exceed MAX_PENDING_REASSEMBLY_BYTES of the connection
+     */
+    boolean tryReserveReassemblyBytes(int numBytes) {
+        long current;
+        do {
+            current = numPendingReassemblyBytes.get();
+            if (current + numBytes > MAX_PENDING_REASSEMBLY_BYTES) {
+                return false;
+            }
+        } while (!numPendingReassemblyBytes.compareAndSet(current, current + numBytes));
+        return true;
+    }
+
+    void releaseReassemblyBytes(long numBytes) {
+        numPendingReassemblyBytes.addAndGet(-numBytes);
+    }
+
+    CompletableFuture<Void> write(Frame frame, MessagePriority priority) {
+        return connection.write(frame, priority);
+    }
+
+    void onStreamClosed(StreamTransport stream, boolean notifyPeer) {
+        if (streams.remove(stream.getStreamId(), stream) && notifyPeer && !isClosed) {
+            write(FrameCodec.createStreamClose(stream.getStreamId()), MessagePriority.CONTROL);
+        }
+    }
+
+    void close(Exception exception) {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        new ArrayList<>(streams.values()).forEach(stream -> stream.onConnectionClosed(exception));
+        streams.clear();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void onStreamOpen(int streamId, Address targetAddress) throws FrameException {
+        if (isOwnStreamId(streamId)) {
+            throw new FrameException("Peer opened stream with an id reserved for our streams: " + streamId);
+        }
+        if (streams.containsKey(streamId)) {
+            throw new FrameException("Stream " + streamId + " is already open");
+        }
+        StreamTransport stream = new StreamTransport(this, streamId, executor);
+        streams.put(streamId, stream);
+        if (streams.size() > MAX_STREAMS) {
+            log.warn("Peer has opened more than {} streams at connection {}. We reject stream {}.",
+                    MAX_STREAMS, connection, streamId);
+            stream.close();
+            return;
+        }
+        boolean isAccepted = false;
+        try {
+            isAccepted = streamHandler.onStreamOpened(stream, targetAddress);
+        } catch (RuntimeException exception) {
+            log.error(exception.toString(), exception);
+        }
+        if (!isAccepted) {
+            log.info("Stream {} to {} at connection {} has not been accepted.", streamId, targetAddress, connection);
+            stream.close();
+        }
+    }
+
+    private Optional<StreamTransport> findStream(int streamId) {
+        return Optional.ofNullable(streams.get(streamId));
+    }
+
+    private boolean isOwnStreamId(int streamId) {
+        return (streamId & 1) == (nextStreamId.get() & 1);
+    }
+}
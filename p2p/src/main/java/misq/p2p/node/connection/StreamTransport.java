@@ -0,0 +1,356 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import lombok.extern.slf4j.Slf4j;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.node.connection.frame.Frame;
+import misq.p2p.node.connection.frame.FrameCodec;
+import misq.p2p.node.connection.frame.FrameException;
+import misq.p2p.node.connection.frame.FrameType;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.net.SocketException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Transport of a logical stream of a {@link StreamMultiplexer}.
+ * <p>
+ * Outbound frames are split into segments which are kept in one lane per {@link MessagePriority} until the stream
+ * has credit for them. The lanes are bounded like the lanes of the {@link OutboundQueue}, frames exceeding the limit
+ * are rejected. Inbound segments are reassembled per lane and the frames are delivered sequentially on the
+ * executor. Credit is granted back to the peer once at least half of the window has been received and no frame is
+ * waiting for delivery. As frames can be larger than the window, credit is also granted for segments of incomplete
+ * frames. Their bytes are reserved at the multiplexer, which limits them for all streams of the connection.
+ */
+@Slf4j
+class StreamTransport implements Transport {
+    private static class Segment {
+        private final Frame frame;
+        private final int dataLength;
+        // Only set for the last segment of a frame
+        @Nullable
+        private final CompletableFuture<Void> future;
+        private final int frameSize;
+
+        private Segment(Frame frame, int dataLength, @Nullable CompletableFuture<Void> future, int frameSize) {
+            this.frame = frame;
+            this.dataLength = dataLength;
+            this.future = future;
+            this.frameSize = frameSize;
+        }
+    }
+
+    private final StreamMultiplexer multiplexer;
+    private final int streamId;
+    private final Executor deliveryExecutor;
+    private final WriteStats writeStats = new WriteStats();
+    // Following fields are guarded by this
+    private final Map<MessagePriority, Deque<Segment>> pendingSegments = new EnumMap<>(MessagePriority.class);
+    private final Map<MessagePriority, Long> pendingBytesByLane = new EnumMap<>(MessagePriority.class);
+    private final Map<Byte, ByteArrayOutputStream> pendingDataByLane = new HashMap<>();
+    private long sendWindow = StreamMultiplexer.INITIAL_WINDOW_SIZE;
+    private int numUnacknowledgedBytes;
+    private int numPendingDeliveries;
+    // Error of a stream which got closed before start, e.g. if the peer has rejected it
+    @Nullable
+    private Exception errorBeforeStart;
+    @Nullable
+    private volatile Transport.FrameHandler frameHandler;
+    @Nullable
+    private volatile Consumer<Exception> errorHandler;
+    private volatile boolean isClosed;
+
+    StreamTransport(StreamMultiplexer multiplexer, int streamId, Executor executor) {
+        this.multiplexer = multiplexer;
+        this.streamId = streamId;
+        deliveryExecutor = MoreExecutors.newSequentialExecutor(executor);
+        Arrays.stream(MessagePriority.values()).forEach(priority -> {
+            pendingSegments.put(priority, new ArrayDeque<>());
+            pendingBytesByLane.put(priority, 0L);
+        });
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Transport
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void start(String name, FrameHandler frameHandler, Consumer<Exception> errorHandler) {
+        this.frameHandler = frameHandler;
+        Exception error;
+        synchronized (this) {
+            this.errorHandler = errorHandler;
+            error = errorBeforeStart;
+            errorBeforeStart = null;
+        }
+        if (error != null) {
+            execute(() -> errorHandler.accept(error));
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> write(Frame frame, MessagePriority priority) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (this) {
+            if (isClosed) {
+                future.completeExceptionally(new SocketException("Stream closed"));
+                return future;
+            }
+            Deque<Segment> lane = pendingSegments.get(priority);
+            long maxBytes = OutboundQueue.DEFAULT_MAX_BYTES_PER_LANE.get(priority);
+            if (pendingBytesByLane.get(priority) + frame.getSize() > maxBytes && !lane.isEmpty()) {
+                future.completeExceptionally(new OutboundQueueOverflowException("Lane " + priority + " of stream " +
+                        streamId + " is full. Pending bytes: " + pendingBytesByLane.get(priority)));
+                return future;
+            }
+            byte[] payload = frame.getPayload();
+            int offset = 0;
+            do {
+                int length = Math.min(StreamMultiplexer.MAX_SEGMENT_SIZE, payload.length - offset);
+                boolean isLast = offset + length == payload.length;
+                Frame segment = FrameCodec.createStreamData(streamId, (byte) priority.ordinal(), frame, offset, length);
+                lane.add(new Segment(segment, length, isLast ? future : null, frame.getSize()));
+                offset += length;
+            } while (offset < payload.length);
+            pendingBytesByLane.merge(priority, (long) payload.length, Long::sum);
+            sendSegments();
+        }
+        return future;
+    }
+
+    @Override
+    public WriteStats getWriteStats() {
+        return writeStats;
+    }
+
+    @Override
+    public void close() {
+        if (markClosed()) {
+            multiplexer.onStreamClosed(this, true);
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Package private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    int getStreamId() {
+        return streamId;
+    }
+
+    // Called on the reader thread of the connection
+    void onData(Frame frame) {
+        byte[] payload = frame.getPayload();
+        Frame completeFrame = null;
+        try {
+            synchronized (this) {
+                if (isClosed) {
+                    return;
+                }
+                if (payload.length < FrameCodec.STREAM_DATA_HEADER_SIZE) {
+                    throw new FrameException("Stream segment too short: " + payload.length);
+                }
+                int dataLength = payload.length - FrameCodec.STREAM_DATA_HEADER_SIZE;
+                if (numUnacknowledgedBytes + dataLength > StreamMultiplexer.INITIAL_WINDOW_SIZE) {
+                    throw new FrameException("Peer exceeded the flow control window of stream " + streamId);
+                }
+                numUnacknowledgedBytes += dataLength;
+                byte lane = payload[2];
+                if (lane < 0 || lane >= MessagePriority.values().length) {
+                    throw new FrameException("Invalid lane " + lane + " at stream " + streamId);
+                }
+                ByteArrayOutputStream pendingData = pendingDataByLane.computeIfAbsent(lane, key -> new ByteArrayOutputStream());
+                if (pendingData.size() + dataLength > FrameCodec.MAX_FRAME_SIZE) {
+                    throw new FrameException("Frame at stream " + streamId + " exceeds MAX_FRAME_SIZE");
+                }
+                if (!multiplexer.tryReserveReassemblyBytes(dataLength)) {
+                    throw new FrameException("Incomplete frames at the connection of stream " + streamId +
+                            " exceed MAX_PENDING_REASSEMBLY_BYTES");
+                }
+                pendingData.write(payload, FrameCodec.STREAM_DATA_HEADER_SIZE, dataLength);
+                if (!frame.hasFlag(Frame.FLAG_MORE_CHUNKS)) {
+                    pendingDataByLane.remove(lane);
+                    multiplexer.releaseReassemblyBytes(pendingData.size());
+                    completeFrame = new Frame(FrameType.MESSAGE, payload[3], pendingData.toByteArray());
+                    numPendingDeliveries++;
+                }
+            }
+        } catch (FrameException exception) {
+            closeWithError(exception);
+            return;
+        }
+        if (completeFrame != null) {
+            Frame frameToDeliver = completeFrame;
+            execute(() -> deliver(frameToDeliver));
+        }
+        maybeGrantCredit();
+    }
+
+    void onWindowUpdate(int increment) {
+        synchronized (this) {
+            if (increment > 0 && sendWindow + increment <= Integer.MAX_VALUE) {
+                sendWindow += increment;
+                sendSegments();
+                return;
+            }
+        }
+        closeWithError(new FrameException("Invalid window increment " + increment + " at stream " + streamId));
+    }
+
+    void onClosedByPeer() {
+        if (markClosed()) {
+            multiplexer.onStreamClosed(this, false);
+            notifyErrorHandler(new EOFException("Stream closed by peer"));
+        }
+    }
+
+    void onConnectionClosed(Exception exception) {
+        if (markClosed()) {
+            notifyErrorHandler(exception);
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Called while holding the lock, so segments are passed to the connection in order
+    private void sendSegments() {
+        for (MessagePriority priority : MessagePriority.values()) {
+            Deque<Segment> lane = pendingSegments.get(priority);
+            Segment segment;
+            while ((segment = lane.peek()) != null) {
+                if (segment.dataLength > sendWindow) {
+                    return;
+                }
+                lane.poll();
+                sendWindow -= segment.dataLength;
+                pendingBytesByLane.merge(priority, (long) -segment.dataLength, Long::sum);
+                CompletableFuture<Void> future = segment.future;
+                int frameSize = segment.frameSize;
+                multiplexer.write(segment.frame, priority).whenComplete((nil, throwable) -> {
+                    if (future == null) {
+                        return;
+                    }
+                    if (throwable != null) {
+                        future.completeExceptionally(throwable);
+                    } else {
+                        writeStats.onFlush(1, frameSize);
+                        future.complete(null);
+                    }
+                });
+            }
+        }
+    }
+
+    // Runs on the deliveryExecutor
+    private void deliver(Frame frame) {
+        Transport.FrameHandler handler = frameHandler;
+        try {
+            if (handler != null) {
+                handler.onFrame(frame);
+            } else {
+                log.warn("Stream {} has not been started. We drop the received frame.", streamId);
+            }
+        } catch (Exception exception) {
+            closeWithError(exception);
+        }
+        synchronized (this) {
+            numPendingDeliveries--;
+        }
+        maybeGrantCredit();
+    }
+
+    private void maybeGrantCredit() {
+        int increment;
+        synchronized (this) {
+            if (isClosed || numPendingDeliveries > 0 ||
+                    numUnacknowledgedBytes < StreamMultiplexer.INITIAL_WINDOW_SIZE / 2) {
+                return;
+            }
+            increment = numUnacknowledgedBytes;
+            numUnacknowledgedBytes = 0;
+        }
+        multiplexer.write(FrameCodec.createStreamWindowUpdate(streamId, increment), MessagePriority.CONTROL);
+    }
+
+    private void closeWithError(Exception exception) {
+        if (markClosed()) {
+            multiplexer.onStreamClosed(this, true);
+            notifyErrorHandler(exception);
+        }
+    }
+
+    private boolean markClosed() {
+        List<Segment> segments = new ArrayList<>();
+        synchronized (this) {
+            if (isClosed) {
+                return false;
+            }
+            isClosed = true;
+            pendingSegments.values().forEach(lane -> {
+                segments.addAll(lane);
+                lane.clear();
+            });
+            pendingBytesByLane.replaceAll((priority, numBytes) -> 0L);
+            multiplexer.releaseReassemblyBytes(pendingDataByLane.values().stream()
+                    .mapToLong(ByteArrayOutputStream::size)
+                    .sum());
+            pendingDataByLane.clear();
+        }
+        SocketException exception = new SocketException("Stream closed");
+        segments.stream()
+                .map(segment -> segment.future)
+                .filter(Objects::nonNull)
+                .forEach(future -> future.completeExceptionally(exception));
+        return true;
+    }
+
+    // Called after frames which are waiting for delivery, like a socket transport reports errors after the frames
+    // read before
+    private void notifyErrorHandler(Exception exception) {
+        Consumer<Exception> handler;
+        synchronized (this) {
+            handler = errorHandler;
+            if (handler == null) {
+                errorBeforeStart = exception;
+                return;
+            }
+        }
+        execute(() -> handler.accept(exception));
+    }
+
+    private void execute(Runnable runnable) {
+        try {
+            deliveryExecutor.execute(runnable);
+        } catch (RejectedExecutionException exception) {
+            log.debug("Executor has been shut down. Task of stream {} is not executed.", streamId);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.node.connection.frame.Frame;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Moves frames between a {@link RawConnection} and the underlying socket or channel.
+ * Implementations decide which threads are used for reading and writing.
+ */
+public interface Transport {
+    interface FrameHandler {
+        void onFrame(Frame frame) throws IOException;
+    }
+
+    interface MessageHandler {
+        void onMessage(Message message);
+    }
+
+    /**
+     * Starts reading frames.
+     *
+     * @param name         Used for naming threads or for logging
+     * @param frameHandler Called for each received frame. Frames of one connection are delivered in order and never
+     *                     concurrently.
+     * @param errorHandler Called if reading, writing or the frameHandler failed. The transport is closed before.
+     */
+    void start(String name, FrameHandler frameHandler, Consumer<Exception> errorHandler) throws IOException;
+
+    /**
+     * Starts reading frames and messages, for transports which support writeMessage.
+     *
+     * @param messageHandler Called for each message handed over by the peer with writeMessage.
+     */
+    default void start(String name,
+                       FrameHandler frameHandler,
+                       MessageHandler messageHandler,
+                       Consumer<Exception> errorHandler) throws IOException {
+        start(name, frameHandler, errorHandler);
+    }
+
+    /**
+     * Queues the frame in the outbound lane of the given priority.
+     *
+     * @return Future completing once the frame has been written to the socket.
+     */
+    CompletableFuture<Void> write(Frame frame, MessagePriority priority);
+
+    /**
+     * Hands the message over to the peer without serialization if the transport supports that.
+     *
+     * @return Empty if the message has to be written as frame.
+     */
+    default Optional<CompletableFuture<Void>> writeMessage(Message message) {
+        return Optional.empty();
+    }
+
+    WriteStats getWriteStats();
+
+    /**
+     * @return true if the transport carries the connection in memory to a node in the same process
+     */
+    default boolean isLoopback() {
+        return false;
+    }
+
+    void close();
+}
@@ -0,0 +1,31 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+/**
+ * BLOCKING uses a reader and a writer thread per connection and an accept thread per server.
+ * NIO uses a small fixed set of selector threads for all connections and servers. It is only supported for
+ * clear net, other network types fall back to BLOCKING.
+ * VIRTUAL_THREADS works like BLOCKING but runs the reader, writer and accept loops as well as the blocking socket
+ * creation on virtual threads. It requires a JVM supporting virtual threads and falls back to BLOCKING otherwise.
+ */
+public enum TransportType {
+    BLOCKING,
+    NIO,
+    VIRTUAL_THREADS
+}
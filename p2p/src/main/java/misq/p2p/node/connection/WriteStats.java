@@ -0,0 +1,73 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the write path of a transport. Used for tuning the {@link FlushPolicy}.
+ */
+public class WriteStats {
+    private final AtomicLong numFlushes = new AtomicLong();
+    private final AtomicLong numMessages = new AtomicLong();
+    private final AtomicLong numBytes = new AtomicLong();
+    private final AtomicInteger maxMessagesPerFlush = new AtomicInteger();
+
+    public void onFlush(int numMessages, long numBytes) {
+        if (numMessages == 0) {
+            return;
+        }
+        numFlushes.incrementAndGet();
+        this.numMessages.addAndGet(numMessages);
+        this.numBytes.addAndGet(numBytes);
+        maxMessagesPerFlush.accumulateAndGet(numMessages, Math::max);
+    }
+
+    public long getNumFlushes() {
+        return numFlushes.get();
+    }
+
+    public long getNumMessages() {
+        return numMessages.get();
+    }
+
+    public long getNumBytes() {
+        return numBytes.get();
+    }
+
+    public int getMaxMessagesPerFlush() {
+        return maxMessagesPerFlush.get();
+    }
+
+    public double getAverageMessagesPerFlush() {
+        long flushes = numFlushes.get();
+        return flushes == 0 ? 0 : (double) numMessages.get() / flushes;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteStats{" +
+                "\n     numFlushes=" + getNumFlushes() +
+                ",\n     numMessages=" + getNumMessages() +
+                ",\n     numBytes=" + getNumBytes() +
+                ",\n     maxMessagesPerFlush=" + getMaxMessagesPerFlush() +
+                ",\n     averageMessagesPerFlush=" + getAverageMessagesPerFlush() +
+                "\n}";
+    }
+}
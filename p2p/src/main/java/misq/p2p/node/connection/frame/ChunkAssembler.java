@@ -0,0 +1,101 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection.frame;
+
+import misq.p2p.message.MessagePriority;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Reassembles CHUNK frames (see {@link FrameCodec#createChunk}) to the original MESSAGE frame. Not thread safe, it
+ * is expected to be called sequentially by the reader of a connection.
+ * <p>
+ * The sender uses one stream per {@link MessagePriority}, so other stream ids are rejected. Besides the limit per
+ * message, the bytes of all pending messages are limited by maxPendingBytes.
+ */
+public class ChunkAssembler {
+    private static final int NUM_STREAMS = MessagePriority.values().length;
+
+    private final Map<Byte, ByteArrayOutputStream> pendingByStreamId = new HashMap<>();
+    private final int maxMessageSize;
+    private final long maxPendingBytes;
+    private long numPendingBytes;
+
+    public ChunkAssembler() {
+        this(FrameCodec.MAX_FRAME_SIZE);
+    }
+
+    public ChunkAssembler(int maxMessageSize) {
+        // Allows a large message at the BULK stream while another one is pending at a higher priority stream
+        this(maxMessageSize, 2L * maxMessageSize);
+    }
+
+    public ChunkAssembler(int maxMessageSize, long maxPendingBytes) {
+        this.maxMessageSize = maxMessageSize;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * @return The reassembled frame if the chunk was the last one of its stream.
+     */
+    public Optional<Frame> add(Frame chunk) throws FrameException {
+        if (chunk.getType() != FrameType.CHUNK) {
+            throw new FrameException("Frame is not of type CHUNK: " + chunk.getType());
+        }
+        byte[] payload = chunk.getPayload();
+        if (payload.length < FrameCodec.CHUNK_HEADER_SIZE) {
+            throw new FrameException("Chunk payload too short: " + payload.length);
+        }
+        byte streamId = payload[0];
+        if (streamId < 0 || streamId >= NUM_STREAMS) {
+            throw new FrameException("Invalid chunk stream id: " + streamId);
+        }
+        byte flags = payload[1];
+        int dataLength = payload.length - FrameCodec.CHUNK_HEADER_SIZE;
+        ByteArrayOutputStream buffer = pendingByStreamId.computeIfAbsent(streamId, key -> new ByteArrayOutputStream());
+        if (buffer.size() + dataLength > maxMessageSize) {
+            remove(streamId);
+            throw new FrameException("Chunked message exceeds maxMessageSize " + maxMessageSize);
+        }
+        if (numPendingBytes + dataLength > maxPendingBytes) {
+            remove(streamId);
+            throw new FrameException("Chunked messages exceed maxPendingBytes " + maxPendingBytes);
+        }
+        buffer.write(payload, FrameCodec.CHUNK_HEADER_SIZE, dataLength);
+        numPendingBytes += dataLength;
+        if (chunk.hasFlag(Frame.FLAG_MORE_CHUNKS)) {
+            return Optional.empty();
+        }
+        remove(streamId);
+        return Optional.of(new Frame(FrameType.MESSAGE, flags, buffer.toByteArray()));
+    }
+
+    public long getNumPendingBytes() {
+        return numPendingBytes;
+    }
+
+    private void remove(byte streamId) {
+        ByteArrayOutputStream buffer = pendingByStreamId.remove(streamId);
+        if (buffer != null) {
+            numPendingBytes -= buffer.size();
+        }
+    }
+}
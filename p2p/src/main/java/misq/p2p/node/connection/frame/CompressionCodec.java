@@ -0,0 +1,101 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection.frame;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression codecs for frame payloads. Supported codecs are announced in the capability handshake and a frame is
+ * only compressed if the peer supports the codec. The codec id is carried in the frame flags (see
+ * {@link Frame#COMPRESSION_MASK}).
+ */
+public enum CompressionCodec {
+    // Deflate with BEST_SPEED. Faster than the default level and still close in ratio for our data.
+    DEFLATE((byte) 1) {
+        @Override
+        public byte[] compress(byte[] data) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length / 2 + 64);
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(buffer);
+                    outputStream.write(buffer, 0, length);
+                }
+                return outputStream.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int maxSize) throws FrameException {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data);
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length * 2);
+                byte[] buffer = new byte[8192];
+                while (!inflater.finished()) {
+                    int length = inflater.inflate(buffer);
+                    if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new FrameException("Truncated compressed payload");
+                    }
+                    if (outputStream.size() + length > maxSize) {
+                        throw new FrameException("Decompressed payload exceeds maxSize " + maxSize);
+                    }
+                    outputStream.write(buffer, 0, length);
+                }
+                return outputStream.toByteArray();
+            } catch (DataFormatException exception) {
+                throw new FrameException("Invalid compressed payload", exception);
+            } finally {
+                inflater.end();
+            }
+        }
+    };
+
+    // Payloads below that size are not worth compressing
+    public static final int MIN_SIZE_FOR_COMPRESSION = 1024;
+
+    private final byte id;
+
+    CompressionCodec(byte id) {
+        this.id = id;
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+    public abstract byte[] compress(byte[] data);
+
+    public abstract byte[] decompress(byte[] data, int maxSize) throws FrameException;
+
+    public static Optional<CompressionCodec> fromId(byte id) {
+        return Arrays.stream(values())
+                .filter(codec -> codec.id == id)
+                .findAny();
+    }
+}
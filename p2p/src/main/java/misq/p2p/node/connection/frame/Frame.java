@@ -0,0 +1,64 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection.frame;
+
+import lombok.Getter;
+
+@Getter
+public class Frame {
+    // Set at all CHUNK frames of a message except the last one
+    public static final byte FLAG_MORE_CHUNKS = 0x01;
+    // Bits 1-2 carry the id of the CompressionCodec, 0 if the payload is not compressed
+    public static final byte COMPRESSION_MASK = 0x06;
+    public static final int COMPRESSION_SHIFT = 1;
+
+    private final FrameType type;
+    private final byte flags;
+    private final byte[] payload;
+
+    public Frame(FrameType type, byte[] payload) {
+        this(type, (byte) 0, payload);
+    }
+
+    public Frame(FrameType type, byte flags, byte[] payload) {
+        this.type = type;
+        this.flags = flags;
+        this.payload = payload;
+    }
+
+    public boolean hasFlag(byte flag) {
+        return (flags & flag) != 0;
+    }
+
+    public byte getCompressionId() {
+        return (byte) ((flags & COMPRESSION_MASK) >> COMPRESSION_SHIFT);
+    }
+
+    public int getSize() {
+        return FrameCodec.HEADER_SIZE + payload.length;
+    }
+
+    @Override
+    public String toString() {
+        return "Frame{" +
+                "\n     type=" + type +
+                ",\n     flags=" + flags +
+                ",\n     payload.length=" + payload.length +
+                "\n}";
+    }
+}
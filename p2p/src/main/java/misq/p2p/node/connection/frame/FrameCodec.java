@@ -0,0 +1,273 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection.frame;
+
+import misq.common.ObjectSerializer;
+import misq.p2p.Address;
+import misq.p2p.message.Message;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Frame format (version 1):
+ * <pre>
+ * | length (4 bytes) | version (1 byte) | type (1 byte) | flags (1 byte) | payload (length bytes) |
+ * </pre>
+ * The length only covers the payload. The header is validated before the payload buffer is allocated, so a peer
+ * announcing an oversized frame costs us only the 7 header bytes.
+ * <p>
+ * The payload of MESSAGE frames is still the java serialized message, but each message is serialized on its own, so
+ * no object handle table is kept alive over the lifetime of the connection.
+ */
+public class FrameCodec {
+    public static final byte VERSION = 1;
+    public static final int HEADER_SIZE = 7;
+    public static final int MAX_FRAME_SIZE = 10 * 1024 * 1024;
+    public static final int CHUNK_HEADER_SIZE = 2;
+    public static final int STREAM_ID_SIZE = 2;
+    public static final int STREAM_DATA_HEADER_SIZE = STREAM_ID_SIZE + 2;
+    public static final int MAX_STREAM_ID = 0xFFFF;
+
+    public static void write(Frame frame, DataOutputStream outputStream) throws IOException {
+        outputStream.writeInt(frame.getPayload().length);
+        outputStream.writeByte(VERSION);
+        outputStream.writeByte(frame.getType().getId());
+        outputStream.writeByte(frame.getFlags());
+        outputStream.write(frame.getPayload());
+    }
+
+    public static Frame read(DataInputStream inputStream) throws IOException {
+        return read(inputStream, MAX_FRAME_SIZE);
+    }
+
+    public static Frame read(DataInputStream inputStream, int maxFrameSize) throws IOException {
+        int length = inputStream.readInt();
+        byte version = inputStream.readByte();
+        byte typeId = inputStream.readByte();
+        byte flags = inputStream.readByte();
+        if (length < 0 || length > maxFrameSize) {
+            throw new FrameException("Frame size " + length + " exceeds maxFrameSize " + maxFrameSize);
+        }
+        if (version != VERSION) {
+            throw new FrameException("Unsupported frame version " + version);
+        }
+        FrameType type = FrameType.fromId(typeId)
+                .orElseThrow(() -> new FrameException("Unknown frame type " + typeId));
+        byte[] payload = new byte[length];
+        inputStream.readFully(payload);
+        return new Frame(type, flags, payload);
+    }
+
+    /**
+     * @return Buffer containing header and payload, ready to be written to a channel.
+     */
+    public static ByteBuffer toByteBuffer(Frame frame) {
+        ByteBuffer buffer = ByteBuffer.allocate(frame.getSize());
+        buffer.putInt(frame.getPayload().length);
+        buffer.put(VERSION);
+        buffer.put(frame.getType().getId());
+        buffer.put(frame.getFlags());
+        buffer.put(frame.getPayload());
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Reads a frame from a buffer in read mode. If the buffer does not contain a complete frame yet, the buffer
+     * position is left unchanged and an empty Optional is returned. The header is validated as soon as it is
+     * available, so an invalid frame is rejected before its payload has arrived.
+     */
+    public static Optional<Frame> read(ByteBuffer buffer, int maxFrameSize) throws FrameException {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return Optional.empty();
+        }
+        int position = buffer.position();
+        int length = buffer.getInt(position);
+        byte version = buffer.get(position + 4);
+        byte typeId = buffer.get(position + 5);
+        byte flags = buffer.get(position + 6);
+        if (length < 0 || length > maxFrameSize) {
+            throw new FrameException("Frame size " + length + " exceeds maxFrameSize " + maxFrameSize);
+        }
+        if (version != VERSION) {
+            throw new FrameException("Unsupported frame version " + version);
+        }
+        FrameType type = FrameType.fromId(typeId)
+                .orElseThrow(() -> new FrameException("Unknown frame type " + typeId));
+        if (buffer.remaining() < HEADER_SIZE + length) {
+            return Optional.empty();
+        }
+        byte[] payload = new byte[length];
+        buffer.position(position + HEADER_SIZE);
+        buffer.get(payload);
+        return Optional.of(new Frame(type, flags, payload));
+    }
+
+    /**
+     * Creates a CHUNK frame carrying the given range of the frame's payload. Chunk payload format:
+     * <pre>
+     * | streamId (1 byte) | flags of the chunked frame (1 byte) | data |
+     * </pre>
+     * Chunks of one stream have to be sent in order, chunks of different streams can be interleaved.
+     */
+    public static Frame createChunk(Frame frame, byte streamId, int offset, int length) {
+        byte[] payload = new byte[CHUNK_HEADER_SIZE + length];
+        payload[0] = streamId;
+        payload[1] = frame.getFlags();
+        System.arraycopy(frame.getPayload(), offset, payload, CHUNK_HEADER_SIZE, length);
+        boolean isLast = offset + length == frame.getPayload().length;
+        return new Frame(FrameType.CHUNK, isLast ? 0 : Frame.FLAG_MORE_CHUNKS, payload);
+    }
+
+    /**
+     * Creates a STREAM_OPEN frame. Payload format:
+     * <pre>
+     * | streamId (2 bytes) | address of the target node (UTF-8) |
+     * </pre>
+     */
+    public static Frame createStreamOpen(int streamId, Address targetAddress) {
+        byte[] address = targetAddress.toString().getBytes(StandardCharsets.UTF_8);
+        return new Frame(FrameType.STREAM_OPEN, ByteBuffer.allocate(STREAM_ID_SIZE + address.length)
+                .putShort((short) streamId)
+                .put(address)
+                .array());
+    }
+
+    /**
+     * Creates a STREAM_DATA frame carrying the given range of the frame's payload. Payload format:
+     * <pre>
+     * | streamId (2 bytes) | lane (1 byte) | flags of the segmented frame (1 byte) | data |
+     * </pre>
+     * Segments of one lane have to be sent in order, segments of different lanes can be interleaved.
+     */
+    public static Frame createStreamData(int streamId, byte lane, Frame frame, int offset, int length) {
+        byte[] payload = new byte[STREAM_DATA_HEADER_SIZE + length];
+        payload[0] = (byte) (streamId >> 8);
+        payload[1] = (byte) streamId;
+        payload[2] = lane;
+        payload[3] = frame.getFlags();
+        System.arraycopy(frame.getPayload(), offset, payload, STREAM_DATA_HEADER_SIZE, length);
+        boolean isLast = offset + length == frame.getPayload().length;
+        return new Frame(FrameType.STREAM_DATA, isLast ? 0 : Frame.FLAG_MORE_CHUNKS, payload);
+    }
+
+    /**
+     * Creates a STREAM_WINDOW_UPDATE frame. Payload format:
+     * <pre>
+     * | streamId (2 bytes) | window increment in bytes (4 bytes) |
+     * </pre>
+     */
+    public static Frame createStreamWindowUpdate(int streamId, int increment) {
+        return new Frame(FrameType.STREAM_WINDOW_UPDATE, ByteBuffer.allocate(STREAM_ID_SIZE + 4)
+                .putShort((short) streamId)
+                .putInt(increment)
+                .array());
+    }
+
+    public static Frame createStreamClose(int streamId) {
+        return new Frame(FrameType.STREAM_CLOSE, ByteBuffer.allocate(STREAM_ID_SIZE)
+                .putShort((short) streamId)
+                .array());
+    }
+
+    public static int readStreamId(Frame frame) throws FrameException {
+        byte[] payload = frame.getPayload();
+        if (!frame.getType().isStreamFrame() || payload.length < STREAM_ID_SIZE) {
+            throw new FrameException("Frame is not a valid stream frame: " + frame);
+        }
+        return ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
+    }
+
+    public static Address readStreamTargetAddress(Frame frame) throws FrameException {
+        if (frame.getType() != FrameType.STREAM_OPEN) {
+            throw new FrameException("Frame is not of type STREAM_OPEN: " + frame.getType());
+        }
+        byte[] payload = frame.getPayload();
+        try {
+            return new Address(new String(payload, STREAM_ID_SIZE, payload.length - STREAM_ID_SIZE, StandardCharsets.UTF_8));
+        } catch (RuntimeException exception) {
+            throw new FrameException("Invalid target address at STREAM_OPEN frame", exception);
+        }
+    }
+
+    public static int readStreamWindowIncrement(Frame frame) throws FrameException {
+        if (frame.getType() != FrameType.STREAM_WINDOW_UPDATE || frame.getPayload().length != STREAM_ID_SIZE + 4) {
+            throw new FrameException("Frame is not a valid STREAM_WINDOW_UPDATE frame: " + frame);
+        }
+        return ByteBuffer.wrap(frame.getPayload(), STREAM_ID_SIZE, 4).getInt();
+    }
+
+    /**
+     * @return Frame with compressed payload and the codec set in the flags, or the given frame if the payload is
+     * below {@link CompressionCodec#MIN_SIZE_FOR_COMPRESSION} or did not get smaller.
+     */
+    public static Frame compress(Frame frame, CompressionCodec codec) {
+        if (frame.getPayload().length < CompressionCodec.MIN_SIZE_FOR_COMPRESSION || frame.getCompressionId() != 0) {
+            return frame;
+        }
+        byte[] compressed = codec.compress(frame.getPayload());
+        if (compressed.length >= frame.getPayload().length) {
+            return frame;
+        }
+        byte flags = (byte) (frame.getFlags() | (codec.getId() << Frame.COMPRESSION_SHIFT));
+        return new Frame(frame.getType(), flags, compressed);
+    }
+
+    /**
+     * @return Frame with decompressed payload, or the given frame if it is not compressed.
+     */
+    public static Frame decompress(Frame frame) throws FrameException {
+        byte compressionId = frame.getCompressionId();
+        if (compressionId == 0) {
+            return frame;
+        }
+        CompressionCodec codec = CompressionCodec.fromId(compressionId)
+                .orElseThrow(() -> new FrameException("Unsupported compression codec " + compressionId));
+        byte flags = (byte) (frame.getFlags() & ~Frame.COMPRESSION_MASK);
+        return new Frame(frame.getType(), flags, codec.decompress(frame.getPayload(), MAX_FRAME_SIZE));
+    }
+
+    public static Frame encode(Message message) {
+        return new Frame(FrameType.MESSAGE, ObjectSerializer.serialize(message));
+    }
+
+    public static Message decode(Frame frame) throws FrameException {
+        if (frame.getType() != FrameType.MESSAGE) {
+            throw new FrameException("Frame is not of type MESSAGE: " + frame.getType());
+        }
+        Serializable serializable;
+        try {
+            serializable = ObjectSerializer.deserialize(frame.getPayload());
+        } catch (RuntimeException exception) {
+            throw new FrameException("Could not deserialize frame payload", exception);
+        }
+        if (serializable == null) {
+            throw new FrameException("Received object is null");
+        }
+        if (!(serializable instanceof Message)) {
+            throw new FrameException("Received object is not of type Message: " + serializable.getClass().getName());
+        }
+        return (Message) serializable;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection.frame;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a received frame violates the frame format (size limit, version or type). The stream cannot be
+ * re-synchronized after such an error, so the connection has to be closed.
+ */
+public class FrameException extends IOException {
+    public FrameException(String message) {
+        super(message);
+    }
+
+    public FrameException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
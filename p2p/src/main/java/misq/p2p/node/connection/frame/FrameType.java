@@ -0,0 +1,52 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection.frame;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+public enum FrameType {
+    MESSAGE((byte) 0x01),
+    // Part of a large MESSAGE frame, see ChunkAssembler
+    CHUNK((byte) 0x02),
+    // Frames of logical streams multiplexed over the connection, see StreamMultiplexer
+    STREAM_OPEN((byte) 0x03),
+    STREAM_DATA((byte) 0x04),
+    STREAM_WINDOW_UPDATE((byte) 0x05),
+    STREAM_CLOSE((byte) 0x06);
+
+    private final byte id;
+
+    FrameType(byte id) {
+        this.id = id;
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+    public boolean isStreamFrame() {
+        return this == STREAM_OPEN || this == STREAM_DATA || this == STREAM_WINDOW_UPDATE || this == STREAM_CLOSE;
+    }
+
+    public static Optional<FrameType> fromId(byte id) {
+        return Arrays.stream(values())
+                .filter(type -> type.id == id)
+                .findAny();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection.nio;
+
+import lombok.extern.slf4j.Slf4j;
+import misq.common.util.ThreadingUtils;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Single threaded selector loop. Channels are registered with a {@link SelectionHandler} which gets called on the
+ * event loop thread once the channel is ready. Tasks submitted via execute are run on the event loop thread as well,
+ * so state only touched from within the loop does not need synchronisation.
+ */
+@Slf4j
+public class NioEventLoop {
+    public interface SelectionHandler {
+        void onSelected(SelectionKey selectionKey) throws IOException;
+
+        void onError(Exception exception);
+    }
+
+    private final Selector selector;
+    private final ExecutorService executorService;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Object isStoppedLock = new Object();
+    private volatile Thread thread;
+    private volatile boolean isStopped;
+
+    NioEventLoop(String name) throws IOException {
+        selector = Selector.open();
+        executorService = ThreadingUtils.getSingleThreadExecutor(name);
+        executorService.execute(this::run);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!isInEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Must be called from the event loop thread.
+     */
+    public SelectionKey register(SelectableChannel channel, int ops, SelectionHandler handler) throws ClosedChannelException {
+        return channel.register(selector, ops, handler);
+    }
+
+    public boolean isInEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    void shutdown() {
+        if (isStopped) {
+            return;
+        }
+        synchronized (isStoppedLock) {
+            isStopped = true;
+        }
+        selector.wakeup();
+        ThreadingUtils.shutdownAndAwaitTermination(executorService);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void run() {
+        thread = Thread.currentThread();
+        while (!isStopped) {
+            try {
+                selector.select();
+                processSelectedKeys();
+                runTasks();
+            } catch (IOException | ClosedSelectorException exception) {
+                if (!isStopped) {
+                    log.error(exception.toString(), exception);
+                }
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey selectionKey = iterator.next();
+            iterator.remove();
+            SelectionHandler handler = (SelectionHandler) selectionKey.attachment();
+            try {
+                if (selectionKey.isValid()) {
+                    handler.onSelected(selectionKey);
+                }
+            } catch (IOException | CancelledKeyException exception) {
+                handler.onError(exception);
+            } catch (RuntimeException exception) {
+                log.error(exception.toString(), exception);
+                handler.onError(exception);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException exception) {
+                log.error(exception.toString(), exception);
+            }
+        }
+    }
+}
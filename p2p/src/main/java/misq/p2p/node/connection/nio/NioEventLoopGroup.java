@@ -0,0 +1,86 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection.nio;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import lombok.extern.slf4j.Slf4j;
+import misq.common.util.ThreadingUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed set of event loops shared by all NIO servers and connections of a node. Channels are assigned round robin.
+ * <p>
+ * Received messages are not handled on the event loop threads as listeners might block (e.g. by persisting data).
+ * They are handed over to a shared dispatch pool, using a sequential executor per connection so that the order of
+ * messages is preserved.
+ */
+@Slf4j
+public class NioEventLoopGroup {
+    public static final int DEFAULT_NUM_EVENT_LOOPS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    public static final int DEFAULT_NUM_DISPATCH_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final List<NioEventLoop> eventLoops = new ArrayList<>();
+    private final ExecutorService dispatchExecutor;
+    private final AtomicInteger index = new AtomicInteger();
+    private final Object isStoppedLock = new Object();
+    private volatile boolean isStopped;
+
+    public NioEventLoopGroup(String name) {
+        this(name, DEFAULT_NUM_EVENT_LOOPS, DEFAULT_NUM_DISPATCH_THREADS);
+    }
+
+    public NioEventLoopGroup(String name, int numEventLoops, int numDispatchThreads) {
+        try {
+            for (int i = 0; i < numEventLoops; i++) {
+                eventLoops.add(new NioEventLoop("NioEventLoop-" + name + "-" + i));
+            }
+        } catch (IOException exception) {
+            eventLoops.forEach(NioEventLoop::shutdown);
+            throw new RuntimeException(exception);
+        }
+        dispatchExecutor = ThreadingUtils.getFixedThreadPool("NioDispatcher-" + name, numDispatchThreads);
+    }
+
+    public NioEventLoop next() {
+        return eventLoops.get(Math.floorMod(index.getAndIncrement(), eventLoops.size()));
+    }
+
+    /**
+     * @return Executor running the submitted tasks in order on the shared dispatch pool.
+     */
+    public Executor newSequentialDispatcher() {
+        return MoreExecutors.newSequentialExecutor(dispatchExecutor);
+    }
+
+    public void shutdown() {
+        if (isStopped) {
+            return;
+        }
+        synchronized (isStoppedLock) {
+            isStopped = true;
+        }
+        eventLoops.forEach(NioEventLoop::shutdown);
+        ThreadingUtils.shutdownAndAwaitTermination(dispatchExecutor);
+    }
+}
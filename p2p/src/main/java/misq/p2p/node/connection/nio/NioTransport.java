@@ -0,0 +1,347 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection.nio;
+
+import com.google.common.annotations.VisibleForTesting;
+import lombok.extern.slf4j.Slf4j;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.node.connection.FlushPolicy;
+import misq.p2p.node.connection.OutboundQueue;
+import misq.p2p.node.connection.Transport;
+import misq.p2p.node.connection.WriteStats;
+import misq.p2p.node.connection.frame.Frame;
+import misq.p2p.node.connection.frame.FrameCodec;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking transport. Reading and writing is done on the event loop thread the channel got assigned to,
+ * received frames are passed to the frameHandler on a sequential dispatcher. If the frameHandler falls behind we stop
+ * reading from the channel until the dispatcher has caught up.
+ * <p>
+ * Frames are taken from the {@link OutboundQueue} in batches of up to maxBytesPerFlush bytes and written with a
+ * single gathering write. As we never wait for more frames to arrive the maxFlushDelayMs of the {@link FlushPolicy}
+ * is not used.
+ */
+@Slf4j
+public class NioTransport implements Transport, NioEventLoop.SelectionHandler {
+    private static final int INITIAL_READ_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_READ_BUFFER_SIZE = FrameCodec.HEADER_SIZE + FrameCodec.MAX_FRAME_SIZE;
+    // If more bytes are waiting for the dispatcher we stop reading from the channel until half of them are handled.
+    // Frames are dispatched before the FrameFilter sees them, so the budget bounds the memory a peer can pin at us.
+    private static final long MAX_PENDING_DISPATCH_BYTES = 2L * FrameCodec.MAX_FRAME_SIZE;
+    private static final long RESUME_READ_PENDING_DISPATCH_BYTES = MAX_PENDING_DISPATCH_BYTES / 2;
+    // Secondary bound for many small frames
+    private static final int MAX_PENDING_DISPATCHES = 256;
+    private static final int RESUME_READ_PENDING_DISPATCHES = MAX_PENDING_DISPATCHES / 2;
+
+    private static class PendingWrite {
+        private final ByteBuffer buffer;
+        // Null for chunks except the last one
+        @Nullable
+        private final CompletableFuture<Void> future;
+
+        private PendingWrite(ByteBuffer buffer, @Nullable CompletableFuture<Void> future) {
+            this.buffer = buffer;
+            this.future = future;
+        }
+    }
+
+    private final SocketChannel channel;
+    private final NioEventLoop eventLoop;
+    private final Executor dispatcher;
+    private final FlushPolicy flushPolicy;
+    private final WriteStats writeStats = new WriteStats();
+    private final OutboundQueue outboundQueue;
+    private final AtomicBoolean isFlushScheduled = new AtomicBoolean();
+    private final AtomicInteger numPendingDispatches = new AtomicInteger();
+    private final AtomicLong numPendingDispatchBytes = new AtomicLong();
+    private final AtomicBoolean isReadPaused = new AtomicBoolean();
+    private FrameHandler frameHandler;
+    private Consumer<Exception> errorHandler;
+    // Only accessed from the event loop thread
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+    private final Deque<PendingWrite> pendingWrites = new ArrayDeque<>();
+    private SelectionKey selectionKey;
+    private final Object isStoppedLock = new Object();
+    private volatile boolean isStopped;
+
+    public NioTransport(SocketChannel channel, NioEventLoopGroup eventLoopGroup) {
+        this(channel, eventLoopGroup, FlushPolicy.DEFAULT);
+    }
+
+    public NioTransport(SocketChannel channel, NioEventLoopGroup eventLoopGroup, FlushPolicy flushPolicy) {
+        this(channel, eventLoopGroup, flushPolicy, new OutboundQueue());
+    }
+
+    public NioTransport(SocketChannel channel,
+                        NioEventLoopGroup eventLoopGroup,
+                        FlushPolicy flushPolicy,
+                        OutboundQueue outboundQueue) {
+        this.channel = channel;
+        this.flushPolicy = flushPolicy;
+        this.outboundQueue = outboundQueue;
+        eventLoop = eventLoopGroup.next();
+        dispatcher = eventLoopGroup.newSequentialDispatcher();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Transport
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void start(String name, FrameHandler frameHandler, Consumer<Exception> errorHandler) throws IOException {
+        this.frameHandler = frameHandler;
+        this.errorHandler = errorHandler;
+        channel.configureBlocking(false);
+        eventLoop.execute(() -> {
+            try {
+                selectionKey = eventLoop.register(channel, SelectionKey.OP_READ, this);
+                // Frames might have been queued before we got registered
+                flush();
+            } catch (ClosedChannelException exception) {
+                handleError(exception);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> write(Frame frame, MessagePriority priority) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (isStopped) {
+            future.completeExceptionally(new ClosedChannelException());
+            return future;
+        }
+        outboundQueue.add(frame, priority, future);
+        if (isStopped) {
+            outboundQueue.failAll(new ClosedChannelException());
+            return future;
+        }
+        if (isFlushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this::flush);
+        }
+        return future;
+    }
+
+    @Override
+    public WriteStats getWriteStats() {
+        return writeStats;
+    }
+
+    @VisibleForTesting
+    public boolean isReadPaused() {
+        return isReadPaused.get();
+    }
+
+    @Override
+    public void close() {
+        if (isStopped) {
+            return;
+        }
+        synchronized (isStoppedLock) {
+            isStopped = true;
+        }
+        try {
+            // Closing the channel cancels the selectionKey as well
+            channel.close();
+        } catch (IOException ignore) {
+        }
+        failPendingWrites();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // NioEventLoop.SelectionHandler
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void onSelected(SelectionKey selectionKey) throws IOException {
+        if (selectionKey.isReadable()) {
+            read();
+        }
+        if (selectionKey.isValid() && selectionKey.isWritable()) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onError(Exception exception) {
+        handleError(exception);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void read() throws IOException {
+        int numBytes = channel.read(readBuffer);
+        if (numBytes < 0) {
+            throw new EOFException("Channel closed by peer");
+        }
+        readBuffer.flip();
+        Optional<Frame> frame;
+        while ((frame = FrameCodec.read(readBuffer, FrameCodec.MAX_FRAME_SIZE)).isPresent()) {
+            dispatch(frame.get());
+        }
+        readBuffer.compact();
+        if (readBuffer.position() == 0 && readBuffer.capacity() > INITIAL_READ_BUFFER_SIZE) {
+            // The large frame we have grown the buffer for has been read, so we do not keep the memory
+            readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+        } else if (!readBuffer.hasRemaining() && readBuffer.capacity() < MAX_READ_BUFFER_SIZE) {
+            // A frame larger than our buffer is pending
+            int newCapacity = Math.min(MAX_READ_BUFFER_SIZE, readBuffer.capacity() * 2);
+            ByteBuffer newBuffer = ByteBuffer.allocate(newCapacity);
+            readBuffer.flip();
+            newBuffer.put(readBuffer);
+            readBuffer = newBuffer;
+        }
+        if (isDispatchBacklogged() && isReadPaused.compareAndSet(false, true)) {
+            selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+            // The dispatcher might have handled the frames before we have set isReadPaused
+            if (hasDispatchCaughtUp()) {
+                resumeRead();
+            }
+        }
+    }
+
+    private boolean isDispatchBacklogged() {
+        return numPendingDispatchBytes.get() > MAX_PENDING_DISPATCH_BYTES ||
+                numPendingDispatches.get() > MAX_PENDING_DISPATCHES;
+    }
+
+    private boolean hasDispatchCaughtUp() {
+        return numPendingDispatchBytes.get() <= RESUME_READ_PENDING_DISPATCH_BYTES &&
+                numPendingDispatches.get() <= RESUME_READ_PENDING_DISPATCHES;
+    }
+
+    // Called on the event loop thread
+    private void resumeRead() {
+        if (isStopped || !isReadPaused.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+        } catch (CancelledKeyException exception) {
+            handleError(exception);
+        }
+    }
+
+    private void flush() {
+        isFlushScheduled.set(false);
+        if (isStopped || selectionKey == null) {
+            return;
+        }
+        try {
+            while (true) {
+                // Frames already polled from the outboundQueue are written first, then we take the next batch
+                long numBytes = pendingWrites.stream().mapToLong(e -> e.buffer.remaining()).sum();
+                Optional<OutboundQueue.OutboundFrame> outboundFrame;
+                while (numBytes < flushPolicy.getMaxBytesPerFlush() && (outboundFrame = outboundQueue.poll()).isPresent()) {
+                    ByteBuffer buffer = FrameCodec.toByteBuffer(outboundFrame.get().getFrame());
+                    pendingWrites.add(new PendingWrite(buffer, outboundFrame.get().getFuture()));
+                    numBytes += buffer.remaining();
+                }
+                if (pendingWrites.isEmpty()) {
+                    selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+                    return;
+                }
+
+                ByteBuffer[] buffers = pendingWrites.stream().map(e -> e.buffer).toArray(ByteBuffer[]::new);
+                long written = channel.write(buffers);
+
+                int numCompleted = 0;
+                while (!pendingWrites.isEmpty() && !pendingWrites.peek().buffer.hasRemaining()) {
+                    PendingWrite pendingWrite = pendingWrites.poll();
+                    if (pendingWrite.future != null) {
+                        pendingWrite.future.complete(null);
+                        numCompleted++;
+                    }
+                }
+                writeStats.onFlush(numCompleted, written);
+                if (!pendingWrites.isEmpty()) {
+                    // Socket buffer is full, we continue once the channel is writable again
+                    selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        } catch (IOException | CancelledKeyException exception) {
+            handleError(exception);
+        }
+    }
+
+    private void dispatch(Frame frame) {
+        numPendingDispatches.incrementAndGet();
+        numPendingDispatchBytes.addAndGet(frame.getSize());
+        dispatcher.execute(() -> {
+            try {
+                if (isStopped) {
+                    return;
+                }
+                frameHandler.onFrame(frame);
+            } catch (Exception exception) {
+                handleError(exception);
+            } finally {
+                numPendingDispatchBytes.addAndGet(-frame.getSize());
+                numPendingDispatches.decrementAndGet();
+                if (isReadPaused.get() && hasDispatchCaughtUp()) {
+                    eventLoop.execute(this::resumeRead);
+                }
+            }
+        });
+    }
+
+    private void handleError(Exception exception) {
+        if (isStopped) {
+            return;
+        }
+        close();
+        dispatcher.execute(() -> errorHandler.accept(exception));
+    }
+
+    private void failPendingWrites() {
+        ClosedChannelException exception = new ClosedChannelException();
+        outboundQueue.failAll(exception);
+        // pendingWrites is only accessed from the event loop thread
+        eventLoop.execute(() -> {
+            PendingWrite pendingWrite;
+            while ((pendingWrite = pendingWrites.poll()) != null) {
+                if (pendingWrite.future != null) {
+                    pendingWrite.future.completeExceptionally(exception);
+                }
+            }
+        });
+    }
+}
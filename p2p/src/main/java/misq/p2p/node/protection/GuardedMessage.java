@@ -19,23 +19,44 @@ package misq.p2p.node.protection;
 
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import misq.p2p.message.Envelope;
 import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
 
+/**
+ * The payload is carried in an {@link Envelope}, so an access token bound to the payload is verified against exactly
+ * the bytes we have received. Serializing a deserialized payload again can give different bytes, e.g. the order of
+ * HashMap entries depends on the capacity of the map. The payload is only decoded once the message has passed the
+ * permission check.
+ */
 @EqualsAndHashCode
 @Getter
 public class GuardedMessage implements Message {
-    private final Message payload;
+    private final Envelope envelope;
     private final AccessToken accessToken;
 
     public GuardedMessage(Message payload, AccessToken accessToken) {
-        this.payload = payload;
         this.accessToken = accessToken;
+        envelope = new Envelope(payload);
+    }
+
+    public Message getPayload() {
+        return envelope.getPayload();
+    }
+
+    public byte[] getSerializedPayload() {
+        return envelope.getSerializedPayload();
+    }
+
+    @Override
+    public MessagePriority getPriority() {
+        return envelope.getPriority();
     }
 
     @Override
     public String toString() {
         return "GuardedMessage{" +
-                "\n     payload=" + payload +
+                "\n     envelope=" + envelope +
                 ",\n     accessToken=" + accessToken +
                 "\n}";
     }
@@ -25,6 +25,25 @@ public interface PermissionControl {
 
     boolean hasPermit(GuardedMessage guardedMessage);
 
+    /**
+     * Checks the permit of a message received at the connection with connectionId. Implementations can limit the
+     * work a single peer can cause at our node.
+     */
+    default PermitResult checkPermit(GuardedMessage guardedMessage, String connectionId) {
+        return hasPermit(guardedMessage) ? PermitResult.GRANTED : PermitResult.REJECTED;
+    }
+
+    /**
+     * Called before a frame received at the connection with connectionId gets decoded, so messages of a throttled
+     * peer can be rejected without deserializing them.
+     */
+    default PermitResult checkFrame(String connectionId) {
+        return PermitResult.GRANTED;
+    }
+
+    default void onDisconnect(String connectionId) {
+    }
+
     CompletableFuture<AccessToken> getPermit(Message message);
 
     void shutdown();
@@ -0,0 +1,81 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.protection;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A token is valid if sha256(messageHash, timestamp, difficulty, nonce) has at least difficulty leading zero bits.
+ * Minting takes about 2^difficulty hashes. Verifying takes one hash of the message and one of the fixed size
+ * challenge, independent of the difficulty.
+ */
+class ProofOfWork {
+    private static final int CHALLENGE_SIZE = 32 + 8 + 4 + 8;
+
+    static ProofOfWorkToken mint(byte[] messageHash, int difficulty, long timestamp) {
+        MessageDigest digest = getDigest();
+        ByteBuffer challenge = createChallenge(messageHash, timestamp, difficulty);
+        int noncePosition = challenge.position();
+        for (long nonce = 0; ; nonce++) {
+            if ((nonce & 0xFFFF) == 0 && Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("Minting has been interrupted");
+            }
+            challenge.putLong(noncePosition, nonce);
+            if (numLeadingZeroBits(digest.digest(challenge.array())) >= difficulty) {
+                return new ProofOfWorkToken(timestamp, difficulty, nonce);
+            }
+        }
+    }
+
+    /**
+     * @return The hash of the challenge, which identifies the token in the replay cache
+     */
+    static byte[] hash(byte[] messageHash, ProofOfWorkToken token) {
+        ByteBuffer challenge = createChallenge(messageHash, token.getTimestamp(), token.getDifficulty());
+        challenge.putLong(token.getNonce());
+        return getDigest().digest(challenge.array());
+    }
+
+    static int numLeadingZeroBits(byte[] hash) {
+        int numBits = 0;
+        for (byte b : hash) {
+            if (b != 0) {
+                return numBits + Integer.numberOfLeadingZeros(b & 0xFF) - 24;
+            }
+            numBits += 8;
+        }
+        return numBits;
+    }
+
+    private static ByteBuffer createChallenge(byte[] messageHash, long timestamp, int difficulty) {
+        return ByteBuffer.allocate(CHALLENGE_SIZE)
+                .put(messageHash, 0, 32)
+                .putLong(timestamp)
+                .putInt(difficulty);
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
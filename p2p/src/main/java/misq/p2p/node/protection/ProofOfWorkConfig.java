@@ -0,0 +1,75 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.protection;
+
+import lombok.Getter;
+import misq.p2p.message.Message;
+
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Difficulties are the number of leading zero bits of the proof of work, each additional bit doubles the minting
+ * cost. A message class with difficulty 0 does not need a proof of work.
+ */
+@Getter
+public class ProofOfWorkConfig {
+    private final Map<Class<? extends Message>, Integer> difficultyByMessageClass;
+    private final int defaultDifficulty;
+    // Older tokens are rejected, so the replay cache only needs to cover that period
+    private final long maxTokenAgeMs;
+    private final int replayCacheSize;
+    private final int numMintThreads;
+    // If we send messages of a class at a higher rate than mintRatePerSec (after a burst of mintBurst messages) we
+    // mint them with loadDifficultyIncrease additional bits
+    private final double mintBurst;
+    private final double mintRatePerSec;
+    private final int loadDifficultyIncrease;
+
+    public ProofOfWorkConfig(Map<Class<? extends Message>, Integer> difficultyByMessageClass, int defaultDifficulty) {
+        this(difficultyByMessageClass, defaultDifficulty, 30 * 60 * 1000, 100_000,
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 100, 10, 2);
+    }
+
+    public ProofOfWorkConfig(Map<Class<? extends Message>, Integer> difficultyByMessageClass,
+                             int defaultDifficulty,
+                             long maxTokenAgeMs,
+                             int replayCacheSize,
+                             int numMintThreads,
+                             double mintBurst,
+                             double mintRatePerSec,
+                             int loadDifficultyIncrease) {
+        checkArgument(defaultDifficulty >= 0 && difficultyByMessageClass.values().stream().allMatch(d -> d >= 0),
+                "Difficulties must not be negative");
+        checkArgument(difficultyByMessageClass.values().stream().reduce(defaultDifficulty, Math::max) +
+                loadDifficultyIncrease <= 32, "Difficulty must not exceed 32 bits");
+        this.difficultyByMessageClass = Map.copyOf(difficultyByMessageClass);
+        this.defaultDifficulty = defaultDifficulty;
+        this.maxTokenAgeMs = maxTokenAgeMs;
+        this.replayCacheSize = replayCacheSize;
+        this.numMintThreads = numMintThreads;
+        this.mintBurst = mintBurst;
+        this.mintRatePerSec = mintRatePerSec;
+        this.loadDifficultyIncrease = loadDifficultyIncrease;
+    }
+
+    public int getDifficulty(Class<? extends Message> messageClass) {
+        return difficultyByMessageClass.getOrDefault(messageClass, defaultDifficulty);
+    }
+}
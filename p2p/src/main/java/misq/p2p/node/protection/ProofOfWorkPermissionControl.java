@@ -0,0 +1,151 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.protection;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import misq.common.security.DigestUtil;
+import misq.common.util.ThreadingUtils;
+import misq.p2p.message.Envelope;
+import misq.p2p.message.Message;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Requires a hashcash style proof of work (see {@link ProofOfWork}) bound to the hash of the payload, with the
+ * difficulty configured for its message class (see {@link ProofOfWorkConfig}).
+ * <p>
+ * Tokens are minted on a dedicated thread pool, so senders are never blocked. Messages we send at a higher rate than
+ * the mint budget of their class are minted with a higher difficulty, so a node flooding the network pays
+ * progressively more. Received tokens are rejected if they are older than maxTokenAgeMs. Tokens which have been seen
+ * already are reported as duplicates, as relayed messages keep the token of their originator.
+ */
+@Slf4j
+public class ProofOfWorkPermissionControl implements PermissionControl {
+    private final ProofOfWorkConfig config;
+    private final LongSupplier clock;
+    private final ExecutorService mintExecutor;
+    // Hashes of the tokens received within maxTokenAgeMs
+    private final Cache<ByteBuffer, Boolean> seenTokens;
+    private final Map<Class<? extends Message>, TokenBucket> mintBudgetByMessageClass = new ConcurrentHashMap<>();
+
+    public ProofOfWorkPermissionControl(ProofOfWorkConfig config) {
+        this(config, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    ProofOfWorkPermissionControl(ProofOfWorkConfig config, LongSupplier clock) {
+        this.config = config;
+        this.clock = clock;
+        mintExecutor = ThreadingUtils.getFixedThreadPool("ProofOfWork", config.getNumMintThreads());
+        seenTokens = CacheBuilder.newBuilder()
+                .maximumSize(config.getReplayCacheSize())
+                .expireAfterWrite(config.getMaxTokenAgeMs(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // PermissionControl
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public boolean hasPermit(GuardedMessage guardedMessage) {
+        return check(guardedMessage) == PermitResult.GRANTED;
+    }
+
+    @Override
+    public PermitResult checkPermit(GuardedMessage guardedMessage, String connectionId) {
+        return check(guardedMessage);
+    }
+
+    @Override
+    public CompletableFuture<AccessToken> getPermit(Message message) {
+        int difficulty = getMintDifficulty(message.getClass());
+        if (difficulty == 0) {
+            return CompletableFuture.completedFuture(new AccessToken());
+        }
+        long timestamp = clock.getAsLong();
+        return CompletableFuture.supplyAsync(() ->
+                ProofOfWork.mint(DigestUtil.sha256(message.serialize()), difficulty, timestamp), mintExecutor);
+    }
+
+    @Override
+    public void shutdown() {
+        mintExecutor.shutdownNow();
+        seenTokens.invalidateAll();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Package private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    int getMintDifficulty(Class<? extends Message> messageClass) {
+        int difficulty = config.getDifficulty(messageClass);
+        if (difficulty == 0) {
+            return 0;
+        }
+        long now = clock.getAsLong();
+        TokenBucket mintBudget = mintBudgetByMessageClass.computeIfAbsent(messageClass,
+                key -> new TokenBucket(config.getMintBurst(), config.getMintRatePerSec(), now));
+        return mintBudget.tryConsume(1, now) ? difficulty : difficulty + config.getLoadDifficultyIncrease();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private PermitResult check(GuardedMessage guardedMessage) {
+        // The payload is not decoded yet, so we use the type of the envelope header. Decoding fails if it is wrong.
+        Envelope envelope = guardedMessage.getEnvelope();
+        int requiredDifficulty = config.getDifficulty(envelope.findPayloadClass().orElse(Message.class));
+        if (requiredDifficulty == 0) {
+            return PermitResult.GRANTED;
+        }
+        if (!(guardedMessage.getAccessToken() instanceof ProofOfWorkToken)) {
+            log.debug("Message {} has no proof of work", envelope.getPayloadClassName());
+            return PermitResult.REJECTED;
+        }
+        ProofOfWorkToken token = (ProofOfWorkToken) guardedMessage.getAccessToken();
+        if (token.getDifficulty() < requiredDifficulty ||
+                Math.abs(clock.getAsLong() - token.getTimestamp()) > config.getMaxTokenAgeMs()) {
+            log.debug("Proof of work {} does not meet required difficulty {} or is outdated", token, requiredDifficulty);
+            return PermitResult.REJECTED;
+        }
+        byte[] hash = ProofOfWork.hash(DigestUtil.sha256(guardedMessage.getSerializedPayload()), token);
+        if (ProofOfWork.numLeadingZeroBits(hash) < token.getDifficulty()) {
+            log.debug("Proof of work {} is invalid", token);
+            return PermitResult.REJECTED;
+        }
+        if (seenTokens.asMap().putIfAbsent(ByteBuffer.wrap(hash), Boolean.TRUE) != null) {
+            log.debug("Proof of work {} has been used already", token);
+            return PermitResult.DUPLICATE;
+        }
+        return PermitResult.GRANTED;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.protection;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * Hashcash style token bound to the hash of a message (see {@link ProofOfWork}).
+ */
+@EqualsAndHashCode(callSuper = true)
+@Getter
+public class ProofOfWorkToken extends AccessToken {
+    private final long timestamp;
+    private final int difficulty;
+    private final long nonce;
+
+    public ProofOfWorkToken(long timestamp, int difficulty, long nonce) {
+        this.timestamp = timestamp;
+        this.difficulty = difficulty;
+        this.nonce = nonce;
+    }
+
+    @Override
+    public String toString() {
+        return "ProofOfWorkToken{" +
+                "\n     timestamp=" + timestamp +
+                ",\n     difficulty=" + difficulty +
+                ",\n     nonce=" + nonce +
+                "\n}";
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.protection;
+
+import lombok.Getter;
+import misq.p2p.message.Message;
+
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits of the {@link RateLimitingPermissionControl}. Each received message consumes its cost from the bucket of
+ * the connection and from the bucket of its message class at that connection. Capacities are the bursts a peer can
+ * send, refill rates the sustained rates in cost units per second.
+ */
+@Getter
+public class RateLimitConfig {
+    private final Map<Class<? extends Message>, Double> costByMessageClass;
+    private final double defaultCost;
+    private final double connectionCapacity;
+    private final double connectionRefillPerSec;
+    private final double messageClassCapacity;
+    private final double messageClassRefillPerSec;
+    // Number of rejected messages after which we disconnect, refilled at rejectionsRefillPerSec
+    private final int maxRejections;
+    private final double rejectionsRefillPerSec;
+
+    public RateLimitConfig(Map<Class<? extends Message>, Double> costByMessageClass) {
+        this(costByMessageClass, 1, 500, 100, 200, 40, 100, 1);
+    }
+
+    public RateLimitConfig(Map<Class<? extends Message>, Double> costByMessageClass,
+                           double defaultCost,
+                           double connectionCapacity,
+                           double connectionRefillPerSec,
+                           double messageClassCapacity,
+                           double messageClassRefillPerSec,
+                           int maxRejections,
+                           double rejectionsRefillPerSec) {
+        double maxCost = costByMessageClass.values().stream().reduce(defaultCost, Math::max);
+        checkArgument(defaultCost > 0 && costByMessageClass.values().stream().allMatch(cost -> cost > 0),
+                "Costs must be positive");
+        checkArgument(maxCost <= connectionCapacity && maxCost <= messageClassCapacity,
+                "Costs must not exceed the capacities, otherwise such messages would never be permitted");
+        this.costByMessageClass = Map.copyOf(costByMessageClass);
+        this.defaultCost = defaultCost;
+        this.connectionCapacity = connectionCapacity;
+        this.connectionRefillPerSec = connectionRefillPerSec;
+        this.messageClassCapacity = messageClassCapacity;
+        this.messageClassRefillPerSec = messageClassRefillPerSec;
+        this.maxRejections = maxRejections;
+        this.rejectionsRefillPerSec = rejectionsRefillPerSec;
+    }
+
+    public double getCost(Class<? extends Message> messageClass) {
+        return costByMessageClass.getOrDefault(messageClass, defaultCost);
+    }
+
+    /**
+     * @return The cost of the cheapest message. A connection with fewer tokens cannot get any message permitted.
+     */
+    public double getMinCost() {
+        return costByMessageClass.values().stream().reduce(defaultCost, Math::min);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.protection;
+
+import com.google.common.annotations.VisibleForTesting;
+import lombok.extern.slf4j.Slf4j;
+import misq.p2p.message.Message;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the rate of received messages per connection with token buckets (see {@link RateLimitConfig}), so a single
+ * peer cannot keep us busy with expensive requests like a full inventory or gossiped data which needs to be hashed,
+ * verified and persisted.
+ * <p>
+ * Once the bucket of a connection is empty the frames received at it are rejected before they get deserialized.
+ * Each rejected message consumes a token of the rejections bucket of the connection, if that is empty the peer ignored
+ * our limits for too long and gets disconnected.
+ * <p>
+ * Access tokens are handled by the delegate.
+ */
+@Slf4j
+public class RateLimitingPermissionControl implements PermissionControl {
+    private static class ConnectionLimits {
+        private final TokenBucket bucket;
+        private final Map<Class<? extends Message>, TokenBucket> bucketByMessageClass = new ConcurrentHashMap<>();
+        private final TokenBucket rejections;
+
+        private ConnectionLimits(RateLimitConfig config, long now) {
+            bucket = new TokenBucket(config.getConnectionCapacity(), config.getConnectionRefillPerSec(), now);
+            rejections = new TokenBucket(config.getMaxRejections(), config.getRejectionsRefillPerSec(), now);
+        }
+    }
+
+    private final PermissionControl delegate;
+    private final RateLimitConfig config;
+    private final LongSupplier clock;
+    private final double minCost;
+    private final Map<String, ConnectionLimits> limitsByConnectionId = new ConcurrentHashMap<>();
+
+    public RateLimitingPermissionControl(PermissionControl delegate, RateLimitConfig config) {
+        this(delegate, config, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    RateLimitingPermissionControl(PermissionControl delegate, RateLimitConfig config, LongSupplier clock) {
+        this.delegate = delegate;
+        this.config = config;
+        this.clock = clock;
+        minCost = config.getMinCost();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // PermissionControl
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public boolean hasPermit(GuardedMessage guardedMessage) {
+        return delegate.hasPermit(guardedMessage);
+    }
+
+    @Override
+    public PermitResult checkPermit(GuardedMessage guardedMessage, String connectionId) {
+        long now = clock.getAsLong();
+        ConnectionLimits limits = getLimits(connectionId, now);
+        // We use the type of the envelope header, so rejected messages never get decoded. Unknown types share the
+        // bucket of Message.
+        Class<? extends Message> messageClass = guardedMessage.getEnvelope().findPayloadClass().orElse(Message.class);
+        double cost = config.getCost(messageClass);
+        TokenBucket messageClassBucket = limits.bucketByMessageClass.computeIfAbsent(messageClass,
+                key -> new TokenBucket(config.getMessageClassCapacity(), config.getMessageClassRefillPerSec(), now));
+        if (!tryConsume(limits, messageClassBucket, cost, now)) {
+            log.debug("Message {} at connection {} exceeds the rate limit", messageClass.getSimpleName(), connectionId);
+            return reject(limits, now);
+        }
+        PermitResult permitResult = delegate.checkPermit(guardedMessage, connectionId);
+        return permitResult == PermitResult.REJECTED ? reject(limits, now) : permitResult;
+    }
+
+    @Override
+    public PermitResult checkFrame(String connectionId) {
+        long now = clock.getAsLong();
+        ConnectionLimits limits = getLimits(connectionId, now);
+        if (limits.bucket.hasTokens(minCost, now)) {
+            return PermitResult.GRANTED;
+        }
+        return reject(limits, now);
+    }
+
+    @Override
+    public void onDisconnect(String connectionId) {
+        limitsByConnectionId.remove(connectionId);
+    }
+
+    @Override
+    public CompletableFuture<AccessToken> getPermit(Message message) {
+        return delegate.getPermit(message);
+    }
+
+    @Override
+    public void shutdown() {
+        limitsByConnectionId.clear();
+        delegate.shutdown();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private ConnectionLimits getLimits(String connectionId, long now) {
+        return limitsByConnectionId.computeIfAbsent(connectionId, key -> new ConnectionLimits(config, now));
+    }
+
+    // Tokens are only consumed if both buckets have capacity, so a message rejected by the connection bucket does not
+    // drain the budget of its message class and vice versa.
+    private boolean tryConsume(ConnectionLimits limits, TokenBucket messageClassBucket, double cost, long now) {
+        synchronized (limits) {
+            if (!messageClassBucket.hasTokens(cost, now) || !limits.bucket.hasTokens(cost, now)) {
+                return false;
+            }
+            messageClassBucket.tryConsume(cost, now);
+            limits.bucket.tryConsume(cost, now);
+            return true;
+        }
+    }
+
+    private PermitResult reject(ConnectionLimits limits, long now) {
+        return limits.rejections.tryConsume(1, now) ? PermitResult.REJECTED : PermitResult.DISCONNECT;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.protection;
+
+import misq.p2p.message.Message;
+
+import java.util.Optional;
+
+/**
+ * Message which gets relayed by the receiver unchanged, e.g. gossip. Node attaches the GuardedMessage it has been
+ * received with, so it can be relayed with the access token of its originator (see Node.encodeForRelay).
+ */
+public interface RelayableMessage extends Message {
+    void setReceivedGuardedMessage(GuardedMessage guardedMessage);
+
+    Optional<GuardedMessage> findReceivedGuardedMessage();
+}
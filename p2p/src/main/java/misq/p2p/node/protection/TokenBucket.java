@@ -0,0 +1,58 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.protection;
+
+/**
+ * Holds up to capacity tokens and gets refilled at a constant rate. A burst of up to capacity tokens can be consumed
+ * at once, afterwards only the refill rate.
+ */
+class TokenBucket {
+    private final double capacity;
+    private final double refillPerMs;
+    // Following fields are guarded by this
+    private double numTokens;
+    private long lastRefillTime;
+
+    TokenBucket(double capacity, double refillPerSec, long now) {
+        this.capacity = capacity;
+        refillPerMs = refillPerSec / 1000;
+        numTokens = capacity;
+        lastRefillTime = now;
+    }
+
+    synchronized boolean tryConsume(double tokens, long now) {
+        refill(now);
+        if (numTokens < tokens) {
+            return false;
+        }
+        numTokens -= tokens;
+        return true;
+    }
+
+    synchronized boolean hasTokens(double tokens, long now) {
+        refill(now);
+        return numTokens >= tokens;
+    }
+
+    private void refill(long now) {
+        if (now > lastRefillTime) {
+            numTokens = Math.min(capacity, numTokens + (now - lastRefillTime) * refillPerMs);
+            lastRefillTime = now;
+        }
+    }
+}
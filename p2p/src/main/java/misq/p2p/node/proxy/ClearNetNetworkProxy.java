@@ -3,10 +3,14 @@ package misq.p2p.node.proxy;
 import lombok.extern.slf4j.Slf4j;
 import misq.p2p.Address;
 import misq.p2p.NetworkConfig;
+import misq.p2p.node.connection.TransportType;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
@@ -14,7 +18,11 @@ import java.util.concurrent.CompletableFuture;
 @Slf4j
 public class ClearNetNetworkProxy implements NetworkProxy {
 
+    // For NIO transport the sockets need to be backed by channels
+    private final boolean useChannels;
+
     public ClearNetNetworkProxy(NetworkConfig networkConfig) {
+        useChannels = networkConfig.getTransportType() == TransportType.NIO;
     }
 
     public CompletableFuture<Boolean> initialize() {
@@ -40,7 +48,14 @@ public class ClearNetNetworkProxy implements NetworkProxy {
         }
 
         try {
-            ServerSocket serverSocket = new ServerSocket(serverPort);
+            ServerSocket serverSocket;
+            if (useChannels) {
+                ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+                serverSocketChannel.bind(new InetSocketAddress(serverPort));
+                serverSocket = serverSocketChannel.socket();
+            } else {
+                serverSocket = new ServerSocket(serverPort);
+            }
             Address address = Address.localHost(serverPort);
             log.debug("ServerSocket created");
             future.complete(new GetServerSocketResult(serverId, serverSocket, address));
@@ -54,7 +69,11 @@ public class ClearNetNetworkProxy implements NetworkProxy {
     @Override
     public Socket getSocket(Address address) throws IOException {
         log.debug("Create new Socket");
-        return new Socket(address.getHost(), address.getPort());
+        if (useChannels) {
+            return SocketChannel.open(new InetSocketAddress(address.getHost(), address.getPort())).socket();
+        } else {
+            return new Socket(address.getHost(), address.getPort());
+        }
     }
 
     @Override
@@ -7,6 +7,7 @@ import misq.i2p.SamClient;
 import misq.p2p.Address;
 import misq.p2p.NetworkConfig;
 import misq.p2p.node.RawNode;
+import misq.p2p.node.connection.TransportType;
 
 import java.io.IOException;
 import java.net.ServerSocket;
@@ -24,10 +25,13 @@ import static java.io.File.separator;
 public class I2pNetworkProxy implements NetworkProxy {
     private final String i2pDirPath;
     private SamClient samClient;
-    private final ExecutorService getServerSocketExecutor = ThreadingUtils.getSingleThreadExecutor("I2pNetworkProxy.ServerSocket");
+    private final ExecutorService getServerSocketExecutor;
 
     public I2pNetworkProxy(NetworkConfig networkConfig) {
         i2pDirPath = networkConfig.getBaseDirPath() + separator + "i2p";
+        // The SAM handshake is blocking, with virtual threads it does not pin an OS thread
+        boolean useVirtualThread = networkConfig.getTransportType() == TransportType.VIRTUAL_THREADS;
+        getServerSocketExecutor = ThreadingUtils.getSingleThreadExecutor("I2pNetworkProxy.ServerSocket", useVirtualThread);
     }
 
     public CompletableFuture<Boolean> initialize() {
@@ -30,6 +30,11 @@ public class PeerConfig {
     private final int minNumConnectedPeers;
     private final int maxNumConnectedPeers;
     private final int minNumReportedPeers;
+    // Limits of established connections. As each network has its own config the limits apply per NetworkType.
+    private final int maxNumInboundConnections;
+    private final int maxNumOutboundConnections;
+    // Connections without any sent or received message for that time get closed
+    private final long maxIdleTimeSec;
 
     public PeerConfig(PeerExchangeConfig peerExchangeConfig, List<Address> seedNodes) {
         this(peerExchangeConfig, seedNodes, 8, 12, 1);
@@ -40,10 +45,25 @@ public class PeerConfig {
                       int minNumConnectedPeers,
                       int maxNumConnectedPeers,
                       int minNumReportedPeers) {
+        this(peerExchangeConfig, seedNodes, minNumConnectedPeers, maxNumConnectedPeers, minNumReportedPeers,
+                50, 20, 600);
+    }
+
+    public PeerConfig(PeerExchangeConfig peerExchangeConfig,
+                      List<Address> seedNodes,
+                      int minNumConnectedPeers,
+                      int maxNumConnectedPeers,
+                      int minNumReportedPeers,
+                      int maxNumInboundConnections,
+                      int maxNumOutboundConnections,
+                      long maxIdleTimeSec) {
         this.peerExchangeConfig = peerExchangeConfig;
         this.seedNodes = seedNodes;
         this.minNumConnectedPeers = minNumConnectedPeers;
         this.maxNumConnectedPeers = maxNumConnectedPeers;
         this.minNumReportedPeers = minNumReportedPeers;
+        this.maxNumInboundConnections = maxNumInboundConnections;
+        this.maxNumOutboundConnections = maxNumOutboundConnections;
+        this.maxIdleTimeSec = maxIdleTimeSec;
     }
 }
@@ -51,6 +51,9 @@ public class PeerGroup implements ConnectionListener {
     private final Set<Peer> persistedPeers = new CopyOnWriteArraySet<>();
     @Getter
     private final Set<Connection> connections = new CopyOnWriteArraySet<>();
+    // Peers we have an ongoing interaction with, e.g. a trade. Their connections do not get closed by PeerGroupHealth.
+    // Value is the number of interactions, so a peer stays protected until all of them have completed.
+    private final Map<Address, Integer> numProtectionsByAddress = new ConcurrentHashMap<>();
 
     public PeerGroup(Node node, PeerConfig peerConfig, int serverPort) {
         this.serverPort = serverPort;
@@ -72,7 +75,12 @@ public class PeerGroup implements ConnectionListener {
 
     @Override
     public void onDisconnect(Connection connection) {
-        connectedPeerByAddress.remove(connection.getPeerAddress());
+        connections.remove(connection);
+        Address peerAddress = connection.getPeerAddress();
+        // We might still have another connection to that peer (inbound and outbound)
+        if (connections.stream().noneMatch(c -> c.getPeerAddress().equals(peerAddress))) {
+            connectedPeerByAddress.remove(peerAddress);
+        }
     }
 
     public Set<Address> getConnectedPeerAddresses() {
@@ -107,4 +115,26 @@ public class PeerGroup implements ConnectionListener {
     public boolean notASeed(Peer peer) {
         return notASeed(peer.getAddress());
     }
+
+    /**
+     * @return false if connecting to the address has failed recently, so a connection attempt would fail fast
+     */
+    public boolean notInConnectionBackoff(Address address) {
+        return node.findConnectionFailureStats(address)
+                .map(stats -> !stats.isInBackoff())
+                .orElse(true);
+    }
+
+    public void addProtectedPeer(Address address) {
+        numProtectionsByAddress.merge(address, 1, Integer::sum);
+    }
+
+    public void removeProtectedPeer(Address address) {
+        numProtectionsByAddress.computeIfPresent(address, (key, numProtections) ->
+                numProtections > 1 ? numProtections - 1 : null);
+    }
+
+    public boolean isProtected(Address address) {
+        return numProtectionsByAddress.containsKey(address);
+    }
 }
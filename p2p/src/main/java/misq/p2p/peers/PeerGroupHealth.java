@@ -17,23 +17,125 @@
 
 package misq.p2p.peers;
 
+import lombok.extern.slf4j.Slf4j;
+import misq.common.util.ThreadingUtils;
+import misq.p2p.node.Connection;
+import misq.p2p.node.ConnectionListener;
 import misq.p2p.node.Node;
 
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the number of connections within the limits of the PeerConfig.
+ * - Closes connections which have been idle for longer than maxIdleTimeSec.
+ * - If a new connection exceeds the outbound limit we close the least recently used outbound connection. The inbound
+ * limit is enforced by RawNode before the handshake. If concurrent connections still exceed it we close the newest
+ * inbound connections, so peers cannot push out the peers we have been connected to for longer.
+ * Connections to seed nodes and to protected peers (e.g. with an ongoing trade) are never evicted.
+ * Protected peers are also exempt from closing idle connections.
+ */
+@Slf4j
+public class PeerGroupHealth implements ConnectionListener {
+    private static final long IDLE_CHECK_INTERVAL_SEC = 60;
 
-public class PeerGroupHealth {
     private final Node node;
     private final PeerGroup peerGroup;
+    private final PeerConfig peerConfig;
+    private final ScheduledExecutorService executor = ThreadingUtils.getSingleThreadScheduledExecutor("PeerGroupHealth");
 
-    public PeerGroupHealth(Node node, PeerGroup peerGroup) {
+    public PeerGroupHealth(Node node, PeerGroup peerGroup, PeerConfig peerConfig) {
         this.node = node;
         this.peerGroup = peerGroup;
+        this.peerConfig = peerConfig;
+
+        node.addConnectionListener(this);
+        long interval = Math.min(IDLE_CHECK_INTERVAL_SEC, Math.max(1, peerConfig.getMaxIdleTimeSec() / 2));
+        executor.scheduleWithFixedDelay(this::closeIdleConnections, interval, interval, TimeUnit.SECONDS);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // ConnectionListener
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void onConnection(Connection connection) {
+        // We do not close connections from inside the listener callback of the new connection
+        try {
+            executor.execute(() -> enforceLimit(connection.isOutbound()));
+        } catch (RejectedExecutionException ignore) {
+            // We got shut down
+        }
     }
 
+    @Override
+    public void onDisconnect(Connection connection) {
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
     public CompletableFuture<Boolean> bootstrap() {
         return CompletableFuture.completedFuture(true);
     }
 
     public void shutdown() {
+        node.removeConnectionListener(this);
+        ThreadingUtils.shutdownAndAwaitTermination(executor);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void enforceLimit(boolean outbound) {
+        int maxNumConnections = outbound ?
+                peerConfig.getMaxNumOutboundConnections() :
+                peerConfig.getMaxNumInboundConnections();
+        List<Connection> connections = peerGroup.getConnections().stream()
+                .filter(connection -> connection.isOutbound() == outbound)
+                .collect(Collectors.toList());
+        int numExceeding = connections.size() - maxNumConnections;
+        if (numExceeding <= 0) {
+            return;
+        }
+        Comparator<Connection> evictionOrder = outbound ?
+                Comparator.comparingLong(Connection::getLastActivity) :
+                Comparator.comparingLong(Connection::getCreated).reversed();
+        connections.stream()
+                .filter(this::isEvictable)
+                .sorted(evictionOrder)
+                .limit(numExceeding)
+                .forEach(connection -> {
+                    log.info("We have {} {} connections which exceeds our limit of {}. We close the connection to {}",
+                            connections.size(), outbound ? "outbound" : "inbound", maxNumConnections,
+                            connection.getPeerAddress());
+                    node.disconnect(connection);
+                });
+    }
+
+    private void closeIdleConnections() {
+        long minLastActivity = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(peerConfig.getMaxIdleTimeSec());
+        peerGroup.getConnections().stream()
+                .filter(connection -> connection.getLastActivity() < minLastActivity)
+                .filter(connection -> !peerGroup.isProtected(connection.getPeerAddress()))
+                .forEach(connection -> {
+                    log.info("Connection to {} has been idle for more than {} sec. We close it.",
+                            connection.getPeerAddress(), peerConfig.getMaxIdleTimeSec());
+                    node.disconnect(connection);
+                });
+    }
+
+    private boolean isEvictable(Connection connection) {
+        return peerGroup.notASeed(connection.getPeerAddress()) && !peerGroup.isProtected(connection.getPeerAddress());
     }
 }
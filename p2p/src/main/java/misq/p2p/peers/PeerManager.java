@@ -68,7 +68,7 @@ public class PeerManager {
         this.peerConfig = peerConfig;
 
         peerExchangeManager = new PeerExchangeManager(node, peerExchangeStrategy);
-        peerGroupHealth = new PeerGroupHealth(node, peerGroup);
+        peerGroupHealth = new PeerGroupHealth(node, peerGroup, peerConfig);
     }
 
     public CompletableFuture<Boolean> bootstrap(String serverId, int serverPort) {
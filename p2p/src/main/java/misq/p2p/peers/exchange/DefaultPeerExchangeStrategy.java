@@ -94,6 +94,7 @@ public class DefaultPeerExchangeStrategy implements PeerExchangeStrategy {
         Set<Address> reported = peerGroup.getReportedPeers().stream()
                 .map(Peer::getAddress)
                 .filter(peerGroup::notMyself)
+                .filter(peerGroup::notInConnectionBackoff)
                 /* .filter(this::notUsedYet)
                  .limit(numReportedPeersAtBoostrap)*/
                 .collect(Collectors.toSet()); //4
@@ -101,6 +102,7 @@ public class DefaultPeerExchangeStrategy implements PeerExchangeStrategy {
         Set<Address> persisted = peerGroup.getPersistedPeers().stream()
                 .map(Peer::getAddress)
                 .filter(peerGroup::notMyself)
+                .filter(peerGroup::notInConnectionBackoff)
                 /* .filter(this::notUsedYet)
                  .limit(numPersistedPeersAtBoostrap)*/
                 .collect(Collectors.toSet()); //8
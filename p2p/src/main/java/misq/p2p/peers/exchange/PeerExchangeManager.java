@@ -44,7 +44,6 @@ public class PeerExchangeManager implements ConnectionListener {
     private final Node node;
     private final PeerExchangeStrategy peerExchangeStrategy;
     private final Map<String, PeerExchangeResponseHandler> responseHandlerMap = new ConcurrentHashMap<>();
-    private final Map<String, PeerExchangeRequestHandler> requestHandlerMap = new ConcurrentHashMap<>();
     private final Object isStoppedLock = new Object();
     private final PeerExchangeGraph peerExchangeGraph;
     private volatile boolean isStopped;
@@ -82,8 +81,7 @@ public class PeerExchangeManager implements ConnectionListener {
     @Override
     public void onDisconnect(Connection connection) {
         String connectionId = connection.getId();
-        MapUtils.disposeAndRemove(connectionId, requestHandlerMap);
-        MapUtils.disposeAndRemove(connectionId, requestHandlerMap);
+        MapUtils.disposeAndRemove(connectionId, responseHandlerMap);
     }
 
 
@@ -129,7 +127,6 @@ public class PeerExchangeManager implements ConnectionListener {
             isStopped = true;
         }
         node.removeConnectionListener(this);
-        MapUtils.disposeAndRemoveAll(requestHandlerMap);
         MapUtils.disposeAndRemoveAll(responseHandlerMap);
     }
 
@@ -141,12 +138,11 @@ public class PeerExchangeManager implements ConnectionListener {
     private CompletableFuture<Boolean> exchangeWithPeer(Address peerAddress) {
         return node.getConnection(peerAddress)
                 .thenCompose(connection -> {
-                    PeerExchangeRequestHandler requestHandler = new PeerExchangeRequestHandler(node, connection.getId());
-                    requestHandlerMap.put(connection.getId(), requestHandler);
-                    return requestHandler.request(peerExchangeStrategy.getPeersForPeerExchange(peerAddress), peerAddress);
+                    PeerExchangeRequest request = new PeerExchangeRequest(peerExchangeStrategy.getPeersForPeerExchange(peerAddress));
+                    return node.request(request, connection, PeerExchangeResponse.class);
                 })
-                .thenCompose(peers -> {
-                    peerExchangeStrategy.addPeersFromPeerExchange(peers, peerAddress);
+                .thenCompose(response -> {
+                    peerExchangeStrategy.addPeersFromPeerExchange(response.getPeers(), peerAddress);
                     return CompletableFuture.completedFuture(true);
                 })
                 .exceptionally(e -> {
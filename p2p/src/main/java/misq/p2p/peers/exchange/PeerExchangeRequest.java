@@ -19,21 +19,27 @@ package misq.p2p.peers.exchange;
 
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
-import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.message.Request;
 import misq.p2p.peers.Peer;
 
+import java.util.Random;
 import java.util.Set;
-import java.util.UUID;
 
 @EqualsAndHashCode
 @Getter
-class PeerExchangeRequest implements Message {
+class PeerExchangeRequest implements Request {
     private final Set<Peer> peers;
-    private final String uid;
+    private final int nonce;
 
     public PeerExchangeRequest(Set<Peer> peers) {
         this.peers = peers;
-        uid = UUID.randomUUID().toString();
+        nonce = new Random().nextInt();
+    }
+
+    @Override
+    public MessagePriority getPriority() {
+        return MessagePriority.CONTROL;
     }
 
 
@@ -41,7 +47,7 @@ class PeerExchangeRequest implements Message {
     public String toString() {
         return "PeerExchangeRequest{" +
                 "\n     peers=" + peers +
-                ",\n     uid='" + uid + '\'' +
+                ",\n     nonce=" + nonce +
                 "\n}";
     }
 }
@@ -19,28 +19,33 @@ package misq.p2p.peers.exchange;
 
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
-import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.message.Response;
 import misq.p2p.peers.Peer;
 
 import java.util.Set;
-import java.util.UUID;
 
 @EqualsAndHashCode
 @Getter
-class PeerExchangeResponse implements Message {
+class PeerExchangeResponse implements Response {
     private final Set<Peer> peers;
-    private final String uid;
+    private final int requestNonce;
 
-    public PeerExchangeResponse(Set<Peer> peers) {
+    public PeerExchangeResponse(Set<Peer> peers, int requestNonce) {
         this.peers = peers;
-        uid = UUID.randomUUID().toString();
+        this.requestNonce = requestNonce;
+    }
+
+    @Override
+    public MessagePriority getPriority() {
+        return MessagePriority.CONTROL;
     }
 
     @Override
     public String toString() {
         return "PeerExchangeResponse{" +
                 "\n     peers=" + peers +
-                ",\n     uid='" + uid + '\'' +
+                ",\n     requestNonce=" + requestNonce +
                 "\n}";
     }
 }
@@ -19,9 +19,8 @@ package misq.p2p.peers.exchange;
 
 import lombok.extern.slf4j.Slf4j;
 import misq.common.Disposable;
-import misq.p2p.message.Message;
 import misq.p2p.node.Connection;
-import misq.p2p.node.MessageListener;
+import misq.p2p.node.MessageDispatcher;
 import misq.p2p.node.Node;
 import misq.p2p.peers.Peer;
 
@@ -29,7 +28,7 @@ import java.util.Set;
 import java.util.function.Consumer;
 
 @Slf4j
-public class PeerExchangeResponseHandler implements MessageListener, Disposable {
+public class PeerExchangeResponseHandler implements MessageDispatcher.MessageHandler<PeerExchangeRequest>, Disposable {
     private final Node node;
     private final String connectionId;
     private final Set<Peer> peers;
@@ -43,22 +42,19 @@ public class PeerExchangeResponseHandler implements MessageListener, Disposable
         this.connectionId = connectionId;
         this.peers = peers;
         this.resultHandler = resultHandler;
-        node.addMessageListener(this);
+        node.addMessageHandler(PeerExchangeRequest.class, connectionId, this);
     }
 
     public void dispose() {
-        node.removeMessageListener(this);
+        node.removeMessageHandler(PeerExchangeRequest.class, connectionId, this);
     }
 
     @Override
-    public void onMessage(Message message, Connection connection) {
-        if (connectionId.equals(connection.getId()) && message instanceof PeerExchangeRequest) {
-            PeerExchangeRequest peerExchangeRequest = (PeerExchangeRequest) message;
-            PeerExchangeResponse response = new PeerExchangeResponse(peers);
-            node.send(response, connection);
-            // We do not remove the MessageListener as we might do repeated exchanges
-            resultHandler.accept(peerExchangeRequest.getPeers());
-        }
+    public void onMessage(PeerExchangeRequest peerExchangeRequest, Connection connection) {
+        PeerExchangeResponse response = new PeerExchangeResponse(peers, peerExchangeRequest.getNonce());
+        node.send(response, connection);
+        // We do not remove the MessageHandler as we might do repeated exchanges
+        resultHandler.accept(peerExchangeRequest.getPeers());
     }
 
 }
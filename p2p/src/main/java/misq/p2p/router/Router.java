@@ -29,6 +29,7 @@ import misq.p2p.router.gossip.GossipRouter;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Predicate;
 
 /**
  * Responsibility:
@@ -40,8 +41,8 @@ public class Router implements MessageListener {
     private final GossipRouter gossipRouter;
     private final Set<MessageListener> messageListeners = new CopyOnWriteArraySet<>();
 
-    public Router(Node node, PeerGroup peerGroup) {
-        gossipRouter = new GossipRouter(node, peerGroup);
+    public Router(Node node, PeerGroup peerGroup, Predicate<Message> messageValidator) {
+        gossipRouter = new GossipRouter(node, peerGroup, messageValidator);
         gossipRouter.addMessageListener(this);
     }
 
@@ -19,14 +19,47 @@ package misq.p2p.router.gossip;
 
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import misq.p2p.message.Envelope;
 import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.node.protection.GuardedMessage;
+import misq.p2p.node.protection.RelayableMessage;
 
+import javax.annotation.Nullable;
+import java.util.Optional;
+
+/**
+ * The gossiped message is carried in an {@link Envelope}, so a duplicate received from several peers is only decoded
+ * once.
+ */
 @EqualsAndHashCode
 @Getter
-public class GossipMessage implements Message {
-    private final Message message;
+public class GossipMessage implements RelayableMessage {
+    private final Envelope envelope;
+    // Set by Node on received messages, so we relay them with the access token of their originator
+    @Nullable
+    private transient volatile GuardedMessage receivedGuardedMessage;
 
     public GossipMessage(Message message) {
-        this.message = message;
+        envelope = new Envelope(message);
+    }
+
+    public Message getMessage() {
+        return envelope.getPayload();
+    }
+
+    @Override
+    public void setReceivedGuardedMessage(GuardedMessage guardedMessage) {
+        receivedGuardedMessage = guardedMessage;
+    }
+
+    @Override
+    public Optional<GuardedMessage> findReceivedGuardedMessage() {
+        return Optional.ofNullable(receivedGuardedMessage);
+    }
+
+    @Override
+    public MessagePriority getPriority() {
+        return MessagePriority.GOSSIP;
     }
 }
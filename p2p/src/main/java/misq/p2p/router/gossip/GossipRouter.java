@@ -17,72 +17,96 @@
 
 package misq.p2p.router.gossip;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import misq.common.security.DigestUtil;
 import misq.common.util.CollectionUtil;
 import misq.p2p.Address;
+import misq.p2p.message.Envelope;
 import misq.p2p.message.Message;
 import misq.p2p.node.Connection;
+import misq.p2p.node.MessageDispatcher;
 import misq.p2p.node.MessageListener;
 import misq.p2p.node.Node;
+import misq.p2p.node.connection.EncodedMessage;
 import misq.p2p.peers.PeerGroup;
 
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 /**
  * Responsibility:
  * - Creates PeerGroup for peer management
  * - Broadcasts messages to peers provided by PeerGroup
- * - Notifies MessageListeners on messages which have been sent by via a GossipMessage
+ * - Decodes received messages and passes them to the messageValidator (e.g. the data store). Only accepted messages
+ * are passed to the MessageListeners and relayed to the other peers, so invalid data does not get flooded.
+ * - Relays received messages as they have been received, with the access token of their originator. Relaying nodes
+ * do not mint a new proof of work.
+ * - Drops duplicates of messages we have received or broadcast already before they get decoded
  */
-public class GossipRouter implements MessageListener {
+@Slf4j
+public class GossipRouter implements MessageDispatcher.MessageHandler<GossipMessage> {
     private static final long BROADCAST_TIMEOUT = 90;
+    private static final int MAX_SEEN_MESSAGES = 10_000;
+    private static final long SEEN_MESSAGES_TTL_MIN = 10;
 
     private final Node node;
     private final PeerGroup peerGroup;
+    private final Predicate<Message> messageValidator;
     private final Set<MessageListener> messageListeners = new CopyOnWriteArraySet<>();
+    // Hashes of the serialized messages
+    private final Cache<ByteBuffer, Boolean> seenMessages = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SEEN_MESSAGES)
+            .expireAfterWrite(SEEN_MESSAGES_TTL_MIN, TimeUnit.MINUTES)
+            .build();
 
-    public GossipRouter(Node node, PeerGroup peerGroup) {
+    public GossipRouter(Node node, PeerGroup peerGroup, Predicate<Message> messageValidator) {
         this.node = node;
         this.peerGroup = peerGroup;
+        this.messageValidator = messageValidator;
 
-        node.addMessageListener(this);
+        node.addMessageHandler(GossipMessage.class, this);
     }
 
     @Override
-    public void onMessage(Message message, Connection connection) {
-        if (message instanceof GossipMessage) {
-            GossipMessage gossipMessage = (GossipMessage) message;
-            messageListeners.forEach(listener -> listener.onMessage(gossipMessage.getMessage(), connection));
+    public void onMessage(GossipMessage gossipMessage, Connection connection) {
+        Envelope envelope = gossipMessage.getEnvelope();
+        if (!markSeen(envelope)) {
+            log.debug("Dropping duplicate gossip message {} from {}", envelope.getPayloadClassName(),
+                    connection.getPeerAddress());
+            return;
         }
+        Message message;
+        try {
+            message = gossipMessage.getMessage();
+        } catch (UncheckedIOException exception) {
+            log.info("Dropping gossip message from {} which cannot be decoded: {}", connection.getPeerAddress(),
+                    exception.getMessage());
+            return;
+        }
+        if (!messageValidator.test(message)) {
+            log.info("Dropping gossip message {} from {} which has not been accepted",
+                    envelope.getPayloadClassName(), connection.getPeerAddress());
+            return;
+        }
+        relay(gossipMessage, connection);
+        messageListeners.forEach(listener -> listener.onMessage(message, connection));
     }
 
     public CompletableFuture<GossipResult> broadcast(Message message) {
-        long ts = System.currentTimeMillis();
-        CompletableFuture<GossipResult> future = new CompletableFuture<>();
-        future.orTimeout(BROADCAST_TIMEOUT, TimeUnit.SECONDS);
-        AtomicInteger numSuccess = new AtomicInteger(0);
-        AtomicInteger numFaults = new AtomicInteger(0);
-        Set<Address> connectedPeerAddresses = peerGroup.getConnectedPeerAddresses();
-        int target = connectedPeerAddresses.size();
-        connectedPeerAddresses.forEach(address -> {
-            node.send(new GossipMessage(message), address)
-                    .whenComplete((connection, t) -> {
-                        if (connection != null) {
-                            numSuccess.incrementAndGet();
-                        } else {
-                            numFaults.incrementAndGet();
-                        }
-                        if (numSuccess.get() + numFaults.get() == target) {
-                            future.complete(new GossipResult(numSuccess.get(),
-                                    numFaults.get(),
-                                    System.currentTimeMillis() - ts));
-                        }
-                    });
-        });
-        return future;
+        GossipMessage gossipMessage = new GossipMessage(message);
+        markSeen(gossipMessage.getEnvelope());
+        // The message is guarded and encoded once, all peers get the same frame
+        return send(node.encode(gossipMessage), peerGroup.getConnectedPeerAddresses());
     }
 
     public Address getPeerAddressesForInventoryRequest() {
@@ -99,7 +123,69 @@ public class GossipRouter implements MessageListener {
 
     public void shutdown() {
         messageListeners.clear();
+        seenMessages.invalidateAll();
+
+        node.removeMessageHandler(GossipMessage.class, this);
+    }
+
+    /**
+     * Forwards the GuardedMessage as received, so the message is not encoded again and keeps the access token of its
+     * originator. Peers which got the message already from another peer drop it as duplicate token.
+     */
+    private void relay(GossipMessage gossipMessage, Connection connection) {
+        Optional<EncodedMessage> encodedMessage = node.encodeForRelay(gossipMessage);
+        if (!encodedMessage.isPresent()) {
+            return;
+        }
+        Set<Address> peerAddresses = new HashSet<>(peerGroup.getConnectedPeerAddresses());
+        peerAddresses.remove(connection.getPeerAddress());
+        if (!peerAddresses.isEmpty()) {
+            send(CompletableFuture.completedFuture(encodedMessage.get()), peerAddresses)
+                    .whenComplete((gossipResult, throwable) -> {
+                        if (throwable != null) {
+                            log.warn("Relaying gossip message failed: {}", throwable.toString());
+                        }
+                    });
+        }
+    }
+
+    private CompletableFuture<GossipResult> send(CompletableFuture<EncodedMessage> encodedMessageFuture,
+                                                 Set<Address> peerAddresses) {
+        long ts = System.currentTimeMillis();
+        CompletableFuture<GossipResult> future = new CompletableFuture<>();
+        future.orTimeout(BROADCAST_TIMEOUT, TimeUnit.SECONDS);
+        AtomicInteger numSuccess = new AtomicInteger(0);
+        AtomicInteger numFaults = new AtomicInteger(0);
+        int target = peerAddresses.size();
+        encodedMessageFuture.whenComplete((encodedMessage, throwable) -> {
+            if (encodedMessage == null) {
+                future.completeExceptionally(throwable);
+                return;
+            }
+            peerAddresses.forEach(address -> {
+                node.send(encodedMessage, address)
+                        .whenComplete((connection, t) -> {
+                            if (connection != null) {
+                                numSuccess.incrementAndGet();
+                            } else {
+                                numFaults.incrementAndGet();
+                            }
+                            if (numSuccess.get() + numFaults.get() == target) {
+                                future.complete(new GossipResult(numSuccess.get(),
+                                        numFaults.get(),
+                                        System.currentTimeMillis() - ts));
+                            }
+                        });
+            });
+        });
+        return future;
+    }
 
-        node.removeMessageListener(this);
+    /**
+     * @return False if the message has been seen already.
+     */
+    private boolean markSeen(Envelope envelope) {
+        ByteBuffer hash = ByteBuffer.wrap(DigestUtil.sha256(envelope.getSerializedPayload()));
+        return seenMessages.asMap().putIfAbsent(hash, Boolean.TRUE) == null;
     }
 }
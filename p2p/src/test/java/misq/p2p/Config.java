@@ -21,9 +21,19 @@ import com.google.common.collect.Sets;
 import lombok.extern.slf4j.Slf4j;
 import misq.common.security.KeyGeneration;
 import misq.common.util.OsUtils;
+import misq.p2p.node.Node;
+import misq.p2p.node.RawNode;
+import misq.p2p.node.connection.LoopbackMode;
+import misq.p2p.node.connection.TransportType;
+import misq.p2p.peers.PeerConfig;
+import misq.p2p.peers.exchange.PeerExchangeConfig;
 
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertTrue;
 
 @Slf4j
 public abstract class Config {
@@ -73,6 +83,10 @@ public abstract class Config {
     }
 
     static NetworkConfig getClearNetNetworkConfig(Role role) {
+        return getClearNetNetworkConfig(role, TransportType.BLOCKING);
+    }
+
+    static NetworkConfig getClearNetNetworkConfig(Role role, TransportType transportType) {
         int serverPort;
         switch (role) {
             case Alice:
@@ -86,12 +100,49 @@ public abstract class Config {
                 serverPort = 3333;
                 break;
         }
-        return getClearNetNetworkConfig(role, "default", serverPort);
+        return getClearNetNetworkConfig(role, "default", serverPort, transportType);
     }
 
     static NetworkConfig getClearNetNetworkConfig(Role role, String id, int serverPort) {
+        return getClearNetNetworkConfig(role, id, serverPort, TransportType.BLOCKING);
+    }
+
+    static NetworkConfig getClearNetNetworkConfig(Role role, String id, int serverPort, TransportType transportType) {
         String baseDirName = OsUtils.getUserDataDir().getAbsolutePath() + "/misq_test_" + role.name();
         NodeId nodeId = new NodeId(id, serverPort, Sets.newHashSet(NetworkType.CLEAR));
-        return new NetworkConfig(baseDirName, nodeId, NetworkType.CLEAR);
+        return new NetworkConfig(baseDirName, nodeId, NetworkType.CLEAR, getDefaultClearNetPeerConfig(),
+                transportType, false, LoopbackMode.DISABLED);
+    }
+
+    public static Node createNode(String id, int serverPort) throws Exception {
+        return createNode(id, serverPort, getDefaultClearNetPeerConfig(), false, LoopbackMode.DISABLED);
+    }
+
+    /**
+     * Creates a clear net node with the blocking transport and waits until its default server is initialized.
+     */
+    public static Node createNode(String id,
+                                  int serverPort,
+                                  PeerConfig peerConfig,
+                                  boolean streamMultiplexing,
+                                  LoopbackMode loopbackMode) throws Exception {
+        String baseDirName = OsUtils.getUserDataDir().getAbsolutePath() + "/misq_test_" + id;
+        NodeId nodeId = new NodeId(id, serverPort, Sets.newHashSet(NetworkType.CLEAR));
+        Node node = new Node(new NetworkConfig(baseDirName, nodeId, NetworkType.CLEAR, peerConfig,
+                TransportType.BLOCKING, streamMultiplexing, loopbackMode));
+        node.initializeServer(RawNode.DEFAULT_SERVER_ID, serverPort).get(10, TimeUnit.SECONDS);
+        return node;
+    }
+
+    public static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertTrue("Condition not met within 10 sec", condition.getAsBoolean());
+    }
+
+    public static PeerConfig getDefaultClearNetPeerConfig() {
+        return new PeerConfig(new PeerExchangeConfig(), new SeedNodeRepository().getNodes(NetworkType.CLEAR));
     }
 }
@@ -0,0 +1,81 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.data.storage;
+
+import com.google.common.base.Strings;
+import misq.common.persistence.Persistence;
+import misq.common.security.DigestUtil;
+import misq.common.util.FileUtils;
+import misq.common.util.OsUtils;
+import misq.p2p.data.storage.append.AppendOnlyData;
+import misq.p2p.data.storage.append.AppendOnlyDataStore;
+import misq.p2p.data.storage.append.MockAppendOnlyData;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares loading NUM_STORES AppendOnlyDataStores with NUM_ENTRIES entries each one after another, like the stores
+ * got created on first use before, with loading them in parallel with {@link Storage#loadStores}.
+ */
+public class StorageLoadingBenchmark {
+    private static final int NUM_STORES = 10;
+    private static final int NUM_ENTRIES = 10_000;
+    private static final int NUM_ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        String appDirPath = OsUtils.getUserDataDir() + File.separator + "misq_StorageLoadingBenchmark";
+        FileUtils.deleteDirectory(new File(appDirPath));
+        // Storage passes its storage dir to the stores, which append Storage.DIR again
+        String storageDirPath = appDirPath + Storage.DIR;
+        String storeDir = storageDirPath + Storage.DIR + File.separator + "appendonly";
+        FileUtils.makeDirs(storeDir);
+        List<MetaData> metaDataList = new ArrayList<>();
+        for (int i = 0; i < NUM_STORES; i++) {
+            MetaData metaData = new MetaData(251, "MockAppendOnlyData" + i);
+            metaDataList.add(metaData);
+            ConcurrentHashMap<MapKey, AppendOnlyData> map = new ConcurrentHashMap<>();
+            for (int j = 0; j < NUM_ENTRIES; j++) {
+                MockAppendOnlyData data = new MockAppendOnlyData(i + "-" + j + Strings.repeat("x", 200));
+                map.put(new MapKey(DigestUtil.hash(data.serialize())), data);
+            }
+            Persistence.write(map, storeDir + File.separator + metaData.getFileName());
+        }
+        System.out.printf("%d stores with %d entries each, %d cores%n",
+                NUM_STORES, NUM_ENTRIES, Runtime.getRuntime().availableProcessors());
+
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            long ts = System.nanoTime();
+            for (MetaData metaData : metaDataList) {
+                new AppendOnlyDataStore(storageDirPath, metaData);
+            }
+            long sequential = System.nanoTime() - ts;
+
+            Storage storage = new Storage(appDirPath);
+            ts = System.nanoTime();
+            storage.loadStores(List.of(), List.of(), metaDataList).join();
+            long parallel = System.nanoTime() - ts;
+            storage.shutdown();
+
+            System.out.printf("Sequential %d ms, parallel %d ms%n", sequential / 1_000_000, parallel / 1_000_000);
+        }
+        FileUtils.deleteDirectory(new File(appDirPath));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.data.storage;
+
+import misq.common.util.FileUtils;
+import misq.common.util.OsUtils;
+import misq.p2p.data.storage.append.AppendOnlyDataStore;
+import misq.p2p.data.storage.append.MockAppendOnlyData;
+import misq.p2p.data.storage.mailbox.MailboxDataStore;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StorageTest {
+    private final String appDirPath = OsUtils.getUserDataDir() + File.separator + "misq_StorageLoadingTest";
+
+    @Test
+    public void testStoresAreCreatedOnce() throws Exception {
+        FileUtils.deleteDirectory(new File(appDirPath));
+        Storage storage = new Storage(appDirPath);
+        List<MetaData> appendOnlyMetaData = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            appendOnlyMetaData.add(new MetaData(251, "MockAppendOnlyData" + i));
+        }
+        MetaData mailboxMetaData = new MetaData(TimeUnit.DAYS.toMillis(10), 1000, "MockMailboxMessage");
+
+        CompletableFuture<Void> loaded = storage.loadStores(List.of(), List.of(mailboxMetaData), appendOnlyMetaData);
+        List<CompletableFuture<AppendOnlyDataStore>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(CompletableFuture.supplyAsync(() -> storage.getAppendOnlyDataStoreAsync(appendOnlyMetaData.get(0)))
+                    .thenCompose(future -> future));
+        }
+        loaded.get(10, TimeUnit.SECONDS);
+
+        AppendOnlyDataStore store = storage.getAppendOnlyDataStore(appendOnlyMetaData.get(0));
+        for (CompletableFuture<AppendOnlyDataStore> future : futures) {
+            assertSame(store, future.get(10, TimeUnit.SECONDS));
+        }
+        assertTrue(store.append(new MockAppendOnlyData("test")));
+        MailboxDataStore mailboxStore = storage.getMailboxStoreAsync(mailboxMetaData).get(10, TimeUnit.SECONDS);
+        assertSame(mailboxStore, storage.getMailboxStore(mailboxMetaData));
+        storage.shutdown();
+    }
+
+    @Test
+    public void testRejectedLoadIsNotCached() throws Exception {
+        Storage storage = new Storage(appDirPath);
+        storage.shutdown();
+        MetaData metaData = new MetaData(251, "MockAppendOnlyData");
+        try {
+            storage.getAppendOnlyDataStoreAsync(metaData).get(10, TimeUnit.SECONDS);
+            fail("Expected loading to fail after shutdown");
+        } catch (ExecutionException expected) {
+        }
+        assertTrue(storage.appendOnlyDataStores.isEmpty());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.data.storage.append;
+
+import com.google.common.base.Strings;
+import misq.common.persistence.Persistence;
+import misq.common.security.DigestUtil;
+import misq.common.util.FileUtils;
+import misq.common.util.OsUtils;
+import misq.p2p.data.storage.MapKey;
+import misq.p2p.data.storage.Storage;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares startup time and retained heap of {@link AppendOnlyDataStore} and {@link MappedAppendOnlyDataStore} with
+ * NUM_ENTRIES entries of about 450 bytes each.
+ * <p>
+ * The history of the AppendOnlyDataStore is written with Persistence directly, as appending that many entries to it
+ * would rewrite the map at each append.
+ */
+public class MappedAppendOnlyDataStoreBenchmark {
+    private static final int NUM_ENTRIES = 30_000;
+    private static final int NUM_ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        String appDirPath = OsUtils.getUserDataDir() + File.separator + "misq_MappedAppendOnlyDataStoreBenchmark";
+        FileUtils.deleteDirectory(new File(appDirPath));
+        MockAppendOnlyData metaDataHolder = new MockAppendOnlyData("");
+
+        ConcurrentHashMap<MapKey, AppendOnlyData> map = new ConcurrentHashMap<>();
+        MappedAppendOnlyDataStore mappedStore = new MappedAppendOnlyDataStore(appDirPath, metaDataHolder.getMetaData());
+        long ts = System.nanoTime();
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            MockAppendOnlyData data = new MockAppendOnlyData(i + Strings.repeat("x", 400));
+            map.put(new MapKey(DigestUtil.hash(data.serialize())), data);
+            mappedStore.append(data);
+        }
+        System.out.printf("Appended %d entries to MappedAppendOnlyDataStore in %d ms%n",
+                NUM_ENTRIES, (System.nanoTime() - ts) / 1_000_000);
+        mappedStore.shutdown();
+        String storeDir = appDirPath + Storage.DIR + File.separator + "appendonly";
+        FileUtils.makeDirs(storeDir);
+        Persistence.write(map, storeDir + File.separator + metaDataHolder.getMetaData().getFileName());
+        map = null;
+
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            long heapBefore = getUsedHeap();
+            ts = System.nanoTime();
+            AppendOnlyDataStore store = new AppendOnlyDataStore(appDirPath, metaDataHolder.getMetaData());
+            long startupTime = System.nanoTime() - ts;
+            long heap = getUsedHeap() - heapBefore;
+            System.out.printf("AppendOnlyDataStore: %d entries, startup %d ms, heap %d kB%n",
+                    store.getMap().size(), startupTime / 1_000_000, heap / 1024);
+            store = null;
+
+            heapBefore = getUsedHeap();
+            ts = System.nanoTime();
+            mappedStore = new MappedAppendOnlyDataStore(appDirPath, metaDataHolder.getMetaData());
+            startupTime = System.nanoTime() - ts;
+            heap = getUsedHeap() - heapBefore;
+            System.out.printf("MappedAppendOnlyDataStore: %d entries, startup %d ms, heap %d kB%n",
+                    mappedStore.size(), startupTime / 1_000_000, heap / 1024);
+            mappedStore.shutdown();
+            mappedStore = null;
+        }
+        FileUtils.deleteDirectory(new File(appDirPath));
+    }
+
+    private static long getUsedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
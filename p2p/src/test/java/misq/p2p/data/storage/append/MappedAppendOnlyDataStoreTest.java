@@ -0,0 +1,110 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.data.storage.append;
+
+import misq.common.security.DigestUtil;
+import misq.common.util.FileUtils;
+import misq.common.util.OsUtils;
+import misq.p2p.data.storage.MapKey;
+import misq.p2p.data.storage.Storage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class MappedAppendOnlyDataStoreTest {
+    private final String appDirPath = OsUtils.getUserDataDir() + File.separator + "misq_MappedStorageTest";
+
+    @Before
+    public void setup() {
+        FileUtils.deleteDirectory(new File(appDirPath));
+    }
+
+    @Test
+    public void testAppendAndRecover() throws IOException {
+        MockAppendOnlyData data = new MockAppendOnlyData("test");
+        // Small segments, so the data is spread over several segments
+        MappedAppendOnlyDataStore store = new MappedAppendOnlyDataStore(appDirPath, data.getMetaData(), 4096);
+        List<MockAppendOnlyData> appended = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            data = new MockAppendOnlyData("test" + UUID.randomUUID().toString());
+            assertTrue(store.append(data));
+            appended.add(data);
+        }
+        assertFalse(store.append(data));
+        assertEquals(100, store.size());
+        assertEquals(data, store.find(getMapKey(data)).orElseThrow());
+        store.shutdown();
+
+        store = new MappedAppendOnlyDataStore(appDirPath, data.getMetaData(), 4096);
+        assertEquals(100, store.size());
+        for (MockAppendOnlyData expected : appended) {
+            assertEquals(expected, store.find(getMapKey(expected)).orElseThrow());
+        }
+        assertFalse(store.find(new MapKey(new byte[20])).isPresent());
+
+        MockAppendOnlyData newData = new MockAppendOnlyData("test" + UUID.randomUUID().toString());
+        assertTrue(store.append(newData));
+        assertEquals(newData, store.find(getMapKey(newData)).orElseThrow());
+        store.shutdown();
+    }
+
+    @Test
+    public void testIncompleteRecordGetsTruncated() throws IOException {
+        MockAppendOnlyData data1 = new MockAppendOnlyData("test1");
+        MockAppendOnlyData data2 = new MockAppendOnlyData("test2");
+        MappedAppendOnlyDataStore store = new MappedAppendOnlyDataStore(appDirPath, data1.getMetaData());
+        assertTrue(store.append(data1));
+        assertTrue(store.append(data2));
+        store.shutdown();
+
+        // Corrupt the last byte of the second record, as if the write had been interrupted
+        int recordSize = MappedSegment.getRecordSize(getMapKey(data1).getHash(), data1.serialize());
+        int lastByteOfRecord2 = recordSize + MappedSegment.getRecordSize(getMapKey(data2).getHash(), data2.serialize()) - 1;
+        String segmentPath = appDirPath + Storage.DIR + File.separator + "mappedappendonly" + File.separator +
+                data1.getMetaData().getFileName() + ".0.seg";
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath, "rw")) {
+            file.seek(lastByteOfRecord2);
+            int lastByte = file.read();
+            file.seek(lastByteOfRecord2);
+            file.write(lastByte ^ 0xFF);
+        }
+
+        store = new MappedAppendOnlyDataStore(appDirPath, data1.getMetaData());
+        assertEquals(1, store.size());
+        assertEquals(data1, store.find(getMapKey(data1)).orElseThrow());
+        assertTrue(store.append(data2));
+        store.shutdown();
+
+        store = new MappedAppendOnlyDataStore(appDirPath, data1.getMetaData());
+        assertEquals(2, store.size());
+        assertEquals(data2, store.find(getMapKey(data2)).orElseThrow());
+        store.shutdown();
+    }
+
+    private static MapKey getMapKey(MockAppendOnlyData data) {
+        return new MapKey(DigestUtil.hash(data.serialize()));
+    }
+}
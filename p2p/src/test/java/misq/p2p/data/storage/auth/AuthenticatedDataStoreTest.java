@@ -22,11 +22,14 @@ import lombok.extern.slf4j.Slf4j;
 import misq.common.ObjectSerializer;
 import misq.common.security.DigestUtil;
 import misq.common.security.KeyGeneration;
+import misq.common.util.FileUtils;
 import misq.common.util.OsUtils;
 import misq.p2p.data.filter.FilterItem;
 import misq.p2p.data.filter.ProtectedDataFilter;
 import misq.p2p.data.inventory.Inventory;
 import misq.p2p.data.storage.MapKey;
+import misq.p2p.data.storage.MetaData;
+import misq.p2p.data.storage.TombstoneStats;
 import misq.p2p.data.storage.Util;
 import org.junit.Test;
 
@@ -184,6 +187,98 @@ public class AuthenticatedDataStoreTest {
         assertEquals(initialMapSize, inventory.getEntries().size());
     }
 
+    @Test
+    public void testExpiry() throws GeneralSecurityException, IOException {
+        String expiryAppDirPath = appDirPath + "_expiry";
+        FileUtils.deleteDirectory(new File(expiryAppDirPath));
+        MockAuthenticatedPayload data = new MockAuthenticatedPayload("test");
+        AuthenticatedDataStore store = new AuthenticatedDataStore(expiryAppDirPath, data.getMetaData());
+        List<AuthenticatedPayload> expired = new ArrayList<>();
+        store.addListener(new AuthenticatedDataStore.Listener() {
+            @Override
+            public void onAdded(AuthenticatedPayload authenticatedPayload) {
+            }
+
+            @Override
+            public void onRemoved(AuthenticatedPayload authenticatedPayload) {
+            }
+
+            @Override
+            public void onExpired(List<AuthenticatedPayload> authenticatedPayloads) {
+                expired.addAll(authenticatedPayloads);
+            }
+        });
+        KeyPair keyPair = KeyGeneration.generateKeyPair();
+        for (int i = 0; i < 10; i++) {
+            data = new MockAuthenticatedPayload("test" + i);
+            assertTrue(store.add(AddAuthenticatedDataRequest.from(store, data, keyPair)).isSuccess());
+        }
+        long ttl = data.getMetaData().getTtl();
+        long now = System.currentTimeMillis();
+
+        store.removeExpired(now + ttl / 2);
+        assertEquals(10, store.getMap().size());
+        assertTrue(expired.isEmpty());
+
+        store.removeExpired(now + ttl + 2000);
+        assertEquals(0, store.getMap().size());
+        assertEquals(10, expired.size());
+        store.shutdown();
+
+        // Removal got persisted
+        store = new AuthenticatedDataStore(expiryAppDirPath, data.getMetaData());
+        assertEquals(0, store.getMap().size());
+        store.shutdown();
+    }
+
+    @Test
+    public void testTombstoneCompaction() throws GeneralSecurityException, IOException {
+        String tombstoneAppDirPath = appDirPath + "_tombstones";
+        FileUtils.deleteDirectory(new File(tombstoneAppDirPath));
+        MockAuthenticatedPayload data = new MockAuthenticatedPayload("test");
+        AuthenticatedDataStore store = new AuthenticatedDataStore(tombstoneAppDirPath, data.getMetaData());
+        KeyPair keyPair = KeyGeneration.generateKeyPair();
+        assertTrue(store.add(AddAuthenticatedDataRequest.from(store, data, keyPair)).isSuccess());
+        RemoveRequest removeRequest = RemoveRequest.from(store, data, keyPair);
+        assertTrue(store.remove(removeRequest).isSuccess());
+        TombstoneStats tombstoneStats = store.getTombstoneStats();
+        assertEquals(1, tombstoneStats.getNumTombstones());
+        long numBytes = tombstoneStats.getNumBytes();
+        assertTrue(numBytes > 0);
+
+        // Repeated tombstone does not replace the one with the same sequence number
+        assertFalse(store.remove(removeRequest).isSuccess());
+        assertSame(removeRequest, store.getMap().get(new MapKey(removeRequest.getHash())));
+        assertEquals(numBytes, tombstoneStats.getNumBytes());
+
+        // Tombstone for an entry we have not seen
+        MockAuthenticatedPayload unknownData = new MockAuthenticatedPayload("unknown");
+        assertFalse(store.remove(RemoveRequest.from(store, unknownData, keyPair)).isSuccess());
+        assertEquals(2, tombstoneStats.getNumTombstones());
+
+        // Meta data of a remove request is not covered by the signature, so its TTL is not used for the tombstone
+        MockAuthenticatedPayload otherData = new MockAuthenticatedPayload("other");
+        RemoveRequest signedRemoveRequest = RemoveRequest.from(store, otherData, keyPair);
+        MetaData forgedMetaData = new MetaData(1, data.getMetaData().getMaxSizeInBytes(), data.getMetaData().getFileName());
+        RemoveRequest forgedRemoveRequest = new RemoveRequest(forgedMetaData,
+                signedRemoveRequest.getHash(),
+                keyPair.getPublic(),
+                signedRemoveRequest.getSequenceNumber(),
+                signedRemoveRequest.getSignature());
+        assertFalse(store.remove(forgedRemoveRequest).isSuccess());
+        assertEquals(3, tombstoneStats.getNumTombstones());
+
+        // Tombstones expire with the TTL of the data type
+        long now = System.currentTimeMillis();
+        store.removeExpired(now + data.getMetaData().getTtl() / 2);
+        assertEquals(3, tombstoneStats.getNumTombstones());
+        store.removeExpired(now + data.getMetaData().getTtl() + 2000);
+        assertEquals(0, tombstoneStats.getNumTombstones());
+        assertEquals(0, tombstoneStats.getNumBytes());
+        assertTrue(store.getMap().isEmpty());
+        store.shutdown();
+    }
+
     @Test
     public void testGetInv() throws GeneralSecurityException, IOException {
         MockAuthenticatedPayload data = new MockAuthenticatedPayload("test");
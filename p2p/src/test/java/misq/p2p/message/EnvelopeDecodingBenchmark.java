@@ -0,0 +1,118 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.message;
+
+import misq.common.ObjectSerializer;
+import misq.common.security.DigestUtil;
+import misq.p2p.node.protection.AccessToken;
+import misq.p2p.node.protection.GuardedMessage;
+import misq.p2p.router.gossip.GossipMessage;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Measures the decode time saved by {@link Envelope} on a synthetic gossip heavy workload: each gossip message is
+ * received from FANOUT peers, so most received messages are duplicates. Every RATE_LIMITED_INTERVAL-th received
+ * message gets rejected by the rate limit.
+ * <p>
+ * The eager run decodes each received message completely before the filters are applied, like the reader thread did
+ * before. The lazy run applies the filters based on the envelope headers and only decodes what passes them. Both runs
+ * start from the received bytes.
+ */
+public class EnvelopeDecodingBenchmark {
+    private static final int NUM_MESSAGES = 2_000;
+    private static final int FANOUT = 4;
+    private static final int RATE_LIMITED_INTERVAL = 10;
+    private static final int NUM_ROUNDS = 5;
+
+    // Object graph similar to authenticated data: metadata, nested entries and signatures
+    private static class MockGossipPayload implements Message {
+        private final String id;
+        private final Map<String, String> properties = new HashMap<>();
+        private final List<byte[]> signatures = new ArrayList<>();
+        private final List<MockGossipPayload> children = new ArrayList<>();
+
+        private MockGossipPayload(String id, int depth) {
+            this.id = id;
+            for (int i = 0; i < 10; i++) {
+                properties.put("key" + i, id + "-value" + i);
+            }
+            signatures.add(DigestUtil.sha256(id.getBytes()));
+            if (depth > 0) {
+                for (int i = 0; i < 3; i++) {
+                    children.add(new MockGossipPayload(id + "." + i, depth - 1));
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        List<byte[]> received = new ArrayList<>();
+        for (int i = 0; i < NUM_MESSAGES; i++) {
+            GossipMessage gossipMessage = new GossipMessage(new MockGossipPayload("msg" + i, 1));
+            byte[] bytes = new GuardedMessage(gossipMessage, new AccessToken()).serialize();
+            for (int j = 0; j < FANOUT; j++) {
+                received.add(bytes);
+            }
+        }
+        Collections.shuffle(received, new Random(1));
+        System.out.printf("messages=%d received=%d size=%d bytes%n", NUM_MESSAGES, received.size(), received.get(0).length);
+
+        double eagerUs = 0, lazyUs = 0;
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            // The first round is the warmup
+            double eager = run(received, true);
+            double lazy = run(received, false);
+            if (round > 0) {
+                eagerUs += eager / (NUM_ROUNDS - 1);
+                lazyUs += lazy / (NUM_ROUNDS - 1);
+            }
+        }
+        System.out.printf("eager: %.2f us/message, lazy: %.2f us/message, saved: %.2f us/message (%.0f%%)%n",
+                eagerUs, lazyUs, eagerUs - lazyUs, 100 * (eagerUs - lazyUs) / eagerUs);
+    }
+
+    private static double run(List<byte[]> received, boolean decodeEagerly) {
+        Set<ByteBuffer> seen = new HashSet<>();
+        int numDelivered = 0;
+        long ts = System.nanoTime();
+        for (int i = 0; i < received.size(); i++) {
+            GuardedMessage guardedMessage = (GuardedMessage) ObjectSerializer.deserialize(received.get(i));
+            if (decodeEagerly) {
+                ((GossipMessage) guardedMessage.getPayload()).getMessage();
+            }
+            if (i % RATE_LIMITED_INTERVAL == 0) {
+                continue;
+            }
+            GossipMessage gossipMessage = (GossipMessage) guardedMessage.getPayload();
+            Envelope envelope = gossipMessage.getEnvelope();
+            if (!seen.add(ByteBuffer.wrap(DigestUtil.sha256(envelope.getSerializedPayload())))) {
+                continue;
+            }
+            if (gossipMessage.getMessage() != null) {
+                numDelivered++;
+            }
+        }
+        long elapsed = System.nanoTime() - ts;
+        if (numDelivered > NUM_MESSAGES) {
+            throw new IllegalStateException("Duplicates have been delivered");
+        }
+        return elapsed / 1000d / received.size();
+    }
+}
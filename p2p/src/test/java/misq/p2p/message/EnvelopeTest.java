@@ -0,0 +1,91 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.message;
+
+import misq.common.ObjectSerializer;
+import misq.p2p.MockMessage;
+import misq.p2p.node.protection.AccessToken;
+import misq.p2p.node.protection.GuardedMessage;
+import misq.p2p.router.gossip.GossipMessage;
+import org.junit.Test;
+
+import java.io.UncheckedIOException;
+
+import static org.junit.Assert.*;
+
+public class EnvelopeTest {
+    @Test
+    public void testPayloadIsDecodedOnDemand() {
+        GossipMessage gossipMessage = new GossipMessage(new MockMessage("msg"));
+        GuardedMessage guardedMessage = new GuardedMessage(gossipMessage, new AccessToken());
+
+        GuardedMessage received = (GuardedMessage) ObjectSerializer.deserialize(guardedMessage.serialize());
+        Envelope envelope = received.getEnvelope();
+        assertFalse(envelope.isDecoded());
+        assertEquals(GossipMessage.class.getName(), envelope.getPayloadClassName());
+        assertEquals(GossipMessage.class, envelope.findPayloadClass().orElseThrow());
+        assertEquals(MessagePriority.GOSSIP, received.getPriority());
+        assertFalse(envelope.findCorrelationId().isPresent());
+        assertEquals(guardedMessage, received);
+
+        GossipMessage receivedGossipMessage = (GossipMessage) received.getPayload();
+        assertTrue(envelope.isDecoded());
+        assertSame(receivedGossipMessage, received.getPayload());
+        // The nested message stays encoded until accessed
+        assertFalse(receivedGossipMessage.getEnvelope().isDecoded());
+        assertEquals(new MockMessage("msg"), receivedGossipMessage.getMessage());
+    }
+
+    @Test
+    public void testCorrelationId() {
+        Request request = () -> 42;
+        Response response = () -> 43;
+        assertEquals(42, (int) new Envelope(request).findCorrelationId().orElseThrow());
+        assertEquals(43, (int) new Envelope(response).findCorrelationId().orElseThrow());
+    }
+
+    @Test
+    public void testUnknownType() {
+        Envelope envelope = new Envelope("misq.p2p.message.Unknown", MessagePriority.GOSSIP, null,
+                new MockMessage("msg").serialize());
+        assertFalse(envelope.findPayloadClass().isPresent());
+
+        envelope = new Envelope(String.class.getName(), MessagePriority.GOSSIP, null, new MockMessage("msg").serialize());
+        assertFalse(envelope.findPayloadClass().isPresent());
+    }
+
+    @Test
+    public void testInvalidPayloadFailsDecoding() {
+        // Payload of another type than declared in the header
+        assertDecodingFails(new Envelope(GossipMessage.class.getName(), MessagePriority.GOSSIP, null,
+                new MockMessage("msg").serialize()));
+        assertDecodingFails(new Envelope(MockMessage.class.getName(), MessagePriority.GOSSIP, null, new byte[]{1, 2, 3}));
+        // Serialized null
+        assertDecodingFails(new Envelope(MockMessage.class.getName(), MessagePriority.GOSSIP, null,
+                ObjectSerializer.serialize(null)));
+    }
+
+    private static void assertDecodingFails(Envelope envelope) {
+        try {
+            envelope.getPayload();
+            fail("Expected decoding to fail");
+        } catch (UncheckedIOException expected) {
+        }
+        assertFalse(envelope.isDecoded());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node;
+
+import misq.p2p.Address;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ConnectionFailureCacheTest {
+    private static final Address ADDRESS = Address.localHost(1000);
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    @Test
+    public void testBackoffDoublesWithConsecutiveFailures() {
+        // Jitter is 0 if nextDouble returns 0.5
+        ConnectionFailureCache cache = new ConnectionFailureCache(now::get, createRandom(0.5));
+        assertFalse(cache.find(ADDRESS).isPresent());
+
+        cache.onFailure(ADDRESS);
+        assertEquals(now.get() + ConnectionFailureCache.INITIAL_BACKOFF_MS, cache.find(ADDRESS).get().getBackoffUntil());
+        assertTrue(cache.findBackoff(ADDRESS).isPresent());
+
+        now.addAndGet(ConnectionFailureCache.INITIAL_BACKOFF_MS);
+        assertFalse(cache.findBackoff(ADDRESS).isPresent());
+        cache.onFailure(ADDRESS);
+        assertEquals(now.get() + 2 * ConnectionFailureCache.INITIAL_BACKOFF_MS,
+                cache.find(ADDRESS).get().getBackoffUntil());
+
+        for (int i = 0; i < 40; i++) {
+            cache.onFailure(ADDRESS);
+        }
+        ConnectionFailureStats stats = cache.find(ADDRESS).get();
+        assertEquals(now.get() + ConnectionFailureCache.MAX_BACKOFF_MS, stats.getBackoffUntil());
+        assertEquals(42, stats.getNumConsecutiveFailures());
+        assertEquals(42, stats.getNumFailures());
+        assertEquals(now.get(), stats.getLastFailureTime());
+    }
+
+    @Test
+    public void testSuccessResetsBackoff() {
+        ConnectionFailureCache cache = new ConnectionFailureCache(now::get, createRandom(0.5));
+        cache.onFailure(ADDRESS);
+        cache.onFailure(ADDRESS);
+        cache.onSuccess(ADDRESS);
+        assertFalse(cache.findBackoff(ADDRESS).isPresent());
+        assertEquals(0, cache.find(ADDRESS).get().getNumConsecutiveFailures());
+        assertEquals(2, cache.find(ADDRESS).get().getNumFailures());
+
+        cache.onFailure(ADDRESS);
+        assertEquals(now.get() + ConnectionFailureCache.INITIAL_BACKOFF_MS, cache.find(ADDRESS).get().getBackoffUntil());
+    }
+
+    @Test
+    public void testJitter() {
+        ConnectionFailureCache cache = new ConnectionFailureCache(now::get, createRandom(0));
+        cache.onFailure(ADDRESS);
+        assertEquals(now.get() + ConnectionFailureCache.INITIAL_BACKOFF_MS * 3 / 4,
+                cache.find(ADDRESS).get().getBackoffUntil());
+    }
+
+    @Test
+    public void testNumEntriesIsBoundedIfAllAreInBackoff() {
+        ConnectionFailureCache cache = new ConnectionFailureCache(now::get, createRandom(0.5));
+        for (int port = 1; port <= ConnectionFailureCache.MAX_ENTRIES + 1; port++) {
+            cache.onFailure(Address.localHost(port));
+            now.incrementAndGet();
+        }
+        // All entries are in backoff, so the ones with the earliest end of backoff got evicted
+        assertTrue(cache.size() <= ConnectionFailureCache.MAX_ENTRIES);
+        assertFalse(cache.find(Address.localHost(1)).isPresent());
+        assertTrue(cache.findBackoff(Address.localHost(ConnectionFailureCache.MAX_ENTRIES + 1)).isPresent());
+    }
+
+    private static Random createRandom(double value) {
+        return new Random() {
+            @Override
+            public double nextDouble() {
+                return value;
+            }
+        };
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+package misq.p2p.node;
+
+import misq.p2p.Address;
+import misq.p2p.NetworkType;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.node.capability.Capability;
+import misq.p2p.node.connection.InboundConnection;
+import misq.p2p.node.connection.OutboundConnection;
+import misq.p2p.node.connection.RawConnection;
+import misq.p2p.node.connection.Transport;
+import misq.p2p.node.connection.WriteStats;
+import misq.p2p.node.connection.frame.Frame;
+import misq.p2p.node.proxy.GetServerSocketResult;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class ConnectionIndexTest {
+    private static final Address MY_ADDRESS = Address.localHost(1000);
+    // Lower than MY_ADDRESS, so our inbound connection is preferred over our outbound connection
+    private static final Address LOWER_PEER_ADDRESS = new Address("10.0.0.1", 1000);
+    // Higher than MY_ADDRESS, so our outbound connection is preferred over our inbound connection
+    private static final Address HIGHER_PEER_ADDRESS = Address.localHost(2000);
+
+    private final ConnectionIndex connectionIndex = new ConnectionIndex();
+    private final List<Connection> duplicates = new ArrayList<>();
+
+    @Test
+    public void testAddAndRemove() {
+        Connection connection = createOutboundConnection(HIGHER_PEER_ADDRESS);
+        assertSame(connection, add(connection));
+        assertSame(connection, connectionIndex.findById(connection.getId()).get());
+        assertSame(connection, connectionIndex.findByPeerAddress(HIGHER_PEER_ADDRESS).get());
+        assertEquals(1, connectionIndex.size());
+
+        assertSame(connection, connectionIndex.remove(connection.getId()).get());
+        assertFalse(connectionIndex.findById(connection.getId()).isPresent());
+        assertFalse(connectionIndex.findByPeerAddress(HIGHER_PEER_ADDRESS).isPresent());
+        assertEquals(0, connectionIndex.size());
+        assertTrue(connectionIndex.getAll().isEmpty());
+
+        // A second disconnect of the same connection has no effect
+        assertFalse(connectionIndex.remove(connection.getId()).isPresent());
+        assertTrue(duplicates.isEmpty());
+    }
+
+    @Test
+    public void testDuplicatePairUsesConnectionInitiatedByLowerAddress() {
+        Connection outbound = createOutboundConnection(HIGHER_PEER_ADDRESS);
+        Connection inbound = createVerifiedInboundConnection(HIGHER_PEER_ADDRESS);
+        add(outbound);
+        assertSame(outbound, add(inbound));
+        assertEquals(List.of(inbound), duplicates);
+        assertSame(outbound, connectionIndex.findByPeerAddress(HIGHER_PEER_ADDRESS).get());
+
+        duplicates.clear();
+        outbound = createOutboundConnection(LOWER_PEER_ADDRESS);
+        inbound = createVerifiedInboundConnection(LOWER_PEER_ADDRESS);
+        add(outbound);
+        assertSame(inbound, add(inbound));
+        assertEquals(List.of(outbound), duplicates);
+        assertSame(inbound, connectionIndex.findByPeerAddress(LOWER_PEER_ADDRESS).get());
+        assertEquals(4, connectionIndex.size());
+    }
+
+    @Test
+    public void testReplaceByNewOutboundConnection() {
+        Connection oldConnection = createOutboundConnection(HIGHER_PEER_ADDRESS);
+        Connection newConnection = createOutboundConnection(HIGHER_PEER_ADDRESS);
+        add(oldConnection);
+        // We have reconnected before we detected that the old connection got closed
+        assertSame(newConnection, add(newConnection));
+        assertSame(newConnection, connectionIndex.findByPeerAddress(HIGHER_PEER_ADDRESS).get());
+        assertTrue(duplicates.isEmpty());
+
+        // Disconnect of the old connection does not remove the new one
+        connectionIndex.remove(oldConnection.getId());
+        assertFalse(connectionIndex.findById(oldConnection.getId()).isPresent());
+        assertSame(newConnection, connectionIndex.findByPeerAddress(HIGHER_PEER_ADDRESS).get());
+        assertEquals(1, connectionIndex.size());
+    }
+
+    @Test
+    public void testFallbackToRemainingConnectionAfterDisconnect() {
+        Connection outbound = createOutboundConnection(HIGHER_PEER_ADDRESS);
+        Connection inbound = createVerifiedInboundConnection(HIGHER_PEER_ADDRESS);
+        add(outbound);
+        add(inbound);
+
+        // The peer has not closed the duplicate yet, so we use it after the preferred connection got closed
+        connectionIndex.remove(outbound.getId());
+        assertFalse(connectionIndex.findById(outbound.getId()).isPresent());
+        assertSame(inbound, connectionIndex.findById(inbound.getId()).get());
+        assertSame(inbound, connectionIndex.findByPeerAddress(HIGHER_PEER_ADDRESS).get());
+
+        connectionIndex.remove(inbound.getId());
+        assertFalse(connectionIndex.findByPeerAddress(HIGHER_PEER_ADDRESS).isPresent());
+        assertEquals(0, connectionIndex.size());
+    }
+
+    @Test
+    public void testUnverifiedInboundConnectionIsNotUsedForSending() {
+        Connection outbound = createOutboundConnection(LOWER_PEER_ADDRESS);
+        add(outbound);
+        // Would be preferred over the outbound connection if the peer had proven its address
+        Connection inbound = createInboundConnection(LOWER_PEER_ADDRESS);
+        add(inbound);
+        assertSame(inbound, connectionIndex.findById(inbound.getId()).get());
+        assertSame(outbound, connectionIndex.findByPeerAddress(LOWER_PEER_ADDRESS).get());
+        assertTrue(duplicates.isEmpty());
+
+        assertTrue(connectionIndex.setAddressVerified(inbound.getId(), MY_ADDRESS, duplicates::add));
+        assertTrue(inbound.isAddressVerified());
+        assertSame(inbound, connectionIndex.findByPeerAddress(LOWER_PEER_ADDRESS).get());
+        assertEquals(List.of(outbound), duplicates);
+
+        // Unknown connection
+        connectionIndex.remove(inbound.getId());
+        assertFalse(connectionIndex.setAddressVerified(inbound.getId(), MY_ADDRESS, duplicates::add));
+    }
+
+    @Test
+    public void testNoFallbackToUnverifiedInboundConnection() {
+        Connection outbound = createOutboundConnection(HIGHER_PEER_ADDRESS);
+        Connection inbound = createInboundConnection(HIGHER_PEER_ADDRESS);
+        add(outbound);
+        add(inbound);
+
+        connectionIndex.remove(outbound.getId());
+        assertFalse(connectionIndex.findByPeerAddress(HIGHER_PEER_ADDRESS).isPresent());
+        assertSame(inbound, connectionIndex.findById(inbound.getId()).get());
+    }
+
+    @Test
+    public void testNewInboundConnectionDoesNotReplaceExistingOne() {
+        Connection oldConnection = createVerifiedInboundConnection(HIGHER_PEER_ADDRESS);
+        Connection newConnection = createVerifiedInboundConnection(HIGHER_PEER_ADDRESS);
+        add(oldConnection);
+        assertSame(oldConnection, add(newConnection));
+        assertSame(oldConnection, connectionIndex.findByPeerAddress(HIGHER_PEER_ADDRESS).get());
+        assertTrue(duplicates.isEmpty());
+
+        // Once the old connection is closed we use the new one
+        connectionIndex.remove(oldConnection.getId());
+        assertSame(newConnection, connectionIndex.findByPeerAddress(HIGHER_PEER_ADDRESS).get());
+    }
+
+    @Test
+    public void testClear() {
+        add(createOutboundConnection(HIGHER_PEER_ADDRESS));
+        add(createOutboundConnection(LOWER_PEER_ADDRESS));
+        connectionIndex.clear();
+        assertEquals(0, connectionIndex.size());
+        assertFalse(connectionIndex.findByPeerAddress(HIGHER_PEER_ADDRESS).isPresent());
+        assertFalse(connectionIndex.findByPeerAddress(LOWER_PEER_ADDRESS).isPresent());
+    }
+
+    private Connection add(Connection connection) {
+        return connectionIndex.add(connection, MY_ADDRESS, duplicates::add);
+    }
+
+    private static Connection createOutboundConnection(Address peerAddress) {
+        return createConnection(new OutboundConnection(new NoopTransport(), peerAddress), peerAddress);
+    }
+
+    private static Connection createInboundConnection(Address peerAddress) {
+        GetServerSocketResult getServerSocketResult = new GetServerSocketResult("test", null, MY_ADDRESS);
+        return createConnection(new InboundConnection(new NoopTransport(), getServerSocketResult), peerAddress);
+    }
+
+    private static Connection createVerifiedInboundConnection(Address peerAddress) {
+        Connection connection = createInboundConnection(peerAddress);
+        connection.setAddressVerified();
+        return connection;
+    }
+
+    // The peer address of a connection is the one announced in the capability
+    private static Connection createConnection(RawConnection rawConnection, Address peerAddress) {
+        Capability capability = new Capability(peerAddress, EnumSet.of(NetworkType.CLEAR));
+        return new Connection(rawConnection, NetworkType.CLEAR, "test", capability);
+    }
+
+    private static class NoopTransport implements Transport {
+        @Override
+        public void start(String name, FrameHandler frameHandler, Consumer<Exception> errorHandler) {
+        }
+
+        @Override
+        public CompletableFuture<Void> write(Frame frame, MessagePriority priority) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public WriteStats getWriteStats() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
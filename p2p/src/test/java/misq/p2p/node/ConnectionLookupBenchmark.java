@@ -0,0 +1,120 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node;
+
+import misq.p2p.Address;
+import misq.p2p.NetworkType;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.node.capability.Capability;
+import misq.p2p.node.connection.OutboundConnection;
+import misq.p2p.node.connection.Transport;
+import misq.p2p.node.connection.WriteStats;
+import misq.p2p.node.connection.frame.Frame;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Measures the cost of looking up the connection to a peer address at the send path with 10, 1000 and 10000
+ * connections. Compares the lookup at the {@link ConnectionIndex} with the linear scan over all connections we used
+ * before.
+ * <p>
+ * JMH is not a dependency of the project, so we use warmup rounds and report the average of the measured rounds.
+ */
+public class ConnectionLookupBenchmark {
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int ROUNDS = 20;
+    private static final int LOOKUPS_PER_ROUND = 100_000;
+    private static final Address MY_ADDRESS = Address.localHost(1);
+
+    public static void main(String[] args) {
+        for (int numConnections : new int[]{10, 1000, 10000}) {
+            run(numConnections);
+        }
+    }
+
+    private static void run(int numConnections) {
+        ConnectionIndex connectionIndex = new ConnectionIndex();
+        List<Address> addresses = new ArrayList<>();
+        for (int i = 0; i < numConnections; i++) {
+            Address address = new Address("10.0." + (i / 256) + "." + (i % 256), 9999);
+            addresses.add(address);
+            Capability capability = new Capability(address, EnumSet.of(NetworkType.CLEAR));
+            Connection connection = new Connection(new OutboundConnection(new NoopTransport(), address),
+                    NetworkType.CLEAR, "benchmark", capability);
+            connectionIndex.add(connection, MY_ADDRESS, duplicate -> {
+            });
+        }
+
+        long indexNanos = measure(addresses, connectionIndex::findByPeerAddress);
+        long scanNanos = measure(addresses, address -> connectionIndex.getAll().stream()
+                .filter(c -> c.getPeerAddress().equals(address))
+                .findAny());
+        System.out.printf("connections=%5d index=%6d ns/lookup linearScan=%8d ns/lookup%n",
+                numConnections, indexNanos, scanNanos);
+    }
+
+    private static long measure(List<Address> addresses, Function<Address, Optional<Connection>> lookup) {
+        Random random = new Random(1);
+        int found = 0;
+        long totalNanos = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            // Fewer lookups for the slow case so that the benchmark finishes in reasonable time
+            int numLookups = Math.max(100, LOOKUPS_PER_ROUND / addresses.size() * 10);
+            long ts = System.nanoTime();
+            for (int i = 0; i < numLookups; i++) {
+                if (lookup.apply(addresses.get(random.nextInt(addresses.size()))).isPresent()) {
+                    found++;
+                }
+            }
+            if (round >= WARMUP_ROUNDS) {
+                totalNanos += (System.nanoTime() - ts) / numLookups;
+            }
+        }
+        if (found == 0) {
+            throw new IllegalStateException("No connection found");
+        }
+        return totalNanos / ROUNDS;
+    }
+
+    private static class NoopTransport implements Transport {
+        @Override
+        public void start(String name, FrameHandler frameHandler, Consumer<Exception> errorHandler) {
+        }
+
+        @Override
+        public CompletableFuture<Void> write(Frame frame, MessagePriority priority) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public WriteStats getWriteStats() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node;
+
+import misq.p2p.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConnectionReuseTest {
+    private Node alice, bob;
+    private Address aliceAddress, bobAddress;
+
+    @Before
+    public void setup() throws Exception {
+        aliceAddress = Address.localHost(4441);
+        bobAddress = Address.localHost(4442);
+        alice = Config.createNode("alice", aliceAddress.getPort());
+        bob = Config.createNode("bob", bobAddress.getPort());
+    }
+
+    @After
+    public void tearDown() {
+        alice.shutdown();
+        bob.shutdown();
+    }
+
+    @Test
+    public void testInboundConnectionIsReused() throws Exception {
+        CountDownLatch receivedLatch = new CountDownLatch(3);
+        alice.addMessageHandler(MockMessage.class, (message, connection) -> receivedLatch.countDown());
+        bob.addMessageHandler(MockMessage.class, (message, connection) -> receivedLatch.countDown());
+
+        Connection aliceToBob = alice.send(new MockMessage("ping"), bobAddress).get(10, TimeUnit.SECONDS);
+        assertTrue(aliceToBob.isOutbound());
+        // Alice has not proven her address yet, so bob does not send over the inbound connection
+        assertFalse(bob.findConnection(aliceAddress).isPresent());
+
+        // Bob connects to alice and issues an address token, which alice presents at her connection to bob
+        bob.send(new MockMessage("pong"), aliceAddress).get(10, TimeUnit.SECONDS);
+        Config.waitUntil(() -> bob.findConnection(aliceAddress).map(connection -> !connection.isOutbound()).orElse(false));
+        Connection bobToAlice = bob.findConnection(aliceAddress).orElseThrow();
+        assertTrue(bobToAlice.isAddressVerified());
+        assertEquals(bobToAlice.getId(), bob.send(new MockMessage("pong"), aliceAddress).get(10, TimeUnit.SECONDS).getId());
+        assertTrue(receivedLatch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testBothPeersKeepSameConnectionOfDuplicatePair() throws Exception {
+        CompletableFuture<Connection> aliceFuture = alice.send(new MockMessage("alice"), bobAddress);
+        CompletableFuture<Connection> bobFuture = bob.send(new MockMessage("bob"), aliceAddress);
+        CompletableFuture.allOf(aliceFuture, bobFuture).get(10, TimeUnit.SECONDS);
+
+        // The connection initiated by the lower address (alice) is kept at both sides. Bob uses it once alice has
+        // proven her address with the token bob has issued at his connection.
+        Config.waitUntil(() -> bob.findConnection(aliceAddress).map(connection -> !connection.isOutbound()).orElse(false));
+        Connection aliceToBob = alice.findConnection(bobAddress).orElseThrow();
+        Connection bobToAlice = bob.findConnection(aliceAddress).orElseThrow();
+        assertTrue(aliceToBob.isOutbound());
+        assertFalse(bobToAlice.isOutbound());
+    }
+}
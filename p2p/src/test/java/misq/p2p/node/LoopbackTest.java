@@ -0,0 +1,113 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node;
+
+import misq.p2p.*;
+import misq.p2p.message.Message;
+import misq.p2p.node.connection.LoopbackMode;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LoopbackTest {
+    private Node alice, bob;
+
+    @After
+    public void tearDown() {
+        alice.shutdown();
+        bob.shutdown();
+    }
+
+    @Test
+    public void testUnserialized() throws Exception {
+        Address bobAddress = Address.localHost(4481);
+        alice = Config.createNode("alice", 4480, Config.getDefaultClearNetPeerConfig(), false,
+                LoopbackMode.UNSERIALIZED);
+        bob = Config.createNode("bob", bobAddress.getPort(), Config.getDefaultClearNetPeerConfig(), false,
+                LoopbackMode.UNSERIALIZED);
+
+        MockMessage message = new MockMessage("msg");
+        Message received = sendAndReply(message, bobAddress);
+        // Message objects are handed over
+        assertSame(message, received);
+    }
+
+    @Test
+    public void testSerialized() throws Exception {
+        Address bobAddress = Address.localHost(4483);
+        alice = Config.createNode("alice", 4482, Config.getDefaultClearNetPeerConfig(), false,
+                LoopbackMode.SERIALIZED);
+        bob = Config.createNode("bob", bobAddress.getPort(), Config.getDefaultClearNetPeerConfig(), false,
+                LoopbackMode.SERIALIZED);
+
+        MockMessage message = new MockMessage("msg");
+        Message received = sendAndReply(message, bobAddress);
+        assertNotSame(message, received);
+        assertEquals(message, received);
+    }
+
+    @Test
+    public void testSocketIsUsedIfPeerHasLoopbackDisabled() throws Exception {
+        Address bobAddress = Address.localHost(4485);
+        alice = Config.createNode("alice", 4484, Config.getDefaultClearNetPeerConfig(), false,
+                LoopbackMode.UNSERIALIZED);
+        bob = Config.createNode("bob", bobAddress.getPort(), Config.getDefaultClearNetPeerConfig(), false,
+                LoopbackMode.DISABLED);
+
+        Connection connection = alice.send(new MockMessage("msg"), bobAddress).get(10, TimeUnit.SECONDS);
+        assertFalse(connection.getRawConnection().isLoopback());
+    }
+
+    // Returns the message received by bob after bob's reply has been received by alice
+    private Message sendAndReply(MockMessage message, Address bobAddress) throws Exception {
+        BlockingQueue<Message> receivedByBob = new LinkedBlockingQueue<>();
+        BlockingQueue<Message> receivedByAlice = new LinkedBlockingQueue<>();
+        bob.addMessageHandler(MockMessage.class, (msg, connection) -> {
+            receivedByBob.add(msg);
+            bob.send(new MockMessage("reply"), connection);
+        });
+        alice.addMessageHandler(MockMessage.class, (msg, connection) -> receivedByAlice.add(msg));
+
+        Connection connection = alice.send(message, bobAddress).get(10, TimeUnit.SECONDS);
+        assertTrue(connection.getRawConnection().isLoopback());
+        Message received = receivedByBob.poll(10, TimeUnit.SECONDS);
+        assertEquals(new MockMessage("reply"), receivedByAlice.poll(10, TimeUnit.SECONDS));
+
+        // Closing the connection lets bob detect the disconnect
+        CountDownLatch disconnectLatch = new CountDownLatch(1);
+        bob.addConnectionListener(new ConnectionListener() {
+            @Override
+            public void onConnection(Connection connection) {
+            }
+
+            @Override
+            public void onDisconnect(Connection connection) {
+                disconnectLatch.countDown();
+            }
+        });
+        alice.disconnect(connection);
+        assertTrue(disconnectLatch.await(10, TimeUnit.SECONDS));
+        return received;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node;
+
+import misq.p2p.Address;
+import misq.p2p.MockMessage;
+import misq.p2p.NetworkType;
+import misq.p2p.message.Message;
+import misq.p2p.node.capability.Capability;
+import misq.p2p.node.connection.OutboundConnection;
+import misq.p2p.node.connection.SocketTransport;
+import org.junit.Test;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class MessageDispatcherTest {
+    private static class TestMessage implements Message {
+    }
+
+    private static class SubTestMessage extends TestMessage {
+    }
+
+    @Test
+    public void testDispatchByClass() {
+        MessageDispatcher dispatcher = new MessageDispatcher();
+        Connection connection = createConnection(1000);
+        List<Message> mockMessages = new ArrayList<>();
+        List<Message> testMessages = new ArrayList<>();
+        List<Message> allMessages = new ArrayList<>();
+        dispatcher.addMessageHandler(MockMessage.class, (message, c) -> mockMessages.add(message));
+        dispatcher.addMessageHandler(TestMessage.class, (message, c) -> testMessages.add(message));
+        dispatcher.addMessageListener((message, c) -> allMessages.add(message));
+
+        dispatcher.dispatch(new MockMessage("test1"), connection);
+        dispatcher.dispatch(new TestMessage(), connection);
+        // Handlers of the superclass receive subclasses as well
+        dispatcher.dispatch(new SubTestMessage(), connection);
+
+        assertEquals(1, mockMessages.size());
+        assertEquals(2, testMessages.size());
+        assertEquals(3, allMessages.size());
+    }
+
+    @Test
+    public void testDispatchByConnection() {
+        MessageDispatcher dispatcher = new MessageDispatcher();
+        Connection connection1 = createConnection(1000);
+        Connection connection2 = createConnection(1001);
+        List<Message> messages = new ArrayList<>();
+        MessageDispatcher.MessageHandler<MockMessage> handler = (message, connection) -> messages.add(message);
+        dispatcher.addMessageHandler(MockMessage.class, connection1.getId(), handler);
+
+        dispatcher.dispatch(new MockMessage("test1"), connection2);
+        dispatcher.dispatch(new TestMessage(), connection1);
+        assertEquals(0, messages.size());
+
+        dispatcher.dispatch(new MockMessage("test1"), connection1);
+        assertEquals(1, messages.size());
+
+        dispatcher.removeMessageHandler(MockMessage.class, connection1.getId(), handler);
+        dispatcher.dispatch(new MockMessage("test1"), connection1);
+        assertEquals(1, messages.size());
+    }
+
+    @Test
+    public void testRemoveFromHandler() {
+        MessageDispatcher dispatcher = new MessageDispatcher();
+        Connection connection = createConnection(1000);
+        List<Message> messages = new ArrayList<>();
+        MessageDispatcher.MessageHandler<MockMessage> handler = new MessageDispatcher.MessageHandler<>() {
+            @Override
+            public void onMessage(MockMessage message, Connection connection) {
+                messages.add(message);
+                dispatcher.removeMessageHandler(MockMessage.class, this);
+            }
+        };
+        dispatcher.addMessageHandler(MockMessage.class, handler);
+
+        dispatcher.dispatch(new MockMessage("test1"), connection);
+        dispatcher.dispatch(new MockMessage("test2"), connection);
+        assertEquals(1, messages.size());
+    }
+
+    private static Connection createConnection(int port) {
+        Address address = Address.localHost(port);
+        OutboundConnection rawConnection = new OutboundConnection(new SocketTransport(new Socket()), address);
+        return new Connection(rawConnection,
+                NetworkType.CLEAR,
+                "node",
+                new Capability(address, EnumSet.of(NetworkType.CLEAR)));
+    }
+}
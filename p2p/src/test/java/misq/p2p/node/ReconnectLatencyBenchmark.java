@@ -0,0 +1,80 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node;
+
+import misq.p2p.*;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency from sending a message to a peer we are not connected to until the peer has received it.
+ * Compares a full capability handshake with a resumed session where we reconnect with a session ticket.
+ * <p>
+ * All nodes run on localhost, so the round trip we save with a session ticket is far below a millisecond. Over Tor
+ * the saved round trip is in the range of a second.
+ */
+public class ReconnectLatencyBenchmark {
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 100;
+    private static final int SERVER_PORT = 4461;
+    private static final int CLIENT_BASE_PORT = 4500;
+
+    public static void main(String[] args) throws Exception {
+        Address serverAddress = Address.localHost(SERVER_PORT);
+        Node server = Config.createNode("server", SERVER_PORT);
+        BlockingQueue<Long> receiveTimes = new LinkedBlockingQueue<>();
+        server.addMessageHandler(MockMessage.class, (message, connection) -> receiveTimes.add(System.nanoTime()));
+
+        // Full handshake: Each iteration uses a new node which has no session ticket
+        long totalNanos = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+            Node client = Config.createNode("client" + i, CLIENT_BASE_PORT + i);
+            long ts = System.nanoTime();
+            client.send(new MockMessage("ping"), serverAddress);
+            long latency = receiveTimes.poll(10, TimeUnit.SECONDS) - ts;
+            if (i >= WARMUP_ITERATIONS) {
+                totalNanos += latency;
+            }
+            client.shutdown();
+        }
+        long fullHandshakeMicros = totalNanos / ITERATIONS / 1000;
+
+        // Resumed session: The client reconnects with the session ticket from the first handshake
+        Node client = Config.createNode("client", CLIENT_BASE_PORT + WARMUP_ITERATIONS + ITERATIONS);
+        client.send(new MockMessage("ping"), serverAddress).get(10, TimeUnit.SECONDS);
+        receiveTimes.poll(10, TimeUnit.SECONDS);
+        totalNanos = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+            client.disconnect(client.findConnection(serverAddress).orElseThrow());
+            long ts = System.nanoTime();
+            client.send(new MockMessage("ping"), serverAddress);
+            long latency = receiveTimes.poll(10, TimeUnit.SECONDS) - ts;
+            if (i >= WARMUP_ITERATIONS) {
+                totalNanos += latency;
+            }
+        }
+        long resumedMicros = totalNanos / ITERATIONS / 1000;
+
+        System.out.printf("reconnect to first message: fullHandshake=%d us resumedSession=%d us%n",
+                fullHandshakeMicros, resumedMicros);
+        client.shutdown();
+        server.shutdown();
+    }
+}
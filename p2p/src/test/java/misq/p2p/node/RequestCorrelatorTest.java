@@ -0,0 +1,114 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node;
+
+import misq.p2p.message.Response;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class RequestCorrelatorTest {
+    private static class TestResponse implements Response {
+        private final int requestNonce;
+
+        private TestResponse(int requestNonce) {
+            this.requestNonce = requestNonce;
+        }
+
+        @Override
+        public int getRequestNonce() {
+            return requestNonce;
+        }
+    }
+
+    @Test
+    public void testResponse() throws Exception {
+        RequestCorrelator requestCorrelator = new RequestCorrelator();
+        CompletableFuture<TestResponse> future = requestCorrelator.register("connection1", 1, TestResponse.class, 10, TimeUnit.SECONDS);
+
+        // Response at other connection or with other nonce is not correlated
+        assertFalse(requestCorrelator.onResponse(new TestResponse(1), "connection2"));
+        assertFalse(requestCorrelator.onResponse(new TestResponse(2), "connection1"));
+        assertFalse(future.isDone());
+
+        TestResponse response = new TestResponse(1);
+        assertTrue(requestCorrelator.onResponse(response, "connection1"));
+        assertSame(response, future.get());
+        assertEquals(0, requestCorrelator.getNumPendingRequests());
+
+        // Duplicate response is discarded
+        assertFalse(requestCorrelator.onResponse(new TestResponse(1), "connection1"));
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        RequestCorrelator requestCorrelator = new RequestCorrelator();
+        List<CompletableFuture<TestResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(requestCorrelator.register("connection1", i, TestResponse.class, 10, TimeUnit.SECONDS));
+        }
+        assertTrue(requestCorrelator.register("connection1", 0, TestResponse.class, 10, TimeUnit.SECONDS)
+                .isCompletedExceptionally());
+
+        for (int i = 99; i >= 0; i--) {
+            assertTrue(requestCorrelator.onResponse(new TestResponse(i), "connection1"));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, futures.get(i).get().getRequestNonce());
+        }
+        assertEquals(0, requestCorrelator.getNumPendingRequests());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        RequestCorrelator requestCorrelator = new RequestCorrelator();
+        CompletableFuture<TestResponse> future = requestCorrelator.register("connection1", 1, TestResponse.class, 50, TimeUnit.MILLISECONDS);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected timeout");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, requestCorrelator.getNumPendingRequests());
+        // Late response is discarded
+        assertFalse(requestCorrelator.onResponse(new TestResponse(1), "connection1"));
+    }
+
+    @Test
+    public void testCancelAndFailAll() {
+        RequestCorrelator requestCorrelator = new RequestCorrelator();
+        CompletableFuture<TestResponse> future1 = requestCorrelator.register("connection1", 1, TestResponse.class, 10, TimeUnit.SECONDS);
+        CompletableFuture<TestResponse> future2 = requestCorrelator.register("connection1", 2, TestResponse.class, 10, TimeUnit.SECONDS);
+        CompletableFuture<TestResponse> future3 = requestCorrelator.register("connection2", 1, TestResponse.class, 10, TimeUnit.SECONDS);
+
+        future1.cancel(true);
+        assertEquals(2, requestCorrelator.getNumPendingRequests());
+
+        requestCorrelator.failAll("connection1", new Exception("closed"));
+        assertTrue(future2.isCompletedExceptionally());
+        assertFalse(future3.isDone());
+        assertEquals(1, requestCorrelator.getNumPendingRequests());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node;
+
+import misq.p2p.*;
+import misq.p2p.node.connection.LoopbackMode;
+import misq.p2p.node.connection.StreamMultiplexer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StreamMultiplexingTest {
+    private Node alice, bob;
+    private Address aliceAddress, bobAddress, bobOfferAddress;
+
+    @Before
+    public void setup() throws Exception {
+        aliceAddress = Address.localHost(4471);
+        bobAddress = Address.localHost(4472);
+        bobOfferAddress = Address.localHost(4473);
+        alice = Config.createNode("alice", aliceAddress.getPort(), Config.getDefaultClearNetPeerConfig(), true,
+                LoopbackMode.DISABLED);
+        bob = Config.createNode("bob", bobAddress.getPort(), Config.getDefaultClearNetPeerConfig(), true,
+                LoopbackMode.DISABLED);
+        // Second identity of bob
+        bob.initializeServer("offer", bobOfferAddress.getPort()).get(10, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        alice.shutdown();
+        bob.shutdown();
+    }
+
+    @Test
+    public void testIdentitiesOfPeerShareOneSocket() throws Exception {
+        Map<String, Connection> connectionByMessage = new ConcurrentHashMap<>();
+        CountDownLatch receivedLatch = new CountDownLatch(2);
+        bob.addMessageHandler(MockMessage.class, (message, connection) -> {
+            connectionByMessage.put(message.getMsg(), connection);
+            receivedLatch.countDown();
+        });
+        alice.addStreamRoute(bobOfferAddress, bobAddress);
+
+        Connection toBob = alice.send(new MockMessage("toBob"), bobAddress).get(10, TimeUnit.SECONDS);
+        Connection toBobOffer = alice.send(new MockMessage("toBobOffer"), bobOfferAddress).get(10, TimeUnit.SECONDS);
+        assertTrue(receivedLatch.await(10, TimeUnit.SECONDS));
+
+        assertNotEquals(toBob.getId(), toBobOffer.getId());
+        // The handshake of the stream is answered by bob's second identity
+        assertEquals(bobOfferAddress, toBobOffer.getPeerAddress());
+        StreamMultiplexer streamMultiplexer = toBob.getRawConnection().findStreamMultiplexer().orElseThrow();
+        assertEquals(1, streamMultiplexer.getNumStreams());
+        assertFalse(toBobOffer.getRawConnection().findStreamMultiplexer().isPresent());
+        assertEquals(aliceAddress, connectionByMessage.get("toBobOffer").getPeerAddress());
+
+        // Closing the socket closes the stream as well
+        CountDownLatch disconnectLatch = new CountDownLatch(2);
+        alice.addConnectionListener(new ConnectionListener() {
+            @Override
+            public void onConnection(Connection connection) {
+            }
+
+            @Override
+            public void onDisconnect(Connection connection) {
+                disconnectLatch.countDown();
+            }
+        });
+        alice.disconnect(toBob);
+        assertTrue(disconnectLatch.await(10, TimeUnit.SECONDS));
+        assertFalse(alice.findConnection(bobOfferAddress).isPresent());
+    }
+}
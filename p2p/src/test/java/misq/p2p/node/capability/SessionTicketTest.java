@@ -0,0 +1,152 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.capability;
+
+import com.google.common.base.Ticker;
+import misq.p2p.Address;
+import misq.p2p.NetworkType;
+import misq.p2p.node.RequestCorrelator;
+import misq.p2p.node.connection.InboundConnection;
+import misq.p2p.node.connection.LoopbackTransport;
+import misq.p2p.node.connection.OutboundConnection;
+import misq.p2p.node.connection.frame.CompressionCodec;
+import misq.p2p.node.proxy.GetServerSocketResult;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class SessionTicketTest {
+    private static final Address ALICE_ADDRESS = Address.localHost(1000);
+    private static final Address BOB_ADDRESS = Address.localHost(2000);
+    private static final Set<NetworkType> NETWORK_TYPES = EnumSet.of(NetworkType.CLEAR);
+    private static final Set<CompressionCodec> COMPRESSION_CODECS = EnumSet.allOf(CompressionCodec.class);
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+    // Alice connects to bob
+    private final SessionTicketStore aliceTickets = new SessionTicketStore(ticker);
+    private final SessionTicketStore bobTickets = new SessionTicketStore(ticker);
+    private final AddressTokenStore aliceTokens = new AddressTokenStore(address -> {
+    });
+    private final AddressTokenStore bobTokens = new AddressTokenStore(address -> {
+    });
+    private final RequestCorrelator requestCorrelator = new RequestCorrelator();
+    // Capabilities of alice as seen by bob
+    private final List<Capability> bobsResults = new CopyOnWriteArrayList<>();
+
+    @After
+    public void tearDown() {
+        requestCorrelator.shutdown();
+    }
+
+    @Test
+    public void testResumedSession() throws Exception {
+        Capability bobsCapability = handshake(null);
+        assertEquals(BOB_ADDRESS, bobsCapability.getAddress());
+        SessionTicketStore.SessionTicket ticket = aliceTickets.find(BOB_ADDRESS).orElseThrow();
+        assertEquals(bobsCapability, ticket.getCapability());
+
+        // Bob confirms the ticket, alice keeps it and uses the capability from the first handshake
+        assertEquals(bobsCapability, handshake(ticket));
+        assertSame(ticket, aliceTickets.find(BOB_ADDRESS).orElseThrow());
+        assertEquals(2, bobsResults.size());
+        assertEquals(bobsResults.get(0), bobsResults.get(1));
+    }
+
+    @Test
+    public void testExpiredTicketFallsBackToFullHandshake() throws Exception {
+        handshake(null);
+        SessionTicketStore.SessionTicket ticket = aliceTickets.find(BOB_ADDRESS).orElseThrow();
+        nanos.addAndGet(TimeUnit.HOURS.toNanos(SessionTicketStore.TICKET_TTL_HOURS) + 1);
+        assertFalse(aliceTickets.find(BOB_ADDRESS).isPresent());
+
+        // Alice still presents the expired ticket, bob responds with his capability and a new ticket
+        Capability bobsCapability = handshake(ticket);
+        assertEquals(BOB_ADDRESS, bobsCapability.getAddress());
+        SessionTicketStore.SessionTicket newTicket = aliceTickets.find(BOB_ADDRESS).orElseThrow();
+        assertNotEquals(ticket.getTicket(), newTicket.getTicket());
+    }
+
+    @Test
+    public void testForeignTicketFallsBackToFullHandshake() throws Exception {
+        // Ticket bob has issued to carol
+        Capability carolsCapability = new Capability(Address.localHost(3000), NETWORK_TYPES, COMPRESSION_CODECS);
+        String carolsTicket = bobTickets.issue(carolsCapability);
+        Capability bobsCapability = new Capability(BOB_ADDRESS, NETWORK_TYPES, COMPRESSION_CODECS);
+        SessionTicketStore.SessionTicket ticket = new SessionTicketStore.SessionTicket(carolsTicket, bobsCapability);
+
+        assertEquals(bobsCapability, handshake(ticket));
+        assertNotEquals(carolsTicket, aliceTickets.find(BOB_ADDRESS).orElseThrow().getTicket());
+        assertEquals(ALICE_ADDRESS, bobsResults.get(0).getAddress());
+    }
+
+    // Returns the capability of bob alice has got from the handshake
+    private Capability handshake(SessionTicketStore.SessionTicket sessionTicket) throws Exception {
+        LoopbackTransport transport = LoopbackTransport.createPair(true);
+        OutboundConnection outboundConnection = new OutboundConnection(transport, BOB_ADDRESS);
+        InboundConnection inboundConnection = new InboundConnection(transport.getPeer(),
+                new GetServerSocketResult("test", null, BOB_ADDRESS));
+        new CapabilityResponseHandler(inboundConnection,
+                BOB_ADDRESS,
+                NETWORK_TYPES,
+                COMPRESSION_CODECS,
+                bobTickets,
+                bobTokens,
+                (capability, addressVerified) -> bobsResults.add(capability));
+        outboundConnection.listen(exception -> {
+        });
+        inboundConnection.listen(exception -> {
+        });
+        CapabilityRequestHandler capabilityRequestHandler = new CapabilityRequestHandler(outboundConnection,
+                BOB_ADDRESS,
+                ALICE_ADDRESS,
+                NETWORK_TYPES,
+                COMPRESSION_CODECS,
+                requestCorrelator,
+                aliceTickets,
+                aliceTokens,
+                sessionTicket);
+        int numResults = bobsResults.size();
+        try {
+            Capability capability = capabilityRequestHandler.request().get(10, TimeUnit.SECONDS);
+            // Bob completes his side after sending the response
+            long timeout = System.currentTimeMillis() + 10_000;
+            while (bobsResults.size() == numResults && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals(numResults + 1, bobsResults.size());
+            return capability;
+        } finally {
+            outboundConnection.close();
+            inboundConnection.close();
+        }
+    }
+}
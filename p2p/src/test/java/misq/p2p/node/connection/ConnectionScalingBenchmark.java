@@ -0,0 +1,151 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+import misq.common.util.ThreadingUtils;
+import misq.p2p.Address;
+import misq.p2p.MockMessage;
+import misq.p2p.node.connection.nio.NioEventLoopGroup;
+import misq.p2p.node.connection.nio.NioTransport;
+import misq.p2p.node.proxy.GetServerSocketResult;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares platform thread count and heap usage of the transport types at 100, 1000 and 5000 localhost connections.
+ * Client and server side run in the same JVM, so each connection is counted twice. Each client sends a ping and
+ * waits for the pong, so reader and writer are in use at both sides.
+ * <p>
+ * Run with a JVM supporting virtual threads (Java 21+), otherwise VIRTUAL_THREADS falls back to BLOCKING.
+ * For isolated numbers pass the transport type and number of connections as arguments to measure a single setup
+ * per JVM, e.g. `ConnectionScalingBenchmark BLOCKING 1000`.
+ */
+public class ConnectionScalingBenchmark {
+    private static final int PORT = 7777;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2) {
+            run(TransportType.valueOf(args[0]), Integer.parseInt(args[1]));
+        } else {
+            for (int numConnections : new int[]{100, 1000, 5000}) {
+                for (TransportType transportType : TransportType.values()) {
+                    run(transportType, numConnections);
+                }
+            }
+        }
+    }
+
+    private static void run(TransportType transportType, int numConnections) throws Exception {
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heapBefore = getUsedHeap();
+        boolean useVirtualThreads = transportType == TransportType.VIRTUAL_THREADS;
+        NioEventLoopGroup eventLoopGroup = transportType == TransportType.NIO ? new NioEventLoopGroup("benchmark") : null;
+        List<RawConnection> connections = new CopyOnWriteArrayList<>();
+        CountDownLatch receivedLatch = new CountDownLatch(numConnections);
+
+        ServerSocket serverSocket = eventLoopGroup != null ?
+                ServerSocketChannel.open().bind(new InetSocketAddress(PORT), numConnections).socket() :
+                new ServerSocket(PORT, numConnections);
+        GetServerSocketResult result = new GetServerSocketResult("benchmark", serverSocket, Address.localHost(PORT));
+        Server server;
+        if (eventLoopGroup != null) {
+            server = new Server(result, eventLoopGroup, socket -> onInbound(socket, result, eventLoopGroup,
+                    false, connections), Throwable::printStackTrace);
+        } else {
+            server = new Server(result, useVirtualThreads, socket -> onInbound(socket, result, null,
+                    useVirtualThreads, connections), Throwable::printStackTrace);
+        }
+
+        String status = "ok";
+        long ts = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < numConnections; i++) {
+                Socket socket = eventLoopGroup != null ?
+                        SocketChannel.open(new InetSocketAddress("127.0.0.1", PORT)).socket() :
+                        new Socket("127.0.0.1", PORT);
+                OutboundConnection connection = new OutboundConnection(createTransport(socket, eventLoopGroup, useVirtualThreads),
+                        Address.localHost(PORT));
+                connection.addMessageListener(message -> receivedLatch.countDown());
+                connection.listen(exception -> {
+                });
+                connections.add(connection);
+                connection.send(new MockMessage("ping"));
+            }
+            if (!receivedLatch.await(60, TimeUnit.SECONDS)) {
+                status = "timeout, received " + (numConnections - receivedLatch.getCount());
+            }
+        } catch (IOException | OutOfMemoryError e) {
+            status = "failed after " + connections.size() + " connections: " + e;
+        }
+        long duration = System.currentTimeMillis() - ts;
+
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+        long heap = getUsedHeap() - heapBefore;
+        System.out.printf("%-16s connections=%5d platformThreads=%6d heapUsed=%6d KB setupTime=%5d ms %s%n",
+                transportType, numConnections, threads, heap / 1024, duration, status);
+
+        server.stop();
+        connections.forEach(RawConnection::close);
+        if (eventLoopGroup != null) {
+            eventLoopGroup.shutdown();
+        }
+        Thread.sleep(1000);
+    }
+
+    private static void onInbound(Socket socket,
+                                  GetServerSocketResult result,
+                                  NioEventLoopGroup eventLoopGroup,
+                                  boolean useVirtualThreads,
+                                  List<RawConnection> connections) {
+        try {
+            InboundConnection connection = new InboundConnection(createTransport(socket, eventLoopGroup, useVirtualThreads), result);
+            connection.addMessageListener(message -> connection.send(new MockMessage("pong")));
+            connection.listen(exception -> {
+            });
+            connections.add(connection);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static Transport createTransport(Socket socket, NioEventLoopGroup eventLoopGroup, boolean useVirtualThreads) {
+        if (eventLoopGroup != null) {
+            return new NioTransport(socket.getChannel(), eventLoopGroup);
+        } else {
+            return new SocketTransport(socket, useVirtualThreads && ThreadingUtils.isVirtualThreadSupported());
+        }
+    }
+
+    private static long getUsedHeap() throws InterruptedException {
+        System.gc();
+        Thread.sleep(200);
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+import com.google.common.base.Strings;
+import misq.p2p.MockMessage;
+import misq.p2p.node.connection.frame.CompressionCodec;
+import misq.p2p.node.connection.frame.Frame;
+import misq.p2p.node.connection.frame.FrameCodec;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EncodedMessageTest {
+    @Test
+    public void testFramesAreEncodedOnce() throws Exception {
+        MockMessage message = new MockMessage(Strings.repeat("x", 10_000));
+        EncodedMessage encodedMessage = new EncodedMessage(message);
+
+        Frame frame = encodedMessage.getFrame(null);
+        assertSame(frame, encodedMessage.getFrame(null));
+        assertEquals(message, FrameCodec.decode(frame));
+
+        Frame compressed = encodedMessage.getFrame(CompressionCodec.DEFLATE);
+        assertSame(compressed, encodedMessage.getFrame(CompressionCodec.DEFLATE));
+        assertTrue(compressed.getPayload().length < frame.getPayload().length);
+        assertEquals(message, FrameCodec.decode(FrameCodec.decompress(compressed)));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+import misq.p2p.message.MessagePriority;
+import misq.p2p.node.connection.frame.ChunkAssembler;
+import misq.p2p.node.connection.frame.Frame;
+import misq.p2p.node.connection.frame.FrameType;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+public class OutboundQueueTest {
+    @Test
+    public void testPriorityOrder() {
+        OutboundQueue queue = new OutboundQueue();
+        Frame bulk = frame(1, 10);
+        Frame gossip = frame(2, 10);
+        Frame control = frame(3, 10);
+        queue.add(bulk, MessagePriority.BULK, new CompletableFuture<>());
+        queue.add(gossip, MessagePriority.GOSSIP, new CompletableFuture<>());
+        queue.add(control, MessagePriority.CONTROL, new CompletableFuture<>());
+
+        assertSame(control, queue.poll().get().getFrame());
+        assertSame(gossip, queue.poll().get().getFrame());
+        assertSame(bulk, queue.poll().get().getFrame());
+        assertFalse(queue.poll().isPresent());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testChunksInterleaveWithHigherPriority() throws Exception {
+        OutboundQueue queue = new OutboundQueue(100, OutboundQueue.DEFAULT_MAX_BYTES_PER_LANE);
+        Frame bulk = frame(1, 250);
+        CompletableFuture<Void> bulkFuture = new CompletableFuture<>();
+        queue.add(bulk, MessagePriority.BULK, bulkFuture);
+
+        ChunkAssembler chunkAssembler = new ChunkAssembler();
+        OutboundQueue.OutboundFrame first = queue.poll().get();
+        assertEquals(FrameType.CHUNK, first.getFrame().getType());
+        assertNull(first.getFuture());
+        assertFalse(chunkAssembler.add(first.getFrame()).isPresent());
+
+        Frame control = frame(2, 10);
+        queue.add(control, MessagePriority.CONTROL, new CompletableFuture<>());
+        assertSame(control, queue.poll().get().getFrame());
+
+        assertFalse(chunkAssembler.add(queue.poll().get().getFrame()).isPresent());
+        OutboundQueue.OutboundFrame last = queue.poll().get();
+        assertSame(bulkFuture, last.getFuture());
+        Optional<Frame> assembled = chunkAssembler.add(last.getFrame());
+        assertTrue(assembled.isPresent());
+        assertEquals(FrameType.MESSAGE, assembled.get().getType());
+        assertArrayEquals(bulk.getPayload(), assembled.get().getPayload());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testBulkIsNotStarvedByGossip() {
+        OutboundQueue queue = new OutboundQueue(100, OutboundQueue.DEFAULT_MAX_BYTES_PER_LANE);
+        Frame bulk = frame(1, 50);
+        queue.add(bulk, MessagePriority.BULK, new CompletableFuture<>());
+        int numGossipPolls = 0;
+        while (true) {
+            // Gossip keeps arriving faster than we can send
+            queue.add(frame(2, 93), MessagePriority.GOSSIP, new CompletableFuture<>());
+            Frame polled = queue.poll().get().getFrame();
+            if (polled == bulk) {
+                break;
+            }
+            numGossipPolls++;
+            assertTrue(numGossipPolls <= OutboundQueue.BULK_SHARE_CHUNKS);
+        }
+        // Each gossip frame has 100 bytes, so BULK gets served after BULK_SHARE_CHUNKS * chunkSize bytes
+        assertEquals(OutboundQueue.BULK_SHARE_CHUNKS, numGossipPolls);
+
+        // Without waiting BULK frames gossip does not accumulate a debt for later BULK frames
+        while (queue.poll().isPresent()) {
+        }
+        for (int i = 0; i < 2 * OutboundQueue.BULK_SHARE_CHUNKS; i++) {
+            queue.add(frame(2, 93), MessagePriority.GOSSIP, new CompletableFuture<>());
+            queue.poll();
+        }
+        Frame gossip = frame(3, 93);
+        queue.add(gossip, MessagePriority.GOSSIP, new CompletableFuture<>());
+        queue.add(bulk, MessagePriority.BULK, new CompletableFuture<>());
+        assertSame(gossip, queue.poll().get().getFrame());
+        assertSame(bulk, queue.poll().get().getFrame());
+    }
+
+    @Test
+    public void testGossipDropsOldest() {
+        Map<MessagePriority, Long> maxBytesPerLane = new EnumMap<>(OutboundQueue.DEFAULT_MAX_BYTES_PER_LANE);
+        maxBytesPerLane.put(MessagePriority.GOSSIP, 100L);
+        OutboundQueue queue = new OutboundQueue(1000, maxBytesPerLane);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            futures.add(future);
+            queue.add(frame(i, 33), MessagePriority.GOSSIP, future);
+        }
+        // Each frame has 40 bytes, so only the 2 newest fit
+        assertOverflow(futures.get(0));
+        assertOverflow(futures.get(1));
+        assertFalse(futures.get(2).isDone());
+        assertFalse(futures.get(3).isDone());
+        assertEquals(80, queue.getNumBytes(MessagePriority.GOSSIP));
+    }
+
+    @Test
+    public void testControlRejectsNew() {
+        Map<MessagePriority, Long> maxBytesPerLane = new EnumMap<>(OutboundQueue.DEFAULT_MAX_BYTES_PER_LANE);
+        maxBytesPerLane.put(MessagePriority.CONTROL, 100L);
+        OutboundQueue queue = new OutboundQueue(1000, maxBytesPerLane);
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        CompletableFuture<Void> second = new CompletableFuture<>();
+        CompletableFuture<Void> third = new CompletableFuture<>();
+        queue.add(frame(1, 33), MessagePriority.CONTROL, first);
+        queue.add(frame(2, 33), MessagePriority.CONTROL, second);
+        queue.add(frame(3, 33), MessagePriority.CONTROL, third);
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+        assertOverflow(third);
+    }
+
+    private static void assertOverflow(CompletableFuture<Void> future) {
+        assertTrue(future.isCompletedExceptionally());
+        try {
+            future.get();
+            fail("Expected OutboundQueueOverflowException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof OutboundQueueOverflowException);
+        } catch (InterruptedException e) {
+            fail(e.toString());
+        }
+    }
+
+    private static Frame frame(int seed, int size) {
+        byte[] payload = new byte[size];
+        new Random(seed).nextBytes(payload);
+        return new Frame(FrameType.MESSAGE, payload);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+import misq.p2p.Address;
+import misq.p2p.node.proxy.GetServerSocketResult;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+
+public class ServerTest {
+    @Test
+    public void testSlowSocketHandlerDoesNotBlockAccept() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        GetServerSocketResult result = new GetServerSocketResult("test", serverSocket, Address.localHost(port));
+        CountDownLatch blockFirstHandler = new CountDownLatch(1);
+        CountDownLatch secondHandled = new CountDownLatch(1);
+        AtomicInteger numAccepted = new AtomicInteger();
+        Server server = new Server(result, socket -> {
+            if (numAccepted.incrementAndGet() == 1) {
+                try {
+                    blockFirstHandler.await();
+                } catch (InterruptedException ignore) {
+                }
+            } else {
+                secondHandled.countDown();
+            }
+        }, Throwable::printStackTrace);
+
+        try (Socket first = new Socket("127.0.0.1", port); Socket second = new Socket("127.0.0.1", port)) {
+            assertTrue(secondHandled.await(10, TimeUnit.SECONDS));
+        } finally {
+            blockFirstHandler.countDown();
+            server.stop();
+        }
+    }
+}
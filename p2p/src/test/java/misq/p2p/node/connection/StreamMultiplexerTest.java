@@ -0,0 +1,253 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+import misq.common.util.ThreadingUtils;
+import misq.p2p.Address;
+import misq.p2p.Config;
+import misq.p2p.MockMessage;
+import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.node.connection.frame.Frame;
+import misq.p2p.node.connection.frame.FrameCodec;
+import misq.p2p.node.connection.frame.FrameException;
+import misq.p2p.node.connection.frame.FrameType;
+import misq.p2p.node.proxy.GetServerSocketResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class StreamMultiplexerTest {
+    private static final Address STREAM_ADDRESS_1 = Address.localHost(5001);
+    private static final Address STREAM_ADDRESS_2 = Address.localHost(5002);
+
+    private final ExecutorService executor = ThreadingUtils.getCachedThreadPool("StreamMultiplexerTest");
+    // Messages received at the streams of the accepting side by target address
+    private final Map<Address, List<Message>> receivedByAddress = new ConcurrentHashMap<>();
+    private final Map<Address, CountDownLatch> blockingLatchByAddress = new ConcurrentHashMap<>();
+    private final List<Exception> inboundStreamErrors = new CopyOnWriteArrayList<>();
+    private ServerSocket serverSocket;
+    private RawConnection client, server;
+    private StreamMultiplexer clientMultiplexer, serverMultiplexer;
+
+    @Before
+    public void setup() throws Exception {
+        serverSocket = new ServerSocket(0);
+        Socket clientSocket = new Socket("127.0.0.1", serverSocket.getLocalPort());
+        Socket acceptedSocket = serverSocket.accept();
+        Address serverAddress = Address.localHost(serverSocket.getLocalPort());
+        client = new OutboundConnection(new SocketTransport(clientSocket), serverAddress);
+        server = new InboundConnection(new SocketTransport(acceptedSocket),
+                new GetServerSocketResult("server", serverSocket, serverAddress));
+
+        clientMultiplexer = client.enableStreamMultiplexing(executor, (transport, targetAddress) -> false);
+        serverMultiplexer = server.enableStreamMultiplexing(executor, (transport, targetAddress) -> {
+            if (!targetAddress.equals(STREAM_ADDRESS_1) && !targetAddress.equals(STREAM_ADDRESS_2)) {
+                return false;
+            }
+            InboundConnection stream = new InboundConnection(transport,
+                    new GetServerSocketResult(targetAddress.toString(), serverSocket, targetAddress));
+            List<Message> received = receivedByAddress.computeIfAbsent(targetAddress, key -> new CopyOnWriteArrayList<>());
+            stream.addMessageListener(message -> {
+                CountDownLatch blockingLatch = blockingLatchByAddress.get(targetAddress);
+                if (blockingLatch != null) {
+                    try {
+                        blockingLatch.await();
+                    } catch (InterruptedException ignore) {
+                    }
+                }
+                received.add(message);
+            });
+            try {
+                stream.listen(inboundStreamErrors::add);
+            } catch (Exception e) {
+                return false;
+            }
+            return true;
+        });
+        client.listen(exception -> {
+        });
+        server.listen(exception -> {
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        blockingLatchByAddress.values().forEach(CountDownLatch::countDown);
+        client.close();
+        server.close();
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testMessagesAreDeliveredToTheirStream() throws Exception {
+        RawConnection stream1 = openStream(STREAM_ADDRESS_1);
+        RawConnection stream2 = openStream(STREAM_ADDRESS_2);
+        // Larger than the window, so the sender has to wait for credit
+        MockMessage largeMessage = new MockMessage(createString(StreamMultiplexer.INITIAL_WINDOW_SIZE * 3));
+
+        List<CompletableFuture<RawConnection>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(stream1.send(new MockMessage("stream1-" + i)));
+            futures.add(stream2.send(new MockMessage("stream2-" + i)));
+        }
+        futures.add(stream1.send(largeMessage));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        assertEquals(2, clientMultiplexer.getNumStreams());
+
+        Config.waitUntil(() -> getNumReceived(STREAM_ADDRESS_1) == 101 && getNumReceived(STREAM_ADDRESS_2) == 100);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(new MockMessage("stream1-" + i), receivedByAddress.get(STREAM_ADDRESS_1).get(i));
+            assertEquals(new MockMessage("stream2-" + i), receivedByAddress.get(STREAM_ADDRESS_2).get(i));
+        }
+        assertEquals(largeMessage, receivedByAddress.get(STREAM_ADDRESS_1).get(100));
+    }
+
+    @Test
+    public void testSlowStreamDoesNotBlockOtherStreams() throws Exception {
+        CountDownLatch blockingLatch = new CountDownLatch(1);
+        blockingLatchByAddress.put(STREAM_ADDRESS_1, blockingLatch);
+        RawConnection slowStream = openStream(STREAM_ADDRESS_1);
+        RawConnection fastStream = openStream(STREAM_ADDRESS_2);
+
+        // 4 times the window, so most of it is held back by the flow control
+        List<CompletableFuture<RawConnection>> slowFutures = new ArrayList<>();
+        MockMessage message = new MockMessage(createString(64 * 1024));
+        for (int i = 0; i < 16; i++) {
+            slowFutures.add(slowStream.send(message));
+        }
+        fastStream.send(new MockMessage("fast")).get(10, TimeUnit.SECONDS);
+        Config.waitUntil(() -> getNumReceived(STREAM_ADDRESS_2) == 1);
+
+        assertFalse(slowFutures.get(slowFutures.size() - 1).isDone());
+        assertEquals(0, getNumReceived(STREAM_ADDRESS_1));
+
+        blockingLatch.countDown();
+        CompletableFuture.allOf(slowFutures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        Config.waitUntil(() -> getNumReceived(STREAM_ADDRESS_1) == 16);
+    }
+
+    @Test
+    public void testRejectedStreamGetsClosed() throws Exception {
+        RawConnection stream = new OutboundConnection(clientMultiplexer.openStream(Address.localHost(5003)),
+                Address.localHost(5003));
+        CompletableFuture<Exception> error = new CompletableFuture<>();
+        stream.listen(error::complete);
+
+        assertTrue(error.get(10, TimeUnit.SECONDS) instanceof EOFException);
+        Config.waitUntil(() -> clientMultiplexer.getNumStreams() == 0);
+    }
+
+    @Test
+    public void testClosingConnectionClosesStreams() throws Exception {
+        RawConnection stream = new OutboundConnection(clientMultiplexer.openStream(STREAM_ADDRESS_1), STREAM_ADDRESS_1);
+        CompletableFuture<Exception> error = new CompletableFuture<>();
+        stream.listen(error::complete);
+        stream.send(new MockMessage("msg")).get(10, TimeUnit.SECONDS);
+
+        client.close();
+        assertNotNull(error.get(10, TimeUnit.SECONDS));
+        // Streams are removed after their error handlers have been called
+        Config.waitUntil(() -> clientMultiplexer.getNumStreams() == 0);
+        // The server side detects the closed socket and closes its streams
+        Config.waitUntil(() -> inboundStreamErrors.size() == 1);
+        try {
+            stream.send(new MockMessage("msg")).get(10, TimeUnit.SECONDS);
+            fail("Expected send to fail on a closed stream");
+        } catch (ExecutionException expected) {
+        }
+    }
+
+    @Test
+    public void testIncompleteFramesAreBoundedPerConnection() throws Exception {
+        StreamTransport streamTransport = (StreamTransport) clientMultiplexer.openStream(STREAM_ADDRESS_1);
+        RawConnection stream = new OutboundConnection(streamTransport, STREAM_ADDRESS_1);
+        stream.listen(exception -> {
+        });
+        stream.send(new MockMessage("msg")).get(10, TimeUnit.SECONDS);
+        Config.waitUntil(() -> getNumReceived(STREAM_ADDRESS_1) == 1);
+
+        // The peer streams segments of a max sized frame at each lane but never sends the last segment
+        Frame largeFrame = new Frame(FrameType.MESSAGE, new byte[FrameCodec.MAX_FRAME_SIZE]);
+        int segmentSize = StreamMultiplexer.MAX_SEGMENT_SIZE;
+        int lastOffset = FrameCodec.MAX_FRAME_SIZE - segmentSize;
+        for (byte lane = 0; lane < 3 && inboundStreamErrors.isEmpty(); lane++) {
+            for (int offset = 0; offset < lastOffset && inboundStreamErrors.isEmpty(); offset += segmentSize) {
+                Frame segment = FrameCodec.createStreamData(streamTransport.getStreamId(), lane, largeFrame, offset,
+                        segmentSize);
+                client.write(segment, MessagePriority.CONFIDENTIAL).get(10, TimeUnit.SECONDS);
+            }
+        }
+
+        Config.waitUntil(() -> inboundStreamErrors.size() == 1);
+        assertTrue(inboundStreamErrors.get(0) instanceof FrameException);
+        assertTrue(inboundStreamErrors.get(0).getMessage().contains("MAX_PENDING_REASSEMBLY_BYTES"));
+        Config.waitUntil(() -> serverMultiplexer.getNumStreams() == 0);
+        assertEquals(0, serverMultiplexer.getNumPendingReassemblyBytes());
+    }
+
+    @Test
+    public void testInvalidLaneClosesStream() throws Exception {
+        StreamTransport streamTransport = (StreamTransport) clientMultiplexer.openStream(STREAM_ADDRESS_1);
+        RawConnection stream = new OutboundConnection(streamTransport, STREAM_ADDRESS_1);
+        stream.listen(exception -> {
+        });
+        stream.send(new MockMessage("msg")).get(10, TimeUnit.SECONDS);
+
+        Frame frame = new Frame(FrameType.MESSAGE, new byte[10]);
+        byte invalidLane = (byte) MessagePriority.values().length;
+        client.write(FrameCodec.createStreamData(streamTransport.getStreamId(), invalidLane, frame, 0, 10),
+                MessagePriority.CONFIDENTIAL).get(10, TimeUnit.SECONDS);
+
+        Config.waitUntil(() -> inboundStreamErrors.size() == 1);
+        assertTrue(inboundStreamErrors.get(0) instanceof FrameException);
+        assertTrue(inboundStreamErrors.get(0).getMessage().startsWith("Invalid lane"));
+        assertEquals(0, serverMultiplexer.getNumPendingReassemblyBytes());
+    }
+
+    private RawConnection openStream(Address targetAddress) throws Exception {
+        RawConnection stream = new OutboundConnection(clientMultiplexer.openStream(targetAddress), targetAddress);
+        stream.listen(exception -> {
+        });
+        return stream;
+    }
+
+    private int getNumReceived(Address address) {
+        List<Message> received = receivedByAddress.get(address);
+        return received == null ? 0 : received.size();
+    }
+
+    private static String createString(int length) {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            stringBuilder.append('x');
+        }
+        return stringBuilder.toString();
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection;
+
+import com.google.common.base.Strings;
+import misq.p2p.MockMessage;
+import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
+import misq.p2p.node.connection.frame.ChunkAssembler;
+import misq.p2p.node.connection.frame.Frame;
+import misq.p2p.node.connection.frame.FrameCodec;
+import misq.p2p.node.connection.frame.FrameType;
+import misq.p2p.node.connection.nio.NioEventLoopGroup;
+import misq.p2p.node.connection.nio.NioTransport;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransportTest {
+    private static final int NUM_MESSAGES = 1000;
+
+    @Test
+    public void testSocketTransport() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Socket clientSocket = new Socket("127.0.0.1", serverSocket.getLocalPort());
+            Socket acceptedSocket = serverSocket.accept();
+            sendAndReceive(new SocketTransport(clientSocket), new SocketTransport(acceptedSocket));
+        }
+    }
+
+    @Test
+    public void testNioTransport() throws Exception {
+        NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup("test", 1, 1);
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.bind(new InetSocketAddress("127.0.0.1", 0));
+            SocketChannel clientChannel = SocketChannel.open(serverSocketChannel.getLocalAddress());
+            SocketChannel acceptedChannel = serverSocketChannel.accept();
+            sendAndReceive(new NioTransport(clientChannel, eventLoopGroup), new NioTransport(acceptedChannel, eventLoopGroup));
+        } finally {
+            eventLoopGroup.shutdown();
+        }
+    }
+
+    @Test
+    public void testNioTransportPausesReadingForSlowFrameHandler() throws Exception {
+        NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup("test", 1, 1);
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.bind(new InetSocketAddress("127.0.0.1", 0));
+            SocketChannel clientChannel = SocketChannel.open(serverSocketChannel.getLocalAddress());
+            SocketChannel acceptedChannel = serverSocketChannel.accept();
+            NioTransport sender = new NioTransport(clientChannel, eventLoopGroup);
+            NioTransport receiver = new NioTransport(acceptedChannel, eventLoopGroup);
+            List<Message> received = new CopyOnWriteArrayList<>();
+            CountDownLatch releaseLatch = new CountDownLatch(1);
+            CountDownLatch receivedLatch = new CountDownLatch(NUM_MESSAGES);
+            receiver.start("receiver", frame -> {
+                try {
+                    releaseLatch.await();
+                } catch (InterruptedException ignore) {
+                }
+                received.add(FrameCodec.decode(frame));
+                receivedLatch.countDown();
+            }, exception -> {
+            });
+            sender.start("sender", frame -> {
+            }, exception -> {
+            });
+
+            for (int i = 0; i < NUM_MESSAGES; i++) {
+                sender.write(FrameCodec.encode(new MockMessage("msg" + i)), MessagePriority.CONFIDENTIAL);
+            }
+            long timeout = System.currentTimeMillis() + 10_000;
+            while (!receiver.isReadPaused() && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertTrue(receiver.isReadPaused());
+
+            // Once the frame handler catches up we continue reading
+            releaseLatch.countDown();
+            assertTrue(receivedLatch.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < NUM_MESSAGES; i++) {
+                assertEquals(new MockMessage("msg" + i), received.get(i));
+            }
+            // Reading gets resumed after the frame handler has returned
+            timeout = System.currentTimeMillis() + 10_000;
+            while (receiver.isReadPaused() && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertFalse(receiver.isReadPaused());
+
+            sender.close();
+            receiver.close();
+        } finally {
+            eventLoopGroup.shutdown();
+        }
+    }
+
+    @Test
+    public void testNioTransportPausesReadingForLargePendingFrames() throws Exception {
+        // Few frames, so only the byte budget of the pending dispatches can pause reading
+        int numMessages = 6;
+        String text = Strings.repeat("x", FrameCodec.MAX_FRAME_SIZE / 2);
+        NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup("test", 1, 1);
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.bind(new InetSocketAddress("127.0.0.1", 0));
+            SocketChannel clientChannel = SocketChannel.open(serverSocketChannel.getLocalAddress());
+            SocketChannel acceptedChannel = serverSocketChannel.accept();
+            NioTransport sender = new NioTransport(clientChannel, eventLoopGroup);
+            NioTransport receiver = new NioTransport(acceptedChannel, eventLoopGroup);
+            CountDownLatch releaseLatch = new CountDownLatch(1);
+            CountDownLatch receivedLatch = new CountDownLatch(numMessages);
+            receiver.start("receiver", frame -> {
+                try {
+                    releaseLatch.await();
+                } catch (InterruptedException ignore) {
+                }
+                receivedLatch.countDown();
+            }, exception -> {
+            });
+            sender.start("sender", frame -> {
+            }, exception -> {
+            });
+
+            for (int i = 0; i < numMessages; i++) {
+                sender.write(FrameCodec.encode(new MockMessage(text)), MessagePriority.BULK);
+            }
+            long timeout = System.currentTimeMillis() + 10_000;
+            while (!receiver.isReadPaused() && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertTrue(receiver.isReadPaused());
+
+            releaseLatch.countDown();
+            assertTrue(receivedLatch.await(10, TimeUnit.SECONDS));
+            timeout = System.currentTimeMillis() + 10_000;
+            while (receiver.isReadPaused() && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertFalse(receiver.isReadPaused());
+
+            sender.close();
+            receiver.close();
+        } finally {
+            eventLoopGroup.shutdown();
+        }
+    }
+
+    @Test
+    public void testControlMessageOvertakesBulk() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Socket clientSocket = new Socket("127.0.0.1", serverSocket.getLocalPort());
+            Socket acceptedSocket = serverSocket.accept();
+            Transport sender = new SocketTransport(clientSocket);
+            Transport receiver = new SocketTransport(acceptedSocket);
+            List<Message> received = new CopyOnWriteArrayList<>();
+            CountDownLatch receivedLatch = new CountDownLatch(2);
+            ChunkAssembler chunkAssembler = new ChunkAssembler();
+            receiver.start("receiver", frame -> {
+                if (frame.getType() == FrameType.CHUNK) {
+                    Optional<Frame> assembled = chunkAssembler.add(frame);
+                    if (!assembled.isPresent()) {
+                        return;
+                    }
+                    frame = assembled.get();
+                }
+                received.add(FrameCodec.decode(frame));
+                receivedLatch.countDown();
+            }, exception -> {
+            });
+            sender.start("sender", frame -> {
+            }, exception -> {
+            });
+
+            StringBuilder stringBuilder = new StringBuilder();
+            for (int i = 0; i < 1024 * 1024; i++) {
+                stringBuilder.append('x');
+            }
+            MockMessage bulk = new MockMessage(stringBuilder.toString());
+            Frame bulkFrame = FrameCodec.encode(bulk);
+            Frame controlFrame = FrameCodec.encode(new MockMessage("control"));
+            sender.write(bulkFrame, MessagePriority.BULK);
+            sender.write(controlFrame, MessagePriority.CONTROL);
+
+            assertTrue(receivedLatch.await(10, TimeUnit.SECONDS));
+            assertEquals(new MockMessage("control"), received.get(0));
+            assertEquals(bulk, received.get(1));
+
+            sender.close();
+            receiver.close();
+        }
+    }
+
+    private void sendAndReceive(Transport sender, Transport receiver) throws Exception {
+        List<Message> received = new CopyOnWriteArrayList<>();
+        CountDownLatch receivedLatch = new CountDownLatch(NUM_MESSAGES);
+        receiver.start("receiver", frame -> {
+            received.add(FrameCodec.decode(frame));
+            receivedLatch.countDown();
+        }, exception -> {
+        });
+        sender.start("sender", frame -> {
+        }, exception -> {
+        });
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < NUM_MESSAGES; i++) {
+            futures.add(sender.write(FrameCodec.encode(new MockMessage("msg" + i)), MessagePriority.CONFIDENTIAL));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        assertTrue(receivedLatch.await(10, TimeUnit.SECONDS));
+
+        for (int i = 0; i < NUM_MESSAGES; i++) {
+            assertEquals(new MockMessage("msg" + i), received.get(i));
+        }
+        WriteStats writeStats = sender.getWriteStats();
+        assertEquals(NUM_MESSAGES, writeStats.getNumMessages());
+        assertTrue(writeStats.getNumFlushes() <= NUM_MESSAGES);
+        assertTrue(writeStats.getMaxMessagesPerFlush() >= 1);
+
+        sender.close();
+        receiver.close();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection.frame;
+
+import misq.common.security.DigestUtil;
+import misq.common.security.KeyGeneration;
+import misq.common.security.SignatureUtil;
+import misq.p2p.data.inventory.Inventory;
+import misq.p2p.data.inventory.InventoryResponse;
+import misq.p2p.data.storage.auth.AddAuthenticatedDataRequest;
+import misq.p2p.data.storage.auth.AuthenticatedData;
+import misq.p2p.data.storage.auth.MockAuthenticatedPayload;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Measures compressed size and compress/decompress time of InventoryResponse frames with 100, 1000 and 5000 signed
+ * entries. Each entry carries its own public key and signature, so the entries are only partly redundant as it is
+ * the case with real offer data.
+ */
+public class CompressionBenchmark {
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 50;
+
+    public static void main(String[] args) throws Exception {
+        for (int numEntries : new int[]{100, 1000, 5000}) {
+            run(numEntries);
+        }
+    }
+
+    private static void run(int numEntries) throws Exception {
+        Frame frame = FrameCodec.encode(new InventoryResponse(createInventory(numEntries), 0));
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            Frame compressed = null;
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                compressed = FrameCodec.compress(frame, codec);
+                FrameCodec.decompress(compressed);
+            }
+
+            long ts = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                compressed = FrameCodec.compress(frame, codec);
+            }
+            long compressMicros = (System.nanoTime() - ts) / 1000 / ITERATIONS;
+
+            ts = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                FrameCodec.decompress(compressed);
+            }
+            long decompressMicros = (System.nanoTime() - ts) / 1000 / ITERATIONS;
+
+            int size = frame.getPayload().length;
+            int compressedSize = compressed.getPayload().length;
+            System.out.printf("%s entries=%d size=%d compressed=%d ratio=%.2f compress=%dus decompress=%dus%n",
+                    codec, numEntries, size, compressedSize, (double) compressedSize / size,
+                    compressMicros, decompressMicros);
+        }
+    }
+
+    private static Inventory createInventory(int numEntries) throws Exception {
+        Random random = new Random(1);
+        List<AddAuthenticatedDataRequest> entries = new ArrayList<>();
+        for (int i = 0; i < numEntries; i++) {
+            KeyPair keyPair = KeyGeneration.generateKeyPair();
+            String text = "offer-" + UUID.randomUUID() +
+                    " direction=" + (random.nextBoolean() ? "BUY" : "SELL") +
+                    " price=" + (30000 + random.nextInt(10000)) +
+                    " amount=" + random.nextInt(100_000_000) +
+                    " paymentMethod=SEPA";
+            byte[] hashOfPublicKey = DigestUtil.hash(keyPair.getPublic().getEncoded());
+            AuthenticatedData data = new AuthenticatedData(new MockAuthenticatedPayload(text),
+                    1,
+                    hashOfPublicKey,
+                    System.currentTimeMillis());
+            byte[] signature = SignatureUtil.sign(data.serialize(), keyPair.getPrivate());
+            entries.add(new AddAuthenticatedDataRequest(data, signature, keyPair.getPublic()));
+        }
+        return new Inventory(entries, 0);
+    }
+}
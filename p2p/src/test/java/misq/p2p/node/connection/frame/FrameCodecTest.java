@@ -0,0 +1,234 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.connection.frame;
+
+import misq.common.ObjectSerializer;
+import misq.p2p.Address;
+import misq.p2p.MockMessage;
+import misq.p2p.message.Message;
+import misq.p2p.message.MessagePriority;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FrameCodecTest {
+    @Test
+    public void testRoundTrip() throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream outputStream = new DataOutputStream(byteArrayOutputStream);
+        FrameCodec.write(FrameCodec.encode(new MockMessage("test1")), outputStream);
+        FrameCodec.write(FrameCodec.encode(new MockMessage("test2")), outputStream);
+
+        DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+        Message message1 = FrameCodec.decode(FrameCodec.read(inputStream));
+        Message message2 = FrameCodec.decode(FrameCodec.read(inputStream));
+        assertEquals(new MockMessage("test1"), message1);
+        assertEquals(new MockMessage("test2"), message2);
+    }
+
+    @Test
+    public void testOversizedFrame() throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream outputStream = new DataOutputStream(byteArrayOutputStream);
+        FrameCodec.write(new Frame(FrameType.MESSAGE, new byte[100]), outputStream);
+
+        DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+        try {
+            FrameCodec.read(inputStream, 99);
+            fail("Expected FrameException");
+        } catch (FrameException ignore) {
+        }
+    }
+
+    @Test
+    public void testUnsupportedVersion() throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream outputStream = new DataOutputStream(byteArrayOutputStream);
+        FrameCodec.write(new Frame(FrameType.MESSAGE, new byte[1]), outputStream);
+        byte[] bytes = byteArrayOutputStream.toByteArray();
+        bytes[4] = 99;
+
+        DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            FrameCodec.read(inputStream);
+            fail("Expected FrameException");
+        } catch (FrameException ignore) {
+        }
+    }
+
+    @Test
+    public void testNullPayload() {
+        try {
+            FrameCodec.decode(new Frame(FrameType.MESSAGE, ObjectSerializer.serialize(null)));
+            fail("Expected FrameException");
+        } catch (FrameException expected) {
+        }
+    }
+
+    @Test
+    public void testReadFromByteBuffer() throws IOException {
+        ByteBuffer encoded = FrameCodec.toByteBuffer(FrameCodec.encode(new MockMessage("test1")));
+        ByteBuffer buffer = ByteBuffer.allocate(encoded.remaining());
+
+        // Header only
+        buffer.put(encoded.array(), 0, FrameCodec.HEADER_SIZE);
+        buffer.flip();
+        assertFalse(FrameCodec.read(buffer, FrameCodec.MAX_FRAME_SIZE).isPresent());
+        assertEquals(0, buffer.position());
+
+        buffer.compact();
+        buffer.put(encoded.array(), FrameCodec.HEADER_SIZE, encoded.remaining() - FrameCodec.HEADER_SIZE);
+        buffer.flip();
+        Optional<Frame> frame = FrameCodec.read(buffer, FrameCodec.MAX_FRAME_SIZE);
+        assertTrue(frame.isPresent());
+        assertEquals(new MockMessage("test1"), FrameCodec.decode(frame.get()));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testCompressionRoundTrip() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("offer ").append(i).append(" price=").append(i * 100).append(";");
+        }
+        Frame frame = FrameCodec.encode(new MockMessage(text.toString()));
+        Frame compressed = FrameCodec.compress(frame, CompressionCodec.DEFLATE);
+        assertTrue(compressed.getPayload().length < frame.getPayload().length);
+        assertEquals(CompressionCodec.DEFLATE.getId(), compressed.getCompressionId());
+
+        // Survives the wire format and chunking
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        FrameCodec.write(compressed, new DataOutputStream(byteArrayOutputStream));
+        Frame read = FrameCodec.read(new DataInputStream(new ByteArrayInputStream(byteArrayOutputStream.toByteArray())));
+        ChunkAssembler chunkAssembler = new ChunkAssembler();
+        int length = read.getPayload().length;
+        int half = length / 2;
+        assertFalse(chunkAssembler.add(FrameCodec.createChunk(read, (byte) 1, 0, half)).isPresent());
+        Frame assembled = chunkAssembler.add(FrameCodec.createChunk(read, (byte) 1, half, length - half)).get();
+
+        Frame decompressed = FrameCodec.decompress(assembled);
+        assertEquals(0, decompressed.getCompressionId());
+        assertArrayEquals(frame.getPayload(), decompressed.getPayload());
+        assertEquals(new MockMessage(text.toString()), FrameCodec.decode(decompressed));
+    }
+
+    @Test
+    public void testChunkLimits() throws FrameException {
+        Frame frame = new Frame(FrameType.MESSAGE, new byte[100]);
+        ChunkAssembler chunkAssembler = new ChunkAssembler(100, 150);
+        // Stream ids are the ordinals of MessagePriority
+        for (byte streamId : new byte[]{-1, (byte) MessagePriority.values().length}) {
+            try {
+                chunkAssembler.add(FrameCodec.createChunk(frame, streamId, 0, 10));
+                fail("Expected FrameException");
+            } catch (FrameException ignore) {
+            }
+        }
+
+        // Each message is below maxMessageSize, but together they exceed maxPendingBytes
+        Frame smallFrame = new Frame(FrameType.MESSAGE, new byte[90]);
+        assertFalse(chunkAssembler.add(FrameCodec.createChunk(smallFrame, (byte) 0, 0, 80)).isPresent());
+        assertFalse(chunkAssembler.add(FrameCodec.createChunk(frame, (byte) 1, 0, 60)).isPresent());
+        assertEquals(140, chunkAssembler.getNumPendingBytes());
+        try {
+            chunkAssembler.add(FrameCodec.createChunk(frame, (byte) 2, 0, 20));
+            fail("Expected FrameException");
+        } catch (FrameException ignore) {
+        }
+
+        // Completed messages release their bytes
+        assertTrue(chunkAssembler.add(FrameCodec.createChunk(smallFrame, (byte) 0, 80, 10)).isPresent());
+        assertEquals(60, chunkAssembler.getNumPendingBytes());
+        assertFalse(chunkAssembler.add(FrameCodec.createChunk(frame, (byte) 2, 0, 20)).isPresent());
+    }
+
+    @Test
+    public void testCompressionSkipped() throws IOException {
+        // Below min size
+        Frame small = FrameCodec.encode(new MockMessage("test1"));
+        assertTrue(small == FrameCodec.compress(small, CompressionCodec.DEFLATE));
+        assertTrue(small == FrameCodec.decompress(small));
+
+        // Not getting smaller
+        byte[] random = new byte[4096];
+        new Random().nextBytes(random);
+        Frame incompressible = new Frame(FrameType.MESSAGE, random);
+        assertTrue(incompressible == FrameCodec.compress(incompressible, CompressionCodec.DEFLATE));
+    }
+
+    @Test
+    public void testInvalidCompressedPayload() {
+        byte flags = (byte) (CompressionCodec.DEFLATE.getId() << Frame.COMPRESSION_SHIFT);
+        try {
+            FrameCodec.decompress(new Frame(FrameType.MESSAGE, flags, new byte[]{1, 2, 3, 4}));
+            fail("Expected FrameException");
+        } catch (FrameException ignore) {
+        }
+
+        byte unknown = (byte) (3 << Frame.COMPRESSION_SHIFT);
+        try {
+            FrameCodec.decompress(new Frame(FrameType.MESSAGE, unknown, new byte[]{1, 2, 3, 4}));
+            fail("Expected FrameException");
+        } catch (FrameException ignore) {
+        }
+
+        // Decompressed size is bounded
+        byte[] compressed = CompressionCodec.DEFLATE.compress(new byte[10_000]);
+        try {
+            CompressionCodec.DEFLATE.decompress(compressed, 1000);
+            fail("Expected FrameException");
+        } catch (FrameException ignore) {
+        }
+    }
+
+    @Test
+    public void testStreamFrames() throws FrameException {
+        Frame open = FrameCodec.createStreamOpen(0xFFFF, Address.localHost(1234));
+        assertEquals(0xFFFF, FrameCodec.readStreamId(open));
+        assertEquals(Address.localHost(1234), FrameCodec.readStreamTargetAddress(open));
+
+        Frame windowUpdate = FrameCodec.createStreamWindowUpdate(7, 65536);
+        assertEquals(7, FrameCodec.readStreamId(windowUpdate));
+        assertEquals(65536, FrameCodec.readStreamWindowIncrement(windowUpdate));
+
+        assertEquals(300, FrameCodec.readStreamId(FrameCodec.createStreamClose(300)));
+
+        Frame frame = new Frame(FrameType.MESSAGE, (byte) 0x04, new byte[]{1, 2, 3, 4, 5});
+        Frame first = FrameCodec.createStreamData(3, (byte) 2, frame, 0, 3);
+        Frame last = FrameCodec.createStreamData(3, (byte) 2, frame, 3, 2);
+        assertTrue(first.hasFlag(Frame.FLAG_MORE_CHUNKS));
+        assertFalse(last.hasFlag(Frame.FLAG_MORE_CHUNKS));
+        assertEquals(3, FrameCodec.readStreamId(last));
+        assertArrayEquals(new byte[]{0, 3, 2, 0x04, 4, 5}, last.getPayload());
+
+        try {
+            FrameCodec.readStreamId(frame);
+            fail("Expected FrameException");
+        } catch (FrameException ignore) {
+        }
+    }
+}
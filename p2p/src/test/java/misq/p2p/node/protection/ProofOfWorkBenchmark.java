@@ -0,0 +1,75 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.protection;
+
+import com.google.common.base.Strings;
+import misq.common.security.DigestUtil;
+import misq.p2p.MockMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the cost of minting and verifying proof of work tokens for a message of about 1 KB, for tuning the
+ * difficulties of {@link ProofOfWorkConfig} against the expected message rates.
+ * <p>
+ * Minting is measured on a single thread. The cost grows with 2^difficulty and varies a lot between tokens, so the
+ * number of iterations is reduced for higher difficulties. Verifying includes hashing the serialized payload and the
+ * replay cache lookup and does not depend on the difficulty.
+ */
+public class ProofOfWorkBenchmark {
+    private static final int[] DIFFICULTIES = {8, 12, 16, 20};
+    private static final int VERIFY_DIFFICULTY = 8;
+    private static final int VERIFY_ITERATIONS = 20_000;
+
+    public static void main(String[] args) {
+        MockMessage message = new MockMessage(Strings.repeat("x", 1000));
+        byte[] messageHash = DigestUtil.sha256(message.serialize());
+        for (int difficulty : DIFFICULTIES) {
+            // Warmup
+            ProofOfWork.mint(messageHash, difficulty, 0);
+
+            int numIterations = Math.max(20, 20_000 >> (difficulty - 8));
+            long ts = System.nanoTime();
+            for (int i = 0; i < numIterations; i++) {
+                ProofOfWork.mint(messageHash, difficulty, i + 1);
+            }
+            System.out.printf("mint difficulty=%d: %.1f us%n",
+                    difficulty, (System.nanoTime() - ts) / 1000d / numIterations);
+        }
+
+        // The cost of verifying does not depend on the difficulty
+        ProofOfWorkPermissionControl permissionControl = new ProofOfWorkPermissionControl(
+                new ProofOfWorkConfig(Map.of(), VERIFY_DIFFICULTY, Long.MAX_VALUE, 2 * VERIFY_ITERATIONS, 1, 1, 1, 0),
+                () -> 0);
+        List<GuardedMessage> guardedMessages = new ArrayList<>();
+        for (int i = 0; i < 2 * VERIFY_ITERATIONS; i++) {
+            guardedMessages.add(new GuardedMessage(message, ProofOfWork.mint(messageHash, VERIFY_DIFFICULTY, i)));
+        }
+        // Warmup
+        guardedMessages.subList(0, VERIFY_ITERATIONS).forEach(permissionControl::hasPermit);
+
+        long ts = System.nanoTime();
+        long numValid = guardedMessages.subList(VERIFY_ITERATIONS, 2 * VERIFY_ITERATIONS).stream()
+                .filter(permissionControl::hasPermit)
+                .count();
+        System.out.printf("verify: %.2f us (valid=%d)%n", (System.nanoTime() - ts) / 1000d / VERIFY_ITERATIONS, numValid);
+        permissionControl.shutdown();
+    }
+}
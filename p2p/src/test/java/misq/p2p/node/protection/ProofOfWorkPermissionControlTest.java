@@ -0,0 +1,106 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.protection;
+
+import misq.p2p.MockMessage;
+import misq.p2p.message.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ProofOfWorkPermissionControlTest {
+    private static class FreeMessage implements Message {
+    }
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private ProofOfWorkPermissionControl permissionControl;
+
+    @Before
+    public void setup() {
+        // Burst of 2 messages at the base difficulty, afterwards 4 bits more
+        ProofOfWorkConfig config = new ProofOfWorkConfig(Map.of(FreeMessage.class, 0), 8,
+                60_000, 100, 1, 2, 1, 4);
+        permissionControl = new ProofOfWorkPermissionControl(config, now::get);
+    }
+
+    @After
+    public void tearDown() {
+        permissionControl.shutdown();
+    }
+
+    @Test
+    public void testMintedTokenIsValidOnce() throws Exception {
+        MockMessage message = new MockMessage("msg");
+        GuardedMessage guardedMessage = new GuardedMessage(message, mint(message));
+        assertTrue(guardedMessage.getAccessToken() instanceof ProofOfWorkToken);
+        assertTrue(permissionControl.hasPermit(guardedMessage));
+        // Replayed token
+        assertFalse(permissionControl.hasPermit(guardedMessage));
+        // A relayed message keeps the token of its originator, so we drop it without counting it as rejection
+        assertEquals(PermitResult.DUPLICATE, permissionControl.checkPermit(guardedMessage, "connection1"));
+    }
+
+    @Test
+    public void testTokenIsBoundToMessage() throws Exception {
+        AccessToken token = mint(new MockMessage("msg"));
+        assertFalse(permissionControl.hasPermit(new GuardedMessage(new MockMessage("other"), token)));
+    }
+
+    @Test
+    public void testInvalidTokensAreRejected() throws Exception {
+        MockMessage message = new MockMessage("msg");
+        assertFalse(permissionControl.hasPermit(new GuardedMessage(message, new AccessToken())));
+
+        // Too low difficulty
+        ProofOfWorkToken token = (ProofOfWorkToken) mint(message);
+        assertFalse(permissionControl.hasPermit(new GuardedMessage(message,
+                new ProofOfWorkToken(token.getTimestamp(), 4, token.getNonce()))));
+
+        // Outdated
+        now.addAndGet(60_001);
+        assertFalse(permissionControl.hasPermit(new GuardedMessage(message, token)));
+    }
+
+    @Test
+    public void testDifficultyPerMessageClass() throws Exception {
+        assertEquals(0, permissionControl.getMintDifficulty(FreeMessage.class));
+        FreeMessage message = new FreeMessage();
+        GuardedMessage guardedMessage = new GuardedMessage(message, mint(message));
+        assertFalse(guardedMessage.getAccessToken() instanceof ProofOfWorkToken);
+        assertTrue(permissionControl.hasPermit(guardedMessage));
+    }
+
+    @Test
+    public void testDifficultyIncreasesWithSendRate() {
+        assertEquals(8, permissionControl.getMintDifficulty(MockMessage.class));
+        assertEquals(8, permissionControl.getMintDifficulty(MockMessage.class));
+        assertEquals(12, permissionControl.getMintDifficulty(MockMessage.class));
+        now.addAndGet(1000);
+        assertEquals(8, permissionControl.getMintDifficulty(MockMessage.class));
+    }
+
+    private AccessToken mint(Message message) throws Exception {
+        return permissionControl.getPermit(message).get(10, TimeUnit.SECONDS);
+    }
+}
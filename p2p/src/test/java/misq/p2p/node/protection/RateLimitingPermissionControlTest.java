@@ -0,0 +1,120 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.node.protection;
+
+import misq.p2p.MockMessage;
+import misq.p2p.message.Message;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class RateLimitingPermissionControlTest {
+    private static class ExpensiveMessage implements Message {
+    }
+
+    private final AtomicLong now = new AtomicLong(1000);
+    private RateLimitingPermissionControl permissionControl;
+
+    @Before
+    public void setup() {
+        // Connection allows 10 units per sec, ExpensiveMessage 2 per sec, 3 rejections before we disconnect
+        RateLimitConfig config = new RateLimitConfig(Map.of(ExpensiveMessage.class, 5d),
+                1, 10, 10, 10, 10, 3, 0.1);
+        permissionControl = new RateLimitingPermissionControl(new NoRestriction(), config, now::get);
+    }
+
+    @Test
+    public void testBurstAndRefill() {
+        for (int i = 0; i < 10; i++) {
+            assertEquals(PermitResult.GRANTED, check(new MockMessage("msg"), "connection1"));
+        }
+        assertEquals(PermitResult.REJECTED, check(new MockMessage("msg"), "connection1"));
+        // Other connections have their own buckets
+        assertEquals(PermitResult.GRANTED, check(new MockMessage("msg"), "connection2"));
+
+        now.addAndGet(200);
+        assertEquals(PermitResult.GRANTED, check(new MockMessage("msg"), "connection1"));
+        assertEquals(PermitResult.GRANTED, check(new MockMessage("msg"), "connection1"));
+        assertEquals(PermitResult.REJECTED, check(new MockMessage("msg"), "connection1"));
+    }
+
+    @Test
+    public void testCostPerMessageClass() {
+        assertEquals(PermitResult.GRANTED, check(new ExpensiveMessage(), "connection1"));
+        assertEquals(PermitResult.GRANTED, check(new ExpensiveMessage(), "connection1"));
+        assertEquals(PermitResult.REJECTED, check(new ExpensiveMessage(), "connection1"));
+
+        // The bucket of the connection has been used up by the expensive messages
+        assertEquals(PermitResult.REJECTED, check(new MockMessage("msg"), "connection1"));
+        now.addAndGet(500);
+        assertEquals(PermitResult.GRANTED, check(new ExpensiveMessage(), "connection1"));
+    }
+
+    @Test
+    public void testRejectedMessageDoesNotDrainMessageClassBucket() {
+        // Connection refills fast, ExpensiveMessage only 1 unit per sec
+        RateLimitConfig config = new RateLimitConfig(Map.of(ExpensiveMessage.class, 5d),
+                1, 10, 10, 10, 1, 10, 0.1);
+        permissionControl = new RateLimitingPermissionControl(new NoRestriction(), config, now::get);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(PermitResult.GRANTED, check(new MockMessage("msg"), "connection1"));
+        }
+        // Rejected by the bucket of the connection
+        assertEquals(PermitResult.REJECTED, check(new ExpensiveMessage(), "connection1"));
+        assertEquals(PermitResult.REJECTED, check(new ExpensiveMessage(), "connection1"));
+
+        // Bucket of the connection is refilled, the one of ExpensiveMessage has not been consumed
+        now.addAndGet(1000);
+        assertEquals(PermitResult.GRANTED, check(new ExpensiveMessage(), "connection1"));
+        assertEquals(PermitResult.GRANTED, check(new ExpensiveMessage(), "connection1"));
+    }
+
+    @Test
+    public void testFramesOfThrottledConnectionAreRejected() {
+        assertEquals(PermitResult.GRANTED, permissionControl.checkFrame("connection1"));
+        for (int i = 0; i < 10; i++) {
+            check(new MockMessage("msg"), "connection1");
+        }
+        assertEquals(PermitResult.REJECTED, permissionControl.checkFrame("connection1"));
+        now.addAndGet(100);
+        assertEquals(PermitResult.GRANTED, permissionControl.checkFrame("connection1"));
+    }
+
+    @Test
+    public void testPersistentViolationLeadsToDisconnect() {
+        for (int i = 0; i < 10; i++) {
+            check(new MockMessage("msg"), "connection1");
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals(PermitResult.REJECTED, permissionControl.checkFrame("connection1"));
+        }
+        assertEquals(PermitResult.DISCONNECT, permissionControl.checkFrame("connection1"));
+
+        // A new connection of the peer starts with new limits
+        permissionControl.onDisconnect("connection1");
+        assertEquals(PermitResult.GRANTED, check(new MockMessage("msg"), "connection1"));
+    }
+
+    private PermitResult check(Message message, String connectionId) {
+        return permissionControl.checkPermit(new GuardedMessage(message, new AccessToken()), connectionId);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * This file is part of Misq.
+ *
+ * Misq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Misq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Misq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.peers;
+
+import misq.p2p.*;
+import misq.p2p.node.Node;
+import misq.p2p.node.connection.LoopbackMode;
+import misq.p2p.peers.exchange.PeerExchangeConfig;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PeerGroupHealthTest {
+    private final List<Node> nodes = new ArrayList<>();
+    private PeerGroupHealth peerGroupHealth;
+
+    @After
+    public void tearDown() {
+        if (peerGroupHealth != null) {
+            peerGroupHealth.shutdown();
+        }
+        nodes.forEach(Node::shutdown);
+    }
+
+    @Test
+    public void testInboundConnectionsAboveLimitAreRejected() throws Exception {
+        Address serverAddress = Address.localHost(4451);
+        Address seedAddress = Address.localHost(4452);
+        Address aliceAddress = Address.localHost(4453);
+        PeerConfig peerConfig = new PeerConfig(new PeerExchangeConfig(), List.of(seedAddress), 8, 12, 1, 2, 20, 600);
+        Node server = createNode("server", serverAddress, peerConfig);
+        PeerGroup peerGroup = new PeerGroup(server, peerConfig, serverAddress.getPort());
+        peerGroupHealth = new PeerGroupHealth(server, peerGroup, peerConfig);
+
+        Node seed = createNode("seed", seedAddress, peerConfig);
+        Node alice = createNode("alice", aliceAddress, peerConfig);
+        Node bob = createNode("bob", Address.localHost(4454), peerConfig);
+        seed.send(new MockMessage("seed"), serverAddress).get(10, TimeUnit.SECONDS);
+        alice.send(new MockMessage("alice"), serverAddress).get(10, TimeUnit.SECONDS);
+        Config.waitUntil(() -> peerGroup.getConnections().size() == 2);
+
+        // We are at the limit, so the new peer gets rejected before the handshake and the older peers are kept
+        try {
+            bob.send(new MockMessage("bob"), serverAddress).get(10, TimeUnit.SECONDS);
+            fail("Expected the connection to get rejected");
+        } catch (ExecutionException expected) {
+        }
+        assertEquals(2, peerGroup.getConnections().size());
+        assertTrue(peerGroup.getConnectedPeerAddresses().contains(seedAddress));
+        assertTrue(peerGroup.getConnectedPeerAddresses().contains(aliceAddress));
+    }
+
+    @Test
+    public void testIdleConnectionsGetClosed() throws Exception {
+        Address serverAddress = Address.localHost(4455);
+        Address aliceAddress = Address.localHost(4456);
+        PeerConfig peerConfig = new PeerConfig(new PeerExchangeConfig(), List.of(), 8, 12, 1, 50, 20, 1);
+        Node server = createNode("server", serverAddress, peerConfig);
+        PeerGroup peerGroup = new PeerGroup(server, peerConfig, serverAddress.getPort());
+        peerGroupHealth = new PeerGroupHealth(server, peerGroup, peerConfig);
+        peerGroup.addProtectedPeer(aliceAddress);
+
+        Node alice = createNode("alice", aliceAddress, peerConfig);
+        Node bob = createNode("bob", Address.localHost(4457), peerConfig);
+        alice.send(new MockMessage("alice"), serverAddress).get(10, TimeUnit.SECONDS);
+        bob.send(new MockMessage("bob"), serverAddress).get(10, TimeUnit.SECONDS);
+        assertEquals(2, peerGroup.getConnections().size());
+
+        // Connection to alice is protected
+        Config.waitUntil(() -> peerGroup.getConnections().size() == 1);
+        assertTrue(peerGroup.getConnectedPeerAddresses().contains(aliceAddress));
+    }
+
+    @Test
+    public void testProtectionIsReferenceCounted() throws Exception {
+        Address serverAddress = Address.localHost(4458);
+        Address aliceAddress = Address.localHost(4459);
+        PeerConfig peerConfig = new PeerConfig(new PeerExchangeConfig(), List.of(), 8, 12, 1, 50, 20, 600);
+        Node server = createNode("server", serverAddress, peerConfig);
+        PeerGroup peerGroup = new PeerGroup(server, peerConfig, serverAddress.getPort());
+
+        // E.g. 2 trades with the same peer
+        peerGroup.addProtectedPeer(aliceAddress);
+        peerGroup.addProtectedPeer(aliceAddress);
+        peerGroup.removeProtectedPeer(aliceAddress);
+        assertTrue(peerGroup.isProtected(aliceAddress));
+
+        peerGroup.removeProtectedPeer(aliceAddress);
+        assertFalse(peerGroup.isProtected(aliceAddress));
+
+        // Removing an unprotected peer has no effect on later protections
+        peerGroup.removeProtectedPeer(aliceAddress);
+        peerGroup.addProtectedPeer(aliceAddress);
+        assertTrue(peerGroup.isProtected(aliceAddress));
+    }
+
+    private Node createNode(String id, Address address, PeerConfig peerConfig) throws Exception {
+        Node node = Config.createNode(id, address.getPort(), peerConfig, false, LoopbackMode.DISABLED);
+        nodes.add(node);
+        return node;
+    }
+}
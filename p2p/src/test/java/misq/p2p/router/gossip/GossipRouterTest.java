@@ -0,0 +1,158 @@
+/*
+ * This file is part of Bisq.
+ *
+ * Bisq is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bisq is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bisq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package misq.p2p.router.gossip;
+
+import com.google.common.collect.Sets;
+import misq.common.util.OsUtils;
+import misq.p2p.*;
+import misq.p2p.message.Message;
+import misq.p2p.node.Node;
+import misq.p2p.node.RawNode;
+import misq.p2p.node.protection.AccessToken;
+import misq.p2p.node.protection.NoRestriction;
+import misq.p2p.node.protection.PermissionControl;
+import misq.p2p.node.protection.ProofOfWorkConfig;
+import misq.p2p.node.protection.ProofOfWorkPermissionControl;
+import misq.p2p.peers.PeerConfig;
+import misq.p2p.peers.PeerGroup;
+import misq.p2p.peers.exchange.PeerExchangeConfig;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+public class GossipRouterTest {
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<GossipRouter> gossipRouters = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        gossipRouters.forEach(GossipRouter::shutdown);
+        nodes.forEach(Node::shutdown);
+    }
+
+    @Test
+    public void testMessageIsRelayedOnce() throws Exception {
+        Address bobAddress = Address.localHost(4492);
+        BlockingQueue<Message> receivedByAlice = new LinkedBlockingQueue<>();
+        BlockingQueue<Message> receivedByBob = new LinkedBlockingQueue<>();
+        BlockingQueue<Message> receivedByCarol = new LinkedBlockingQueue<>();
+        GossipRouter alice = createGossipRouter("alice", Address.localHost(4491), receivedByAlice);
+        GossipRouter bob = createGossipRouter("bob", bobAddress, receivedByBob);
+        GossipRouter carol = createGossipRouter("carol", Address.localHost(4493), receivedByCarol);
+        // Alice and carol are only connected to bob
+        nodes.get(0).send(new MockMessage("connect"), bobAddress).get(10, TimeUnit.SECONDS);
+        nodes.get(2).send(new MockMessage("connect"), bobAddress).get(10, TimeUnit.SECONDS);
+
+        GossipResult gossipResult = alice.broadcast(new MockMessage("gossip")).get(10, TimeUnit.SECONDS);
+        assertEquals(1, gossipResult.getNumSuccess());
+        assertEquals(new MockMessage("gossip"), receivedByBob.poll(10, TimeUnit.SECONDS));
+        assertEquals(new MockMessage("gossip"), receivedByCarol.poll(10, TimeUnit.SECONDS));
+
+        // A copy broadcast again by carol is a duplicate for bob and does not get relayed back to alice
+        carol.broadcast(new MockMessage("gossip")).get(10, TimeUnit.SECONDS);
+        bob.broadcast(new MockMessage("gossip2")).get(10, TimeUnit.SECONDS);
+        assertEquals(new MockMessage("gossip2"), receivedByAlice.poll(10, TimeUnit.SECONDS));
+        assertEquals(new MockMessage("gossip2"), receivedByCarol.poll(10, TimeUnit.SECONDS));
+        assertTrue(receivedByAlice.isEmpty());
+        assertTrue(receivedByBob.isEmpty());
+    }
+
+    @Test
+    public void testInvalidMessageIsNotRelayed() throws Exception {
+        Address bobAddress = Address.localHost(4495);
+        BlockingQueue<Message> receivedByBob = new LinkedBlockingQueue<>();
+        BlockingQueue<Message> receivedByCarol = new LinkedBlockingQueue<>();
+        GossipRouter alice = createGossipRouter("alice", Address.localHost(4494), new LinkedBlockingQueue<>());
+        // Bob does not accept messages with the text "invalid"
+        createGossipRouter("bob", bobAddress, receivedByBob, message -> !message.equals(new MockMessage("invalid")),
+                new NoRestriction());
+        createGossipRouter("carol", Address.localHost(4496), receivedByCarol);
+        nodes.get(0).send(new MockMessage("connect"), bobAddress).get(10, TimeUnit.SECONDS);
+        nodes.get(2).send(new MockMessage("connect"), bobAddress).get(10, TimeUnit.SECONDS);
+
+        alice.broadcast(new MockMessage("invalid")).get(10, TimeUnit.SECONDS);
+        alice.broadcast(new MockMessage("valid")).get(10, TimeUnit.SECONDS);
+        assertEquals(new MockMessage("valid"), receivedByBob.poll(10, TimeUnit.SECONDS));
+        assertEquals(new MockMessage("valid"), receivedByCarol.poll(10, TimeUnit.SECONDS));
+        // Messages are relayed in the order they have been received, so carol would have got the invalid one first
+        assertTrue(receivedByBob.isEmpty());
+        assertTrue(receivedByCarol.isEmpty());
+    }
+
+    @Test
+    public void testRelayedMessageKeepsProofOfWorkOfOriginator() throws Exception {
+        Address bobAddress = Address.localHost(4498);
+        ProofOfWorkConfig config = new ProofOfWorkConfig(Map.of(GossipMessage.class, 8), 0);
+        AtomicInteger numMintedByBob = new AtomicInteger();
+        PermissionControl bobPermissionControl = new ProofOfWorkPermissionControl(config) {
+            @Override
+            public CompletableFuture<AccessToken> getPermit(Message message) {
+                if (message instanceof GossipMessage) {
+                    numMintedByBob.incrementAndGet();
+                }
+                return super.getPermit(message);
+            }
+        };
+        BlockingQueue<Message> receivedByCarol = new LinkedBlockingQueue<>();
+        GossipRouter alice = createGossipRouter("alice", Address.localHost(4497), new LinkedBlockingQueue<>(),
+                message -> true, new ProofOfWorkPermissionControl(config));
+        createGossipRouter("bob", bobAddress, new LinkedBlockingQueue<>(), message -> true, bobPermissionControl);
+        createGossipRouter("carol", Address.localHost(4499), receivedByCarol, message -> true,
+                new ProofOfWorkPermissionControl(config));
+        nodes.get(0).send(new MockMessage("connect"), bobAddress).get(10, TimeUnit.SECONDS);
+        nodes.get(2).send(new MockMessage("connect"), bobAddress).get(10, TimeUnit.SECONDS);
+
+        alice.broadcast(new MockMessage("gossip")).get(10, TimeUnit.SECONDS);
+        // Carol requires a proof of work, bob relays the one of alice
+        assertEquals(new MockMessage("gossip"), receivedByCarol.poll(10, TimeUnit.SECONDS));
+        assertEquals(0, numMintedByBob.get());
+    }
+
+    private GossipRouter createGossipRouter(String id, Address address, BlockingQueue<Message> received) throws Exception {
+        return createGossipRouter(id, address, received, message -> true, new NoRestriction());
+    }
+
+    private GossipRouter createGossipRouter(String id,
+                                            Address address,
+                                            BlockingQueue<Message> received,
+                                            Predicate<Message> messageValidator,
+                                            PermissionControl permissionControl) throws Exception {
+        String baseDirName = OsUtils.getUserDataDir().getAbsolutePath() + "/misq_test_" + id;
+        NodeId nodeId = new NodeId(id, address.getPort(), Sets.newHashSet(NetworkType.CLEAR));
+        PeerConfig peerConfig = new PeerConfig(new PeerExchangeConfig(), List.of());
+        Node node = new Node(new NetworkConfig(baseDirName, nodeId, NetworkType.CLEAR, peerConfig), permissionControl);
+        node.initializeServer(RawNode.DEFAULT_SERVER_ID, address.getPort()).get(10, TimeUnit.SECONDS);
+        nodes.add(node);
+        GossipRouter gossipRouter = new GossipRouter(node, new PeerGroup(node, peerConfig, address.getPort()),
+                messageValidator);
+        gossipRouter.addMessageListener((message, connection) -> received.add(message));
+        gossipRouters.add(gossipRouter);
+        return gossipRouter;
+    }
+}